@@ -1,72 +1,444 @@
 package consumer;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 import org.springframework.boot.CommandLineRunner;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.core.env.Environment;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Component;
 
+import consumer.export.SnapshotFormat;
+import consumer.model.ThreadStats;
 import consumer.repository.CommentRepository;
 import consumer.repository.IdAndTitle;
+import consumer.search.SearchHit;
+import consumer.service.Client;
+import consumer.service.Leaderboard;
+import consumer.service.LeaderboardService;
+import consumer.service.StoryDeltaService;
 import consumer.service.StoryService;
+import consumer.service.TitleIndex;
+import consumer.service.TitleIndexService;
 
 @Component
 public class AppRunner implements CommandLineRunner {
 
+    private static final Pattern INTEGER_PATTERN = Pattern.compile("\\d+");
+
     private final NetRunner netRunner;
+    private final ReactiveNetRunner reactiveNetRunner;
+    // background `consume` jobs
+    private final ConsumeJobs consumeJobs;
+    private final BulkImporter bulkImporter;
+    private final BulkExporter bulkExporter;
     private final StoryService storyService;
+    private final Client client;
+    private final Environment env;
+    // optional leaderboards of stories
+    private final LeaderboardService leaderboardService;
+    // optional retrieval of the changes of stories
+    private final StoryDeltaService storyDeltaService;
+    // optional index of stories by the prefixes of their titles
+    private final TitleIndexService titleIndexService;
 
-    public AppRunner(NetRunner netRunner, StoryService storyService, CommentRepository commentRepository) {
+    // The runners and the services are injected as lazy proxies, so that with lazy initialization (see the `fast`
+    // profile) only those used by the commands being run are created, e.g. `list` does not create the RabbitMQ or the
+    // reactive MongoDB clients. (Without it, all of them are created on startup anyway.)
+    public AppRunner(@Lazy NetRunner netRunner, @Lazy ReactiveNetRunner reactiveNetRunner,
+                     @Lazy ConsumeJobs consumeJobs, @Lazy BulkImporter bulkImporter,
+                     @Lazy BulkExporter bulkExporter, @Lazy StoryService storyService,
+                     @Lazy CommentRepository commentRepository, @Lazy Client client, Environment env,
+                     @Nullable LeaderboardService leaderboardService, @Nullable StoryDeltaService storyDeltaService,
+                     @Nullable TitleIndexService titleIndexService) {
         this.netRunner = netRunner;
+        this.reactiveNetRunner = reactiveNetRunner;
+        this.consumeJobs = consumeJobs;
+        this.bulkImporter = bulkImporter;
+        this.bulkExporter = bulkExporter;
         this.storyService = storyService;
+        this.client = client;
+        this.env = env;
+        this.leaderboardService = leaderboardService;
+        this.storyDeltaService = storyDeltaService;
+        this.titleIndexService = titleIndexService;
     }
 
     @Override
     public void run(String... args) throws Exception {
+        // the arguments other than the options (e.g. `list 123`) are run as a single command, without the prompt, and
+        // the application exits once the command (including the `consume` job it starts, if any) is done
+        // the scanner is created once, as it reads ahead of the line it returns (e.g. the commands piped to stdin), so
+        // the commands of `batch -` are read with it as well
+        Scanner scanner = new Scanner(System.in);
+        String[] command = Arrays.stream(args).filter(arg -> !arg.startsWith("--")).toArray(String[]::new);
+        if (command.length > 0) {
+            execute(String.join(" ", command), System.out, scanner);
+            consumeJobs.awaitAll();
+            return;
+        }
         while (true) {
             System.out.print("Type your command > ");
-            Scanner scanner = new Scanner(System.in);
-            String input = scanner.nextLine().trim();
-
-            // Available commands are:
-            // - consume -- consumes data from endpoint and stores it into local DB;
-            // - list -- shows all Story entities stored in the DB after `consume`;
-            // - list id -- shows an entity with its parents and kids identified
-            //              by id param (with id being integer value);
-            // - exit/quit -- exit from the application.
-
-            if (input.equalsIgnoreCase("consume")) {
-                netRunner.run();
-            } else if (input.equalsIgnoreCase("list")) {
-                List<IdAndTitle> idAndTitles = storyService.findAllStoryIdAndTitlePairs();
-                if (idAndTitles.isEmpty()) {
-                    System.out.println("There are no entries to show.");
+            if (!scanner.hasNextLine() || !execute(scanner.nextLine().trim(), System.out, scanner)) {
+                break;
+            }
+        }
+    }
+
+    // Run the command, writing its output to `out`; the commands of `batch -` are read from `stdin`, which is null
+    // within a batch. Returns false in case when the application is to exit
+    private boolean execute(String input, PrintStream out, @Nullable Scanner stdin) throws Exception {
+        // Available commands are:
+        // - consume -- consumes data from endpoint and stores it into local DB; with the blocking pipeline the
+        //             data is consumed by a background job, so the other commands can be run meanwhile;
+        // - consume from count -- the same for `count` entities starting from the id `from`;
+        // - jobs -- shows the progress of the `consume` jobs;
+        // - pause id/resume id/cancel id -- pauses, resumes or cancels the job identified by id param;
+        // - list -- shows all Story entities stored in the DB after `consume`;
+        // - list id -- shows an entity with its parents and kids identified
+        //              by id param (with id being integer value);
+        // - list id1 id2 ... -- the same for each of the ids, with the entities fetched at once;
+        // - list title:prefix -- shows the stories with titles starting with the prefix, highest score first;
+        // - list id since token -- shows the comments of the story identified by id param, which are added or
+        //                          changed since the token (returned by the previous call, 0 initially);
+        // - crawl -- consumes the top stories with all of their comments, story by story;
+        // - crawl id -- consumes the story identified by id param with all of its comments;
+        // - import path -- stores the items of the (optionally gzip-compressed) newline-delimited json dump into
+        //                  local DB, resuming the previous import of the dump, if any;
+        // - export dir [format] -- writes the stories and the comments to the dir, as gzip-compressed
+        //                          newline-delimited json (`ndjson`, by default) or in the `columnar` format;
+        // - batch path -- runs the commands of the file (or of stdin, with `-`), a line per command, several at a
+        //                 time, and shows their output in the order of the commands;
+        // - search text -- shows the stories and comments most relevant to the text;
+        // - stats id -- shows statistics of the comments of the story identified by id param;
+        // - stats active [n] -- shows statistics of n (10 by default) most recently active stories;
+        // - top name [n] -- shows top n (10 by default) stories of the leaderboard identified by name param;
+        // - exit/quit -- exit from the application.
+
+        if (input.equalsIgnoreCase("consume")) {
+            // the pipeline is either `blocking` (NetRunner, via RabbitMQ) or `reactive` (ReactiveNetRunner)
+            String pipeline = env.getProperty("consumer.netrunner.pipeline", "blocking");
+            if (pipeline.equalsIgnoreCase("reactive")) {
+                reactiveNetRunner.run();
+            } else {
+                long startID = Long.parseLong(env.getProperty("consumer.netrunner.startID", "0"));
+                long count = Long.parseLong(env.getProperty("consumer.netrunner.retrieveCount", "1000"));
+                ConsumeJobs.Job job = consumeJobs.start(startID, count);
+                out.printf("Started job %d; type `jobs` to see its progress\n", job.getId());
+            }
+        } else if (input.equalsIgnoreCase("jobs")) {
+            List<ConsumeJobs.Job> jobs = consumeJobs.getJobs();
+            if (jobs.isEmpty()) {
+                out.println("There are no jobs to show.");
+            }
+            for (ConsumeJobs.Job job : jobs) {
+                out.println(format(job));
+            }
+        } else if (input.equalsIgnoreCase("crawl")) {
+            netRunner.crawl(client.getTopStoryIds());
+        } else if (input.equalsIgnoreCase("list")) {
+            List<IdAndTitle> idAndTitles = storyService.findAllStoryIdAndTitlePairs();
+            if (idAndTitles.isEmpty()) {
+                out.println("There are no entries to show.");
+            } else {
+                // output Story entries, along with statistics of their comments (if available)
+                Map<Long, ThreadStats> stats = storyService.getThreadStats(idAndTitles.stream()
+                        .map(IdAndTitle::getExternalId)
+                        .collect(Collectors.toList()));
+                out.printf("Showing %d entries:\n", idAndTitles.size());
+                for (IdAndTitle entry : idAndTitles) {
+                    ThreadStats entryStats = stats.get(entry.getExternalId());
+                    out.println(entry.getExternalId() + " " + entry.getTitle()
+                            + (entryStats != null ? " " + format(entryStats) : ""));
+                }
+            }
+        } else if (input.toLowerCase().startsWith("list title:")) {
+            if (titleIndexService == null) {
+                out.println("Title index is not enabled.");
+            } else {
+                List<TitleIndex.Entry> entries = titleIndexService.find(input.substring("list title:".length()), 20);
+                if (entries.isEmpty()) {
+                    out.println("There are no entries to show.");
                 } else {
-                    // output Story entries
-                    System.out.printf("Showing %d entries:\n", idAndTitles.size());
-                    for (IdAndTitle entry : idAndTitles) {
-                        System.out.println(entry.getExternalId() + " " + entry.getTitle());
+                    for (TitleIndex.Entry entry : entries) {
+                        out.println(entry.getExternalId() + " " + entry.getTitle() + " (" + entry.getScore() + ")");
                     }
                 }
-            } else if (input.equalsIgnoreCase("exit") || input.equalsIgnoreCase("quit")) {
-                netRunner.clearQueues();
-                break;
+            }
+        } else if (input.toLowerCase().startsWith("import ")) {
+            Path file = Paths.get(input.substring("import ".length()).trim());
+            try {
+                BulkImporter.Result result = bulkImporter.importFile(file);
+                out.printf("Imported %d lines: %d stories, %d comments, %d skipped, in %d ms\n",
+                        result.getLines(), result.getStories(), result.getComments(), result.getSkipped(),
+                        result.getMillis());
+                if (result.getFailure() != null) {
+                    out.printf("Import failed: %s; import the dump again to resume\n",
+                            result.getFailure().getMessage());
+                }
+            } catch (IOException e) {
+                out.printf("Unable to read dump: %s\n", e.getMessage());
+            }
+        } else if (input.toLowerCase().startsWith("batch ")) {
+            String path = input.substring("batch ".length()).trim();
+            if (path.equals("-") && stdin != null) {
+                runBatch(lines(stdin), out);
+            } else if (path.equals("-")) {
+                out.println("Batches can not be nested.");
+            } else {
+                try (BufferedReader reader = Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8)) {
+                    runBatch(reader.lines().iterator(), out);
+                } catch (IOException | UncheckedIOException e) {
+                    out.printf("Unable to read commands: %s\n", e.getMessage());
+                }
+            }
+        } else if (input.toLowerCase().startsWith("search ")) {
+            List<SearchHit> hits = storyService.search(input.substring("search ".length()), 20);
+            if (hits == null) {
+                out.println("Search is not enabled.");
+            } else if (hits.isEmpty()) {
+                out.println("There are no entries to show.");
             } else {
-                String[] command = input.split("\\s+");
-                Pattern integerPattern = Pattern.compile("\\d+");
-                if (command.length == 2 && command[0].equalsIgnoreCase("list") && integerPattern.matcher(command[1]).matches()) {
-                    long id = Long.parseLong(command[1]);
-                    String jsonEntity = storyService.getStoryJsonWithRelatedData(id);
-                    if (jsonEntity == null) {
-                        System.out.printf("Unable to find entity with id: %d\n", id);
+                for (SearchHit hit : hits) {
+                    out.printf("%d %s (%.3f)\n", hit.getExternalId(), hit.getType().name().toLowerCase(),
+                            hit.getScore());
+                }
+            }
+        } else if (input.equalsIgnoreCase("exit") || input.equalsIgnoreCase("quit")) {
+            netRunner.clearQueues();
+            return false;
+        } else {
+            String[] command = input.split("\\s+");
+            if (command.length == 3 && command[0].equalsIgnoreCase("consume") && allMatch(INTEGER_PATTERN, command, 1)) {
+                ConsumeJobs.Job job = consumeJobs.start(Long.parseLong(command[1]), Long.parseLong(command[2]));
+                out.printf("Started job %d; type `jobs` to see its progress\n", job.getId());
+            } else if (command.length == 2 && (command[0].equalsIgnoreCase("pause") || command[0].equalsIgnoreCase("resume")
+                    || command[0].equalsIgnoreCase("cancel")) && INTEGER_PATTERN.matcher(command[1]).matches()) {
+                ConsumeJobs.Job job = consumeJobs.getJob(Integer.parseInt(command[1]));
+                if (job == null) {
+                    out.printf("Unable to find job with id: %s\n", command[1]);
+                } else {
+                    String action = command[0].toLowerCase();
+                    boolean changed = action.equals("pause") ? job.pause()
+                            : action.equals("resume") ? job.resume() : job.cancel();
+                    out.println(changed ? format(job)
+                            : String.format("Unable to %s job %d, which is %s", action, job.getId(),
+                            job.getState().name().toLowerCase()));
+                }
+            } else if (command.length == 2 && command[0].equalsIgnoreCase("crawl") && INTEGER_PATTERN.matcher(command[1]).matches()) {
+                netRunner.crawl(Collections.singletonList(Long.parseLong(command[1])));
+            } else if (command.length == 2 && command[0].equalsIgnoreCase("list") && INTEGER_PATTERN.matcher(command[1]).matches()) {
+                long id = Long.parseLong(command[1]);
+                String jsonEntity = storyService.getStoryJsonWithRelatedData(id);
+                if (jsonEntity == null) {
+                    out.printf("Unable to find entity with id: %d\n", id);
+                } else {
+                    out.println(jsonEntity);
+                }
+            } else if (command.length > 2 && command[0].equalsIgnoreCase("list") && allMatch(INTEGER_PATTERN, command, 1)) {
+                List<Long> ids = new ArrayList<>(command.length - 1);
+                for (int i = 1; i < command.length; i++) {
+                    ids.add(Long.parseLong(command[i]));
+                }
+                for (Map.Entry<Long, String> entry : storyService.getStoriesJsonWithRelatedData(ids).entrySet()) {
+                    if (entry.getValue() == null) {
+                        out.printf("Unable to find entity with id: %d\n", entry.getKey());
+                    } else {
+                        out.println(entry.getValue());
+                    }
+                }
+            } else if (command.length == 4 && command[0].equalsIgnoreCase("list") && INTEGER_PATTERN.matcher(command[1]).matches()
+                    && command[2].equalsIgnoreCase("since") && INTEGER_PATTERN.matcher(command[3]).matches()) {
+                if (storyDeltaService == null) {
+                    out.println("Retrieval of changes is not enabled.");
+                } else {
+                    out.println(storyDeltaService.getStoryDeltaJson(Long.parseLong(command[1]),
+                            Long.parseLong(command[3])));
+                }
+            } else if ((command.length == 2 || command.length == 3) && command[0].equalsIgnoreCase("export")
+                    && (command.length == 2 || command[2].equalsIgnoreCase("ndjson")
+                    || command[2].equalsIgnoreCase("columnar"))) {
+                SnapshotFormat format = command.length == 3 ? SnapshotFormat.valueOf(command[2].toUpperCase())
+                        : SnapshotFormat.NDJSON;
+                try {
+                    BulkExporter.Result result = bulkExporter.export(Paths.get(command[1]), format);
+                    out.printf("Exported %d stories and %d comments in %d ms\n", result.getStories(),
+                            result.getComments(), result.getMillis());
+                    if (result.getFailure() != null) {
+                        out.printf("Export failed: %s\n", result.getFailure().getMessage());
+                    }
+                } catch (IOException e) {
+                    out.printf("Unable to create directory: %s\n", e.getMessage());
+                }
+            } else if ((command.length == 2 || command.length == 3) && command[0].equalsIgnoreCase("stats")
+                    && command[1].equalsIgnoreCase("active")
+                    && (command.length == 2 || INTEGER_PATTERN.matcher(command[2]).matches())) {
+                int n = command.length == 3 ? Integer.parseInt(command[2]) : 10;
+                List<ThreadStats> active = storyService.getMostActiveThreads(n);
+                if (active == null) {
+                    out.println("Statistics are not enabled.");
+                } else {
+                    for (ThreadStats stats : active) {
+                        out.println(stats.getStoryExternalId() + " " + format(stats));
+                    }
+                }
+            } else if (command.length == 2 && command[0].equalsIgnoreCase("stats") && INTEGER_PATTERN.matcher(command[1]).matches()) {
+                long id = Long.parseLong(command[1]);
+                ThreadStats stats = storyService.getThreadStats(id);
+                if (stats == null) {
+                    out.printf("There are no statistics for story with id: %d\n", id);
+                } else {
+                    out.println(format(stats));
+                }
+            } else if ((command.length == 2 || command.length == 3) && command[0].equalsIgnoreCase("top")
+                    && (command.length == 2 || INTEGER_PATTERN.matcher(command[2]).matches())) {
+                int n = command.length == 3 ? Integer.parseInt(command[2]) : 10;
+                if (leaderboardService == null) {
+                    out.println("Leaderboards are not enabled.");
+                } else {
+                    List<Leaderboard.Entry> top = leaderboardService.top(command[1].toLowerCase(), n);
+                    if (top == null) {
+                        out.println("Available leaderboards: " + String.join(", ", leaderboardService.getNames()));
                     } else {
-                        System.out.println(jsonEntity);
+                        for (Leaderboard.Entry entry : top) {
+                            out.println(entry.getExternalId() + " " + entry.getTitle() + " (" + entry.getValue() + ")");
+                        }
                     }
+                }
+            } else {
+                out.println("Available commands: `consume`, `consume FROM COUNT`, `jobs`, `pause ID`, `resume ID`, `cancel ID`, `crawl`, `crawl ID`, `import PATH`, `export DIR [ndjson|columnar]`, `list`, `list ID [ID ...]`, `list ID since TOKEN`, `list title:PREFIX`, `batch PATH`, `search TEXT`, `stats ID`, `stats active [N]`, `top NAME [N]`, `exit`");
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Run the commands of the lines, a line per command, on {@code consumer.batch.parallelism} threads, and
+     * write their output to {@code out} in the order of the commands, as soon as the output of the preceding commands
+     * is written. The blank lines and the lines starting with {@code #} are skipped, and `exit` ends the batch.
+     */
+    void runBatch(Iterator<String> lines, PrintStream out) throws IOException, InterruptedException {
+        // the actual parameter values are not validated for brevity
+        int parallelism = Integer.parseInt(env.getProperty("consumer.batch.parallelism", "8"));
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, new CustomizableThreadFactory("Batch-"));
+        // output of the commands which are not written yet, in the order of the commands; up to twice as many commands
+        // as there are threads are run ahead of the one written next, so the threads are kept busy while it is slow,
+        // and the memory the outputs take is bounded
+        Deque<Future<byte[]>> outputs = new ArrayDeque<>();
+        try {
+            while (lines.hasNext()) {
+                String input = lines.next().trim();
+                if (input.isEmpty() || input.startsWith("#")) {
+                    continue;
+                }
+                if (input.equalsIgnoreCase("exit") || input.equalsIgnoreCase("quit")) {
+                    break;
+                }
+                if (outputs.size() == 2 * parallelism) {
+                    write(outputs.poll(), out);
+                }
+                if (input.toLowerCase().startsWith("batch ")) {
+                    byte[] output = "Batches can not be nested.\n".getBytes(StandardCharsets.UTF_8);
+                    outputs.add(CompletableFuture.completedFuture(output));
                 } else {
-                    System.out.println("Available commands: `consume`, `list`, `list ID`, `exit`");
+                    outputs.add(executor.submit(() -> executeBuffered(input)));
                 }
             }
+            while (!outputs.isEmpty()) {
+                write(outputs.poll(), out);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // Run the command of a batch, returning its output
+    private byte[] executeBuffered(String input) throws UnsupportedEncodingException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(buffer, false, StandardCharsets.UTF_8.name());
+        try {
+            execute(input, out, null);
+        } catch (Exception e) {
+            // the rest of the batch is run anyway
+            out.printf("Command `%s` failed: %s\n", input, e);
+        }
+        out.flush();
+        return buffer.toByteArray();
+    }
+
+    // The lines read with the scanner, up to the end of the input
+    private static Iterator<String> lines(Scanner scanner) {
+        return new Iterator<String>() {
+            @Override
+            public boolean hasNext() {
+                return scanner.hasNextLine();
+            }
+
+            @Override
+            public String next() {
+                return scanner.nextLine();
+            }
+        };
+    }
+
+    private static void write(Future<byte[]> output, PrintStream out) throws IOException, InterruptedException {
+        try {
+            out.write(output.get());
+            out.flush();
+        } catch (ExecutionException e) {
+            // is not expected, as the failures of the commands are written to their output
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static boolean allMatch(Pattern pattern, String[] values, int from) {
+        for (int i = from; i < values.length; i++) {
+            if (!pattern.matcher(values[i]).matches()) {
+                return false;
+            }
         }
+        return true;
+    }
+
+    private static String format(ConsumeJobs.Job job) {
+        long eta = job.getEtaMillis();
+        return String.format("%d %s [%d..%d) %.1f%%, %.1f/s, eta: %s, retrieved: %d, missing: %d, skipped: %d, "
+                        + "errors: %d%s",
+                job.getId(), job.getState().name().toLowerCase(), job.getStartId(), job.getStartId() + job.getCount(),
+                job.getCount() > 0 ? job.getProcessed() * 100.0 / job.getCount() : 100.0, job.getRate(),
+                job.getState() == ConsumeJobs.Job.State.RUNNING && eta >= 0 ? eta / 1000 + " s" : "-",
+                job.getRetrieved(), job.getMissing(), job.getSkipped(), job.getErrors(),
+                job.getLastError() != null ? ", last error: " + job.getLastError() : "");
+    }
+
+    private static String format(ThreadStats stats) {
+        return String.format("[comments: %d, max depth: %d, participants: %d, last activity: %s]",
+                stats.getCommentCount(), stats.getMaxDepth(), stats.getParticipantCount(), stats.getLastActivity());
     }
 }
@@ -0,0 +1,204 @@
+package consumer;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import consumer.export.SnapshotFormat;
+import consumer.export.SnapshotWriter;
+import consumer.model.Comment;
+import consumer.model.Story;
+import consumer.repository.TimePartitions;
+
+// Runner responsible for `export DIR [FORMAT]` command, which writes a snapshot of the stories and the comments to the
+// directory, as gzip-compressed newline-delimited json (the same as the dumps `import` reads) or in a columnar format
+// (see ColumnarSnapshotWriter). Each collection (and each of its partitions, if any) is split into `parallelism` ranges
+// of externalIds, which are streamed with cursors (in the order of externalIds) and written to a file per range by
+// `parallelism` threads; as the entities are written as they are read, the memory the export takes does not depend on
+// the size of the data.
+@Component
+public class BulkExporter {
+
+    private static final Logger logger = LoggerFactory.getLogger(BulkExporter.class);
+
+    private final MongoTemplate mongoTemplate;
+    private final int parallelism;
+    private final int rowGroupSize;
+
+    @Autowired
+    public BulkExporter(MongoTemplate mongoTemplate, Environment env) {
+        // the actual parameter values are not validated for brevity
+        this(mongoTemplate, Integer.parseInt(env.getProperty("consumer.export.parallelism", "4")),
+                Integer.parseInt(env.getProperty("consumer.export.rowGroupSize", "65536")));
+    }
+
+    BulkExporter(MongoTemplate mongoTemplate, int parallelism, int rowGroupSize) {
+        this.mongoTemplate = mongoTemplate;
+        this.parallelism = parallelism;
+        this.rowGroupSize = rowGroupSize;
+    }
+
+    /**
+     * Write the snapshot of the stories and the comments to the directory, a file per range of externalIds of each
+     * collection, e.g. {@code comment-00002.ndjson.gz}.
+     * @return the outcome of the export
+     * @throws IOException in case when the directory can not be created
+     */
+    public Result export(Path dir, SnapshotFormat format) throws IOException {
+        Files.createDirectories(dir);
+        long start = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, new CustomizableThreadFactory("Export-"));
+        long stories = 0;
+        long comments = 0;
+        Exception failure = null;
+        try {
+            List<Callable<Long>> storyTasks = tasks(Story.class, dir, format);
+            List<Callable<Long>> commentTasks = tasks(Comment.class, dir, format);
+            List<Future<Long>> storyFutures = new ArrayList<>();
+            for (Callable<Long> task : storyTasks) {
+                storyFutures.add(executor.submit(task));
+            }
+            List<Future<Long>> commentFutures = new ArrayList<>();
+            for (Callable<Long> task : commentTasks) {
+                commentFutures.add(executor.submit(task));
+            }
+            for (Future<Long> future : storyFutures) {
+                stories += future.get();
+            }
+            for (Future<Long> future : commentFutures) {
+                comments += future.get();
+            }
+        } catch (ExecutionException e) {
+            failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            logger.warn("Unable to export to {}", dir, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure = e;
+        } catch (RuntimeException e) {
+            failure = e;
+            logger.warn("Unable to export to {}", dir, e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Result result = new Result(stories, comments, System.currentTimeMillis() - start, failure);
+        logger.info("Exported {} stories and {} comments in {} ms", stories, comments, result.getMillis());
+        return result;
+    }
+
+    // Split each collection of the type into ranges of externalIds, and create a task per range
+    private List<Callable<Long>> tasks(Class<?> type, Path dir, SnapshotFormat format) {
+        List<Callable<Long>> tasks = new ArrayList<>();
+        for (String collection : TimePartitions.collectionNames(mongoTemplate, type)) {
+            Long min = boundary(collection, Sort.Direction.ASC);
+            Long max = boundary(collection, Sort.Direction.DESC);
+            if (min == null || max == null) {
+                continue;
+            }
+            long width = (max - min) / parallelism + 1;
+            for (int part = 0; part < parallelism && min + part * width <= max; part++) {
+                long from = min + part * width;
+                long to = Math.min(from + width, max + 1);
+                Path file = dir.resolve(String.format("%s-%05d%s", collection, part, format.getExtension()));
+                tasks.add(() -> exportRange(type, collection, from, to, file, format));
+            }
+        }
+        return tasks;
+    }
+
+    // The lowest or the highest externalId of the collection, or null in case when it is empty
+    @Nullable
+    private Long boundary(String collection, Sort.Direction direction) {
+        Query query = new Query().with(Sort.by(direction, "externalId")).limit(1);
+        query.fields().include("externalId").exclude("_id");
+        Document document = mongoTemplate.findOne(query, Document.class, collection);
+        return document != null && document.get("externalId") instanceof Number
+                ? ((Number) document.get("externalId")).longValue() : null;
+    }
+
+    // Write the entities of the range [from, to) of the collection to the file; the file is only created in case when
+    // there are entities in the range
+    private long exportRange(Class<?> type, String collection, long from, long to, Path file, SnapshotFormat format)
+            throws IOException {
+        Query query = query(where("externalId").gte(from).lt(to)).with(Sort.by("externalId"));
+        long count = 0;
+        SnapshotWriter writer = null;
+        try (CloseableIterator<?> entities = mongoTemplate.stream(query, type, collection)) {
+            while (entities.hasNext()) {
+                Object entity = entities.next();
+                if (writer == null) {
+                    writer = format.open(file, type, rowGroupSize);
+                }
+                if (entity instanceof Story) {
+                    writer.write((Story) entity);
+                } else {
+                    writer.write((Comment) entity);
+                }
+                count++;
+            }
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+        logger.info("Exported {} entities of {} to {}", count, collection, file);
+        return count;
+    }
+
+    /**
+     * Outcome of an export.
+     */
+    public static final class Result {
+        private final long stories;
+        private final long comments;
+        private final long millis;
+        private final Exception failure;
+
+        Result(long stories, long comments, long millis, @Nullable Exception failure) {
+            this.stories = stories;
+            this.comments = comments;
+            this.millis = millis;
+            this.failure = failure;
+        }
+
+        public long getStories() {
+            return stories;
+        }
+
+        public long getComments() {
+            return comments;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        @Nullable
+        public Exception getFailure() {
+            return failure;
+        }
+    }
+}
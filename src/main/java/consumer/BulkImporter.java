@@ -0,0 +1,405 @@
+package consumer;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndReplaceOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import consumer.jfr.PersistEvent;
+import consumer.model.Comment;
+import consumer.model.Data;
+import consumer.model.Story;
+import consumer.rabbit.PersistListener;
+import consumer.repository.TimePartitions;
+
+// Runner responsible for `import PATH` command, which backfills the DB from a local dump of items rather than from the
+// endpoint: the dump is newline-delimited json of the items as the endpoint returns them (one item per line),
+// optionally gzip-compressed. The lines are read (and decompressed) by the calling thread and handed over in chunks of
+// `batchSize` lines to `parallelism` threads, which convert them with the same Data conversion as the other runners and
+// write them with unordered bulk upserts by externalId, bypassing both the endpoint and RabbitMQ; hence the import is
+// bound by the rate the dump is read and the DB is written at. The items which are neither stories nor comments are
+// skipped. The items are upserted rather than inserted, as the DB may have some of them already (e.g. it is being fed
+// by `consume`, or the import is resumed), which are then replaced rather than duplicated.
+//
+// The progress is saved to `PATH.progress` as the chunks are written: the number of lines written (i.e. of the
+// longest prefix of chunks which are all written). Importing the same dump again resumes after the written lines.
+@Component
+public class BulkImporter {
+
+    private static final Logger logger = LoggerFactory.getLogger(BulkImporter.class);
+
+    // the number of malformed lines logged per import, the rest are only counted
+    private static final int MAX_LOGGED_MALFORMED = 10;
+
+    private final MongoTemplate mongoTemplate;
+    // the entities do not pass through Receiver, so the listeners are notified by the importer
+    private final List<PersistListener> persistListeners;
+    // optional monthly partitions the entities are written to
+    private final TimePartitions timePartitions;
+    private final int batchSize;
+    private final int parallelism;
+    private final long progressInterval;
+    // the items of the dumps may have fields (and types, e.g. `job`) the application does not know about
+    private final ObjectReader dataReader = new ObjectMapper()
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+            .enable(DeserializationFeature.READ_UNKNOWN_ENUM_VALUES_AS_NULL)
+            .readerFor(Data.class);
+
+    @Autowired
+    public BulkImporter(MongoTemplate mongoTemplate, Environment env, ObjectProvider<PersistListener> persistListeners,
+                        @Nullable TimePartitions timePartitions) {
+        // the actual parameter values are not validated for brevity
+        this(mongoTemplate, persistListeners.orderedStream().collect(Collectors.toList()), timePartitions,
+                Integer.parseInt(env.getProperty("consumer.import.batchSize", "5000")),
+                Integer.parseInt(env.getProperty("consumer.import.parallelism", "4")),
+                Long.parseLong(env.getProperty("consumer.import.progressInterval", "5000")));
+    }
+
+    BulkImporter(MongoTemplate mongoTemplate, List<PersistListener> persistListeners,
+                 @Nullable TimePartitions timePartitions, int batchSize, int parallelism, long progressInterval) {
+        this.mongoTemplate = mongoTemplate;
+        this.persistListeners = persistListeners;
+        this.timePartitions = timePartitions;
+        this.batchSize = batchSize;
+        this.parallelism = parallelism;
+        this.progressInterval = progressInterval;
+    }
+
+    /**
+     * Import the items of the dump, resuming the previous import of it, if any.
+     * @param file newline-delimited json of the items, optionally gzip-compressed
+     * @return the outcome of the import; in case when the import fails, it is resumed by importing the dump again
+     * @throws IOException in case when the dump is not readable
+     */
+    public Result importFile(Path file) throws IOException {
+        Path checkpointFile = file.resolveSibling(file.getFileName() + ".progress");
+        long checkpoint = loadCheckpoint(checkpointFile);
+        Progress progress = new Progress(checkpointFile, checkpoint);
+        long fileSize = Files.size(file);
+        if (checkpoint > 0) {
+            logger.info("Resuming import of {} after line {}", file, checkpoint);
+        }
+
+        long start = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, new CustomizableThreadFactory("Import-"));
+        // bounds the chunks read ahead of the writers
+        Semaphore permits = new Semaphore(parallelism);
+        try (CountingInputStream counting = new CountingInputStream(Files.newInputStream(file));
+             BufferedReader reader = new BufferedReader(new InputStreamReader(decompress(counting),
+                     StandardCharsets.UTF_8), 1 << 16)) {
+            long line = 0;
+            // the written lines are still read, as the compressed dumps are not seekable
+            while (line < checkpoint && reader.readLine() != null) {
+                line++;
+            }
+            long lastReport = System.currentTimeMillis();
+            List<String> chunk = new ArrayList<>(batchSize);
+            String text;
+            while (progress.failure.get() == null && (text = reader.readLine()) != null) {
+                chunk.add(text);
+                line++;
+                if (chunk.size() == batchSize) {
+                    submit(chunk, line - chunk.size(), executor, permits, progress);
+                    chunk = new ArrayList<>(batchSize);
+                }
+                if (System.currentTimeMillis() - lastReport >= progressInterval) {
+                    lastReport = System.currentTimeMillis();
+                    logger.info("Imported {} lines ({}% of the dump read): {} stories, {} comments, {} skipped",
+                            progress.getWritten(), fileSize > 0 ? counting.count * 100 / fileSize : 100,
+                            progress.stories.get(), progress.comments.get(), progress.skipped.get());
+                }
+            }
+            if (!chunk.isEmpty() && progress.failure.get() == null) {
+                submit(chunk, line - chunk.size(), executor, permits, progress);
+            }
+            // wait for the writers
+            permits.acquire(parallelism);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            progress.failure.compareAndSet(null, e);
+        } finally {
+            executor.shutdown();
+        }
+
+        Result result = new Result(progress, System.currentTimeMillis() - start);
+        logger.info("Imported {} lines in {} ms: {} stories, {} comments, {} skipped", result.getLines(),
+                result.getMillis(), result.getStories(), result.getComments(), result.getSkipped());
+        return result;
+    }
+
+    // Gzip-compressed dumps are recognized by their magic number rather than by the file extension
+    private static InputStream decompress(InputStream input) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(input, 1 << 16);
+        buffered.mark(2);
+        int magic = buffered.read() | (buffered.read() << 8);
+        buffered.reset();
+        return magic == GZIPInputStream.GZIP_MAGIC ? new GZIPInputStream(buffered, 1 << 16) : buffered;
+    }
+
+    private void submit(List<String> chunk, long firstLine, ExecutorService executor, Semaphore permits,
+                        Progress progress) throws InterruptedException {
+        permits.acquire();
+        if (progress.failure.get() != null) {
+            // the import is stopped on the first failure of a writer
+            permits.release();
+            return;
+        }
+        long lastLine = firstLine + chunk.size();
+        executor.execute(() -> {
+            try {
+                write(chunk, firstLine, progress);
+                progress.markWritten(firstLine, lastLine);
+            } catch (RuntimeException e) {
+                if (progress.failure.compareAndSet(null, e)) {
+                    logger.warn("Unable to import lines {}-{}", firstLine + 1, lastLine, e);
+                }
+            } finally {
+                permits.release();
+            }
+        });
+    }
+
+    private void write(List<String> chunk, long firstLine, Progress progress) {
+        List<Story> stories = new ArrayList<>();
+        List<Comment> comments = new ArrayList<>();
+        for (int i = 0; i < chunk.size(); i++) {
+            String text = chunk.get(i);
+            if (text.trim().isEmpty()) {
+                continue;
+            }
+            Data data;
+            try {
+                data = dataReader.readValue(text);
+            } catch (JsonProcessingException e) {
+                if (progress.malformed.incrementAndGet() <= MAX_LOGGED_MALFORMED) {
+                    logger.warn("Line {} is not an item: {}", firstLine + i + 1, e.getOriginalMessage());
+                }
+                progress.skipped.incrementAndGet();
+                continue;
+            }
+            if (data == null || data.getId() == null || data.getType() == null) {
+                progress.skipped.incrementAndGet();
+            } else if (data.getType() == Data.Type.STORY) {
+                stories.add(data.convertToStory());
+            } else {
+                comments.add(data.convertToComment());
+            }
+        }
+
+        write(Story.class, stories);
+        write(Comment.class, comments);
+        progress.stories.addAndGet(stories.size());
+        progress.comments.addAndGet(comments.size());
+        for (PersistListener listener : persistListeners) {
+            if (!stories.isEmpty()) {
+                listener.onStoriesPersisted(stories);
+            }
+            if (!comments.isEmpty()) {
+                listener.onCommentsPersisted(comments);
+            }
+        }
+    }
+
+    private void write(Class<?> type, List<?> entities) {
+        if (entities.isEmpty()) {
+            return;
+        }
+        Map<String, List<Object>> byCollection = new LinkedHashMap<>();
+        for (Object entity : entities) {
+            String collection = timePartitions != null ? timePartitions.collectionOf(entity)
+                    : mongoTemplate.getCollectionName(type);
+            byCollection.computeIfAbsent(collection, c -> new ArrayList<>()).add(entity);
+        }
+        byCollection.forEach((collection, batch) -> {
+            if (timePartitions != null) {
+                timePartitions.prepare(collection, batch);
+            }
+            PersistEvent event = new PersistEvent();
+            event.begin();
+            BulkOperations operations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, type, collection);
+            for (Object entity : batch) {
+                operations.replaceOne(query(where("externalId").is(externalIdOf(entity))), entity,
+                        FindAndReplaceOptions.options().upsert());
+            }
+            operations.execute();
+            event.commit(type == Story.class ? Data.Type.STORY.name() : Data.Type.COMMENT.name(), batch,
+                    BulkImporter::externalIdOf);
+        });
+    }
+
+    private static Long externalIdOf(Object entity) {
+        return entity instanceof Story ? ((Story) entity).getExternalId() : ((Comment) entity).getExternalId();
+    }
+
+    private static long loadCheckpoint(Path checkpointFile) throws IOException {
+        if (!Files.exists(checkpointFile)) {
+            return 0;
+        }
+        // (the progress saved by the previous versions is followed by the number of the lines handed over)
+        String[] values = new String(Files.readAllBytes(checkpointFile), StandardCharsets.US_ASCII).trim().split("\\s+");
+        return Long.parseLong(values[0]);
+    }
+
+    // Progress of an import, shared by the reader and the writers
+    private static final class Progress {
+        private final Path checkpointFile;
+        private final AtomicLong stories = new AtomicLong();
+        private final AtomicLong comments = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+        private final AtomicLong malformed = new AtomicLong();
+        private final AtomicReference<Exception> failure = new AtomicReference<>();
+
+        // guarded by this
+        private long written;
+        // last line of the chunk by the first line of the chunk, for the chunks written after the not yet written ones
+        private final TreeMap<Long, Long> writtenAhead = new TreeMap<>();
+
+        Progress(Path checkpointFile, long written) {
+            this.checkpointFile = checkpointFile;
+            this.written = written;
+        }
+
+        synchronized long getWritten() {
+            return written;
+        }
+
+        synchronized void markWritten(long firstLine, long lastLine) {
+            writtenAhead.put(firstLine, lastLine);
+            Long next;
+            while ((next = writtenAhead.remove(written)) != null) {
+                written = next;
+            }
+            save();
+        }
+
+        private void save() {
+            try {
+                Path tmp = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+                Files.write(tmp, (written + "\n").getBytes(StandardCharsets.US_ASCII));
+                Files.move(tmp, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                // the import is not resumable then, so it is not continued
+                throw new IllegalStateException("Unable to save progress to " + checkpointFile, e);
+            }
+        }
+    }
+
+    /**
+     * Outcome of an import.
+     */
+    public static final class Result {
+        private final long lines;
+        private final long stories;
+        private final long comments;
+        private final long skipped;
+        private final long millis;
+        private final Exception failure;
+
+        private Result(Progress progress, long millis) {
+            this.lines = progress.getWritten();
+            this.stories = progress.stories.get();
+            this.comments = progress.comments.get();
+            this.skipped = progress.skipped.get();
+            this.millis = millis;
+            this.failure = progress.failure.get();
+        }
+
+        // lines of the dump imported, including the ones imported by the previous imports of it
+        public long getLines() {
+            return lines;
+        }
+
+        public long getStories() {
+            return stories;
+        }
+
+        public long getComments() {
+            return comments;
+        }
+
+        public long getSkipped() {
+            return skipped;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        @Nullable
+        public Exception getFailure() {
+            return failure;
+        }
+    }
+
+    // Counts the bytes read from the dump, to report the progress of compressed dumps as well
+    private static final class CountingInputStream extends FilterInputStream {
+        private volatile long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value >= 0) {
+                count++;
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
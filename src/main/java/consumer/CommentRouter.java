@@ -0,0 +1,88 @@
+package consumer;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import consumer.config.CommentSharding;
+import consumer.model.Data;
+
+/**
+ * Chooses the routing key of a comment by its root story (see {@link CommentSharding}).
+ *
+ * The endpoint does not tell the root story of a comment, only its parent, so the root is tracked while the entities
+ * are retrieved: the kids of each retrieved story (or comment with known root) are remembered with the root, which is
+ * then looked up (and forgotten) once the kid itself is retrieved. The parents are normally retrieved before their
+ * kids (their ids are lower, and `crawl` follows the kids), though in case the root of a comment is not known, the
+ * comment is routed by its parent instead, and its kids are remembered with the parent as well, so the siblings and
+ * the subtree of the comment still go together.
+ *
+ * At most {@code maxPending} kids are remembered, so the memory stays bounded when the kids are never retrieved.
+ *
+ * The comments of a story are still split across the shards in case when a comment is retrieved before its parent
+ * (or before the kids of its parent are remembered), or when the kids are not remembered as there are
+ * {@code maxPending} of them already; the comments routed by their parent are counted
+ * (see {@link #getRoutedByParentCount()}).
+ */
+public class CommentRouter {
+
+    private final CommentSharding commentSharding;
+    private final int maxPending;
+    // externalId of the kid -> externalId of its root story
+    private final ConcurrentMap<Long, Long> roots = new ConcurrentHashMap<>();
+    private final AtomicLong routedByParent = new AtomicLong();
+
+    public CommentRouter(CommentSharding commentSharding, int maxPending) {
+        this.commentSharding = commentSharding;
+        this.maxPending = maxPending;
+    }
+
+    /**
+     * Remember the root of the kids of the story.
+     */
+    public void storyRetrieved(Data story) {
+        remember(story.getKids(), story.getId());
+    }
+
+    /**
+     * Remember the root (or the key the comment is routed by, in case when the root is not known) of the kids of the
+     * comment.
+     * @return routing key of the comment
+     */
+    public String commentRetrieved(Data comment) {
+        if (commentSharding.getShards() == 1) {
+            return commentSharding.routingKey(0);
+        }
+        Long key = comment.getId() != null ? roots.remove(comment.getId()) : null;
+        if (key == null) {
+            routedByParent.incrementAndGet();
+            key = comment.getParent() != null ? comment.getParent() : 0L;
+        }
+        remember(comment.getKids(), key);
+        return commentSharding.routingKey(commentSharding.shardOf(key));
+    }
+
+    private void remember(List<Long> kids, Long root) {
+        if (kids == null || root == null || commentSharding.getShards() == 1) {
+            return;
+        }
+        for (Long kid : kids) {
+            if (roots.size() >= maxPending) {
+                return;
+            }
+            if (kid != null) {
+                roots.put(kid, root);
+            }
+        }
+    }
+
+    int getPendingCount() {
+        return roots.size();
+    }
+
+    // number of the comments routed by their parent, as their root was not known
+    public long getRoutedByParentCount() {
+        return routedByParent.get();
+    }
+}
@@ -0,0 +1,298 @@
+package consumer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import consumer.jfr.ExecutorWaitEvent;
+
+// Scheduler of the `consume` jobs, which are run in background, so that the other commands can be run while the data
+// is consumed. Each job consumes a range of ids with NetRunner (i.e. via RabbitMQ); the fetches of all the jobs are run
+// on the shared TaskExecutor, which is never shut down, so the jobs run concurrently and the pool is reused by the
+// subsequent ones. A job has at most `concurrency` fetches in flight (rather than submitting the whole range to the
+// executor at once), so that the jobs share the pool, and a job is paused or cancelled promptly: its fetches in flight
+// are completed, and no more are started.
+@Component
+public class ConsumeJobs implements DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConsumeJobs.class);
+
+    private final NetRunner netRunner;
+    private final TaskExecutor taskExecutor;
+    private final int concurrency;
+    // a thread per running job, which submits the fetches of the job
+    private final ExecutorService coordinators = Executors.newCachedThreadPool(
+            new CustomizableThreadFactory("ConsumeJob-"));
+    private final Map<Integer, Job> jobs = new ConcurrentSkipListMap<>();
+    private final AtomicInteger lastJobId = new AtomicInteger();
+
+    @Autowired
+    public ConsumeJobs(NetRunner netRunner, TaskExecutor taskExecutor, Environment env) {
+        // the actual parameter values are not validated for brevity
+        this(netRunner, taskExecutor, Integer.parseInt(env.getProperty("consumer.jobs.concurrency", "100")));
+    }
+
+    ConsumeJobs(NetRunner netRunner, TaskExecutor taskExecutor, int concurrency) {
+        this.netRunner = netRunner;
+        this.taskExecutor = taskExecutor;
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Start the job consuming {@code count} entities starting from {@code startId} (inclusively).
+     */
+    public Job start(long startId, long count) {
+        Job job = new Job(lastJobId.incrementAndGet(), startId, count);
+        jobs.put(job.getId(), job);
+        coordinators.execute(() -> run(job));
+        logger.info("Started job {} consuming {} entities starting from {}", job.getId(), count, startId);
+        return job;
+    }
+
+    public List<Job> getJobs() {
+        return new ArrayList<>(jobs.values());
+    }
+
+    @Nullable
+    public Job getJob(int id) {
+        return jobs.get(id);
+    }
+
+    /**
+     * Wait for all the jobs started so far to complete (or to be cancelled).
+     */
+    public void awaitAll() throws InterruptedException {
+        for (Job job : getJobs()) {
+            job.await();
+        }
+    }
+
+    private void run(Job job) {
+        Semaphore permits = new Semaphore(concurrency);
+        try {
+            for (long id = job.startId; id < job.startId + job.count && job.awaitRunning(); id++) {
+                if (netRunner.isIngested(id)) {
+                    job.skipped.incrementAndGet();
+                    job.processed.incrementAndGet();
+                    continue;
+                }
+                permits.acquire();
+                long current = id;
+                // the entities are retrieved asynchronously, as each is fetched from its own endpoint, on the threads of
+                // the TaskExecutor configured in ConsumerConfiguration (or on virtual threads, see
+                // VirtualThreadTaskExecutor), which are re-used rather than created per entity
+                // the time the task waits for a thread is traced (see PipelineTraceAnalyzer)
+                ExecutorWaitEvent waitEvent = new ExecutorWaitEvent();
+                waitEvent.begin();
+                try {
+                    taskExecutor.execute(() -> {
+                        waitEvent.commit(current, null);
+                        try {
+                            if (netRunner.fetchAndSend(current) != null) {
+                                job.retrieved.incrementAndGet();
+                            } else {
+                                job.missing.incrementAndGet();
+                            }
+                        } catch (RuntimeException e) {
+                            job.failed(current, e);
+                        } finally {
+                            job.processed.incrementAndGet();
+                            permits.release();
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    // e.g. the executor is shut down
+                    permits.release();
+                    job.failed(current, e);
+                    job.processed.incrementAndGet();
+                }
+            }
+            // wait for the fetches in flight
+            permits.acquire(concurrency);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            job.cancel();
+        }
+        job.finish();
+        logger.info("Job {} is {}: retrieved {}, missing {}, skipped {}, errors {} in {} ms", job.getId(),
+                job.getState().name().toLowerCase(), job.getRetrieved(), job.getMissing(), job.getSkipped(),
+                job.getErrors(), job.getElapsedMillis());
+    }
+
+    @Override
+    public void destroy() {
+        for (Job job : jobs.values()) {
+            job.cancel();
+        }
+        coordinators.shutdown();
+    }
+
+    /**
+     * A `consume` job, with its progress.
+     */
+    public static final class Job {
+
+        public enum State {
+            RUNNING, PAUSED, CANCELLED, DONE
+        }
+
+        private final int id;
+        private final long startId;
+        private final long count;
+        private final long startTime = System.currentTimeMillis();
+        private final AtomicLong processed = new AtomicLong();
+        private final AtomicLong retrieved = new AtomicLong();
+        private final AtomicLong missing = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private volatile String lastError;
+
+        // guarded by this
+        private State state = State.RUNNING;
+        // the job is cancelled, but its fetches in flight are not completed yet
+        private boolean cancelling;
+        private long pausedAt;
+        private long pausedMillis;
+        private long endTime;
+
+        Job(int id, long startId, long count) {
+            this.id = id;
+            this.startId = startId;
+            this.count = count;
+        }
+
+        public synchronized boolean pause() {
+            if (state != State.RUNNING || cancelling) {
+                return false;
+            }
+            state = State.PAUSED;
+            pausedAt = System.currentTimeMillis();
+            return true;
+        }
+
+        public synchronized boolean resume() {
+            if (state != State.PAUSED || cancelling) {
+                return false;
+            }
+            state = State.RUNNING;
+            pausedMillis += System.currentTimeMillis() - pausedAt;
+            notifyAll();
+            return true;
+        }
+
+        public synchronized boolean cancel() {
+            if (state == State.DONE || state == State.CANCELLED || cancelling) {
+                return false;
+            }
+            if (state == State.PAUSED) {
+                pausedMillis += System.currentTimeMillis() - pausedAt;
+            }
+            cancelling = true;
+            notifyAll();
+            return true;
+        }
+
+        // Wait while the job is paused; returns false in case when the job is cancelled
+        synchronized boolean awaitRunning() throws InterruptedException {
+            while (state == State.PAUSED && !cancelling) {
+                wait();
+            }
+            return !cancelling;
+        }
+
+        synchronized void finish() {
+            state = cancelling ? State.CANCELLED : State.DONE;
+            cancelling = false;
+            endTime = System.currentTimeMillis();
+            notifyAll();
+        }
+
+        // Wait for the job to complete (or to be cancelled)
+        synchronized void await() throws InterruptedException {
+            while (state != State.DONE && state != State.CANCELLED) {
+                wait();
+            }
+        }
+
+        void failed(long id, RuntimeException e) {
+            errors.incrementAndGet();
+            lastError = id + ": " + e;
+            logger.warn("Entity {} is not retrieved", id, e);
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public long getStartId() {
+            return startId;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public synchronized State getState() {
+            return state;
+        }
+
+        public long getProcessed() {
+            return processed.get();
+        }
+
+        public long getRetrieved() {
+            return retrieved.get();
+        }
+
+        public long getMissing() {
+            return missing.get();
+        }
+
+        public long getSkipped() {
+            return skipped.get();
+        }
+
+        public long getErrors() {
+            return errors.get();
+        }
+
+        @Nullable
+        public String getLastError() {
+            return lastError;
+        }
+
+        // time the job has been running for, excluding the pauses
+        public synchronized long getElapsedMillis() {
+            long end = endTime != 0 ? endTime : state == State.PAUSED ? pausedAt : System.currentTimeMillis();
+            return end - startTime - pausedMillis;
+        }
+
+        // entities processed per second
+        public double getRate() {
+            long elapsed = getElapsedMillis();
+            return elapsed > 0 ? getProcessed() * 1000.0 / elapsed : 0;
+        }
+
+        // expected time to complete the job, in ms, or -1 in case when it is not known yet
+        public long getEtaMillis() {
+            double rate = getRate();
+            return rate > 0 ? (long) ((count - getProcessed()) * 1000 / rate) : -1;
+        }
+    }
+}
@@ -9,6 +9,8 @@ import org.springframework.context.annotation.PropertySource;
 public class ConsumerApplication {
 
     public static void main(String[] args) {
-        SpringApplication.run(ConsumerApplication.class, args).close();
+        // the context is closed and the JVM exits once the commands are done, even though the threads of the drivers
+        // (e.g. the event loops of the reactive MongoDB client) may be left running
+        System.exit(SpringApplication.exit(SpringApplication.run(ConsumerApplication.class, args)));
     }
 }
@@ -0,0 +1,149 @@
+package consumer;
+
+import java.util.Collection;
+import java.util.TreeSet;
+
+import org.roaringbitmap.RoaringBitmap;
+
+/**
+ * Frontier of the crawl: ids of the entities to be retrieved, ordered by priority (the lower the value, the sooner the
+ * entity is retrieved) and then by the order they are added in.
+ *
+ * Each id is added at most once (ids which have been added before are ignored). The kids of the retrieved entities
+ * are added with the priority of their parent, so that all the entities of a story are retrieved (i.e. the story
+ * becomes complete) before the stories with lower priority are started.
+ *
+ * The frontier is bounded: when it is full, the entry with the lowest priority is dropped in favor of an entry with
+ * higher priority (or the added entry is dropped otherwise).
+ *
+ * The frontier also keeps track of entities being retrieved: {@link #take()} blocks until an entry is available and
+ * returns {@code null} once the frontier is empty and there are no entities in progress (whose kids are yet to be
+ * added), which means that the crawl is complete.
+ */
+public class CrawlFrontier {
+
+    private final int maxSize;
+
+    private final TreeSet<Entry> queue = new TreeSet<>();
+    // ids ever added to the frontier; ids which do not fit into int are not tracked
+    private final RoaringBitmap seen = new RoaringBitmap();
+
+    private long sequence;
+    private int inProgress;
+    private long dropped;
+
+    public CrawlFrontier(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Add ids with given priority.
+     * @return number of ids actually added
+     */
+    public synchronized int addAll(Collection<Long> ids, long priority) {
+        int added = 0;
+        for (Long id : ids) {
+            if (id != null && add(id, priority)) {
+                added++;
+            }
+        }
+        if (added > 0) {
+            notifyAll();
+        }
+        return added;
+    }
+
+    private boolean add(long id, long priority) {
+        boolean trackable = id >= 0 && id <= Integer.MAX_VALUE;
+        if (trackable && seen.contains((int) id)) {
+            return false;
+        }
+
+        Entry entry = new Entry(id, priority, sequence++);
+        if (queue.size() >= maxSize) {
+            Entry last = queue.last();
+            if (last.compareTo(entry) < 0) {
+                // the frontier is full of entries with higher priority
+                dropped++;
+                return false;
+            }
+            queue.pollLast();
+            forget(last.id);
+            dropped++;
+        }
+        queue.add(entry);
+        if (trackable) {
+            seen.add((int) id);
+        }
+        return true;
+    }
+
+    private void forget(long id) {
+        // the dropped id may be added again later on
+        if (id >= 0 && id <= Integer.MAX_VALUE) {
+            seen.remove((int) id);
+        }
+    }
+
+    /**
+     * Take the entry with the highest priority, waiting for one if the frontier is empty but some entities are still
+     * in progress. The caller must call {@link #complete(Entry, Collection)} for the returned entry.
+     * @return the entry, or {@code null} when the crawl is complete
+     */
+    public synchronized Entry take() throws InterruptedException {
+        while (queue.isEmpty()) {
+            if (inProgress == 0) {
+                return null;
+            }
+            wait();
+        }
+        inProgress++;
+        return queue.pollFirst();
+    }
+
+    /**
+     * Mark the entry as retrieved, adding kids of the entity (with priority of the entry).
+     * @param kids kids of the entity; may be {@code null}
+     */
+    public synchronized void complete(Entry entry, Collection<Long> kids) {
+        if (kids != null) {
+            addAll(kids, entry.priority);
+        }
+        inProgress--;
+        notifyAll();
+    }
+
+    public synchronized int size() {
+        return queue.size();
+    }
+
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    public static final class Entry implements Comparable<Entry> {
+        private final long id;
+        private final long priority;
+        private final long sequence;
+
+        private Entry(long id, long priority, long sequence) {
+            this.id = id;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public long getPriority() {
+            return priority;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            int result = Long.compare(priority, other.priority);
+            return result != 0 ? result : Long.compare(sequence, other.sequence);
+        }
+    }
+}
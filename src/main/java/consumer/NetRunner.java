@@ -1,125 +1,211 @@
 package consumer;
 
 import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.amqp.rabbit.core.RabbitAdmin;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.env.Environment;
-import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.RestClientException;
 
+import consumer.config.CommentSharding;
 import consumer.config.RabbitMQConfiguration;
+import consumer.jfr.ExecutorWaitEvent;
+import consumer.jfr.SendEvent;
+import consumer.model.Comment;
 import consumer.model.Data;
+import consumer.model.Story;
+import consumer.rabbit.SpillingSender;
 import consumer.service.Client;
+import consumer.service.IngestedIdFilter;
 
-// Runner responsible for `consume` command. This runner consumes data at most 1 time to keep things simple (otherwise
-// some other mechanism should be introduced to keep track of duplicated values in case of multiple consumes).
-// (Do note though, that with the current implementation if the check is removed, duplicate values, and those that are
-// in batch with such, will not be persisted to the DB because of the externalId Unique constraint.)
+// Runner responsible for retrieving the entities and sending them to RabbitMQ: the `consume` command runs the ranges of
+// ids as background jobs (see ConsumeJobs), which use fetchAndSend, and `crawl` walks the threads. In case when
+// IngestedIdFilter is enabled, it keeps track of ingested values, so these are skipped in case of multiple consumes.
+// (Do note though, that without the filter, duplicate values, and those that are in batch with such, will not be
+// persisted to the DB because of the externalId Unique constraint.)
 @Component
-public class NetRunner implements Runnable {
+public class NetRunner {
 
     private static final Logger logger = LoggerFactory.getLogger(NetRunner.class);
 
     private final Client client;
-    private final ThreadPoolTaskExecutor taskExecutor;
+    private final TaskExecutor taskExecutor;
     private final RabbitAdmin rabbitAdmin;
     private final Environment env;
-
-    // a simple variable that tracks whether the NetRunner has already consumed data; is not persisted.
-    private boolean isDone = false;
-
-    public NetRunner(Client client, ThreadPoolTaskExecutor taskExecutor, RabbitAdmin rabbitAdmin, Environment env) {
+    // optional filter of already ingested ids
+    private final IngestedIdFilter ingestedIdFilter;
+    // optional sender, which spills the entities to the local log while the broker is unavailable
+    private final SpillingSender spillingSender;
+    private final CommentSharding commentSharding;
+    // routes the comments to the shards by their root story
+    private final CommentRouter commentRouter;
+
+    @Autowired
+    public NetRunner(Client client, TaskExecutor taskExecutor, RabbitAdmin rabbitAdmin, Environment env,
+                     @Nullable IngestedIdFilter ingestedIdFilter, @Nullable SpillingSender spillingSender,
+                     CommentSharding commentSharding) {
         this.client = client;
         this.taskExecutor = taskExecutor;
         this.rabbitAdmin = rabbitAdmin;
         this.env = env;
+        this.ingestedIdFilter = ingestedIdFilter;
+        this.spillingSender = spillingSender;
+        this.commentSharding = commentSharding;
+        String maxPendingRootsValue = env.getProperty("consumer.rabbitmq.maxPendingRoots", "1000000");
+        this.commentRouter = new CommentRouter(commentSharding, Integer.parseInt(maxPendingRootsValue));
     }
 
-    @Override
-    public void run() {
-
-        if (isDone) {
-            logger.info("The NetRunner has already consumed the data.");
-            return;
-        }
-
-        // Start the clock
+    /**
+     * Crawl the stories, identified by {@code seedIds}, with all of their comments: rather than walking the ids in
+     * numeric order, the kids of each retrieved entity are added to the {@link CrawlFrontier}, with the priority of
+     * the story they belong to. The earlier the story is in {@code seedIds} the higher its priority, so the stories are
+     * completed (and become available to `list id`) one after another rather than at the end of the run.
+     * @param seedIds ids of the stories to crawl, in order of priority
+     */
+    public void crawl(List<Long> seedIds) {
         long start = System.currentTimeMillis();
         AtomicLong counter = new AtomicLong(0);
 
         final RabbitTemplate rabbitTemplate = rabbitAdmin.getRabbitTemplate();
 
-        String startIDValue = env.getProperty("consumer.netrunner.startID", "0");
-        final long startID = Long.parseLong(startIDValue);
-        String retrieveCountValue = env.getProperty("consumer.netrunner.retrieveCount", "1000");
-        final long count = Long.parseLong(retrieveCountValue);
-        final long lastId = count + startID;
-        // Retrieve the entities asynchronously, using ThreadPoolTaskExecutor configured in ConsumerConfiguration.
-        // Async approach is adequate in the case because there is a need to fetch many entries each from its own endpoint.
-        // Thread pool fits the task well, because there is a need to use multiple threads and this threads are going to
-        // be re-used instead of creating new ones.
-        // As an alternative, one may use Java's standard ThreadPoolExecutor (e.g., Executor#newFixedThreadPool(int))
-        // with ExecutorService interface. Spring's ThreadPoolTaskExecutor was chosen for the task because of the ease
-        // of bootstrapping it as a Spring @Bean.
-        for (long i = startID; i < lastId; i++) {
-            long id = i;
-            taskExecutor.execute(() -> {
-
-                Data result;
+        // the actual parameter values are not validated for brevity
+        String maxFrontierSizeValue = env.getProperty("consumer.crawl.maxFrontierSize", "100000");
+        String concurrencyValue = env.getProperty("consumer.crawl.concurrency", "64");
+        CrawlFrontier frontier = new CrawlFrontier(Integer.parseInt(maxFrontierSizeValue));
+        for (int i = 0; i < seedIds.size(); i++) {
+            frontier.addAll(Collections.singletonList(seedIds.get(i)), i);
+        }
+
+        // number of entities retrieved at the same time is limited, so that the frontier is filled with kids of the
+        // stories with higher priority before the others are started
+        Semaphore permits = new Semaphore(Integer.parseInt(concurrencyValue));
+        try {
+            CrawlFrontier.Entry entry;
+            while ((entry = frontier.take()) != null) {
+                permits.acquire();
+                CrawlFrontier.Entry current = entry;
+                ExecutorWaitEvent waitEvent = new ExecutorWaitEvent();
+                waitEvent.begin();
+                Runnable task = () -> {
+                    waitEvent.commit(current.getId(), null);
+                    List<Long> kids = null;
+                    try {
+                        Data result = fetchAndSend(current.getId(), rabbitTemplate);
+                        if (result != null) {
+                            counter.incrementAndGet();
+                            kids = result.getKids();
+                        }
+                    } catch (RuntimeException e) {
+                        logger.warn("Entity {} is not retrieved", current.getId(), e);
+                    } finally {
+                        frontier.complete(current, kids);
+                        permits.release();
+                    }
+                };
                 try {
-                    result = client.getData(id);
-                } catch (RestClientException e) {
-                    // End the run.
-                    logger.warn("Entity {} is not retrieved, re-try...", id);
-                    // But first, let's re-try one more time
-                    // (This is a some-what naive re-try approach, but it is very likely to work.
-                    // If it doesn't - the entity will not be retrieved.)
-                    result = client.getData(id); // For brevity, in case of failure there is no exception handling
+                    taskExecutor.execute(task);
+                } catch (RuntimeException e) {
+                    frontier.complete(current, null);
+                    permits.release();
+                    throw e;
                 }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Interrupted while crawling");
+        }
 
-                Serializable entity;
-                String routingKey;
-                Data.Type type = result.getType();
-                // Convert the result to appropriate entity and set appropriate routing key
-                if (type == Data.Type.COMMENT) {
-                    entity = result.convertToComment();
-                    routingKey = RabbitMQConfiguration.ROUTING_KEY_COMMENT;
-                } else if (type == Data.Type.STORY) {
-                    entity = result.convertToStory();
-                    routingKey = RabbitMQConfiguration.ROUTING_KEY_STORY;
-                } else {
-                    throw new IllegalArgumentException("Unexpected type encountered: " + result.getType());
-                }
+        logger.info("Elapsed time, ms: " + (System.currentTimeMillis() - start));
+        logger.info("retrieved " + counter.get() + " rows");
+        if (frontier.getDropped() > 0) {
+            logger.warn("dropped " + frontier.getDropped() + " rows as the frontier was full");
+        }
+        if (commentRouter.getRoutedByParentCount() > 0) {
+            logger.info("routed " + commentRouter.getRoutedByParentCount()
+                    + " comments by their parent so far, as their root story was not known");
+        }
+    }
 
-                if (logger.isDebugEnabled()) {
-                    logger.debug("Sending entity to queue (routingKey={})", routingKey);
-                }
-                // send the entity to dedicated RabbitMQ queue in order to free the current thread and let the
-                // queue consumer handle the processing of entities.
-                // Sent entities are persisted by queue consumer in batches, to avoid redundant DB calls.
-                rabbitTemplate.convertAndSend(RabbitMQConfiguration.TOPIC_EXCHANGE_NAME, routingKey, entity);
+    // Tells whether the entity is already ingested, so there is no need to retrieve it again (see IngestedIdFilter)
+    boolean isIngested(long id) {
+        return ingestedIdFilter != null && ingestedIdFilter.contains(id);
+    }
 
-                counter.incrementAndGet();
-            });
+    // Retrieve the entity and send it to the queue; returns the retrieved entity, or null in case it does not exist
+    Data fetchAndSend(long id) {
+        return fetchAndSend(id, rabbitAdmin.getRabbitTemplate());
+    }
+
+    private Data fetchAndSend(long id, RabbitTemplate rabbitTemplate) {
+        Data result;
+        try {
+            result = client.getData(id);
+        } catch (RestClientException e) {
+            // End the run.
+            logger.warn("Entity {} is not retrieved, re-try...", id);
+            // But first, let's re-try one more time
+            // (This is a some-what naive re-try approach, but it is very likely to work.
+            // If it doesn't - the entity will not be retrieved.)
+            result = client.getData(id); // For brevity, in case of failure there is no exception handling
         }
 
-        // wait for all threads to finish
-        taskExecutor.shutdown();
+        if (result == null) {
+            logger.info("Entity {} does not exist", id);
+            return null;
+        }
 
-        isDone = true;
+        Serializable entity;
+        String routingKey;
+        Data.Type type = result.getType();
+        // Convert the result to appropriate entity and set appropriate routing key
+        if (type == Data.Type.COMMENT) {
+            Comment comment = result.convertToComment();
+            comment.setSentAt(System.currentTimeMillis());
+            entity = comment;
+            routingKey = commentRouter.commentRetrieved(result);
+        } else if (type == Data.Type.STORY) {
+            Story story = result.convertToStory();
+            story.setSentAt(System.currentTimeMillis());
+            entity = story;
+            commentRouter.storyRetrieved(result);
+            routingKey = RabbitMQConfiguration.ROUTING_KEY_STORY;
+        } else {
+            throw new IllegalArgumentException("Unexpected type encountered: " + result.getType());
+        }
 
-        logger.info("Elapsed time, ms: " + (System.currentTimeMillis() - start));
-        logger.info("retrieved " + counter.get() + " rows");
+        if (logger.isDebugEnabled()) {
+            logger.debug("Sending entity to queue (routingKey={})", routingKey);
+        }
+        // send the entity to dedicated RabbitMQ queue in order to free the current thread and let the
+        // queue consumer handle the processing of entities.
+        // Sent entities are persisted by queue consumer in batches, to avoid redundant DB calls.
+        SendEvent sendEvent = new SendEvent();
+        sendEvent.begin();
+        if (spillingSender != null) {
+            spillingSender.send(routingKey, entity);
+        } else {
+            rabbitTemplate.convertAndSend(RabbitMQConfiguration.TOPIC_EXCHANGE_NAME, routingKey, entity);
+        }
+        sendEvent.setRoutingKey(routingKey);
+        sendEvent.commit(id, type.name());
+        return result;
     }
 
     public void clearQueues() {
         logger.info("Clearing queues");
-        rabbitAdmin.purgeQueue(RabbitMQConfiguration.QUEUE_COMMENT, false);
+        for (int shard = 0; shard < commentSharding.getShards(); shard++) {
+            rabbitAdmin.purgeQueue(commentSharding.queueName(shard), false);
+        }
         rabbitAdmin.purgeQueue(RabbitMQConfiguration.QUEUE_STORY, false);
     }
 }
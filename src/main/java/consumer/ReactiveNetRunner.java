@@ -0,0 +1,205 @@
+package consumer;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import consumer.model.Comment;
+import consumer.model.Data;
+import consumer.model.Story;
+import consumer.rabbit.PersistListener;
+import consumer.repository.TimePartitions;
+import consumer.service.IngestedIdFilter;
+import consumer.service.ReactiveClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+// Alternative runner for the `consume` command (selected with `consumer.netrunner.pipeline=reactive`). Unlike NetRunner,
+// which blocks a thread per request and passes the entities through RabbitMQ, this runner is non-blocking end-to-end:
+// entities are fetched with WebClient, with at most `fetchConcurrency` requests in flight, batched by size and written
+// to MongoDB with reactive bulk inserts. As the inserts request new batches only when the previous ones are written,
+// the fetch rate is driven by the rate the DB is able to persist the data (backpressure). (The batches are not emitted
+// on a timeout, as bufferTimeout fails with an overflow when its timer fires while the writes are behind; the range is
+// finite, so only its last batch is partial.)
+// As NetRunner, the runner consumes data at most 1 time, unless IngestedIdFilter is enabled.
+@Component
+public class ReactiveNetRunner implements Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReactiveNetRunner.class);
+
+    private final ReactiveClient client;
+    private final ReactiveMongoTemplate mongoTemplate;
+    private final Environment env;
+    // optional filter of already ingested ids
+    private final IngestedIdFilter ingestedIdFilter;
+    // the entities do not pass through Receiver, so the listeners are notified by the runner
+    private final List<PersistListener> persistListeners;
+    // optional monthly partitions the entities are written to
+    private final TimePartitions timePartitions;
+
+    // a simple variable that tracks whether the runner has already consumed data; is not persisted.
+    private boolean isDone = false;
+
+    @Autowired
+    public ReactiveNetRunner(ReactiveClient client, ReactiveMongoTemplate mongoTemplate, Environment env,
+                             @Nullable IngestedIdFilter ingestedIdFilter, ObjectProvider<PersistListener> persistListeners,
+                             @Nullable TimePartitions timePartitions) {
+        this(client, mongoTemplate, env, ingestedIdFilter, persistListeners.orderedStream().collect(Collectors.toList()),
+                timePartitions);
+    }
+
+    ReactiveNetRunner(ReactiveClient client, ReactiveMongoTemplate mongoTemplate, Environment env,
+                      @Nullable IngestedIdFilter ingestedIdFilter, List<PersistListener> persistListeners,
+                      @Nullable TimePartitions timePartitions) {
+        this.client = client;
+        this.mongoTemplate = mongoTemplate;
+        this.env = env;
+        this.ingestedIdFilter = ingestedIdFilter;
+        this.persistListeners = persistListeners;
+        this.timePartitions = timePartitions;
+    }
+
+    @Override
+    public void run() {
+
+        if (isDone && ingestedIdFilter == null) {
+            logger.info("The ReactiveNetRunner has already consumed the data.");
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        AtomicLong counter = new AtomicLong(0);
+
+        String startIDValue = env.getProperty("consumer.netrunner.startID", "0");
+        final long startID = Long.parseLong(startIDValue);
+        String retrieveCountValue = env.getProperty("consumer.netrunner.retrieveCount", "1000");
+        final long count = Long.parseLong(retrieveCountValue);
+        // the actual parameter values are not validated for brevity
+        int fetchConcurrency = Integer.parseInt(env.getProperty("consumer.reactive.fetchConcurrency", "256"));
+        int batchSize = Integer.parseInt(env.getProperty("consumer.reactive.batchSize", "500"));
+        int writeConcurrency = Integer.parseInt(env.getProperty("consumer.reactive.writeConcurrency", "2"));
+
+        Flux.range(0, Math.toIntExact(count))
+                .map(i -> startID + i)
+                .filter(id -> ingestedIdFilter == null || !ingestedIdFilter.contains(id))
+                .flatMap(this::fetch, fetchConcurrency)
+                .buffer(batchSize)
+                .flatMap(batch -> write(batch, counter), writeConcurrency)
+                .blockLast(); // the command is synchronous, as the one of NetRunner
+
+        isDone = true;
+
+        logger.info("Elapsed time, ms: " + (System.currentTimeMillis() - start));
+        logger.info("retrieved " + counter.get() + " rows");
+    }
+
+    private Mono<Serializable> fetch(long id) {
+        return client.getData(id)
+                // the same naive single re-try approach as in NetRunner
+                .retry(1)
+                .map(this::convert)
+                .onErrorResume(e -> {
+                    logger.warn("Entity {} is not retrieved: {}", id, e.getMessage());
+                    return Mono.empty();
+                });
+    }
+
+    private Serializable convert(Data data) {
+        Data.Type type = data.getType();
+        if (type == Data.Type.COMMENT) {
+            return data.convertToComment();
+        } else if (type == Data.Type.STORY) {
+            return data.convertToStory();
+        } else {
+            throw new IllegalArgumentException("Unexpected type encountered: " + data.getType());
+        }
+    }
+
+    private Mono<Void> write(List<Serializable> batch, AtomicLong counter) {
+        logger.info("Persisting {} entities", batch.size());
+        return insert(batch)
+                // e.g. an entity is persisted already (by an overlapping range): the entities of the batch are inserted
+                // one by one then, so that a bad entity only fails itself rather than the batch and the whole run
+                .onErrorResume(e -> {
+                    logger.warn("Unable to persist batch of {} entities, persisting them one by one: {}", batch.size(),
+                            e.getMessage());
+                    return Flux.fromIterable(batch)
+                            .concatMap(entity -> insert(Collections.singletonList(entity))
+                                    .onErrorResume(entityError -> {
+                                        logger.warn("Entity {} is not persisted: {}", externalIdOf(entity),
+                                                entityError.getMessage());
+                                        return Flux.empty();
+                                    }));
+                })
+                .collectList()
+                // the listeners block (e.g. with the writes of their own), so they are not run on the threads of the
+                // driver
+                .publishOn(Schedulers.boundedElastic())
+                .doOnNext(saved -> {
+                    counter.addAndGet(saved.size());
+                    notifyPersisted(saved);
+                })
+                .then();
+    }
+
+    private Flux<Serializable> insert(List<Serializable> entities) {
+        // insertAll splits the mixed batch of stories and comments by their collections
+        return timePartitions != null ? insertPartitioned(entities) : mongoTemplate.insertAll(entities);
+    }
+
+    private static Long externalIdOf(Serializable entity) {
+        return entity instanceof Story ? ((Story) entity).getExternalId() : ((Comment) entity).getExternalId();
+    }
+
+    // Insert the entities into their partitions; a new partition is prepared (with a blocking call, once a month)
+    // on a thread which is allowed to block
+    private Flux<Serializable> insertPartitioned(List<Serializable> batch) {
+        Map<String, List<Serializable>> byCollection = new LinkedHashMap<>();
+        for (Serializable entity : batch) {
+            byCollection.computeIfAbsent(timePartitions.collectionOf(entity), collection -> new ArrayList<>())
+                    .add(entity);
+        }
+        return Flux.fromIterable(byCollection.entrySet())
+                .concatMap(entry -> Mono.fromRunnable(() -> timePartitions.prepare(entry.getKey(), entry.getValue()))
+                        .subscribeOn(Schedulers.boundedElastic())
+                        .thenMany(mongoTemplate.insert(entry.getValue(), entry.getKey())));
+    }
+
+    private void notifyPersisted(List<Serializable> saved) {
+        if (persistListeners.isEmpty()) {
+            return;
+        }
+        List<Story> stories = new ArrayList<>();
+        List<Comment> comments = new ArrayList<>();
+        for (Serializable entity : saved) {
+            if (entity instanceof Story) {
+                stories.add((Story) entity);
+            } else {
+                comments.add((Comment) entity);
+            }
+        }
+        for (PersistListener listener : persistListeners) {
+            if (!stories.isEmpty()) {
+                listener.onStoriesPersisted(stories);
+            }
+            if (!comments.isEmpty()) {
+                listener.onCommentsPersisted(comments);
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package consumer.config;
+
+/**
+ * Sharding of comments across queues: comments are routed to one of {@code shards} queues by the hash of their root
+ * story, so the comments of a story are always persisted by the same listener (i.e. in order), while the comments of
+ * different stories are persisted in parallel.
+ *
+ * The shard is chosen with jump consistent hash (Lamping, Veach), so changing the number of shards moves only the
+ * minimal share of stories to other shards. With a single shard, the plain {@link RabbitMQConfiguration#QUEUE_COMMENT}
+ * queue and {@link RabbitMQConfiguration#ROUTING_KEY_COMMENT} routing key are used.
+ */
+public class CommentSharding {
+
+    private final int shards;
+
+    public CommentSharding(int shards) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("Number of shards should be positive: " + shards);
+        }
+        this.shards = shards;
+    }
+
+    public int getShards() {
+        return shards;
+    }
+
+    /**
+     * @param rootExternalId externalId of the story the comment belongs to
+     * @return shard of the comment
+     */
+    public int shardOf(long rootExternalId) {
+        return jumpHash(rootExternalId, shards);
+    }
+
+    public String routingKey(int shard) {
+        return shards == 1 ? RabbitMQConfiguration.ROUTING_KEY_COMMENT
+                : RabbitMQConfiguration.ROUTING_KEY_COMMENT + "." + shard;
+    }
+
+    public String queueName(int shard) {
+        return shards == 1 ? RabbitMQConfiguration.QUEUE_COMMENT : RabbitMQConfiguration.QUEUE_COMMENT + "." + shard;
+    }
+
+    static int jumpHash(long key, int buckets) {
+        long bucket = -1;
+        long next = 0;
+        while (next < buckets) {
+            bucket = next;
+            key = key * 2862933555777941757L + 1;
+            next = (long) ((bucket + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+        }
+        return (int) bucket;
+    }
+}
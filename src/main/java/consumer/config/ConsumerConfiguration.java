@@ -1,25 +1,52 @@
 package consumer.config;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.env.Environment;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.lang.Nullable;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.web.client.RestTemplate;
 
+import consumer.rabbit.CommentWriteBuffer;
+import consumer.repository.CommentRepository;
+import consumer.repository.TimePartitions;
+
 // General application configuration
 @Configuration
 public class ConsumerConfiguration {
 
+    private static final Logger logger = LoggerFactory.getLogger(ConsumerConfiguration.class);
+
     private final Environment env;
 
     public ConsumerConfiguration(Environment env) {
         this.env = env;
     }
 
-    // Task executor, used to query the endpoint
+    // Task executor, used to query the endpoint. By default it is a pool of platform threads; when
+    // `consumer.executor.virtualThreads` is enabled (and the JVM supports it) each fetch is run on its own virtual thread
+    // instead, with concurrency bounded by `consumer.executor.maxConcurrency`.
     @Bean
-    public ThreadPoolTaskExecutor taskExecutor() {
+    public TaskExecutor taskExecutor() {
+        boolean virtualThreads = Boolean.parseBoolean(env.getProperty("consumer.executor.virtualThreads", "false"));
+        if (virtualThreads) {
+            if (VirtualThreadTaskExecutor.isSupported()) {
+                String maxConcurrencyValue = env.getProperty("consumer.executor.maxConcurrency", "1000");
+                VirtualThreadTaskExecutor executor = new VirtualThreadTaskExecutor(Integer.parseInt(maxConcurrencyValue));
+                executor.setWaitForTasksToCompleteOnShutdown(true);
+                executor.setAwaitTerminationSeconds(Integer.MAX_VALUE);
+                executor.setThreadNamePrefix("Consumer-virtual-");
+                executor.initialize();
+                return executor;
+            }
+            logger.warn("Virtual threads are not supported by the running JVM, falling back to the thread pool");
+        }
+
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
         String corePoolSizeValue = env.getProperty("consumer.executor.corePoolSize", "1"); // not the best default value
         executor.setCorePoolSize(Integer.parseInt(corePoolSizeValue));
@@ -33,6 +60,18 @@ public class ConsumerConfiguration {
         return executor;
     }
 
+    // Write-behind buffer, used by Receiver to coalesce comments into large bulk writes
+    @Bean
+    @ConditionalOnProperty(name = "consumer.writebehind.enabled", havingValue = "true")
+    public CommentWriteBuffer commentWriteBuffer(CommentRepository commentRepository,
+                                                 @Nullable TimePartitions timePartitions) {
+        String maxSizeValue = env.getProperty("consumer.writebehind.maxSize", "5000");
+        String maxBytesValue = env.getProperty("consumer.writebehind.maxBytes", "16777216");
+        String maxAgeValue = env.getProperty("consumer.writebehind.maxAge", "2000");
+        return new CommentWriteBuffer(commentRepository, timePartitions, Integer.parseInt(maxSizeValue),
+                Long.parseLong(maxBytesValue), Long.parseLong(maxAgeValue));
+    }
+
     @Bean
     public RestTemplate restTemplate(RestTemplateBuilder builder) {
         return builder.build();
@@ -1,17 +1,28 @@
 package consumer.config;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
 import org.springframework.amqp.core.Binding;
 import org.springframework.amqp.core.BindingBuilder;
+import org.springframework.amqp.core.Declarable;
+import org.springframework.amqp.core.Declarables;
 import org.springframework.amqp.core.Queue;
 import org.springframework.amqp.core.TopicExchange;
 import org.springframework.amqp.rabbit.annotation.EnableRabbit;
 import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.amqp.rabbit.core.RabbitAdmin;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.env.Environment;
 
+import consumer.rabbit.SpillLog;
+import consumer.rabbit.SpillingSender;
+
 @Configuration
 @EnableRabbit
 public class RabbitMQConfiguration {
@@ -28,10 +39,23 @@ public class RabbitMQConfiguration {
         this.env = env;
     }
 
-    // Defines Queue for Comment type obtained from endpoint
+    // Defines sharding of Comment type obtained from endpoint across queues
+    @Bean
+    public CommentSharding commentSharding() {
+        String commentShardsValue = env.getProperty("consumer.rabbitmq.commentShards", "1");
+        return new CommentSharding(Integer.parseInt(commentShardsValue));
+    }
+
+    // Defines Queues (one per shard) for Comment type obtained from endpoint, along with their bindings
     @Bean
-    public Queue queueComment() {
-        return new Queue(QUEUE_COMMENT, false);
+    public Declarables queuesComment(CommentSharding commentSharding, TopicExchange exchange) {
+        List<Declarable> declarables = new ArrayList<>();
+        for (int shard = 0; shard < commentSharding.getShards(); shard++) {
+            Queue queue = new Queue(commentSharding.queueName(shard), false);
+            declarables.add(queue);
+            declarables.add(BindingBuilder.bind(queue).to(exchange).with(commentSharding.routingKey(shard)));
+        }
+        return new Declarables(declarables);
     }
 
     // Defines Queue for Story type obtained from endpoint
@@ -45,11 +69,6 @@ public class RabbitMQConfiguration {
         return new TopicExchange(TOPIC_EXCHANGE_NAME);
     }
 
-    @Bean
-    public Binding bindingComment(Queue queueComment, TopicExchange exchange) {
-        return BindingBuilder.bind(queueComment).to(exchange).with(ROUTING_KEY_COMMENT);
-    }
-
     @Bean
     public Binding bindingStory(Queue queueStory, TopicExchange exchange) {
         return BindingBuilder.bind(queueStory).to(exchange).with(ROUTING_KEY_STORY);
@@ -80,4 +99,17 @@ public class RabbitMQConfiguration {
     public RabbitAdmin rabbitAdmin(ConnectionFactory connectionFactory) {
         return new RabbitAdmin(connectionFactory);
     }
+
+    // Sender, used by NetRunner to spill the entities to the local log while the broker is unavailable or slow
+    @Bean
+    @ConditionalOnProperty(name = "consumer.spill.enabled", havingValue = "true")
+    public SpillingSender spillingSender(RabbitAdmin rabbitAdmin) throws IOException {
+        String dirValue = env.getProperty("consumer.spill.dir", "spill");
+        String segmentSizeValue = env.getProperty("consumer.spill.segmentSize", "67108864");
+        String drainBatchSizeValue = env.getProperty("consumer.spill.drainBatchSize", "500");
+        String drainIntervalValue = env.getProperty("consumer.spill.drainInterval", "1000");
+        SpillLog spillLog = new SpillLog(Paths.get(dirValue), Integer.parseInt(segmentSizeValue));
+        return new SpillingSender(rabbitAdmin.getRabbitTemplate(), TOPIC_EXCHANGE_NAME, spillLog,
+                Integer.parseInt(drainBatchSizeValue), Long.parseLong(drainIntervalValue));
+    }
 }
@@ -0,0 +1,100 @@
+package consumer.config;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.scheduling.concurrent.ExecutorConfigurationSupport;
+
+/**
+ * {@link TaskExecutor} which runs every task on its own virtual thread (JDK 21+). Unlike a thread pool, the number of
+ * concurrently running tasks is not bounded by pool size but by a {@link Semaphore}: {@link #execute(Runnable)} blocks
+ * the submitting thread until a permit is available, which also provides backpressure for the submitter.
+ *
+ * The project is compiled for Java 8, hence the virtual thread API is accessed reflectively. In case the executor is
+ * initialized on an older JDK an {@link IllegalStateException} is thrown.
+ *
+ * @see ConsumerConfiguration#taskExecutor()
+ */
+public class VirtualThreadTaskExecutor extends ExecutorConfigurationSupport implements TaskExecutor {
+
+    private final Semaphore permits;
+
+    private ExecutorService executorService;
+
+    /**
+     * @param maxConcurrency maximum number of tasks allowed to run at the same time
+     */
+    public VirtualThreadTaskExecutor(int maxConcurrency) {
+        this.permits = new Semaphore(maxConcurrency);
+    }
+
+    /**
+     * @return {@code true} if virtual threads are supported by the running JVM
+     */
+    public static boolean isSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    @Override
+    protected ExecutorService initializeExecutor(ThreadFactory threadFactory,
+                                                 RejectedExecutionHandler rejectedExecutionHandler) {
+        // The given (platform) threadFactory is ignored: it is the virtual thread factory which is used instead.
+        try {
+            // Thread.ofVirtual().name(prefix, 0).factory()
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, getThreadNamePrefix(), 0L);
+            ThreadFactory virtualThreadFactory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+
+            // Executors.newThreadPerTaskExecutor(factory)
+            Method newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            executorService = (ExecutorService) newThreadPerTaskExecutor.invoke(null, virtualThreadFactory);
+            return executorService;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads are not supported by the JVM (JDK 21+ is required)", e);
+        }
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (executorService == null) {
+            throw new IllegalStateException("VirtualThreadTaskExecutor not initialized");
+        }
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a permit", e);
+        }
+        try {
+            executorService.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            // the task was rejected, so the permit is not going to be released by it
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * @return number of tasks which may be started right away
+     */
+    public int getAvailablePermits() {
+        return permits.availablePermits();
+    }
+}
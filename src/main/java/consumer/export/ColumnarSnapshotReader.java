@@ -0,0 +1,195 @@
+package consumer.export;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the files written by {@link ColumnarSnapshotWriter}, row by row. (The columns which are not needed are still
+ * decompressed, the reader is meant for the tools and the tests rather than for the analytics.)
+ */
+public class ColumnarSnapshotReader implements Closeable {
+
+    private final InputStream input;
+    private final String[] names;
+    private final ColumnarSnapshotWriter.Type[] types;
+    private final Inflater inflater = new Inflater(true);
+    // columns of the current group of rows
+    private final Column[] columns;
+    private int rows;
+    private int row;
+    private boolean finished;
+
+    public ColumnarSnapshotReader(InputStream input) throws IOException {
+        this.input = new BufferedInputStream(input, 1 << 16);
+        byte[] magic = new byte[ColumnarSnapshotWriter.MAGIC.length];
+        for (int i = 0; i < magic.length; i++) {
+            magic[i] = (byte) readByte();
+        }
+        int version = readByte();
+        if (!Arrays.equals(magic, ColumnarSnapshotWriter.MAGIC) || version != ColumnarSnapshotWriter.VERSION) {
+            throw new IOException("Not a columnar snapshot, or of an unknown version");
+        }
+        int count = (int) readVarint();
+        names = new String[count];
+        types = new ColumnarSnapshotWriter.Type[count];
+        columns = new Column[count];
+        for (int i = 0; i < count; i++) {
+            byte[] name = new byte[(int) readVarint()];
+            for (int j = 0; j < name.length; j++) {
+                name[j] = (byte) readByte();
+            }
+            names[i] = new String(name, StandardCharsets.UTF_8);
+            types[i] = ColumnarSnapshotWriter.Type.values()[readByte()];
+            columns[i] = new Column();
+        }
+    }
+
+    public String[] getColumnNames() {
+        return names.clone();
+    }
+
+    /**
+     * @return values of the next row, by the columns ({@code Long}, {@code String} or {@code List<Long>}, or
+     * {@code null}), or {@code null} in case when there are no more rows
+     */
+    public Object[] next() throws IOException {
+        if (row == rows && !readGroup()) {
+            return null;
+        }
+        Object[] values = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            values[i] = columns[i].next(row, types[i]);
+        }
+        row++;
+        return values;
+    }
+
+    private boolean readGroup() throws IOException {
+        if (finished) {
+            return false;
+        }
+        rows = (int) readVarint();
+        row = 0;
+        if (rows == 0) {
+            finished = true;
+            return false;
+        }
+        for (Column column : columns) {
+            byte[] compressed = new byte[(int) readVarint()];
+            for (int read = 0; read < compressed.length; ) {
+                int count = input.read(compressed, read, compressed.length - read);
+                if (count < 0) {
+                    throw new EOFException();
+                }
+                read += count;
+            }
+            column.inflate(compressed, inflater, (rows + 7) / 8);
+        }
+        return true;
+    }
+
+    private int readByte() throws IOException {
+        int value = input.read();
+        if (value < 0) {
+            throw new EOFException();
+        }
+        return value;
+    }
+
+    private long readVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        input.close();
+    }
+
+    // Decompressed column of the current group of rows
+    private static final class Column {
+        private byte[] bytes = new byte[1 << 12];
+        private int size;
+        private int position;
+        private long previous;
+
+        void inflate(byte[] compressed, Inflater inflater, int presenceLength) throws IOException {
+            inflater.reset();
+            inflater.setInput(compressed);
+            size = 0;
+            try {
+                while (!inflater.finished()) {
+                    if (size == bytes.length) {
+                        bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                    }
+                    int count = inflater.inflate(bytes, size, bytes.length - size);
+                    if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new IOException("Column is truncated");
+                    }
+                    size += count;
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Column is corrupted", e);
+            }
+            position = presenceLength;
+            previous = 0;
+        }
+
+        Object next(int row, ColumnarSnapshotWriter.Type type) {
+            if ((bytes[row / 8] & (1 << (row % 8))) == 0) {
+                return null;
+            }
+            switch (type) {
+                case LONG:
+                    previous += readZigzag();
+                    return previous;
+                case STRING:
+                    int length = (int) readVarint();
+                    String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+                    position += length;
+                    return value;
+                default:
+                    int count = (int) readVarint();
+                    List<Long> list = new ArrayList<>(count);
+                    long last = 0;
+                    for (int i = 0; i < count; i++) {
+                        last += readZigzag();
+                        list.add(last);
+                    }
+                    return list;
+            }
+        }
+
+        private long readZigzag() {
+            long value = readVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        private long readVarint() {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = bytes[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package consumer.export;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import consumer.model.Comment;
+import consumer.model.Story;
+
+/**
+ * Writes the entities in a simple columnar format, so that the analytics reading a few of the fields (e.g. the
+ * scores, or the authors) do not read (nor decompress) the text of the comments. The rows are split into groups of
+ * {@code rowGroupSize} rows, of which columns are encoded and deflated one by one, so the memory the writer takes is
+ * bounded by a group.
+ *
+ * The file is laid out as follows (all the integers are varints, unless noted otherwise):
+ * <pre>
+ * "HNCOL" version(1 byte) columnCount (nameLength name(UTF-8) type(1 byte))*
+ * (rowCount (compressedLength deflatedColumn)*)*
+ * 0
+ * </pre>
+ * and each column of a group, before it is deflated (raw deflate), as
+ * <pre>
+ * presence(a bit per row, the lowest bit first; a value is present unless it is null) value*
+ * </pre>
+ * with the present values only, by the type of the column:
+ * <ul>
+ *     <li>{@link Type#LONG} -- the difference with the previous value of the group (zigzag), so that the ascending
+ *     values, e.g. the externalIds and the times, take a byte or two;</li>
+ *     <li>{@link Type#STRING} -- the length of UTF-8 bytes and the bytes;</li>
+ *     <li>{@link Type#LONG_LIST} -- the size of the list and the values, each as the difference with the previous
+ *     value of the list (zigzag).</li>
+ * </ul>
+ * The booleans are written as {@link Type#LONG}s ({@code 0} or {@code 1}).
+ *
+ * @see ColumnarSnapshotReader
+ */
+public class ColumnarSnapshotWriter implements SnapshotWriter {
+
+    static final byte[] MAGIC = "HNCOL".getBytes(StandardCharsets.US_ASCII);
+    static final int VERSION = 1;
+
+    enum Type {
+        LONG, STRING, LONG_LIST
+    }
+
+    static final String[] STORY_COLUMNS = {"id", "by", "time", "title", "url", "score", "descendants", "kids"};
+    static final Type[] STORY_TYPES = {Type.LONG, Type.STRING, Type.LONG, Type.STRING, Type.STRING, Type.LONG,
+            Type.LONG, Type.LONG_LIST};
+    static final String[] COMMENT_COLUMNS = {"id", "by", "time", "parent", "text", "dead", "kids"};
+    static final Type[] COMMENT_TYPES = {Type.LONG, Type.STRING, Type.LONG, Type.LONG, Type.STRING, Type.LONG,
+            Type.LONG_LIST};
+
+    private final OutputStream output;
+    private final Column[] columns;
+    private final int rowGroupSize;
+    private final Object[] row;
+    private int rows;
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+    private byte[] compressed = new byte[1 << 16];
+
+    public static ColumnarSnapshotWriter forStories(OutputStream output, int rowGroupSize) throws IOException {
+        return new ColumnarSnapshotWriter(output, STORY_COLUMNS, STORY_TYPES, rowGroupSize);
+    }
+
+    public static ColumnarSnapshotWriter forComments(OutputStream output, int rowGroupSize) throws IOException {
+        return new ColumnarSnapshotWriter(output, COMMENT_COLUMNS, COMMENT_TYPES, rowGroupSize);
+    }
+
+    ColumnarSnapshotWriter(OutputStream output, String[] names, Type[] types, int rowGroupSize) throws IOException {
+        this.output = output;
+        this.rowGroupSize = rowGroupSize;
+        this.columns = new Column[names.length];
+        this.row = new Object[names.length];
+        output.write(MAGIC);
+        output.write(VERSION);
+        writeVarint(output, names.length);
+        for (int i = 0; i < names.length; i++) {
+            byte[] name = names[i].getBytes(StandardCharsets.UTF_8);
+            writeVarint(output, name.length);
+            output.write(name);
+            output.write(types[i].ordinal());
+            columns[i] = new Column(types[i]);
+        }
+    }
+
+    @Override
+    public void write(Story story) throws IOException {
+        checkColumns(STORY_COLUMNS);
+        row[0] = story.getExternalId();
+        row[1] = story.getBy();
+        row[2] = story.getDate() != null ? story.getDate().getTime() : null;
+        row[3] = story.getTitle();
+        row[4] = story.getUrl();
+        row[5] = story.getScore();
+        row[6] = story.getDescendants();
+        row[7] = story.getKids();
+        writeRow();
+    }
+
+    @Override
+    public void write(Comment comment) throws IOException {
+        checkColumns(COMMENT_COLUMNS);
+        row[0] = comment.getExternalId();
+        row[1] = comment.getBy();
+        row[2] = comment.getDate() != null ? comment.getDate().getTime() : null;
+        row[3] = comment.getParentExternalId();
+        row[4] = comment.getText();
+        row[5] = comment.getDead() != null ? (comment.getDead() ? 1L : 0L) : null;
+        row[6] = comment.getKids();
+        writeRow();
+    }
+
+    private void checkColumns(String[] names) {
+        if (names.length != columns.length) {
+            throw new IllegalStateException("The entity does not match the columns of the file");
+        }
+    }
+
+    private void writeRow() throws IOException {
+        for (int i = 0; i < columns.length; i++) {
+            columns[i].add(rows, row[i]);
+        }
+        rows++;
+        if (rows == rowGroupSize) {
+            flush();
+        }
+    }
+
+    // Write the group of rows
+    private void flush() throws IOException {
+        writeVarint(output, rows);
+        for (Column column : columns) {
+            deflater.reset();
+            deflater.setInput(column.presence, 0, (rows + 7) / 8);
+            int length = deflate(0);
+            deflater.setInput(column.values.bytes, 0, column.values.size);
+            deflater.finish();
+            length = deflate(length);
+            writeVarint(output, length);
+            output.write(compressed, 0, length);
+            column.clear();
+        }
+        rows = 0;
+    }
+
+    // Deflate the input to the compressed bytes from the offset, growing them as needed
+    private int deflate(int offset) {
+        int length = offset;
+        while (true) {
+            if (length == compressed.length) {
+                compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            }
+            int count = deflater.deflate(compressed, length, compressed.length - length);
+            length += count;
+            if (deflater.finished() || (count == 0 && deflater.needsInput())) {
+                return length;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (rows > 0) {
+                flush();
+            }
+            writeVarint(output, 0);
+        } finally {
+            deflater.end();
+            output.close();
+        }
+    }
+
+    static void writeVarint(OutputStream output, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            output.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        output.write((int) value);
+    }
+
+    // Values of a column of the group of rows being written
+    private static final class Column {
+        private final Type type;
+        private byte[] presence = new byte[64];
+        private final Bytes values = new Bytes();
+        private long previous;
+
+        Column(Type type) {
+            this.type = type;
+        }
+
+        @SuppressWarnings("unchecked")
+        void add(int row, Object value) {
+            if (row / 8 == presence.length) {
+                presence = Arrays.copyOf(presence, presence.length * 2);
+            }
+            if (value == null) {
+                return;
+            }
+            presence[row / 8] |= 1 << (row % 8);
+            switch (type) {
+                case LONG:
+                    long number = ((Number) value).longValue();
+                    values.writeZigzag(number - previous);
+                    previous = number;
+                    break;
+                case STRING:
+                    byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+                    values.writeVarint(bytes.length);
+                    values.write(bytes);
+                    break;
+                default:
+                    List<Long> list = (List<Long>) value;
+                    values.writeVarint(list.size());
+                    long last = 0;
+                    for (Long element : list) {
+                        values.writeZigzag(element - last);
+                        last = element;
+                    }
+            }
+        }
+
+        void clear() {
+            Arrays.fill(presence, (byte) 0);
+            values.size = 0;
+            previous = 0;
+        }
+    }
+
+    // Growable array of bytes
+    private static final class Bytes {
+        private byte[] bytes = new byte[1 << 12];
+        private int size;
+
+        void writeZigzag(long value) {
+            writeVarint((value << 1) ^ (value >> 63));
+        }
+
+        void writeVarint(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        void write(byte[] values) {
+            ensureCapacity(values.length);
+            System.arraycopy(values, 0, bytes, size, values.length);
+            size += values.length;
+        }
+
+        private void ensureCapacity(int length) {
+            if (size + length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + length));
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package consumer.export;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+
+import consumer.model.Comment;
+import consumer.model.Data;
+import consumer.model.Story;
+
+/**
+ * Writes the entities as gzip-compressed newline-delimited json, in the shape of {@link Data} (the time is written in
+ * ms, as {@link Data} is read). The json is generated field by field, with no intermediate objects, and compressed
+ * with the fastest level, as the export is expected to be bound by the compression otherwise.
+ */
+class NdjsonSnapshotWriter implements SnapshotWriter {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final String STORY = "story";
+    private static final String COMMENT = "comment";
+
+    private final JsonGenerator generator;
+    private boolean empty = true;
+
+    NdjsonSnapshotWriter(OutputStream output) throws IOException {
+        GZIPOutputStream gzip = new GZIPOutputStream(output, 1 << 16) {
+            {
+                def.setLevel(Deflater.BEST_SPEED);
+            }
+        };
+        this.generator = JSON_FACTORY.createGenerator(gzip, JsonEncoding.UTF8);
+        this.generator.setRootValueSeparator(new SerializedString("\n"));
+    }
+
+    @Override
+    public void write(Story story) throws IOException {
+        empty = false;
+        generator.writeStartObject();
+        writeNumber("id", story.getExternalId());
+        generator.writeStringField("type", STORY);
+        writeString("by", story.getBy());
+        writeNumber("time", story.getDate() != null ? story.getDate().getTime() : null);
+        writeString("title", story.getTitle());
+        writeString("url", story.getUrl());
+        writeNumber("score", story.getScore() != null ? story.getScore().longValue() : null);
+        writeNumber("descendants", story.getDescendants() != null ? story.getDescendants().longValue() : null);
+        writeKids(story.getKids());
+        generator.writeEndObject();
+    }
+
+    @Override
+    public void write(Comment comment) throws IOException {
+        empty = false;
+        generator.writeStartObject();
+        writeNumber("id", comment.getExternalId());
+        generator.writeStringField("type", COMMENT);
+        writeString("by", comment.getBy());
+        writeNumber("time", comment.getDate() != null ? comment.getDate().getTime() : null);
+        writeNumber("parent", comment.getParentExternalId());
+        writeString("text", comment.getText());
+        if (comment.getDead() != null) {
+            generator.writeBooleanField("dead", comment.getDead());
+        }
+        writeKids(comment.getKids());
+        generator.writeEndObject();
+    }
+
+    private void writeNumber(String name, Long value) throws IOException {
+        if (value != null) {
+            generator.writeNumberField(name, value);
+        }
+    }
+
+    private void writeString(String name, String value) throws IOException {
+        if (value != null) {
+            generator.writeStringField(name, value);
+        }
+    }
+
+    private void writeKids(List<Long> kids) throws IOException {
+        if (kids != null) {
+            generator.writeArrayFieldStart("kids");
+            for (Long kid : kids) {
+                generator.writeNumber(kid);
+            }
+            generator.writeEndArray();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!empty) {
+            generator.writeRaw('\n');
+        }
+        // closes the stream as well
+        generator.close();
+    }
+}
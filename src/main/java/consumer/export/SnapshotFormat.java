@@ -0,0 +1,61 @@
+package consumer.export;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import consumer.model.Story;
+
+/**
+ * Formats of the snapshots written by {@link consumer.BulkExporter}.
+ */
+public enum SnapshotFormat {
+
+    // gzip-compressed newline-delimited json of the items, in the shape the endpoint returns them in (so that the
+    // snapshot can be imported back with `import`)
+    NDJSON(".ndjson.gz") {
+        @Override
+        SnapshotWriter open(OutputStream output, Class<?> type, int rowGroupSize) throws IOException {
+            return new NdjsonSnapshotWriter(output);
+        }
+    },
+    // see ColumnarSnapshotWriter
+    COLUMNAR(".col") {
+        @Override
+        SnapshotWriter open(OutputStream output, Class<?> type, int rowGroupSize) throws IOException {
+            return type == Story.class ? ColumnarSnapshotWriter.forStories(output, rowGroupSize)
+                    : ColumnarSnapshotWriter.forComments(output, rowGroupSize);
+        }
+    };
+
+    // the size of the buffer of the file, so that the file is written with large writes
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final String extension;
+
+    SnapshotFormat(String extension) {
+        this.extension = extension;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * Create the file and open the writer of the entities of the type ({@link Story} or
+     * {@link consumer.model.Comment}) to it.
+     */
+    public SnapshotWriter open(Path file, Class<?> type, int rowGroupSize) throws IOException {
+        OutputStream output = new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE);
+        try {
+            return open(output, type, rowGroupSize);
+        } catch (IOException | RuntimeException e) {
+            output.close();
+            throw e;
+        }
+    }
+
+    abstract SnapshotWriter open(OutputStream output, Class<?> type, int rowGroupSize) throws IOException;
+}
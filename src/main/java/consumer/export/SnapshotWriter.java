@@ -0,0 +1,18 @@
+package consumer.export;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import consumer.model.Comment;
+import consumer.model.Story;
+
+/**
+ * Writer of a part of a snapshot, i.e. of the entities of a range of externalIds of a collection (so a writer is only
+ * given either the stories or the comments).
+ */
+public interface SnapshotWriter extends Closeable {
+
+    void write(Story story) throws IOException;
+
+    void write(Comment comment) throws IOException;
+}
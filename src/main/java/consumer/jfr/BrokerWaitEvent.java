@@ -0,0 +1,38 @@
+package consumer.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * As the wait starts before the item is sent and ends in another thread, once the item is received, it is committed on
+ * receipt with the wait as {@code waitTime}, rather than as the duration of the event.
+ */
+@Name(BrokerWaitEvent.NAME)
+@Label("Broker Wait")
+@Description("Time from sending of an item until it is received from the queue")
+public class BrokerWaitEvent extends PipelineEvent {
+
+    public static final String NAME = "consumer.BrokerWait";
+    public static final String WAIT_TIME = "waitTime";
+
+    @Label("Wait Time")
+    @Timespan(Timespan.MILLISECONDS)
+    private long waitTime;
+
+    /**
+     * Commit the event for an item received from the queue.
+     * @param sentAt time the item was sent at (in ms), {@code null} in case when it is not known
+     */
+    public static void received(Long itemId, String itemType, Long sentAt) {
+        BrokerWaitEvent event = new BrokerWaitEvent();
+        if (itemId == null || sentAt == null || !event.isEnabled()) {
+            return;
+        }
+        event.itemId = itemId;
+        event.itemType = itemType;
+        event.waitTime = Math.max(0, System.currentTimeMillis() - sentAt);
+        event.commit();
+    }
+}
@@ -0,0 +1,13 @@
+package consumer.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name(ExecutorWaitEvent.NAME)
+@Label("Executor Wait")
+@Description("Time the fetch of an item waits in the queue of the executor")
+public class ExecutorWaitEvent extends PipelineEvent {
+
+    public static final String NAME = "consumer.ExecutorWait";
+}
@@ -0,0 +1,13 @@
+package consumer.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name(FetchEvent.NAME)
+@Label("Fetch")
+@Description("HTTP request of an item, including hedged requests")
+public class FetchEvent extends PipelineEvent {
+
+    public static final String NAME = "consumer.Fetch";
+}
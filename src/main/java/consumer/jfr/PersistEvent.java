@@ -0,0 +1,51 @@
+package consumer.jfr;
+
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.function.Function;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Unlike the other stages, the items are persisted in batches, so the event is emitted per batch: {@code itemId} is
+ * the first item of the batch, and {@code itemIds} lists all of them (comma-separated, as the events have no array
+ * fields), so that the time of the batch is attributed to each of its items.
+ */
+@Name(PersistEvent.NAME)
+@Label("Persist")
+@Description("Persisting of a batch of items to the DB")
+public class PersistEvent extends PipelineEvent {
+
+    public static final String NAME = "consumer.Persist";
+    public static final String ITEM_IDS = "itemIds";
+
+    @Label("Item Count")
+    private int itemCount;
+
+    @Label("Item Ids")
+    private String itemIds;
+
+    /**
+     * End the event, and commit it for the batch of {@code items} (unless it is not enabled, or is below the threshold
+     * of the recording).
+     */
+    public <T> void commit(String itemType, List<T> items, Function<T, Long> itemId) {
+        long first = 0;
+        // the ids are only joined while the event is recorded
+        if (isEnabled()) {
+            StringJoiner ids = new StringJoiner(",");
+            for (T item : items) {
+                Long id = itemId.apply(item);
+                if (id != null) {
+                    first = ids.length() == 0 ? id : first;
+                    ids.add(id.toString());
+                }
+            }
+            itemCount = items.size();
+            itemIds = ids.toString();
+        }
+        commit(first, itemType);
+    }
+}
@@ -0,0 +1,35 @@
+package consumer.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+
+/**
+ * Base of the Java Flight Recorder events emitted at each stage of the pipeline, for an item (entity) passing the
+ * stage. The events cost next to nothing unless a recording is running, e.g. when the application is started with
+ * {@code -XX:StartFlightRecording=filename=consume.jfr}; the recording is analyzed with {@link PipelineTraceAnalyzer}.
+ */
+@Category("Data Consumer")
+@StackTrace(false)
+public abstract class PipelineEvent extends Event {
+
+    // (not private, as JFR ignores the private fields of the super classes of events)
+    @Label("Item Id")
+    protected long itemId;
+
+    @Label("Item Type")
+    protected String itemType;
+
+    /**
+     * End the event, and commit it (unless it is not enabled, or is below the threshold of the recording).
+     */
+    public void commit(long itemId, String itemType) {
+        end();
+        if (shouldCommit()) {
+            this.itemId = itemId;
+            this.itemType = itemType;
+            commit();
+        }
+    }
+}
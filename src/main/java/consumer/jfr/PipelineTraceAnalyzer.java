@@ -0,0 +1,155 @@
+package consumer.jfr;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Reads a Java Flight Recorder recording with {@link PipelineEvent}s (and {@link PersistEvent}s), and prints the
+ * breakdown of the time by stage of the pipeline, along with the items which took the longest to pass the stages (as
+ * the items are persisted in batches, the persisting of an item takes the time of its batch).
+ *
+ * Run it against a recording with:
+ * <pre>java -cp target/data-consumer-0.0.1-SNAPSHOT.jar -Dloader.main=consumer.jfr.PipelineTraceAnalyzer \
+ *     org.springframework.boot.loader.PropertiesLauncher consume.jfr [N]</pre>
+ */
+public class PipelineTraceAnalyzer {
+
+    // in the order the items pass the stages
+    static final List<String> STAGES = Arrays.asList(ExecutorWaitEvent.NAME, FetchEvent.NAME, SendEvent.NAME,
+            BrokerWaitEvent.NAME, PersistEvent.NAME);
+
+    // durations (in ns) of the events, by stage
+    private final List<List<Long>> durations = new ArrayList<>();
+    private final Map<Long, Item> items = new HashMap<>();
+
+    public PipelineTraceAnalyzer() {
+        for (int i = 0; i < STAGES.size(); i++) {
+            durations.add(new ArrayList<>());
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: PipelineTraceAnalyzer RECORDING.jfr [N]");
+            System.exit(1);
+        }
+        PipelineTraceAnalyzer analyzer = new PipelineTraceAnalyzer();
+        analyzer.read(Paths.get(args[0]));
+        analyzer.print(System.out, args.length > 1 ? Integer.parseInt(args[1]) : 10);
+    }
+
+    public void read(Path recording) throws IOException {
+        try (RecordingFile file = new RecordingFile(recording)) {
+            while (file.hasMoreEvents()) {
+                add(file.readEvent());
+            }
+        }
+    }
+
+    void add(RecordedEvent event) {
+        String name = event.getEventType().getName();
+        int stage = STAGES.indexOf(name);
+        if (stage < 0) {
+            return;
+        }
+        long nanos = name.equals(BrokerWaitEvent.NAME)
+                ? event.getDuration(BrokerWaitEvent.WAIT_TIME).toNanos()
+                : event.getDuration().toNanos();
+        durations.get(stage).add(nanos);
+        if (name.equals(PersistEvent.NAME)) {
+            String ids = event.getString(PersistEvent.ITEM_IDS);
+            if (ids != null && !ids.isEmpty()) {
+                for (String id : ids.split(",")) {
+                    add(Long.parseLong(id), event.getString("itemType"), stage, nanos);
+                }
+            }
+        } else {
+            add(event.getLong("itemId"), event.getString("itemType"), stage, nanos);
+        }
+    }
+
+    private void add(long itemId, String itemType, int stage, long nanos) {
+        Item item = items.computeIfAbsent(itemId, Item::new);
+        // a retried fetch (or persist) adds up
+        item.nanos[stage] += nanos;
+        if (itemType != null) {
+            item.type = itemType;
+        }
+    }
+
+    /**
+     * Print the breakdown of the time by stage and the {@code n} slowest items.
+     */
+    public void print(PrintStream out, int n) {
+        out.printf("%-14s %8s %12s %10s %10s %10s %10s%n", "Stage", "Count", "Total ms", "Avg ms", "p50 ms", "p99 ms",
+                "Max ms");
+        for (int stage = 0; stage < STAGES.size(); stage++) {
+            long[] sorted = durations.get(stage).stream().mapToLong(Long::longValue).sorted().toArray();
+            long total = Arrays.stream(sorted).sum();
+            out.printf("%-14s %8d %12.1f %10.2f %10.2f %10.2f %10.2f%n", label(stage), sorted.length, millis(total),
+                    sorted.length > 0 ? millis(total) / sorted.length : 0, millis(percentile(sorted, 0.5)),
+                    millis(percentile(sorted, 0.99)), millis(percentile(sorted, 1)));
+        }
+
+        List<Item> slowest = items.values().stream()
+                .sorted(Comparator.comparingLong(Item::total).reversed())
+                .limit(n)
+                .collect(Collectors.toList());
+        out.println();
+        out.printf("Slowest %d item(s):%n", slowest.size());
+        out.printf("%12s %-8s %10s", "Id", "Type", "Total ms");
+        for (int stage = 0; stage < STAGES.size(); stage++) {
+            out.printf(" %12s", label(stage));
+        }
+        out.println();
+        for (Item item : slowest) {
+            out.printf("%12d %-8s %10.2f", item.id, item.type != null ? item.type : "-", millis(item.total()));
+            for (int stage = 0; stage < STAGES.size(); stage++) {
+                out.printf(" %12.2f", millis(item.nanos[stage]));
+            }
+            out.println();
+        }
+    }
+
+    private static String label(int stage) {
+        return STAGES.get(stage).substring("consumer.".length());
+    }
+
+    private static long percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.max(0, Math.min(sorted.length - 1, (int) Math.ceil(quantile * sorted.length) - 1))];
+    }
+
+    private static double millis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    private static final class Item {
+        private final long id;
+        private final long[] nanos = new long[STAGES.size()];
+        private String type;
+
+        private Item(long id) {
+            this.id = id;
+        }
+
+        private long total() {
+            return Arrays.stream(nanos).sum();
+        }
+    }
+}
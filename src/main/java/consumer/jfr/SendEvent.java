@@ -0,0 +1,20 @@
+package consumer.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name(SendEvent.NAME)
+@Label("Send")
+@Description("Sending of an item to the broker (or to the spill log)")
+public class SendEvent extends PipelineEvent {
+
+    public static final String NAME = "consumer.Send";
+
+    @Label("Routing Key")
+    private String routingKey;
+
+    public void setRoutingKey(String routingKey) {
+        this.routingKey = routingKey;
+    }
+}
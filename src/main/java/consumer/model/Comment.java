@@ -5,6 +5,7 @@ import java.util.Date;
 import java.util.List;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Transient;
 import org.springframework.data.mongodb.core.index.Indexed;
 
 // MongoDB document, also acts as DTO.
@@ -20,6 +21,14 @@ public class Comment implements Serializable {
     private String text;
     private Boolean dead;
     private List<Long> kids;
+    // time the entity is sent to the queue at, used to trace the time it waits in the queue (see BrokerWaitEvent);
+    // is not persisted
+    @Transient
+    private Long sentAt;
+    // story the comment belongs to and the time it is (last) ingested at; both are set after the comment is persisted,
+    // see StoryDeltaService
+    private Long storyExternalId;
+    private Date ingestedAt;
 
     public String getId() {
         return id;
@@ -84,4 +93,28 @@ public class Comment implements Serializable {
     public void setKids(List<Long> kids) {
         this.kids = kids;
     }
+
+    public Long getStoryExternalId() {
+        return storyExternalId;
+    }
+
+    public void setStoryExternalId(Long storyExternalId) {
+        this.storyExternalId = storyExternalId;
+    }
+
+    public Date getIngestedAt() {
+        return ingestedAt;
+    }
+
+    public void setIngestedAt(Date ingestedAt) {
+        this.ingestedAt = ingestedAt;
+    }
+
+    public Long getSentAt() {
+        return sentAt;
+    }
+
+    public void setSentAt(Long sentAt) {
+        this.sentAt = sentAt;
+    }
 }
@@ -5,6 +5,7 @@ import java.util.Date;
 import java.util.List;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Transient;
 import org.springframework.data.mongodb.core.index.Indexed;
 
 // MongoDB document, also acts as DTO.
@@ -21,6 +22,10 @@ public class Story implements Serializable {
     private String title;
     private String url;
     private List<Long> kids;
+    // time the entity is sent to the queue at, used to trace the time it waits in the queue (see BrokerWaitEvent);
+    // is not persisted
+    @Transient
+    private Long sentAt;
 
     public String getId() {
         return id;
@@ -93,4 +98,12 @@ public class Story implements Serializable {
     public void setKids(List<Long> kids) {
         this.kids = kids;
     }
+
+    public Long getSentAt() {
+        return sentAt;
+    }
+
+    public void setSentAt(Long sentAt) {
+        this.sentAt = sentAt;
+    }
 }
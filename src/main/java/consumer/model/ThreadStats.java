@@ -0,0 +1,65 @@
+package consumer.model;
+
+import java.util.Date;
+import java.util.Set;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+
+// MongoDB document with aggregate statistics of the comments of a story, maintained incrementally as the comments are
+// persisted (see ThreadStatsService).
+public class ThreadStats {
+
+    @Id
+    private Long storyExternalId;
+    private long commentCount;
+    private int maxDepth; // 1 for top-level comments
+    // indexed for listing the stories by activity (see ThreadStatsService.getMostActive)
+    @Indexed
+    private Date lastActivity;
+    private Set<String> participants;
+
+    public Long getStoryExternalId() {
+        return storyExternalId;
+    }
+
+    public void setStoryExternalId(Long storyExternalId) {
+        this.storyExternalId = storyExternalId;
+    }
+
+    public long getCommentCount() {
+        return commentCount;
+    }
+
+    public void setCommentCount(long commentCount) {
+        this.commentCount = commentCount;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    public Date getLastActivity() {
+        return lastActivity;
+    }
+
+    public void setLastActivity(Date lastActivity) {
+        this.lastActivity = lastActivity;
+    }
+
+    public Set<String> getParticipants() {
+        return participants;
+    }
+
+    public void setParticipants(Set<String> participants) {
+        this.participants = participants;
+    }
+
+    public int getParticipantCount() {
+        return participants == null ? 0 : participants.size();
+    }
+}
@@ -0,0 +1,184 @@
+package consumer.rabbit;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.lang.Nullable;
+
+import consumer.jfr.PersistEvent;
+import consumer.model.Comment;
+import consumer.model.Data;
+import consumer.repository.CommentRepository;
+import consumer.repository.TimePartitions;
+
+/**
+ * Write-behind buffer for {@link Comment comments}. Instead of persisting every (small) batch received by
+ * {@link Receiver} on its own, comments are accumulated and coalesced by {@code externalId} (the last write wins) and
+ * then persisted in large bulk writes.
+ *
+ * The buffer is flushed when either of the thresholds is reached:
+ * <ul>
+ *     <li>the number of pending comments reaches {@code maxSize};</li>
+ *     <li>the estimated memory footprint of pending comments reaches {@code maxBytes};</li>
+ *     <li>the oldest pending comment has been waiting for {@code maxAgeMillis}.</li>
+ * </ul>
+ * The size and memory thresholds are checked by the thread adding comments, which then performs the flush itself; as
+ * there is at most one flush at a time, producers are blocked while the previous flush is in progress, which bounds
+ * the memory used by the buffer. The buffer is flushed on shutdown as well.
+ */
+public class CommentWriteBuffer implements DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(CommentWriteBuffer.class);
+
+    // rough estimate of memory taken by a comment excluding its text
+    private static final int COMMENT_OVERHEAD_BYTES = 256;
+
+    private final CommentRepository commentRepository;
+    // optional monthly partitions the comments are written to
+    private final TimePartitions timePartitions;
+    private final int maxSize;
+    private final long maxBytes;
+    private final long maxAgeMillis;
+
+    private final Object flushLock = new Object();
+    private final ScheduledExecutorService scheduler;
+
+    // notified with the comments after they are persisted
+    private volatile Consumer<List<Comment>> flushListener;
+
+    // guarded by `this`
+    private Map<Long, Comment> pending = new LinkedHashMap<>();
+    private long pendingBytes;
+    private long oldestPendingMillis;
+
+    public CommentWriteBuffer(CommentRepository commentRepository, @Nullable TimePartitions timePartitions, int maxSize,
+                              long maxBytes, long maxAgeMillis) {
+        this.commentRepository = commentRepository;
+        this.timePartitions = timePartitions;
+        this.maxSize = maxSize;
+        this.maxBytes = maxBytes;
+        this.maxAgeMillis = maxAgeMillis;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "CommentWriteBuffer-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1, maxAgeMillis / 2);
+        scheduler.scheduleWithFixedDelay(this::flushIfExpired, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Add comments to the buffer, flushing it in case when size or memory threshold is reached.
+     * @param comments comments to persist
+     */
+    public void add(List<Comment> comments) {
+        boolean flush;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                oldestPendingMillis = System.currentTimeMillis();
+            }
+            for (Comment comment : comments) {
+                Comment previous = pending.put(comment.getExternalId(), comment);
+                if (previous != null) {
+                    pendingBytes -= estimateSize(previous);
+                }
+                pendingBytes += estimateSize(comment);
+            }
+            flush = pending.size() >= maxSize || pendingBytes >= maxBytes;
+        }
+        if (flush) {
+            flush();
+        }
+    }
+
+    /**
+     * Persist all pending comments.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            Map<Long, Comment> batch;
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = pending;
+                pending = new LinkedHashMap<>();
+                pendingBytes = 0;
+                oldestPendingMillis = System.currentTimeMillis();
+            }
+
+            logger.info("Flushing {} comment(s)", batch.size());
+            List<Comment> comments = new ArrayList<>(batch.values());
+            PersistEvent event = new PersistEvent();
+            event.begin();
+            try {
+                if (timePartitions != null) {
+                    timePartitions.insert(comments);
+                } else {
+                    commentRepository.saveAll(comments);
+                }
+                event.commit(Data.Type.COMMENT.name(), comments, Comment::getExternalId);
+            } catch (RuntimeException e) {
+                // put the comments back, unless they are already superseded by newer ones, to re-try on next flush
+                synchronized (this) {
+                    for (Map.Entry<Long, Comment> entry : batch.entrySet()) {
+                        if (pending.putIfAbsent(entry.getKey(), entry.getValue()) == null) {
+                            pendingBytes += estimateSize(entry.getValue());
+                        }
+                    }
+                }
+                throw e;
+            }
+
+            Consumer<List<Comment>> listener = flushListener;
+            if (listener != null) {
+                listener.accept(comments);
+            }
+        }
+    }
+
+    public void setFlushListener(Consumer<List<Comment>> flushListener) {
+        this.flushListener = flushListener;
+    }
+
+    /**
+     * @return number of comments waiting to be persisted
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    private void flushIfExpired() {
+        boolean expired;
+        synchronized (this) {
+            expired = !pending.isEmpty() && System.currentTimeMillis() - oldestPendingMillis >= maxAgeMillis;
+        }
+        if (expired) {
+            try {
+                flush();
+            } catch (RuntimeException e) {
+                logger.warn("Unable to flush comments, re-try later", e);
+            }
+        }
+    }
+
+    private static long estimateSize(Comment comment) {
+        String text = comment.getText();
+        return COMMENT_OVERHEAD_BYTES + (text != null ? 2L * text.length() : 0);
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.shutdownNow();
+        flush();
+    }
+}
@@ -0,0 +1,22 @@
+package consumer.rabbit;
+
+import java.util.List;
+
+import consumer.model.Comment;
+import consumer.model.Story;
+
+/**
+ * Callback notified by {@link Receiver} after the entities are persisted, e.g. to keep in-memory structures derived
+ * from the persisted data up to date. Any bean implementing the interface is registered with the {@link Receiver}.
+ *
+ * The callbacks are invoked on the listener container threads, hence the implementations are expected to be
+ * thread-safe and cheap.
+ */
+public interface PersistListener {
+
+    default void onStoriesPersisted(List<Story> stories) {
+    }
+
+    default void onCommentsPersisted(List<Comment> comments) {
+    }
+}
@@ -1,44 +1,154 @@
 package consumer.rabbit;
 
+import java.lang.reflect.Method;
 import java.util.List;
+import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.rabbit.annotation.RabbitListenerConfigurer;
+import org.springframework.amqp.rabbit.listener.MethodRabbitListenerEndpoint;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistrar;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.lang.Nullable;
+import org.springframework.messaging.handler.annotation.support.DefaultMessageHandlerMethodFactory;
+import org.springframework.messaging.handler.annotation.support.MessageHandlerMethodFactory;
 import org.springframework.stereotype.Component;
 
+import consumer.config.CommentSharding;
 import consumer.config.RabbitMQConfiguration;
+import consumer.jfr.BrokerWaitEvent;
+import consumer.jfr.PersistEvent;
 import consumer.model.Comment;
+import consumer.model.Data;
 import consumer.model.Story;
 import consumer.repository.CommentRepository;
 import consumer.repository.StoryRepository;
+import consumer.repository.TimePartitions;
 
 /**
  * Receiver is responsible for processing batches of Stories and Comments entities sent to RabbitMQ's queues.
- * During the processing the entities are persisted.
+ * During the processing the entities are persisted, after which registered {@link PersistListener}s are notified.
+ *
+ * Comments are received from the queues of {@link CommentSharding}, each having its own (single consumer) batch
+ * listener, so the comments of a story are persisted in order while the shards are persisted in parallel.
  */
 @Component
-public class Receiver {
+@ConditionalOnProperty(name = "consumer.rabbitmq.listeners.enabled", havingValue = "true", matchIfMissing = true)
+public class Receiver implements RabbitListenerConfigurer {
 
     private static final Logger logger = LoggerFactory.getLogger(Receiver.class);
 
     private final CommentRepository commentRepository;
     private final StoryRepository storyRepository;
+    // optional write-behind buffer for comments; when absent, each batch is persisted right away
+    private final CommentWriteBuffer commentWriteBuffer;
+    private final List<PersistListener> persistListeners;
+    private final CommentSharding commentSharding;
+    // optional monthly partitions the entities are written to; when absent, the entities are written to the base
+    // collections
+    private final TimePartitions timePartitions;
 
-    public Receiver(CommentRepository commentRepository, StoryRepository storyRepository) {
+    @Autowired
+    public Receiver(CommentRepository commentRepository, StoryRepository storyRepository,
+                    @Nullable CommentWriteBuffer commentWriteBuffer, ObjectProvider<PersistListener> persistListeners,
+                    CommentSharding commentSharding, @Nullable TimePartitions timePartitions) {
+        this(commentRepository, storyRepository, commentWriteBuffer,
+                persistListeners.orderedStream().collect(Collectors.toList()), commentSharding, timePartitions);
+    }
+
+    Receiver(CommentRepository commentRepository, StoryRepository storyRepository,
+             @Nullable CommentWriteBuffer commentWriteBuffer, List<PersistListener> persistListeners,
+             CommentSharding commentSharding, @Nullable TimePartitions timePartitions) {
+        this.commentSharding = commentSharding;
+        this.timePartitions = timePartitions;
         this.commentRepository = commentRepository;
         this.storyRepository = storyRepository;
+        this.commentWriteBuffer = commentWriteBuffer;
+        this.persistListeners = persistListeners;
+        if (commentWriteBuffer != null) {
+            // buffered comments are persisted later on, so the listeners are notified on flush
+            commentWriteBuffer.setFlushListener(this::notifyCommentsPersisted);
+        }
+    }
+
+    // Registers a batch listener of processComments for each shard of comments
+    @Override
+    public void configureRabbitListeners(RabbitListenerEndpointRegistrar registrar) {
+        MessageHandlerMethodFactory messageHandlerMethodFactory = registrar.getMessageHandlerMethodFactory();
+        if (messageHandlerMethodFactory == null) {
+            DefaultMessageHandlerMethodFactory defaultFactory = new DefaultMessageHandlerMethodFactory();
+            defaultFactory.afterPropertiesSet();
+            messageHandlerMethodFactory = defaultFactory;
+        }
+        Method method;
+        try {
+            method = Receiver.class.getMethod("processComments", List.class);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+
+        for (int shard = 0; shard < commentSharding.getShards(); shard++) {
+            MethodRabbitListenerEndpoint endpoint = new MethodRabbitListenerEndpoint();
+            endpoint.setId("receiver.comment." + shard);
+            endpoint.setQueueNames(commentSharding.queueName(shard));
+            endpoint.setBean(this);
+            endpoint.setMethod(method);
+            endpoint.setMessageHandlerMethodFactory(messageHandlerMethodFactory);
+            endpoint.setBatchListener(true);
+            if (commentSharding.getShards() > 1) {
+                // a single consumer per shard, so the comments of a story are persisted in order
+                endpoint.setConcurrency("1");
+            }
+            registrar.registerEndpoint(endpoint);
+        }
     }
 
-    @RabbitListener(queues = RabbitMQConfiguration.QUEUE_COMMENT)
     public void processComments(List<Comment> comments) {
         logger.info("Processing {} comment(s)", comments.size());
-        commentRepository.saveAll(comments);
+        for (Comment comment : comments) {
+            BrokerWaitEvent.received(comment.getExternalId(), Data.Type.COMMENT.name(), comment.getSentAt());
+        }
+        if (commentWriteBuffer != null) {
+            commentWriteBuffer.add(comments);
+        } else {
+            PersistEvent event = new PersistEvent();
+            event.begin();
+            if (timePartitions != null) {
+                timePartitions.insert(comments);
+            } else {
+                commentRepository.saveAll(comments);
+            }
+            event.commit(Data.Type.COMMENT.name(), comments, Comment::getExternalId);
+            notifyCommentsPersisted(comments);
+        }
     }
 
     @RabbitListener(queues = RabbitMQConfiguration.QUEUE_STORY)
     public void processStories(List<Story> stories) {
         logger.info("Processing {} stories", stories.size());
-        storyRepository.saveAll(stories);
+        for (Story story : stories) {
+            BrokerWaitEvent.received(story.getExternalId(), Data.Type.STORY.name(), story.getSentAt());
+        }
+        PersistEvent event = new PersistEvent();
+        event.begin();
+        if (timePartitions != null) {
+            timePartitions.insert(stories);
+        } else {
+            storyRepository.saveAll(stories);
+        }
+        event.commit(Data.Type.STORY.name(), stories, Story::getExternalId);
+        for (PersistListener listener : persistListeners) {
+            listener.onStoriesPersisted(stories);
+        }
+    }
+
+    private void notifyCommentsPersisted(List<Comment> comments) {
+        for (PersistListener listener : persistListeners) {
+            listener.onCommentsPersisted(comments);
+        }
     }
 }
@@ -0,0 +1,305 @@
+package consumer.rabbit;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only log of messages, stored locally in memory-mapped segment files of fixed size. Messages are appended to
+ * the last (active) segment; once it is full, a new segment is started. Messages are read (in order of appending) with
+ * {@link #poll(int)} and, once processed, acknowledged with {@link #commit(Position)}, which deletes the segments
+ * which are read completely and saves the read position to the checkpoint file.
+ *
+ * Each record is stored as {@code [length][crc32][routing key length][routing key][body]}; the CRC makes it possible
+ * to detect a partially written record (e.g. in case of a crash), which, along with anything after it, is ignored.
+ * On opening, the log is recovered from the segment files and the checkpoint, so the messages which are not committed
+ * are read again (i.e. the messages are delivered at least once).
+ */
+public class SpillLog implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(SpillLog.class);
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("spill-(\\d+)\\.log");
+    private static final String CHECKPOINT_NAME = "spill.checkpoint";
+    private static final int HEADER_SIZE = 8; // length + crc
+
+    private final Path dir;
+    private final int segmentSize;
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private Position readPosition;
+
+    public SpillLog(Path dir, int segmentSize) throws IOException {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(dir);
+        recover();
+    }
+
+    private void recover() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                Matcher matcher = SEGMENT_NAME.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    long sequence = Long.parseLong(matcher.group(1));
+                    segments.put(sequence, Segment.open(sequence, file, segmentSize));
+                }
+            }
+        }
+
+        Path checkpoint = dir.resolve(CHECKPOINT_NAME);
+        if (Files.exists(checkpoint)) {
+            String[] value = new String(Files.readAllBytes(checkpoint), StandardCharsets.UTF_8).trim().split(":");
+            readPosition = new Position(Long.parseLong(value[0]), Integer.parseInt(value[1]));
+        }
+
+        if (segments.isEmpty()) {
+            long sequence = readPosition != null ? readPosition.segment : 0;
+            segments.put(sequence, Segment.open(sequence, segmentPath(sequence), segmentSize));
+        }
+        if (readPosition == null || readPosition.segment < segments.firstKey()) {
+            readPosition = new Position(segments.firstKey(), 0);
+        }
+        // segments which are read completely, but not deleted before the crash
+        deleteSegmentsBefore(readPosition.segment);
+
+        if (!isEmpty()) {
+            logger.info("Recovered spill log with unsent messages ({} segment(s))", segments.size());
+        }
+    }
+
+    /**
+     * Append the message to the log.
+     */
+    public synchronized void append(String routingKey, byte[] body) throws IOException {
+        byte[] key = routingKey.getBytes(StandardCharsets.UTF_8);
+        int length = 2 + key.length + body.length;
+        if (HEADER_SIZE + length > segmentSize) {
+            throw new IllegalArgumentException("Message of " + body.length + " bytes does not fit into a segment");
+        }
+
+        Segment active = segments.lastEntry().getValue();
+        if (active.writePosition + HEADER_SIZE + length > segmentSize) {
+            active.buffer.force();
+            long sequence = active.sequence + 1;
+            active = Segment.open(sequence, segmentPath(sequence), segmentSize);
+            segments.put(sequence, active);
+        }
+
+        ByteBuffer payload = ByteBuffer.allocate(length);
+        payload.putShort((short) key.length).put(key).put(body);
+        CRC32 crc = new CRC32();
+        crc.update(payload.array(), 0, length);
+
+        ByteBuffer buffer = active.buffer;
+        int position = active.writePosition;
+        buffer.putInt(position + 4, (int) crc.getValue());
+        for (int i = 0; i < length; i++) {
+            buffer.put(position + HEADER_SIZE + i, payload.get(i));
+        }
+        // the length is written last, so a record is not visible until it is written completely
+        buffer.putInt(position, length);
+        active.writePosition = position + HEADER_SIZE + length;
+    }
+
+    /**
+     * Read up to {@code max} messages, starting from the last committed position.
+     */
+    public synchronized Batch poll(int max) {
+        List<Message> messages = new ArrayList<>();
+        long sequence = readPosition.segment;
+        int offset = readPosition.offset;
+        while (messages.size() < max) {
+            Segment segment = segments.get(sequence);
+            if (segment == null) {
+                break;
+            }
+            if (offset >= segment.writePosition) {
+                Map.Entry<Long, Segment> next = segments.higherEntry(sequence);
+                if (next == null) {
+                    break;
+                }
+                sequence = next.getKey();
+                offset = 0;
+                continue;
+            }
+            ByteBuffer payload = segment.read(offset);
+            int keyLength = payload.getShort();
+            byte[] key = new byte[keyLength];
+            payload.get(key);
+            byte[] body = new byte[payload.remaining()];
+            payload.get(body);
+            messages.add(new Message(new String(key, StandardCharsets.UTF_8), body));
+            offset += HEADER_SIZE + keyLength + 2 + body.length;
+        }
+        return new Batch(messages, new Position(sequence, offset));
+    }
+
+    /**
+     * Mark the messages up to the position as processed.
+     */
+    public synchronized void commit(Position position) throws IOException {
+        readPosition = position;
+        deleteSegmentsBefore(position.segment);
+
+        Path checkpoint = dir.resolve(CHECKPOINT_NAME);
+        Path tmp = dir.resolve(CHECKPOINT_NAME + ".tmp");
+        Files.write(tmp, (position.segment + ":" + position.offset).getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return {@code true} in case when all the messages are committed
+     */
+    public synchronized boolean isEmpty() {
+        Segment active = segments.lastEntry().getValue();
+        return readPosition.segment == active.sequence && readPosition.offset >= active.writePosition;
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Flush the active segment to the disk.
+     */
+    public synchronized void force() {
+        segments.lastEntry().getValue().buffer.force();
+    }
+
+    private void deleteSegmentsBefore(long sequence) throws IOException {
+        while (segments.firstKey() < sequence) {
+            Segment segment = segments.pollFirstEntry().getValue();
+            segment.channel.close();
+            Files.deleteIfExists(segment.path);
+        }
+    }
+
+    private Path segmentPath(long sequence) {
+        return dir.resolve(String.format("spill-%020d.log", sequence));
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (Segment segment : segments.values()) {
+            segment.buffer.force();
+            segment.channel.close();
+        }
+        segments.clear();
+    }
+
+    public static final class Position {
+        private final long segment;
+        private final int offset;
+
+        private Position(long segment, int offset) {
+            this.segment = segment;
+            this.offset = offset;
+        }
+    }
+
+    public static final class Message {
+        private final String routingKey;
+        private final byte[] body;
+
+        private Message(String routingKey, byte[] body) {
+            this.routingKey = routingKey;
+            this.body = body;
+        }
+
+        public String getRoutingKey() {
+            return routingKey;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+    }
+
+    public static final class Batch {
+        private final List<Message> messages;
+        private final Position next;
+
+        private Batch(List<Message> messages, Position next) {
+            this.messages = Collections.unmodifiableList(messages);
+            this.next = next;
+        }
+
+        public List<Message> getMessages() {
+            return messages;
+        }
+
+        // position to commit once the messages are processed
+        public Position getNext() {
+            return next;
+        }
+    }
+
+    private static final class Segment {
+        private final long sequence;
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private int writePosition;
+
+        private Segment(long sequence, Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.sequence = sequence;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        static Segment open(long sequence, Path path, int segmentSize) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            long size = Math.max(segmentSize, channel.size());
+            Segment segment = new Segment(sequence, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+            // find the end of valid records; a torn record at the end (and anything after it) is discarded
+            int position = 0;
+            while (segment.read(position) != null) {
+                position += HEADER_SIZE + segment.buffer.getInt(position);
+            }
+            segment.writePosition = position;
+            return segment;
+        }
+
+        // Read the payload of the record at the offset; null in case when there is no valid record
+        ByteBuffer read(int offset) {
+            if (offset + HEADER_SIZE > buffer.capacity()) {
+                return null;
+            }
+            int length = buffer.getInt(offset);
+            if (length <= 0 || offset + HEADER_SIZE + length > buffer.capacity()) {
+                return null;
+            }
+            byte[] payload = new byte[length];
+            ByteBuffer source = buffer.duplicate();
+            source.position(offset + HEADER_SIZE);
+            source.get(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload, 0, length);
+            if ((int) crc.getValue() != buffer.getInt(offset + 4)) {
+                return null;
+            }
+            return ByteBuffer.wrap(payload);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package consumer.rabbit;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.rabbit.connection.ConnectionBlockedEvent;
+import org.springframework.amqp.rabbit.connection.ConnectionUnblockedEvent;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.utils.SerializationUtils;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.event.EventListener;
+
+/**
+ * Sends entities to the exchange, spilling them to the local {@link SpillLog} while the broker is unavailable (i.e. a
+ * send fails) or slow (i.e. the connection is blocked by the broker because of flow control), so the producers are
+ * neither failed nor stalled by the broker.
+ *
+ * The spilled entities are replayed to the exchange in batches by a background drainer; until the log is drained, the
+ * new entities are spilled as well, so the order of sending is mostly preserved. The entities are delivered at least
+ * once: in case of a crash, the entities sent after the last commit of the log are sent again.
+ */
+public class SpillingSender implements DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(SpillingSender.class);
+
+    private final RabbitTemplate rabbitTemplate;
+    private final String exchange;
+    private final SpillLog spillLog;
+    private final int drainBatchSize;
+    private final ScheduledExecutorService drainer;
+
+    private volatile boolean brokerAvailable = true;
+    private volatile boolean blocked;
+
+    private final AtomicLong spilled = new AtomicLong();
+    private final AtomicLong replayed = new AtomicLong();
+
+    public SpillingSender(RabbitTemplate rabbitTemplate, String exchange, SpillLog spillLog, int drainBatchSize,
+                          long drainIntervalMillis) {
+        this.rabbitTemplate = rabbitTemplate;
+        this.exchange = exchange;
+        this.spillLog = spillLog;
+        this.drainBatchSize = drainBatchSize;
+        this.drainer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "SpillLog-drainer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        drainer.scheduleWithFixedDelay(this::drainQuietly, drainIntervalMillis, drainIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Send the entity to the exchange, or spill it to the log in case when the broker is not able to take it.
+     */
+    public void send(String routingKey, Serializable entity) {
+        if (brokerAvailable && !blocked && spillLog.isEmpty()) {
+            try {
+                rabbitTemplate.convertAndSend(exchange, routingKey, entity);
+                return;
+            } catch (AmqpException e) {
+                brokerAvailable = false;
+                logger.warn("Unable to send to the broker, spilling to the local log until it is available", e);
+            }
+        }
+        try {
+            spillLog.append(routingKey, SerializationUtils.serialize(entity));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        spilled.incrementAndGet();
+    }
+
+    /**
+     * Replay a batch of spilled entities to the exchange.
+     * @return number of replayed entities
+     */
+    public int drain() throws IOException {
+        if (blocked || spillLog.isEmpty()) {
+            return 0;
+        }
+        SpillLog.Batch batch = spillLog.poll(drainBatchSize);
+        List<SpillLog.Message> messages = batch.getMessages();
+        try {
+            // send the whole batch over the same channel
+            rabbitTemplate.invoke(operations -> {
+                for (SpillLog.Message message : messages) {
+                    operations.convertAndSend(exchange, message.getRoutingKey(),
+                            SerializationUtils.deserialize(message.getBody()));
+                }
+                return null;
+            });
+        } catch (AmqpException e) {
+            if (brokerAvailable) {
+                brokerAvailable = false;
+                logger.warn("Unable to replay spilled entities to the broker", e);
+            }
+            return 0;
+        }
+        spillLog.commit(batch.getNext());
+        replayed.addAndGet(messages.size());
+        if (!brokerAvailable) {
+            brokerAvailable = true;
+            logger.info("The broker is available again, replaying spilled entities");
+        }
+        return messages.size();
+    }
+
+    private void drainQuietly() {
+        try {
+            while (drain() == drainBatchSize) {
+                // keep draining while there are full batches
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.error("Unable to drain spill log", e);
+        }
+    }
+
+    @EventListener
+    public void onConnectionBlocked(ConnectionBlockedEvent event) {
+        logger.warn("Connection is blocked by the broker ({}), spilling to the local log", event.getReason());
+        blocked = true;
+    }
+
+    @EventListener
+    public void onConnectionUnblocked(ConnectionUnblockedEvent event) {
+        logger.info("Connection is unblocked by the broker");
+        blocked = false;
+    }
+
+    public long getSpilledCount() {
+        return spilled.get();
+    }
+
+    public long getReplayedCount() {
+        return replayed.get();
+    }
+
+    @Override
+    public void destroy() throws IOException {
+        drainer.shutdown();
+        try {
+            drainer.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!spillLog.isEmpty()) {
+            logger.info("Spill log is not drained, the entities will be replayed on the next start");
+        }
+        spillLog.close();
+    }
+}
@@ -0,0 +1,85 @@
+package consumer.repository;
+
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.reactivestreams.Publisher;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.data.mongodb.core.mapping.event.AfterConvertCallback;
+import org.springframework.data.mongodb.core.mapping.event.BeforeSaveCallback;
+import org.springframework.data.mongodb.core.mapping.event.ReactiveBeforeSaveCallback;
+import org.springframework.stereotype.Component;
+
+import reactor.core.publisher.Mono;
+
+import consumer.model.Comment;
+
+/**
+ * Transparent compression of the text of comments: when {@code consumer.compression.enabled} is set, the texts of at
+ * least {@code consumer.compression.minLength} chars are stored compressed (see {@link CommentTextCodec}) as
+ * {@code compressedText}, rather than as {@code text}. Only the stored document is changed, so the persisted
+ * {@link Comment}s (e.g. passed to the {@link consumer.rabbit.PersistListener}s) still hold the text.
+ *
+ * The comments read as {@link Comment}s get the text decompressed regardless of the property, so that the comments
+ * stored compressed are still readable once the compression is disabled. (The comments read by the aggregations, as
+ * the trees of the stories, are decompressed lazily, as the json is written.)
+ */
+@Component
+public class CommentTextCompression implements BeforeSaveCallback<Comment>, AfterConvertCallback<Comment> {
+
+    public static final String COMPRESSED_TEXT = "compressedText";
+
+    private final boolean enabled;
+    private final int minLength;
+
+    @Autowired
+    public CommentTextCompression(Environment env) {
+        this(Boolean.parseBoolean(env.getProperty("consumer.compression.enabled", "false")),
+                Integer.parseInt(env.getProperty("consumer.compression.minLength", "200")));
+    }
+
+    CommentTextCompression(boolean enabled, int minLength) {
+        this.enabled = enabled;
+        this.minLength = minLength;
+    }
+
+    @Override
+    public Comment onBeforeSave(Comment comment, Document document, String collection) {
+        compress(document);
+        return comment;
+    }
+
+    @Override
+    public Comment onAfterConvert(Comment comment, Document document, String collection) {
+        Object compressed = document.get(COMPRESSED_TEXT);
+        if (compressed instanceof Binary) {
+            comment.setText(CommentTextCodec.decompress(((Binary) compressed).getData()));
+        }
+        return comment;
+    }
+
+    void compress(Document document) {
+        Object text = document.get("text");
+        if (enabled && text instanceof String && ((String) text).length() >= minLength) {
+            document.remove("text");
+            document.put(COMPRESSED_TEXT, new Binary(CommentTextCodec.compress((String) text)));
+        }
+    }
+
+    // The same for the comments inserted by the reactive pipeline (ReactiveNetRunner)
+    @Component
+    static class Reactive implements ReactiveBeforeSaveCallback<Comment> {
+
+        private final CommentTextCompression compression;
+
+        Reactive(CommentTextCompression compression) {
+            this.compression = compression;
+        }
+
+        @Override
+        public Publisher<Comment> onBeforeSave(Comment comment, Document document, String collection) {
+            compression.compress(document);
+            return Mono.just(comment);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package consumer.repository;
+
+import java.util.List;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import consumer.model.ThreadStats;
+
+public interface ThreadStatsRepository extends MongoRepository<ThreadStats, Long> {
+
+    List<ThreadStats> findAllByOrderByLastActivityDescCommentCountDesc(Pageable pageable);
+}
@@ -0,0 +1,295 @@
+package consumer.repository;
+
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.env.Environment;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import consumer.model.Comment;
+import consumer.model.Story;
+
+/**
+ * Monthly partitions of the stories and the comments: the entities are written to a collection per month of their
+ * {@code date} (e.g. {@code comment_202405}, UTC), rather than to the {@code story} and {@code comment} collections,
+ * so that the indexes and the scan space of {@code $graphLookup} stay bounded, and the old partitions can be compacted,
+ * archived or dropped on their own. (The entities with no date, and the ones written before the partitioning is
+ * enabled, are kept in the base collections, which are read as the oldest partitions.)
+ *
+ * The reads are pruned to the partitions the entities can be in:
+ * <ul>
+ *     <li>by externalId -- the externalIds are assigned in the order the items are created, so the partitions cover
+ *     (almost) disjoint ranges of externalIds; the range of each partition is kept in memory (loaded on startup and
+ *     extended as the entities are written), so an entity is normally looked up in a single partition;</li>
+ *     <li>by thread -- the comments of a story are created within {@code consumer.partitioning.maxThreadAge} ms (HN
+ *     closes the threads after two weeks) after the story, so they are looked up in the partitions of the months of
+ *     that time only.</li>
+ * </ul>
+ * As a comment is never older than its parent, the kids of a comment are in the same or in a later partition, so a
+ * thread is traversed partition by partition, from the oldest one.
+ *
+ * The ranges only reflect the entities written by this instance (and the ones present on startup), so the writes are
+ * expected to go through a single instance.
+ */
+@Component
+@ConditionalOnProperty(name = "consumer.partitioning.enabled", havingValue = "true")
+public class TimePartitions implements InitializingBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(TimePartitions.class);
+
+    private static final DateTimeFormatter MONTH = DateTimeFormatter.ofPattern("yyyyMM").withZone(ZoneOffset.UTC);
+
+    private final MongoTemplate mongoTemplate;
+    private final long maxThreadAgeMillis;
+    // range of externalIds by the name of the partition; base collections are ordered before their partitions, and the
+    // partitions by month
+    private final ConcurrentNavigableMap<String, Range> ranges = new ConcurrentSkipListMap<>();
+    // indexes created on each partition of the type, see addIndex
+    private final Map<Class<?>, List<IndexDefinition>> indexes = new LinkedHashMap<>();
+
+    @Autowired
+    public TimePartitions(MongoTemplate mongoTemplate, Environment env) {
+        this(mongoTemplate, Long.parseLong(env.getProperty("consumer.partitioning.maxThreadAge",
+                String.valueOf(TimeUnit.DAYS.toMillis(30)))));
+    }
+
+    TimePartitions(MongoTemplate mongoTemplate, long maxThreadAgeMillis) {
+        this.mongoTemplate = mongoTemplate;
+        this.maxThreadAgeMillis = maxThreadAgeMillis;
+        indexes.put(Story.class, new CopyOnWriteArrayList<>());
+        indexes.put(Comment.class, new CopyOnWriteArrayList<>());
+        addIndex(Story.class, new Index().on("externalId", Sort.Direction.ASC));
+        addIndex(Comment.class, new Index().on("externalId", Sort.Direction.ASC));
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        try {
+            for (Class<?> type : indexes.keySet()) {
+                for (String collection : collectionNames(mongoTemplate, type)) {
+                    ranges.put(collection, loadRange(collection));
+                }
+            }
+            logger.info("Found {} partitions", ranges.size());
+        } catch (RuntimeException e) {
+            // the partitions are still known once they are written to
+            logger.warn("Unable to load partitions", e);
+        }
+    }
+
+    /**
+     * Create the index on each partition of the type (present and future), e.g. for the queries of a component.
+     */
+    public void addIndex(Class<?> type, IndexDefinition index) {
+        indexes.get(type).add(index);
+        for (String collection : ranges.keySet()) {
+            if (isPartitionOf(collection, type)) {
+                mongoTemplate.indexOps(collection).ensureIndex(index);
+            }
+        }
+    }
+
+    /**
+     * @return name of the partition of the entity of the type with the date
+     */
+    public String collectionOf(Class<?> type, @Nullable Date date) {
+        String base = mongoTemplate.getCollectionName(type);
+        return date != null ? base + "_" + MONTH.format(date.toInstant()) : base;
+    }
+
+    public String collectionOf(Object entity) {
+        if (entity instanceof Story) {
+            return collectionOf(Story.class, ((Story) entity).getDate());
+        } else if (entity instanceof Comment) {
+            return collectionOf(Comment.class, ((Comment) entity).getDate());
+        }
+        throw new IllegalArgumentException("Unexpected entity: " + entity);
+    }
+
+    /**
+     * Insert the stories and/or comments into their partitions.
+     */
+    public void insert(List<?> entities) {
+        Map<String, List<Object>> byCollection = new LinkedHashMap<>();
+        for (Object entity : entities) {
+            byCollection.computeIfAbsent(collectionOf(entity), collection -> new ArrayList<>()).add(entity);
+        }
+        byCollection.forEach((collection, batch) -> {
+            prepare(collection, batch);
+            mongoTemplate.insert(batch, collection);
+        });
+    }
+
+    /**
+     * Prepare the partition for the entities to be written to it: create the partition (with its indexes) in case when
+     * it is new, and extend its range with the entities. (The range is extended before the entities are written, so
+     * that they are never missed by the reads.)
+     */
+    public void prepare(String collection, Collection<?> entities) {
+        Range range = ranges.get(collection);
+        if (range == null) {
+            Class<?> type = typeOf(collection);
+            if (type == null) {
+                throw new IllegalArgumentException("Unexpected partition: " + collection);
+            }
+            for (IndexDefinition index : indexes.get(type)) {
+                mongoTemplate.indexOps(collection).ensureIndex(index);
+            }
+            Range created = new Range();
+            range = ranges.putIfAbsent(collection, created);
+            if (range == null) {
+                range = created;
+                logger.info("Created partition {}", collection);
+            }
+        }
+        for (Object entity : entities) {
+            Long externalId = entity instanceof Story ? ((Story) entity).getExternalId()
+                    : entity instanceof Comment ? ((Comment) entity).getExternalId() : null;
+            if (externalId != null) {
+                range.extend(externalId);
+            }
+        }
+    }
+
+    /**
+     * @return partitions the entity of the type with the externalId can be in, oldest first
+     */
+    public List<String> collectionsOf(Class<?> type, long externalId) {
+        List<String> result = new ArrayList<>();
+        for (Map.Entry<String, Range> entry : ranges.entrySet()) {
+            if (isPartitionOf(entry.getKey(), type) && entry.getValue().contains(externalId)) {
+                result.add(entry.getKey());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return partitions the comments of the story can be in, oldest first
+     */
+    public List<String> threadCollections(long storyExternalId, @Nullable Date storyDate) {
+        String base = mongoTemplate.getCollectionName(Comment.class);
+        String first = storyDate != null ? collectionOf(Comment.class, storyDate) : null;
+        String last = storyDate != null
+                ? collectionOf(Comment.class, new Date(storyDate.getTime() + maxThreadAgeMillis)) : null;
+        List<String> result = new ArrayList<>();
+        for (Map.Entry<String, Range> entry : ranges.entrySet()) {
+            String collection = entry.getKey();
+            if (!isPartitionOf(collection, Comment.class) || !entry.getValue().containsAfter(storyExternalId)) {
+                continue;
+            }
+            if (first == null || collection.equals(base)
+                    || (collection.compareTo(first) >= 0 && collection.compareTo(last) <= 0)) {
+                result.add(collection);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return all partitions of the type, oldest first
+     */
+    public List<String> collections(Class<?> type) {
+        List<String> result = new ArrayList<>();
+        for (String collection : ranges.keySet()) {
+            if (isPartitionOf(collection, type)) {
+                result.add(collection);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return names of the base collection of the type and of its partitions present in the DB, oldest first; unlike
+     * the rest of the methods, does not require the partitioning to be enabled (so that the components scanning all
+     * of the entities read the partitions written before the partitioning is disabled, if any)
+     */
+    public static List<String> collectionNames(MongoTemplate mongoTemplate, Class<?> type) {
+        String base = mongoTemplate.getCollectionName(type);
+        Pattern pattern = Pattern.compile(Pattern.quote(base + "_") + "\\d{6}");
+        List<String> partitions = new ArrayList<>();
+        for (String collection : mongoTemplate.getCollectionNames()) {
+            if (pattern.matcher(collection).matches()) {
+                partitions.add(collection);
+            }
+        }
+        partitions.sort(null);
+        partitions.add(0, base);
+        return partitions;
+    }
+
+    private boolean isPartitionOf(String collection, Class<?> type) {
+        String base = mongoTemplate.getCollectionName(type);
+        return collection.equals(base) || (collection.startsWith(base) && collection.length() == base.length() + 7
+                && collection.charAt(base.length()) == '_');
+    }
+
+    private Class<?> typeOf(String collection) {
+        for (Class<?> type : indexes.keySet()) {
+            if (isPartitionOf(collection, type)) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    private Range loadRange(String collection) {
+        Range range = new Range();
+        for (Sort.Direction direction : Sort.Direction.values()) {
+            Query query = new Query().with(Sort.by(direction, "externalId")).limit(1);
+            query.fields().include("externalId").exclude("_id");
+            Document document = mongoTemplate.findOne(query, Document.class, collection);
+            if (document != null && document.get("externalId") instanceof Number) {
+                range.extend(((Number) document.get("externalId")).longValue());
+            }
+        }
+        return range;
+    }
+
+    // Range of externalIds of a partition, empty initially
+    static final class Range {
+        private volatile long min = Long.MAX_VALUE;
+        private volatile long max = Long.MIN_VALUE;
+
+        synchronized void extend(long externalId) {
+            if (externalId < min) {
+                min = externalId;
+            }
+            if (externalId > max) {
+                max = externalId;
+            }
+        }
+
+        boolean contains(long externalId) {
+            return externalId >= min && externalId <= max;
+        }
+
+        // Tells whether there may be entities with externalIds greater than the given one
+        boolean containsAfter(long externalId) {
+            return max > externalId;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package consumer.search;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The most recently indexed docs of the {@link SearchIndex}, kept in memory until they are written to a
+ * {@link Segment}. A doc indexed again replaces its previous version. Not thread-safe.
+ *
+ * The postings are appended only: those of the replaced versions of the docs are skipped on reading, as the current
+ * version of the doc does not contain the term (or is read twice, in which case it is to be deduplicated by the
+ * reader), so that replacing a doc costs nothing and the postings take a {@code long} per doc.
+ */
+final class IndexBuffer {
+
+    private final Map<Long, Doc> docs = new HashMap<>();
+    private final Map<String, Term> terms = new HashMap<>();
+    private long totalLength;
+
+    void add(long externalId, byte type, List<String> tokens) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (String token : tokens) {
+            counts.merge(token, 1, Integer::sum);
+        }
+        String[] docTerms = new String[counts.size()];
+        int i = 0;
+        for (String token : counts.keySet()) {
+            Term term = terms.computeIfAbsent(token, Term::new);
+            term.add(externalId);
+            // the terms of the docs share the instances
+            docTerms[i++] = term.value;
+        }
+        Arrays.sort(docTerms);
+        int[] freqs = new int[docTerms.length];
+        for (i = 0; i < docTerms.length; i++) {
+            freqs[i] = counts.get(docTerms[i]);
+        }
+        // a doc with no terms is kept too, as it replaces the previous version of the doc (e.g. a deleted comment)
+        Doc previous = docs.put(externalId, new Doc(type, tokens.size(), docTerms, freqs));
+        totalLength += tokens.size() - (previous != null ? previous.length : 0);
+    }
+
+    /**
+     * Add the docs of the other buffer, which are not present in this one.
+     */
+    void addAbsent(IndexBuffer other) {
+        for (Map.Entry<Long, Doc> entry : other.docs.entrySet()) {
+            if (!docs.containsKey(entry.getKey())) {
+                Doc doc = entry.getValue();
+                docs.put(entry.getKey(), doc);
+                totalLength += doc.length;
+                for (String term : doc.terms) {
+                    terms.computeIfAbsent(term, Term::new).add(entry.getKey());
+                }
+            }
+        }
+    }
+
+    boolean contains(long externalId) {
+        return docs.containsKey(externalId);
+    }
+
+    Doc get(long externalId) {
+        return docs.get(externalId);
+    }
+
+    /**
+     * @return externalIds of the docs containing the term, possibly repeated; empty in case when there are none
+     */
+    long[] docsOf(String term) {
+        Term value = terms.get(term);
+        if (value == null) {
+            return new long[0];
+        }
+        long[] ids = new long[value.size];
+        int count = 0;
+        for (int i = 0; i < value.size; i++) {
+            Doc doc = docs.get(value.ids[i]);
+            if (doc != null && doc.freq(term) > 0) {
+                ids[count++] = value.ids[i];
+            }
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+    /**
+     * @return number of the docs containing the term, approximately (the postings of the replaced docs are counted)
+     */
+    int docFreq(String term) {
+        Term value = terms.get(term);
+        return value != null ? value.size : 0;
+    }
+
+    int size() {
+        return docs.size();
+    }
+
+    long getTotalLength() {
+        return totalLength;
+    }
+
+    void writeTo(SegmentWriter writer) throws IOException {
+        long[] ids = new long[docs.size()];
+        int i = 0;
+        for (Long id : docs.keySet()) {
+            ids[i++] = id;
+        }
+        Arrays.sort(ids);
+        for (long id : ids) {
+            Doc doc = docs.get(id);
+            writer.addDoc(id, doc.type, doc.length);
+        }
+
+        String[] sortedTerms = terms.keySet().toArray(new String[0]);
+        Arrays.sort(sortedTerms);
+        int[] ordinals = new int[16];
+        int[] freqs = new int[16];
+        for (String term : sortedTerms) {
+            long[] termIds = docsOf(term);
+            Arrays.sort(termIds);
+            if (termIds.length > ordinals.length) {
+                ordinals = new int[termIds.length * 2];
+                freqs = new int[termIds.length * 2];
+            }
+            int count = 0;
+            for (int j = 0; j < termIds.length; j++) {
+                if (j > 0 && termIds[j] == termIds[j - 1]) {
+                    continue;
+                }
+                ordinals[count] = Arrays.binarySearch(ids, termIds[j]);
+                freqs[count] = docs.get(termIds[j]).freq(term);
+                count++;
+            }
+            writer.addTerm(term, ordinals, freqs, count);
+        }
+    }
+
+    private static final class Term {
+        private final String value;
+        private long[] ids = new long[4];
+        private int size;
+
+        private Term(String value) {
+            this.value = value;
+        }
+
+        private void add(long id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+    }
+
+    static final class Doc {
+        private final byte type;
+        private final int length;
+        private final String[] terms;
+        private final int[] freqs;
+
+        private Doc(byte type, int length, String[] terms, int[] freqs) {
+            this.type = type;
+            this.length = length;
+            this.terms = terms;
+            this.freqs = freqs;
+        }
+
+        byte getType() {
+            return type;
+        }
+
+        int getLength() {
+            return length;
+        }
+
+        int freq(String term) {
+            int index = Arrays.binarySearch(terms, term);
+            return index >= 0 ? freqs[index] : 0;
+        }
+    }
+}
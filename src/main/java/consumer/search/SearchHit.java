@@ -0,0 +1,34 @@
+package consumer.search;
+
+import consumer.model.Data;
+
+/**
+ * Story (matching by its title) or comment (matching by its text) found by {@link SearchIndex#search(String, int)}.
+ */
+public class SearchHit {
+
+    private final long externalId;
+    private final Data.Type type;
+    private final double score;
+
+    public SearchHit(long externalId, Data.Type type, double score) {
+        this.externalId = externalId;
+        this.type = type;
+        this.score = score;
+    }
+
+    public long getExternalId() {
+        return externalId;
+    }
+
+    public Data.Type getType() {
+        return type;
+    }
+
+    /**
+     * @return BM25 score of the entity for the query, the higher the more relevant
+     */
+    public double getScore() {
+        return score;
+    }
+}
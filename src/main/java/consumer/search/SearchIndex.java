@@ -0,0 +1,710 @@
+package consumer.search;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongPredicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.env.Environment;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.stereotype.Service;
+
+import consumer.model.Comment;
+import consumer.model.Data;
+import consumer.model.Story;
+import consumer.rabbit.PersistListener;
+import consumer.repository.CommentTextCompression;
+import consumer.repository.TimePartitions;
+
+/**
+ * Full-text index of story titles and comment text, queried with BM25 ranking (see {@link #search(String, int)}), so
+ * the entities are searched without scanning the DB.
+ *
+ * The index is updated as the entities are persisted. The docs are added to an in-memory buffer which, once
+ * {@code bufferSize} docs are buffered, is written (in background) to an immutable, memory-mapped {@link Segment}
+ * with compressed postings. As the segments accumulate, consecutive segments are merged (in background as well), so
+ * there are about {@code maxSegments} segments to query. A doc indexed again (e.g. an edited comment) replaces its
+ * previous version, which is skipped by the queries and dropped by the merges.
+ *
+ * The segments are listed, in order, in the manifest file, which is replaced atomically, so the index is recovered on
+ * startup; the buffered docs are written to a segment on shutdown. In case when the manifest does not tell that the
+ * index is built (e.g. the build is interrupted by a shutdown), the index is built from the DB on startup, over the
+ * recovered segments (the docs indexed again replace their previous versions). While the index is built, the entities
+ * persisted meanwhile are indexed as well, so the version read by the build is skipped for those, as it may be older.
+ */
+@Service
+@ConditionalOnProperty(name = "consumer.search.enabled", havingValue = "true")
+public class SearchIndex implements PersistListener, InitializingBean, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(SearchIndex.class);
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("segment-(\\d+)\\.idx");
+    private static final String MANIFEST_NAME = "segments";
+    // the line of the manifest telling that all the entities persisted before the build are indexed
+    private static final String BUILT_MARKER = "# built";
+    // segments are mapped as a whole, so they are kept well within the limit of a mapping (2GB)
+    private static final long MAX_MERGED_SIZE = 1L << 30;
+    // BM25 parameters
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final Comparator<SearchHit> BY_RELEVANCE = Comparator.comparingDouble(SearchHit::getScore)
+            .reversed().thenComparingLong(SearchHit::getExternalId);
+
+    private final MongoTemplate mongoTemplate;
+    private final Path dir;
+    private final int bufferSize;
+    private final int maxSegments;
+    private final int mergeFactor;
+
+    // guards the buffers and the list of segments; searches share the lock, updates hold it exclusively
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // oldest first; replaced (rather than modified) on change
+    private List<Segment> segments;
+    private IndexBuffer buffer = new IndexBuffer();
+    // the buffer being written to a segment, still searched until the segment is added
+    private IndexBuffer flushing;
+    private long nextSegmentId;
+    private boolean built;
+    // externalIds of the entities indexed as persisted while the index is built, null unless it is
+    private Set<Long> indexedLive;
+
+    // writes and merges the segments in background, one at a time
+    private final ExecutorService writer;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final Object flushLock = new Object();
+
+    @Autowired
+    public SearchIndex(MongoTemplate mongoTemplate, Environment env) throws IOException {
+        this(mongoTemplate, Paths.get(env.getProperty("consumer.search.dir", "search")),
+                Integer.parseInt(env.getProperty("consumer.search.bufferSize", "50000")),
+                Integer.parseInt(env.getProperty("consumer.search.maxSegments", "10")),
+                Integer.parseInt(env.getProperty("consumer.search.mergeFactor", "4")));
+    }
+
+    SearchIndex(MongoTemplate mongoTemplate, Path dir, int bufferSize, int maxSegments, int mergeFactor)
+            throws IOException {
+        this.mongoTemplate = mongoTemplate;
+        this.dir = dir;
+        this.bufferSize = bufferSize;
+        this.maxSegments = maxSegments;
+        this.mergeFactor = Math.max(2, mergeFactor);
+        this.writer = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "SearchIndex-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Files.createDirectories(dir);
+        recover();
+    }
+
+    private void recover() throws IOException {
+        List<String> names = new ArrayList<>();
+        Path manifest = dir.resolve(MANIFEST_NAME);
+        if (Files.exists(manifest)) {
+            for (String name : new String(Files.readAllBytes(manifest), StandardCharsets.UTF_8).split("\n")) {
+                if (name.trim().equals(BUILT_MARKER)) {
+                    built = true;
+                } else if (!name.trim().isEmpty()) {
+                    names.add(name.trim());
+                }
+            }
+        }
+
+        List<Segment> recovered = new ArrayList<>();
+        for (String name : names) {
+            recovered.add(Segment.open(dir.resolve(name)));
+        }
+        segments = Collections.unmodifiableList(recovered);
+
+        // segments which are not (or no longer) listed, e.g. written or merged before a crash
+        Set<String> listed = new HashSet<>(names);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                Matcher matcher = SEGMENT_NAME.matcher(name);
+                if (matcher.matches()) {
+                    nextSegmentId = Math.max(nextSegmentId, Long.parseLong(matcher.group(1)) + 1);
+                }
+                if ((matcher.matches() && !listed.contains(name)) || name.endsWith(".tmp")) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+        if (!segments.isEmpty()) {
+            logger.info("Recovered search index of {} doc(s) in {} segment(s)", getDocCount(), segments.size());
+        }
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (!built) {
+            if (!segments.isEmpty()) {
+                logger.info("Search index is not completely built, building it again");
+            }
+            lock.writeLock().lock();
+            try {
+                indexedLive = new HashSet<>();
+            } finally {
+                lock.writeLock().unlock();
+            }
+            Thread thread = new Thread(this::build, "SearchIndex-builder");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    // Index the entities persisted so far, streaming them from the DB
+    private void build() {
+        long start = System.currentTimeMillis();
+        try {
+            Query storyQuery = new Query();
+            storyQuery.fields().include("externalId").include("title");
+            List<Story> stories = new ArrayList<>();
+            for (String collection : TimePartitions.collectionNames(mongoTemplate, Story.class)) {
+                try (CloseableIterator<Story> iterator = mongoTemplate.stream(storyQuery, Story.class, collection)) {
+                    while (iterator.hasNext()) {
+                        stories.add(iterator.next());
+                        if (stories.size() == 1000 || !iterator.hasNext()) {
+                            addStories(stories, true);
+                            stories.clear();
+                        }
+                    }
+                }
+            }
+            Query commentQuery = new Query();
+            commentQuery.fields().include("externalId").include("text")
+                    .include(CommentTextCompression.COMPRESSED_TEXT);
+            List<Comment> comments = new ArrayList<>();
+            for (String collection : TimePartitions.collectionNames(mongoTemplate, Comment.class)) {
+                try (CloseableIterator<Comment> iterator = mongoTemplate.stream(commentQuery, Comment.class,
+                        collection)) {
+                    while (iterator.hasNext()) {
+                        comments.add(iterator.next());
+                        if (comments.size() == 1000 || !iterator.hasNext()) {
+                            addComments(comments, true);
+                            comments.clear();
+                        }
+                    }
+                }
+            }
+            // the index is built once the docs are written to the segments
+            flush();
+            lock.writeLock().lock();
+            try {
+                built = true;
+                writeManifest(segments);
+            } finally {
+                lock.writeLock().unlock();
+            }
+            logger.info("Built search index of {} doc(s) in {} ms", getDocCount(), System.currentTimeMillis() - start);
+        } catch (IOException | RuntimeException e) {
+            // the entities persisted from now on are indexed anyway, and the index is built again on the next startup
+            logger.warn("Unable to build search index", e);
+        } finally {
+            lock.writeLock().lock();
+            try {
+                indexedLive = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    @Override
+    public void onStoriesPersisted(List<Story> stories) {
+        addStories(stories, false);
+    }
+
+    @Override
+    public void onCommentsPersisted(List<Comment> comments) {
+        addComments(comments, false);
+    }
+
+    private void addStories(List<Story> stories, boolean building) {
+        List<List<String>> tokens = new ArrayList<>(stories.size());
+        for (Story story : stories) {
+            tokens.add(Tokenizer.tokenize(story.getTitle()));
+        }
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < stories.size(); i++) {
+                if (stories.get(i).getExternalId() != null && accept(stories.get(i).getExternalId(), building)) {
+                    buffer.add(stories.get(i).getExternalId(), Segment.STORY, tokens.get(i));
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        scheduleFlush();
+    }
+
+    private void addComments(List<Comment> comments, boolean building) {
+        List<List<String>> tokens = new ArrayList<>(comments.size());
+        for (Comment comment : comments) {
+            tokens.add(Tokenizer.tokenize(comment.getText()));
+        }
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < comments.size(); i++) {
+                if (comments.get(i).getExternalId() != null && accept(comments.get(i).getExternalId(), building)) {
+                    buffer.add(comments.get(i).getExternalId(), Segment.COMMENT, tokens.get(i));
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        scheduleFlush();
+    }
+
+    // Tells whether the doc is to be indexed: the version read by the build is skipped in case when the entity is
+    // indexed as persisted meanwhile; is called with the write lock held
+    private boolean accept(long externalId, boolean building) {
+        if (building) {
+            return indexedLive == null || !indexedLive.contains(externalId);
+        }
+        if (indexedLive != null) {
+            indexedLive.add(externalId);
+        }
+        return true;
+    }
+
+    private void scheduleFlush() {
+        int size = getBufferSize();
+        if (size >= 2 * bufferSize) {
+            // the docs are indexed faster than the segments are written (e.g. while building the index), so the
+            // buffer is written by the caller, rather than let it grow
+            try {
+                flush();
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Unable to write search index segment, re-try later", e);
+            }
+        }
+        if (size >= bufferSize && flushScheduled.compareAndSet(false, true)) {
+            try {
+                writer.execute(() -> {
+                    flushScheduled.set(false);
+                    try {
+                        // unless the buffer is written by the caller meanwhile
+                        if (getBufferSize() >= bufferSize) {
+                            flush();
+                        }
+                        merge();
+                    } catch (IOException | RuntimeException e) {
+                        logger.warn("Unable to write search index segment, re-try later", e);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // shutting down, the buffer is written by destroy()
+                flushScheduled.set(false);
+            }
+        }
+    }
+
+    private int getBufferSize() {
+        lock.readLock().lock();
+        try {
+            return buffer.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Search the story titles and the comment text.
+     * @param query terms to search for; the entities containing any of the terms are found
+     * @return up to {@code n} most relevant entities, most relevant first
+     */
+    public List<SearchHit> search(String query, int n) {
+        List<String> terms = new ArrayList<>(new LinkedHashSet<>(Tokenizer.tokenize(query)));
+        if (terms.isEmpty() || n <= 0) {
+            return Collections.emptyList();
+        }
+        lock.readLock().lock();
+        try {
+            List<IndexBuffer> buffers = flushing != null ? Arrays.asList(flushing, buffer)
+                    : Collections.singletonList(buffer);
+            long docCount = 0;
+            long totalLength = 0;
+            for (Segment segment : segments) {
+                docCount += segment.getDocCount();
+                totalLength += segment.getTotalLength();
+            }
+            for (IndexBuffer indexBuffer : buffers) {
+                docCount += indexBuffer.size();
+                totalLength += indexBuffer.getTotalLength();
+            }
+            if (docCount == 0) {
+                return Collections.emptyList();
+            }
+
+            // the replaced versions of the docs are counted as well, which is negligible for the statistics
+            Segment.Postings[][] postings = new Segment.Postings[segments.size()][terms.size()];
+            double[] idf = new double[terms.size()];
+            for (int t = 0; t < terms.size(); t++) {
+                long docFreq = 0;
+                for (int s = 0; s < segments.size(); s++) {
+                    postings[s][t] = segments.get(s).postings(terms.get(t));
+                    docFreq += postings[s][t] != null ? postings[s][t].getDocFreq() : 0;
+                }
+                for (IndexBuffer indexBuffer : buffers) {
+                    docFreq += indexBuffer.docFreq(terms.get(t));
+                }
+                idf[t] = Math.log(1 + (docCount - docFreq + 0.5) / (docFreq + 0.5));
+            }
+            Scorer scorer = new Scorer(idf, totalLength / (double) docCount, n);
+
+            for (int s = 0; s < segments.size(); s++) {
+                int newer = s + 1;
+                scorer.score(segments.get(s), postings[s], externalId -> isReplaced(externalId, newer, buffers, 0));
+            }
+            for (int b = 0; b < buffers.size(); b++) {
+                int newer = b + 1;
+                scorer.score(buffers.get(b), terms,
+                        externalId -> isReplaced(externalId, segments.size(), buffers, newer));
+            }
+            return scorer.getHits();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Tells whether the doc is replaced by the segments and the buffers starting from the given ones
+    private boolean isReplaced(long externalId, int fromSegment, List<IndexBuffer> buffers, int fromBuffer) {
+        for (int s = fromSegment; s < segments.size(); s++) {
+            if (segments.get(s).contains(externalId)) {
+                return true;
+            }
+        }
+        for (int b = fromBuffer; b < buffers.size(); b++) {
+            if (buffers.get(b).contains(externalId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Write the buffered docs to a new segment.
+     */
+    public void flush() throws IOException {
+        // one flush at a time, as the buffer being written is searched until the segment is added
+        synchronized (flushLock) {
+            doFlush();
+        }
+    }
+
+    private void doFlush() throws IOException {
+        IndexBuffer toWrite;
+        Path file;
+        lock.writeLock().lock();
+        try {
+            if (buffer.size() == 0) {
+                return;
+            }
+            toWrite = buffer;
+            flushing = buffer;
+            buffer = new IndexBuffer();
+            file = dir.resolve(String.format("segment-%020d.idx", nextSegmentId++));
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        Segment segment;
+        try {
+            try (SegmentWriter segmentWriter = new SegmentWriter(file)) {
+                toWrite.writeTo(segmentWriter);
+                segmentWriter.finish();
+            }
+            segment = Segment.open(file);
+        } catch (IOException | RuntimeException e) {
+            // the docs are put back (unless indexed again meanwhile), to be written by the next flush
+            lock.writeLock().lock();
+            try {
+                buffer.addAbsent(toWrite);
+                flushing = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            throw e;
+        }
+
+        lock.writeLock().lock();
+        try {
+            List<Segment> updated = new ArrayList<>(segments);
+            updated.add(segment);
+            writeManifest(updated);
+            segments = Collections.unmodifiableList(updated);
+            flushing = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        logger.info("Wrote search index segment of {} doc(s)", segment.getDocCount());
+    }
+
+    // Merge consecutive segments, as long as there are more than maxSegments segments; the smallest are merged first
+    void merge() throws IOException {
+        while (true) {
+            List<Segment> current;
+            lock.readLock().lock();
+            try {
+                current = segments;
+            } finally {
+                lock.readLock().unlock();
+            }
+            if (current.size() <= maxSegments) {
+                return;
+            }
+
+            int windowSize = Math.min(mergeFactor, current.size());
+            int start = -1;
+            long minSize = Long.MAX_VALUE;
+            for (int i = 0; i + windowSize <= current.size(); i++) {
+                long size = 0;
+                for (int j = i; j < i + windowSize; j++) {
+                    size += current.get(j).getSize();
+                }
+                if (size < minSize && size <= MAX_MERGED_SIZE) {
+                    minSize = size;
+                    start = i;
+                }
+            }
+            if (start < 0) {
+                // the segments are too large to be merged
+                return;
+            }
+
+            List<Segment> window = new ArrayList<>(current.subList(start, start + windowSize));
+            List<Segment> newer = new ArrayList<>(current.subList(start + windowSize, current.size()));
+            LongPredicate replaced = externalId -> {
+                for (Segment segment : newer) {
+                    if (segment.contains(externalId)) {
+                        return true;
+                    }
+                }
+                return false;
+            };
+            Path file;
+            lock.writeLock().lock();
+            try {
+                file = dir.resolve(String.format("segment-%020d.idx", nextSegmentId++));
+            } finally {
+                lock.writeLock().unlock();
+            }
+            try (SegmentWriter segmentWriter = new SegmentWriter(file)) {
+                SegmentMerger.merge(window, replaced, segmentWriter);
+                segmentWriter.finish();
+            }
+            Segment merged = Segment.open(file);
+
+            lock.writeLock().lock();
+            try {
+                // the segments are only added (by flushes) meanwhile, so the window is still in place
+                List<Segment> updated = new ArrayList<>(segments);
+                int index = updated.indexOf(window.get(0));
+                updated.subList(index, index + windowSize).clear();
+                updated.add(index, merged);
+                writeManifest(updated);
+                segments = Collections.unmodifiableList(updated);
+            } finally {
+                lock.writeLock().unlock();
+            }
+            for (Segment segment : window) {
+                try {
+                    Files.deleteIfExists(segment.getFile());
+                } catch (IOException e) {
+                    // deleted on the next startup
+                    logger.warn("Unable to delete merged segment {}", segment.getFile(), e);
+                }
+            }
+            logger.info("Merged {} search index segments into one of {} doc(s)", windowSize, merged.getDocCount());
+        }
+    }
+
+    private void writeManifest(List<Segment> segments) throws IOException {
+        StringBuilder manifest = new StringBuilder();
+        if (built) {
+            manifest.append(BUILT_MARKER).append('\n');
+        }
+        for (Segment segment : segments) {
+            manifest.append(segment.getFile().getFileName()).append('\n');
+        }
+        Path tmp = dir.resolve(MANIFEST_NAME + ".tmp");
+        Files.write(tmp, manifest.toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp, dir.resolve(MANIFEST_NAME), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return number of docs, including the replaced versions which are not merged yet
+     */
+    public long getDocCount() {
+        lock.readLock().lock();
+        try {
+            long docCount = buffer.size() + (flushing != null ? flushing.size() : 0);
+            for (Segment segment : segments) {
+                docCount += segment.getDocCount();
+            }
+            return docCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    boolean isBuilt() {
+        lock.readLock().lock();
+        try {
+            return built;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int getSegmentCount() {
+        lock.readLock().lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        writer.shutdown();
+        if (!writer.awaitTermination(1, TimeUnit.MINUTES)) {
+            logger.warn("Search index segments are still being written");
+        }
+        flush();
+    }
+
+    // Collects the most relevant docs, keeping up to n of them in a heap
+    private static final class Scorer {
+        private final double[] idf;
+        private final double averageLength;
+        private final int n;
+        private final PriorityQueue<SearchHit> hits;
+
+        private Scorer(double[] idf, double averageLength, int n) {
+            this.idf = idf;
+            this.averageLength = averageLength;
+            this.n = n;
+            // the least relevant hit is on top, to be replaced by a more relevant one
+            this.hits = new PriorityQueue<>(n + 1, BY_RELEVANCE.reversed());
+        }
+
+        // The postings are traversed doc-at-a-time: they are sorted by doc, so the score of a doc is complete once
+        // all of the postings are past it, and only the top n hits are kept
+        void score(Segment segment, Segment.Postings[] postings, LongPredicate replaced) {
+            for (Segment.Postings termPostings : postings) {
+                if (termPostings != null) {
+                    termPostings.next();
+                }
+            }
+            while (true) {
+                int ordinal = Integer.MAX_VALUE;
+                for (Segment.Postings termPostings : postings) {
+                    if (termPostings != null) {
+                        ordinal = Math.min(ordinal, termPostings.ordinal());
+                    }
+                }
+                if (ordinal == Integer.MAX_VALUE) {
+                    return;
+                }
+                int length = segment.length(ordinal);
+                double score = 0;
+                for (int t = 0; t < postings.length; t++) {
+                    if (postings[t] != null && postings[t].ordinal() == ordinal) {
+                        score += termScore(t, postings[t].freq(), length);
+                        postings[t].next();
+                    }
+                }
+                long externalId = segment.externalId(ordinal);
+                if (isCompetitive(externalId, score) && !replaced.test(externalId)) {
+                    offer(new SearchHit(externalId, type(segment.type(ordinal)), score));
+                }
+            }
+        }
+
+        void score(IndexBuffer buffer, List<String> terms, LongPredicate replaced) {
+            Set<Long> candidates = new HashSet<>();
+            for (String term : terms) {
+                for (long externalId : buffer.docsOf(term)) {
+                    candidates.add(externalId);
+                }
+            }
+            for (Long externalId : candidates) {
+                IndexBuffer.Doc doc = buffer.get(externalId);
+                double score = 0;
+                for (int t = 0; t < terms.size(); t++) {
+                    int freq = doc.freq(terms.get(t));
+                    if (freq > 0) {
+                        score += termScore(t, freq, doc.getLength());
+                    }
+                }
+                if (isCompetitive(externalId, score) && !replaced.test(externalId)) {
+                    offer(new SearchHit(externalId, type(doc.getType()), score));
+                }
+            }
+        }
+
+        private double termScore(int term, int freq, int length) {
+            return idf[term] * freq * (K1 + 1) / (freq + K1 * (1 - B + B * length / averageLength));
+        }
+
+        // Tells whether the hit would be kept, without creating it (see BY_RELEVANCE)
+        private boolean isCompetitive(long externalId, double score) {
+            if (hits.size() < n) {
+                return true;
+            }
+            SearchHit last = hits.peek();
+            return score > last.getScore() || (score == last.getScore() && externalId < last.getExternalId());
+        }
+
+        private void offer(SearchHit hit) {
+            hits.add(hit);
+            if (hits.size() > n) {
+                hits.poll();
+            }
+        }
+
+        List<SearchHit> getHits() {
+            List<SearchHit> result = new ArrayList<>(hits);
+            result.sort(BY_RELEVANCE);
+            return result;
+        }
+
+        private static Data.Type type(byte type) {
+            return type == Segment.STORY ? Data.Type.STORY : Data.Type.COMMENT;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package consumer.search;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Immutable part of the {@link SearchIndex}, stored in a memory-mapped file (written by {@link SegmentWriter}), so it
+ * is read without copying the data to the heap and without deserialization:
+ * <pre>
+ * [header: magic, doc count, term count, total length of the docs, dictionary offset, index offset]
+ * [docs: (externalId, length, type) per doc, in order of externalIds]
+ * [postings: (delta of doc ordinal, term frequency) per doc containing the term, as var-ints, per term]
+ * [dictionary: (term, doc frequency, postings offset, postings length) per term, in order of the terms]
+ * [index: offset of the dictionary entry per term]
+ * </pre>
+ * The docs are fixed size, so a doc is looked up by its externalId with a binary search, as well as a term is, with
+ * the index.
+ */
+final class Segment {
+
+    static final int MAGIC = 0x53454731;
+    static final int HEADER_SIZE = 4 + 4 + 4 + 8 + 8 + 8;
+    static final int DOC_SIZE = 8 + 4 + 1;
+    static final byte STORY = 0;
+    static final byte COMMENT = 1;
+
+    private final Path file;
+    private final ByteBuffer buffer;
+    private final int docCount;
+    private final int termCount;
+    private final long totalLength;
+    private final int dictionaryOffset;
+    private final int indexOffset;
+
+    private Segment(Path file, ByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a segment: " + file);
+        }
+        this.docCount = buffer.getInt(4);
+        this.termCount = buffer.getInt(8);
+        this.totalLength = buffer.getLong(12);
+        this.dictionaryOffset = (int) buffer.getLong(20);
+        this.indexOffset = (int) buffer.getLong(28);
+    }
+
+    static Segment open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel is closed
+            return new Segment(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    long getSize() {
+        return buffer.capacity();
+    }
+
+    int getDocCount() {
+        return docCount;
+    }
+
+    long getTotalLength() {
+        return totalLength;
+    }
+
+    long externalId(int ordinal) {
+        return buffer.getLong(HEADER_SIZE + ordinal * DOC_SIZE);
+    }
+
+    int length(int ordinal) {
+        return buffer.getInt(HEADER_SIZE + ordinal * DOC_SIZE + 8);
+    }
+
+    byte type(int ordinal) {
+        return buffer.get(HEADER_SIZE + ordinal * DOC_SIZE + 12);
+    }
+
+    boolean contains(long externalId) {
+        int low = 0;
+        int high = docCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long value = externalId(middle);
+            if (value < externalId) {
+                low = middle + 1;
+            } else if (value > externalId) {
+                high = middle - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return postings of the term, or {@code null} in case when no doc contains it
+     */
+    Postings postings(String term) {
+        int low = 0;
+        int high = termCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int entry = entryOffset(middle);
+            int comparison = termAt(entry).compareTo(term);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return postingsAt(entry);
+            }
+        }
+        return null;
+    }
+
+    int getTermCount() {
+        return termCount;
+    }
+
+    String term(int index) {
+        return termAt(entryOffset(index));
+    }
+
+    Postings postings(int index) {
+        return postingsAt(entryOffset(index));
+    }
+
+    private int entryOffset(int index) {
+        return (int) buffer.getLong(indexOffset + index * 8);
+    }
+
+    private String termAt(int entry) {
+        byte[] bytes = new byte[buffer.getShort(entry)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(entry + 2 + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private Postings postingsAt(int entry) {
+        int position = entry + 2 + buffer.getShort(entry);
+        int docFreq = buffer.getInt(position);
+        int offset = (int) buffer.getLong(position + 4);
+        int length = buffer.getInt(position + 12);
+        return new Postings(buffer, docFreq, offset, offset + length);
+    }
+
+    /**
+     * Cursor over the docs containing a term, in order of their ordinals.
+     */
+    static final class Postings {
+        private final ByteBuffer buffer;
+        private final int docFreq;
+        private int position;
+        private final int end;
+        private int ordinal;
+        private int freq;
+
+        private Postings(ByteBuffer buffer, int docFreq, int position, int end) {
+            this.buffer = buffer;
+            this.docFreq = docFreq;
+            this.position = position;
+            this.end = end;
+        }
+
+        int getDocFreq() {
+            return docFreq;
+        }
+
+        /**
+         * Move to the next doc.
+         * @return {@code false} in case when there are no more docs
+         */
+        boolean next() {
+            if (position >= end) {
+                ordinal = Integer.MAX_VALUE;
+                return false;
+            }
+            ordinal += readVarInt();
+            freq = readVarInt();
+            return true;
+        }
+
+        int ordinal() {
+            return ordinal;
+        }
+
+        int freq() {
+            return freq;
+        }
+
+        private int readVarInt() {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                // absolute reads, so the buffer is shared by concurrent cursors
+                b = buffer.get(position++);
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+    }
+}
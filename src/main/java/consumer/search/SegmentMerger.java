@@ -0,0 +1,127 @@
+package consumer.search;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongPredicate;
+
+/**
+ * Merges consecutive {@link Segment}s into one, streaming: the docs and the dictionaries are merged in order, so
+ * neither the segments nor the merged segment are loaded into the heap (apart from the mapping of the ordinals).
+ * Of the docs with the same externalId, the doc of the newest segment is kept; the docs replaced by the newer
+ * segments, which are not merged, are dropped.
+ */
+final class SegmentMerger {
+
+    private SegmentMerger() {
+    }
+
+    /**
+     * @param segments segments to merge, oldest first
+     * @param replaced tells whether the doc with the externalId is replaced by a newer segment
+     * @return number of docs of the merged segment
+     */
+    static int merge(List<Segment> segments, LongPredicate replaced, SegmentWriter writer) throws IOException {
+        int count = segments.size();
+        // ordinal of the doc in the merged segment by its ordinal in the segment, -1 for the dropped docs
+        int[][] ordinals = new int[count][];
+        for (int s = 0; s < count; s++) {
+            ordinals[s] = new int[segments.get(s).getDocCount()];
+            Arrays.fill(ordinals[s], -1);
+        }
+
+        int docCount = 0;
+        int[] positions = new int[count];
+        while (true) {
+            long externalId = Long.MAX_VALUE;
+            for (int s = 0; s < count; s++) {
+                if (positions[s] < segments.get(s).getDocCount()) {
+                    externalId = Math.min(externalId, segments.get(s).externalId(positions[s]));
+                }
+            }
+            if (externalId == Long.MAX_VALUE) {
+                break;
+            }
+            int newest = -1;
+            int newestPosition = -1;
+            for (int s = 0; s < count; s++) {
+                Segment segment = segments.get(s);
+                if (positions[s] < segment.getDocCount() && segment.externalId(positions[s]) == externalId) {
+                    newest = s;
+                    newestPosition = positions[s]++;
+                }
+            }
+            if (!replaced.test(externalId)) {
+                Segment segment = segments.get(newest);
+                writer.addDoc(externalId, segment.type(newestPosition), segment.length(newestPosition));
+                ordinals[newest][newestPosition] = docCount++;
+            }
+        }
+
+        int[] termIndexes = new int[count];
+        String[] terms = new String[count];
+        for (int s = 0; s < count; s++) {
+            terms[s] = segments.get(s).getTermCount() > 0 ? segments.get(s).term(0) : null;
+        }
+        Segment.Postings[] postings = new Segment.Postings[count];
+        int[] termOrdinals = new int[1024];
+        int[] termFreqs = new int[1024];
+        while (true) {
+            String term = null;
+            for (int s = 0; s < count; s++) {
+                if (terms[s] != null && (term == null || terms[s].compareTo(term) < 0)) {
+                    term = terms[s];
+                }
+            }
+            if (term == null) {
+                break;
+            }
+            for (int s = 0; s < count; s++) {
+                if (term.equals(terms[s])) {
+                    postings[s] = segments.get(s).postings(termIndexes[s]);
+                    nextKept(postings[s], ordinals[s]);
+                    termIndexes[s]++;
+                    terms[s] = termIndexes[s] < segments.get(s).getTermCount()
+                            ? segments.get(s).term(termIndexes[s]) : null;
+                } else {
+                    postings[s] = null;
+                }
+            }
+
+            // the ordinals of each segment are mapped in order, so the postings are merged by the mapped ordinals
+            int termCount = 0;
+            while (true) {
+                int min = -1;
+                for (int s = 0; s < count; s++) {
+                    if (postings[s] != null && postings[s].ordinal() != Integer.MAX_VALUE
+                            && (min < 0 || ordinals[s][postings[s].ordinal()] < ordinals[min][postings[min].ordinal()])) {
+                        min = s;
+                    }
+                }
+                if (min < 0) {
+                    break;
+                }
+                if (termCount == termOrdinals.length) {
+                    termOrdinals = Arrays.copyOf(termOrdinals, termCount * 2);
+                    termFreqs = Arrays.copyOf(termFreqs, termCount * 2);
+                }
+                termOrdinals[termCount] = ordinals[min][postings[min].ordinal()];
+                termFreqs[termCount] = postings[min].freq();
+                termCount++;
+                nextKept(postings[min], ordinals[min]);
+            }
+            // the terms of the dropped docs only are dropped as well
+            writer.addTerm(term, termOrdinals, termFreqs, termCount);
+        }
+        return docCount;
+    }
+
+    // Move to the next doc, which is kept in the merged segment
+    private static void nextKept(Segment.Postings postings, int[] ordinals) {
+        while (postings.next()) {
+            if (ordinals[postings.ordinal()] >= 0) {
+                return;
+            }
+        }
+    }
+}
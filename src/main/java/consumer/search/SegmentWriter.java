@@ -0,0 +1,157 @@
+package consumer.search;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes a {@link Segment} file: the documents are added first, in order of externalIds, followed by the terms, in
+ * order of the terms, with their postings in order of the documents. The file is written under a temporary name and
+ * only moved to {@code file} by {@link #finish()}, so an incomplete segment (e.g. in case of a crash) is never read.
+ */
+final class SegmentWriter implements Closeable {
+
+    private final Path file;
+    private final Path tmp;
+    private final DataOutputStream out;
+    private long position;
+
+    private int docCount;
+    private long lastExternalId = Long.MIN_VALUE;
+    private long totalLength;
+
+    // the dictionary is written after the postings, so the entries are kept until then
+    private final List<byte[]> terms = new ArrayList<>();
+    private final List<long[]> termEntries = new ArrayList<>(); // df, offset, length of postings
+    private String lastTerm;
+    private final PostingsBuffer postings = new PostingsBuffer();
+
+    SegmentWriter(Path file) throws IOException {
+        this.file = file;
+        this.tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16));
+        // the header is filled in by finish()
+        out.write(new byte[Segment.HEADER_SIZE]);
+        position = Segment.HEADER_SIZE;
+    }
+
+    void addDoc(long externalId, byte type, int length) throws IOException {
+        if (externalId <= lastExternalId || !terms.isEmpty()) {
+            throw new IllegalStateException("Documents are to be added in order of externalIds, before the terms");
+        }
+        lastExternalId = externalId;
+        out.writeLong(externalId);
+        out.writeInt(length);
+        out.writeByte(type);
+        position += Segment.DOC_SIZE;
+        docCount++;
+        totalLength += length;
+    }
+
+    /**
+     * @param ordinals ordinals of the documents (in order of addition) containing the term, ascending
+     * @param freqs frequencies of the term in the documents
+     */
+    void addTerm(String term, int[] ordinals, int[] freqs, int count) throws IOException {
+        if (lastTerm != null && term.compareTo(lastTerm) <= 0) {
+            throw new IllegalStateException("Terms are to be added in order");
+        }
+        if (count == 0) {
+            return;
+        }
+        lastTerm = term;
+        postings.reset();
+        int previous = 0;
+        for (int i = 0; i < count; i++) {
+            // ordinals are delta-encoded, so the (variable length) values are small
+            postings.writeVarInt(ordinals[i] - previous);
+            postings.writeVarInt(freqs[i]);
+            previous = ordinals[i];
+        }
+        terms.add(term.getBytes(StandardCharsets.UTF_8));
+        termEntries.add(new long[] {count, position, postings.size()});
+        out.write(postings.bytes(), 0, postings.size());
+        position += postings.size();
+    }
+
+    /**
+     * Complete the segment and move it to its file.
+     */
+    void finish() throws IOException {
+        long dictionaryOffset = position;
+        long[] entryOffsets = new long[terms.size()];
+        for (int i = 0; i < terms.size(); i++) {
+            entryOffsets[i] = position;
+            byte[] term = terms.get(i);
+            long[] entry = termEntries.get(i);
+            out.writeShort(term.length);
+            out.write(term);
+            out.writeInt((int) entry[0]);
+            out.writeLong(entry[1]);
+            out.writeInt((int) entry[2]);
+            position += 2 + term.length + 4 + 8 + 4;
+        }
+        long indexOffset = position;
+        for (long entryOffset : entryOffsets) {
+            out.writeLong(entryOffset);
+        }
+        out.close();
+
+        ByteBuffer header = ByteBuffer.allocate(Segment.HEADER_SIZE);
+        header.putInt(Segment.MAGIC).putInt(docCount).putInt(terms.size()).putLong(totalLength)
+                .putLong(dictionaryOffset).putLong(indexOffset);
+        header.flip();
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+        Files.deleteIfExists(tmp);
+    }
+
+    private static final class PostingsBuffer {
+        private byte[] bytes = new byte[1024];
+        private int size;
+
+        void reset() {
+            size = 0;
+        }
+
+        void writeVarInt(int value) {
+            if (size + 5 > bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            while ((value & ~0x7F) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        byte[] bytes() {
+            return bytes;
+        }
+
+        int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package consumer.search;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Splits the text (story titles, comment text, which is HTML, and queries) into lower-case terms of letters and digits.
+ */
+final class Tokenizer {
+
+    private static final Pattern TAG = Pattern.compile("<[^>]*>");
+    private static final Pattern ENTITY = Pattern.compile("&(#x?[0-9a-fA-F]+|[a-zA-Z]+);");
+    private static final Pattern SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+    // longer terms (e.g. parts of urls) are not worth indexing
+    static final int MAX_TERM_LENGTH = 40;
+
+    private Tokenizer() {
+    }
+
+    static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return terms;
+        }
+        // the entities are only separators (e.g. &#x27; in "don&#x27;t"), so they are not decoded
+        String plain = ENTITY.matcher(TAG.matcher(text).replaceAll(" ")).replaceAll(" ");
+        for (String term : SEPARATOR.split(plain.toLowerCase(Locale.ROOT))) {
+            if (!term.isEmpty() && term.length() <= MAX_TERM_LENGTH) {
+                terms.add(term);
+            }
+        }
+        return terms;
+    }
+}
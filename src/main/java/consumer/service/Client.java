@@ -1,33 +1,94 @@
 package consumer.service;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 
+import consumer.jfr.FetchEvent;
 import consumer.model.Data;
 
 @Service
-public class Client {
+public class Client implements DisposableBean {
 
     private static final Logger logger = LoggerFactory.getLogger(Client.class);
-    private static final String URL_TEMPLATE = "https://hacker-news.firebaseio.com/v0/item/%d.json";
+    static final String URL_TEMPLATE = "https://hacker-news.firebaseio.com/v0/item/%d.json";
+    private static final String TOP_STORIES_URL = "https://hacker-news.firebaseio.com/v0/topstories.json";
 
     private final RestTemplate restTemplate;
+    // optional hedging of slow requests
+    private final RequestHedger hedger;
+
+    @Autowired
+    public Client(RestTemplate restTemplate, Environment env) {
+        this(restTemplate, createHedger(env));
+    }
 
-    public Client(RestTemplate restTemplate) {
+    Client(RestTemplate restTemplate, @Nullable RequestHedger hedger) {
         this.restTemplate = restTemplate;
+        this.hedger = hedger;
+    }
+
+    private static RequestHedger createHedger(Environment env) {
+        if (!Boolean.parseBoolean(env.getProperty("consumer.client.hedging.enabled", "false"))) {
+            return null;
+        }
+        // the actual parameter values are not validated for brevity
+        String percentileValue = env.getProperty("consumer.client.hedging.percentile", "95");
+        String budgetPercentValue = env.getProperty("consumer.client.hedging.budgetPercent", "5");
+        String minDelayValue = env.getProperty("consumer.client.hedging.minDelay", "50");
+        return new RequestHedger(Double.parseDouble(percentileValue), Double.parseDouble(budgetPercentValue),
+                Long.parseLong(minDelayValue));
     }
 
     /**
      * Retrieve entity from {@code https://hacker-news.firebaseio.com/v0/item/{id}.json URL} identified by {@code id param}.
      * The entity is either 'comment' or a 'story' as indicated by its {@link Data#getType()} field.
+     * In case when hedging is enabled, slow requests are duplicated (see {@link RequestHedger}).
      * @param id identifier of the entity
      * @return converted response
      */
     public Data getData(long id) {
         logger.info("Retrieving data with id {}", id);
         String url = String.format(URL_TEMPLATE, id);
-        return restTemplate.getForObject(url, Data.class);
+        FetchEvent event = new FetchEvent();
+        event.begin();
+        Data result = null;
+        try {
+            if (hedger != null) {
+                result = hedger.call(() -> restTemplate.getForObject(url, Data.class));
+            } else {
+                result = restTemplate.getForObject(url, Data.class);
+            }
+            return result;
+        } finally {
+            event.commit(id, result != null && result.getType() != null ? result.getType().name() : null);
+        }
+    }
+
+    /**
+     * Retrieve ids of the top stories from {@code https://hacker-news.firebaseio.com/v0/topstories.json}.
+     * @return ids of the stories, ordered by rank
+     */
+    public List<Long> getTopStoryIds() {
+        logger.info("Retrieving top story ids");
+        Long[] ids = restTemplate.getForObject(TOP_STORIES_URL, Long[].class);
+        return ids != null ? Arrays.asList(ids) : Collections.emptyList();
+    }
+
+    @Override
+    public void destroy() {
+        if (hedger != null) {
+            logger.info("Hedged {} request(s), {} of which won", hedger.getHedgedCount(), hedger.getHedgeWinCount());
+            hedger.shutdown();
+        }
     }
 }
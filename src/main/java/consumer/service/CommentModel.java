@@ -0,0 +1,133 @@
+package consumer.service;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonManagedReference;
+
+import consumer.repository.CommentTextCodec;
+
+// Simple model object, describing comment data returned from MongoDB's graphLookup
+class CommentModel {
+    private Long externalId;
+    private String by;
+    private Long parentExternalId;
+    private Date date;
+    private String text;
+    // the text, in case when it is stored compressed; it is decompressed only once the text is read (i.e. as the json
+    // is written)
+    @JsonIgnore
+    private byte[] compressedText;
+    @JsonIgnore
+    private List<Long> kids;
+    @JsonIgnore
+    transient private Integer depth;
+    @JsonManagedReference
+    private List<CommentModel> children;
+    @JsonIgnore
+    private List<CommentModel> ancestors;
+    // flattened subtree of the comment within a partition, see StoryService
+    @JsonIgnore
+    private List<CommentModel> descendants;
+
+    public Long getExternalId() {
+        return externalId;
+    }
+
+    public void setExternalId(Long externalId) {
+        this.externalId = externalId;
+    }
+
+    public String getBy() {
+        return by;
+    }
+
+    public void setBy(String by) {
+        this.by = by;
+    }
+
+    public Long getParentExternalId() {
+        return parentExternalId;
+    }
+
+    public void setParentExternalId(Long parentExternalId) {
+        this.parentExternalId = parentExternalId;
+    }
+
+    public Date getDate() {
+        return date;
+    }
+
+    public void setDate(Date date) {
+        this.date = date;
+    }
+
+    public String getText() {
+        if (text == null && compressedText != null) {
+            text = CommentTextCodec.decompress(compressedText);
+            compressedText = null;
+        }
+        return text;
+    }
+
+    public void setText(String text) {
+        this.text = text;
+    }
+
+    public byte[] getCompressedText() {
+        return compressedText;
+    }
+
+    public void setCompressedText(byte[] compressedText) {
+        this.compressedText = compressedText;
+    }
+
+    public List<Long> getKids() {
+        return kids;
+    }
+
+    public void setKids(List<Long> kids) {
+        this.kids = kids;
+    }
+
+    public Integer getDepth() {
+        return depth;
+    }
+
+    public void setDepth(Integer depth) {
+        this.depth = depth;
+    }
+
+    private List<CommentModel> getChildren() {
+        if (children == null) {
+            children = new ArrayList<>(kids != null ? kids.size() : 0);
+        }
+        return children;
+    }
+
+    public void setChildren(List<CommentModel> children) {
+        this.children = children;
+    }
+
+    public void addChild(CommentModel child) {
+        getChildren().add(child);
+    }
+
+    public List<CommentModel> getAncestors() {
+        return ancestors;
+    }
+
+    public void setAncestors(List<CommentModel> ancestors) {
+        this.ancestors = ancestors;
+    }
+
+    public List<CommentModel> getDescendants() {
+        return descendants;
+    }
+
+    public void setDescendants(List<CommentModel> descendants) {
+        this.descendants = descendants;
+    }
+}
@@ -0,0 +1,308 @@
+package consumer.service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.env.Environment;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import consumer.model.Comment;
+import consumer.model.Story;
+import consumer.rabbit.PersistListener;
+import consumer.repository.TimePartitions;
+
+/**
+ * In-process registry of the subscriptions to the comments of stories: as the comments are persisted, they are pushed
+ * to the subscribers of their stories (see {@link consumer.web.CommentStreamController}), so that the clients watching
+ * a thread do not poll it.
+ *
+ * The story of a comment is found with {@link ThreadResolver}, and only while there are subscribers at all; the comments
+ * of which parents are not persisted yet are not pushed. The comments are pushed by {@code senderThreads} threads, so
+ * the threads persisting the comments are never blocked by the subscribers: each subscriber has a buffer of up to
+ * {@code bufferSize} comments, and a subscriber which does not keep up (i.e. of which buffer is full) is evicted, rather
+ * than holding the comments (or the threads) back. The sends are blocking, so a subscriber of which send takes longer
+ * than {@code sendTimeout} ms (e.g. the client has stalled) is evicted as well, and the thread sending to it is
+ * interrupted, so that the stalled clients hold the sender threads for a bounded time only. Either eviction is
+ * reported to the {@link Sink} by the thread draining its buffer, so the sink is never called concurrently.
+ */
+@Service
+@ConditionalOnProperty(name = "consumer.live.enabled", havingValue = "true")
+public class CommentTopics implements PersistListener, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(CommentTopics.class);
+
+    // the comments are pushed to a subscriber in batches of up to the number
+    private static final int MAX_BATCH = 100;
+
+    /**
+     * Receiver of the comments of a subscription; is called by a single thread at a time.
+     */
+    public interface Sink {
+
+        void send(List<Comment> comments) throws IOException;
+
+        /**
+         * Called once the subscription is evicted for not keeping up with the comments, after which it receives no
+         * more comments.
+         */
+        void evicted();
+
+        /**
+         * Called once the subscription is evicted as its send has taken longer than {@code sendTimeout} ms, after
+         * which it receives no more comments; nothing is to be sent to the subscriber then, as it does not receive.
+         */
+        void timedOut();
+    }
+
+    private final ThreadResolver threadResolver;
+    private final ExecutorService senders;
+    private final int bufferSize;
+    private final int maxSubscriptions;
+    private final long sendTimeout;
+    // evicts the subscribers of which sends take too long
+    private final ScheduledThreadPoolExecutor watchdog;
+
+    // subscriptions by externalId of the story
+    private final Map<Long, Set<Subscription>> topics = new ConcurrentHashMap<>();
+    private final AtomicInteger subscriptionCount = new AtomicInteger();
+
+    @Autowired
+    public CommentTopics(MongoTemplate mongoTemplate, Environment env, @Nullable TimePartitions timePartitions) {
+        // the actual parameter values are not validated for brevity
+        this(new ThreadResolver(mongoTemplate, Integer.parseInt(env.getProperty("consumer.live.cacheSize", "100000")),
+                        timePartitions),
+                Executors.newFixedThreadPool(Integer.parseInt(env.getProperty("consumer.live.senderThreads", "4")),
+                        new CustomizableThreadFactory("Live-")),
+                Integer.parseInt(env.getProperty("consumer.live.bufferSize", "1000")),
+                Integer.parseInt(env.getProperty("consumer.live.maxSubscriptions", "10000")),
+                Long.parseLong(env.getProperty("consumer.live.sendTimeout", "5000")));
+    }
+
+    CommentTopics(ThreadResolver threadResolver, ExecutorService senders, int bufferSize, int maxSubscriptions,
+                  long sendTimeout) {
+        this.threadResolver = threadResolver;
+        this.senders = senders;
+        this.bufferSize = bufferSize;
+        this.maxSubscriptions = maxSubscriptions;
+        this.sendTimeout = sendTimeout;
+        this.watchdog = new ScheduledThreadPoolExecutor(1, new CustomizableThreadFactory("Live-watchdog-"));
+        watchdog.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Subscribe to the comments of the story, which are persisted from now on.
+     * @throws IllegalStateException in case when there are {@code maxSubscriptions} subscriptions already
+     */
+    public Subscription subscribe(long storyExternalId, Sink sink) {
+        if (subscriptionCount.incrementAndGet() > maxSubscriptions) {
+            subscriptionCount.decrementAndGet();
+            throw new IllegalStateException("Too many subscriptions");
+        }
+        Subscription subscription = new Subscription(storyExternalId, sink);
+        topics.computeIfAbsent(storyExternalId, story -> new CopyOnWriteArraySet<>()).add(subscription);
+        return subscription;
+    }
+
+    int getSubscriptionCount() {
+        return subscriptionCount.get();
+    }
+
+    @Override
+    public void onStoriesPersisted(List<Story> stories) {
+        if (topics.isEmpty()) {
+            return;
+        }
+        for (Story story : stories) {
+            if (story.getExternalId() != null) {
+                threadResolver.putStory(story.getExternalId());
+            }
+        }
+    }
+
+    @Override
+    public void onCommentsPersisted(List<Comment> comments) {
+        if (topics.isEmpty()) {
+            return;
+        }
+        Map<Long, Comment> batchById = new HashMap<>();
+        for (Comment comment : comments) {
+            if (comment.getExternalId() != null) {
+                batchById.put(comment.getExternalId(), comment);
+            }
+        }
+        Map<Long, List<Comment>> commentsByStory = new HashMap<>();
+        try {
+            for (Comment comment : batchById.values()) {
+                ThreadResolver.Node node = threadResolver.resolve(comment.getExternalId(),
+                        comment.getParentExternalId(), batchById);
+                if (node != null && topics.containsKey(node.getStory())) {
+                    commentsByStory.computeIfAbsent(node.getStory(), story -> new ArrayList<>()).add(comment);
+                }
+            }
+        } catch (RuntimeException e) {
+            // the comments are persisted anyway, they are just not pushed
+            logger.warn("Unable to resolve the stories of comments", e);
+        }
+        commentsByStory.forEach((story, storyComments) -> {
+            Set<Subscription> subscriptions = topics.get(story);
+            if (subscriptions != null) {
+                for (Subscription subscription : subscriptions) {
+                    subscription.offer(storyComments);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void destroy() {
+        senders.shutdownNow();
+        watchdog.shutdownNow();
+    }
+
+    /**
+     * Subscription to the comments of a story, with its own bounded buffer of the comments to be sent.
+     */
+    public final class Subscription {
+        private final long storyExternalId;
+        private final Sink sink;
+        private final BlockingQueue<Comment> buffer;
+        // whether the buffer is being drained (or is scheduled to be)
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+        // the subscription is cancelled as its buffer is full, which is yet to be reported by the draining thread
+        private final AtomicBoolean overflowed = new AtomicBoolean();
+        // the thread sending to the subscriber, while it is sending, and whether the send has timed out; guarded by
+        // this
+        private Thread sendingThread;
+        private boolean stalled;
+
+        private Subscription(long storyExternalId, Sink sink) {
+            this.storyExternalId = storyExternalId;
+            this.sink = sink;
+            this.buffer = new ArrayBlockingQueue<>(bufferSize);
+        }
+
+        public void cancel() {
+            if (cancelled.compareAndSet(false, true)) {
+                topics.computeIfPresent(storyExternalId, (story, subscriptions) -> {
+                    subscriptions.remove(this);
+                    return subscriptions.isEmpty() ? null : subscriptions;
+                });
+                subscriptionCount.decrementAndGet();
+                buffer.clear();
+            }
+        }
+
+        private void offer(List<Comment> comments) {
+            if (cancelled.get()) {
+                return;
+            }
+            for (Comment comment : comments) {
+                if (!buffer.offer(comment)) {
+                    logger.info("Evicting subscriber of story {}, which does not keep up", storyExternalId);
+                    overflowed.set(true);
+                    cancel();
+                    break;
+                }
+            }
+            // the eviction is reported by the draining thread as well, once the send in progress (if any) is done
+            if (draining.compareAndSet(false, true)) {
+                execute(this::drain);
+            }
+        }
+
+        private void execute(Runnable task) {
+            try {
+                senders.execute(task);
+            } catch (RejectedExecutionException e) {
+                // shutting down, so the comments are no longer pushed (the persisting thread is not to fail)
+                cancel();
+            }
+        }
+
+        private void drain() {
+            try {
+                while (!cancelled.get()) {
+                    List<Comment> batch = new ArrayList<>(MAX_BATCH);
+                    buffer.drainTo(batch, MAX_BATCH);
+                    if (!batch.isEmpty()) {
+                        send(batch);
+                        continue;
+                    }
+                    draining.set(false);
+                    // the comments offered (or the eviction) after the buffer is found empty, but before the flag is
+                    // reset, are drained (reported) by the thread, unless a new drain is scheduled already
+                    if ((buffer.isEmpty() && !overflowed.get()) || !draining.compareAndSet(false, true)) {
+                        return;
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                // the subscriber is gone
+                logger.debug("Unable to send comments of story {}", storyExternalId, e);
+                cancel();
+            }
+            if (overflowed.compareAndSet(true, false)) {
+                sink.evicted();
+            }
+        }
+
+        private void send(List<Comment> batch) throws IOException {
+            synchronized (this) {
+                sendingThread = Thread.currentThread();
+            }
+            ScheduledFuture<?> timeout = watchdog.schedule(this::stalled, sendTimeout, TimeUnit.MILLISECONDS);
+            try {
+                sink.send(batch);
+            } finally {
+                timeout.cancel(false);
+                boolean timedOut;
+                synchronized (this) {
+                    sendingThread = null;
+                    timedOut = stalled;
+                }
+                if (timedOut) {
+                    // the interruption is meant for the send only, rather than for the next task of the thread
+                    Thread.interrupted();
+                    sink.timedOut();
+                }
+            }
+        }
+
+        private void stalled() {
+            synchronized (this) {
+                if (sendingThread == null) {
+                    return;
+                }
+                logger.info("Evicting subscriber of story {}, of which send takes longer than {} ms", storyExternalId,
+                        sendTimeout);
+                stalled = true;
+                cancel();
+                sendingThread.interrupt();
+            }
+        }
+    }
+}
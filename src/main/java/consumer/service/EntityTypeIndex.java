@@ -0,0 +1,157 @@
+package consumer.service;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Service;
+
+import consumer.model.Comment;
+import consumer.model.Story;
+import consumer.rabbit.PersistListener;
+
+/**
+ * In-memory index of entity types by {@code externalId}, so that {@link StoryService} is able to tell whether an id
+ * corresponds to a story or a comment (or to nothing at all) without DB calls.
+ *
+ * The index is a dense array with 2 bits per id (i.e. 32 ids per long), split into pages of {@value #PAGE_SIZE} ids
+ * which are allocated on demand; hence e.g. 40M ids take about 10MB. The index is rebuilt on startup by a streaming
+ * scan over both collections and then kept up to date as {@link consumer.rabbit.Receiver} persists the entities.
+ *
+ * The index covers ids in int range only; {@link #get(long)} returns {@code null} for the others, as well as in
+ * case when the index is not (successfully) built, so the callers should fall back to the DB then.
+ */
+@Service
+@ConditionalOnProperty(name = "consumer.typeindex.enabled", havingValue = "true")
+public class EntityTypeIndex implements PersistListener, InitializingBean {
+
+    public enum Type {
+        ABSENT, STORY, COMMENT
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(EntityTypeIndex.class);
+
+    private static final int PAGE_BITS = 20;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    private static final int IDS_PER_WORD = 32;
+    private static final long TYPE_MASK = 0b11L;
+    private static final Type[] TYPES = Type.values();
+
+    private final MongoTemplate mongoTemplate;
+
+    private volatile AtomicLongArray[] pages = new AtomicLongArray[0];
+    private volatile boolean ready;
+
+    public EntityTypeIndex(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        long start = System.currentTimeMillis();
+        try {
+            ExternalIds.scan(mongoTemplate, Story.class, id -> put(id, Type.STORY));
+            ExternalIds.scan(mongoTemplate, Comment.class, id -> put(id, Type.COMMENT));
+            ready = true;
+            logger.info("Built entity type index in {} ms ({} bytes)", System.currentTimeMillis() - start,
+                    getMemoryFootprint());
+        } catch (RuntimeException e) {
+            logger.warn("Unable to build entity type index, falling back to the DB", e);
+        }
+    }
+
+    /**
+     * @param externalId id of the entity
+     * @return type of the entity, {@link Type#ABSENT} in case when there is no entity with the id, or {@code null} if
+     * the index is not able to tell
+     */
+    public Type get(long externalId) {
+        if (!ready || externalId < 0 || externalId > Integer.MAX_VALUE) {
+            return null;
+        }
+        AtomicLongArray[] current = pages;
+        int pageIndex = (int) (externalId >>> PAGE_BITS);
+        if (pageIndex >= current.length || current[pageIndex] == null) {
+            return Type.ABSENT;
+        }
+        int offset = (int) (externalId & PAGE_MASK);
+        long word = current[pageIndex].get(offset / IDS_PER_WORD);
+        return TYPES[(int) ((word >>> shift(offset)) & TYPE_MASK)];
+    }
+
+    public void put(long externalId, Type type) {
+        if (externalId < 0 || externalId > Integer.MAX_VALUE) {
+            return;
+        }
+        AtomicLongArray page = page((int) (externalId >>> PAGE_BITS));
+        int offset = (int) (externalId & PAGE_MASK);
+        int shift = shift(offset);
+        int wordIndex = offset / IDS_PER_WORD;
+        long word;
+        long updated;
+        do {
+            word = page.get(wordIndex);
+            updated = (word & ~(TYPE_MASK << shift)) | ((long) type.ordinal() << shift);
+        } while (word != updated && !page.compareAndSet(wordIndex, word, updated));
+    }
+
+    public long getMemoryFootprint() {
+        long bytes = 0;
+        for (AtomicLongArray page : pages) {
+            if (page != null) {
+                bytes += (long) page.length() * Long.BYTES;
+            }
+        }
+        return bytes;
+    }
+
+    @Override
+    public void onStoriesPersisted(List<Story> stories) {
+        for (Story story : stories) {
+            if (story.getExternalId() != null) {
+                put(story.getExternalId(), Type.STORY);
+            }
+        }
+    }
+
+    @Override
+    public void onCommentsPersisted(List<Comment> comments) {
+        for (Comment comment : comments) {
+            if (comment.getExternalId() != null) {
+                put(comment.getExternalId(), Type.COMMENT);
+            }
+        }
+    }
+
+    private static int shift(int offset) {
+        return (offset % IDS_PER_WORD) * 2;
+    }
+
+    private AtomicLongArray page(int pageIndex) {
+        AtomicLongArray[] current = pages;
+        if (pageIndex < current.length && current[pageIndex] != null) {
+            return current[pageIndex];
+        }
+        synchronized (this) {
+            current = pages;
+            if (pageIndex >= current.length) {
+                AtomicLongArray[] grown = new AtomicLongArray[Math.max(pageIndex + 1, current.length * 2)];
+                System.arraycopy(current, 0, grown, 0, current.length);
+                current = grown;
+            } else if (current[pageIndex] != null) {
+                return current[pageIndex];
+            } else {
+                current = current.clone();
+            }
+            AtomicLongArray page = new AtomicLongArray(PAGE_SIZE / IDS_PER_WORD);
+            current[pageIndex] = page;
+            pages = current; // publish
+            return page;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package consumer.service;
+
+import java.util.function.LongConsumer;
+
+import org.bson.Document;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+
+import consumer.repository.TimePartitions;
+
+// Helper for in-memory structures which are rebuilt from the DB on startup
+final class ExternalIds {
+
+    private ExternalIds() {
+    }
+
+    // Scan externalIds of the collection of given type (and of its partitions, see TimePartitions); only the externalId
+    // field is fetched, and the documents are streamed (rather than loaded at once) to keep memory usage low.
+    static void scan(MongoTemplate mongoTemplate, Class<?> type, LongConsumer consumer) {
+        Query query = new Query();
+        query.fields().include("externalId").exclude("_id");
+        for (String collection : TimePartitions.collectionNames(mongoTemplate, type)) {
+            try (CloseableIterator<Document> iterator = mongoTemplate.stream(query, Document.class, collection)) {
+                while (iterator.hasNext()) {
+                    Object externalId = iterator.next().get("externalId");
+                    if (externalId instanceof Number) {
+                        consumer.accept(((Number) externalId).longValue());
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package consumer.service;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.roaringbitmap.RoaringBitmap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.env.Environment;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Service;
+
+import consumer.model.Comment;
+import consumer.model.Story;
+import consumer.rabbit.PersistListener;
+
+/**
+ * Compact set of {@code externalId}s of entities which are already ingested (persisted), backed by a (compressed)
+ * {@link RoaringBitmap}. It is consulted by the runners before an entity is retrieved, so already ingested entities
+ * are not requested (nor persisted) again, which makes it possible to run `consume` multiple times, with overlapping
+ * ranges as well.
+ *
+ * The set is kept up to date as {@link consumer.rabbit.Receiver} persists the entities. On startup, the set is loaded
+ * from {@code consumer.dedup.file}, when the file is present, or rebuilt with a streaming scan over both collections
+ * otherwise; it is saved to the file on shutdown. (Hence in case when the DB is cleaned up, the file should be removed
+ * as well.)
+ *
+ * Note: the ids which do not fit into int are not tracked, i.e. are always considered as not ingested.
+ */
+@Service
+@ConditionalOnProperty(name = "consumer.dedup.enabled", havingValue = "true")
+public class IngestedIdFilter implements PersistListener, InitializingBean, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(IngestedIdFilter.class);
+
+    private final MongoTemplate mongoTemplate;
+    private final Path file;
+
+    private final RoaringBitmap ids = new RoaringBitmap();
+    // RoaringBitmap is not thread-safe
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public IngestedIdFilter(MongoTemplate mongoTemplate, Environment env) {
+        this.mongoTemplate = mongoTemplate;
+        String fileValue = env.getProperty("consumer.dedup.file", "");
+        this.file = fileValue.isEmpty() ? null : Paths.get(fileValue);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        long start = System.currentTimeMillis();
+        try {
+            if (file != null && Files.exists(file)) {
+                load(file);
+            } else {
+                rebuild();
+            }
+            logger.info("Loaded {} ingested id(s) in {} ms", size(), System.currentTimeMillis() - start);
+        } catch (IOException | RuntimeException e) {
+            // the filter is an optimization only: in the worst case the entities are retrieved again
+            logger.warn("Unable to load ingested ids, starting with an empty set", e);
+        }
+    }
+
+    /**
+     * @param externalId id of the entity
+     * @return {@code true} if the entity is known to be ingested already
+     */
+    public boolean contains(long externalId) {
+        if (externalId < 0 || externalId > Integer.MAX_VALUE) {
+            return false;
+        }
+        lock.readLock().lock();
+        try {
+            return ids.contains((int) externalId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void add(Long externalId) {
+        if (externalId == null || externalId < 0 || externalId > Integer.MAX_VALUE) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            ids.add(externalId.intValue());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public long size() {
+        lock.readLock().lock();
+        try {
+            return ids.getLongCardinality();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void onStoriesPersisted(List<Story> stories) {
+        for (Story story : stories) {
+            add(story.getExternalId());
+        }
+    }
+
+    @Override
+    public void onCommentsPersisted(List<Comment> comments) {
+        for (Comment comment : comments) {
+            add(comment.getExternalId());
+        }
+    }
+
+    private void rebuild() {
+        ExternalIds.scan(mongoTemplate, Story.class, this::add);
+        ExternalIds.scan(mongoTemplate, Comment.class, this::add);
+    }
+
+    void load(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(path))) {
+            lock.writeLock().lock();
+            try {
+                ids.clear();
+                ids.deserialize(in);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    void save(Path path) throws IOException {
+        // write to a temporary file first, so the previous file is not lost in case of failure
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(tmp))) {
+            lock.writeLock().lock(); // runOptimize modifies the bitmap
+            try {
+                ids.runOptimize();
+                ids.serialize(out);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public void destroy() throws IOException {
+        if (file != null) {
+            save(file);
+            logger.info("Saved {} ingested id(s) to {}", size(), file);
+        }
+    }
+}
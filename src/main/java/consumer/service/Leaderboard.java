@@ -0,0 +1,164 @@
+package consumer.service;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Ranking of stories by a value (e.g. score), kept sorted in a skip list, so that top-N stories are read without
+ * sorting (nor scanning) the stories: the cost of {@link #top(int)} depends on N only.
+ *
+ * Updates of a story replace its previous entry, so the ranking follows the changes of the value (e.g. refreshed
+ * score). In case when {@code windowMillis} is set, only the stories created within the window (up to now) are
+ * ranked; the expired stories are evicted, oldest first, on updates and queries.
+ *
+ * In case when {@code capacity} is set, at most the number of top stories are kept: once there are more, the lowest
+ * ranked story is evicted, and stories ranked below the lowest one are not added. An evicted story is ranked again
+ * once it is updated with a value above the cutoff (so a story which drops below the cutoff, and then rises without
+ * being updated, is missing until its next update).
+ *
+ * Updates are serialized, while queries are lock-free (a query running concurrently with an update may see either
+ * entry of the updated story).
+ */
+public class Leaderboard {
+
+    private static final Comparator<Entry> BY_VALUE = Comparator.comparingLong(Entry::getValue).reversed()
+            .thenComparingLong(Entry::getExternalId);
+    private static final Comparator<Entry> BY_DATE = Comparator.comparingLong((Entry entry) -> entry.time)
+            .thenComparingLong(Entry::getExternalId);
+
+    private final int capacity;
+    private final long windowMillis;
+    private final Clock clock;
+
+    private final NavigableSet<Entry> ranking = new ConcurrentSkipListSet<>(BY_VALUE);
+    private final Map<Long, Entry> entries = new ConcurrentHashMap<>();
+    // entries ordered by time, used to evict the expired ones; only maintained for windowed leaderboards
+    private final NavigableSet<Entry> byTime = new ConcurrentSkipListSet<>(BY_DATE);
+
+    public Leaderboard() {
+        this(0, 0, Clock.systemUTC());
+    }
+
+    /**
+     * @param capacity max number of ranked stories; 0 for no limit
+     * @param windowMillis only the stories created within the window are ranked; 0 for no window
+     */
+    public Leaderboard(int capacity, long windowMillis, Clock clock) {
+        this.capacity = capacity;
+        this.windowMillis = windowMillis;
+        this.clock = clock;
+    }
+
+    /**
+     * Add the story, or update its value (and title) in case when it is ranked already.
+     */
+    public synchronized void update(long externalId, long value, Date date, String title) {
+        Entry previous = entries.get(externalId);
+        if (previous != null && previous.value == value && Objects.equals(previous.title, title)) {
+            return;
+        }
+        if (windowMillis > 0 && (date == null || date.getTime() < windowStart())) {
+            remove(externalId);
+            return;
+        }
+
+        Entry entry = new Entry(externalId, value, date != null ? date.getTime() : 0, title);
+        if (windowMillis > 0) {
+            evictExpired();
+        }
+        if (previous == null && capacity > 0 && entries.size() >= capacity
+                && BY_VALUE.compare(entry, ranking.last()) > 0) {
+            // below the cutoff
+            return;
+        }
+        if (previous != null) {
+            ranking.remove(previous);
+            byTime.remove(previous);
+        }
+        entries.put(externalId, entry);
+        ranking.add(entry);
+        if (windowMillis > 0) {
+            byTime.add(entry);
+        }
+        while (capacity > 0 && entries.size() > capacity) {
+            remove(ranking.last().externalId);
+        }
+    }
+
+    public synchronized void remove(long externalId) {
+        Entry entry = entries.remove(externalId);
+        if (entry != null) {
+            ranking.remove(entry);
+            byTime.remove(entry);
+        }
+    }
+
+    /**
+     * @return up to {@code n} stories with the highest values, highest first
+     */
+    public List<Entry> top(int n) {
+        if (windowMillis > 0 && !byTime.isEmpty() && byTime.first().time < windowStart()) {
+            synchronized (this) {
+                evictExpired();
+            }
+        }
+        List<Entry> result = new ArrayList<>(Math.min(n, 100));
+        Iterator<Entry> iterator = ranking.iterator();
+        while (result.size() < n && iterator.hasNext()) {
+            result.add(iterator.next());
+        }
+        return result;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private void evictExpired() {
+        long windowStart = windowStart();
+        while (!byTime.isEmpty() && byTime.first().time < windowStart) {
+            Entry entry = byTime.pollFirst();
+            entries.remove(entry.externalId, entry);
+            ranking.remove(entry);
+        }
+    }
+
+    private long windowStart() {
+        return clock.millis() - windowMillis;
+    }
+
+    public static final class Entry {
+        private final long externalId;
+        private final long value;
+        private final long time;
+        private final String title;
+
+        private Entry(long externalId, long value, long time, String title) {
+            this.externalId = externalId;
+            this.value = value;
+            this.time = time;
+            this.title = title;
+        }
+
+        public long getExternalId() {
+            return externalId;
+        }
+
+        public long getValue() {
+            return value;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+    }
+}
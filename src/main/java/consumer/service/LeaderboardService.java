@@ -0,0 +1,136 @@
+package consumer.service;
+
+import java.time.Clock;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.env.Environment;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.stereotype.Service;
+
+import consumer.model.Story;
+import consumer.rabbit.PersistListener;
+import consumer.repository.TimePartitions;
+
+/**
+ * In-memory {@link Leaderboard leaderboards} of stories, so that e.g. top stories by score are served without querying
+ * the DB:
+ * <ul>
+ *     <li>{@code score} -- stories by score;</li>
+ *     <li>{@code comments} -- stories by number of comments (descendants);</li>
+ *     <li>{@code score-recent}, {@code comments-recent} -- the same, for the stories created within the window
+ *     ({@code consumer.leaderboards.window}, 24h by default).</li>
+ * </ul>
+ * Each leaderboard keeps up to {@code consumer.leaderboards.capacity} top stories, so the memory does not grow with the
+ * number of stories.
+ * The leaderboards are kept up to date as {@link consumer.rabbit.Receiver} persists the stories (including the stories
+ * retrieved again, e.g. with refreshed score); the DB is only used to build them on startup, with a streaming scan.
+ */
+@Service
+@ConditionalOnProperty(name = "consumer.leaderboards.enabled", havingValue = "true")
+public class LeaderboardService implements PersistListener, InitializingBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(LeaderboardService.class);
+
+    private final MongoTemplate mongoTemplate;
+
+    private final Leaderboard byScore;
+    private final Leaderboard byComments;
+    private final Leaderboard recentByScore;
+    private final Leaderboard recentByComments;
+    private final Map<String, Leaderboard> leaderboards = new LinkedHashMap<>();
+
+    @Autowired
+    public LeaderboardService(MongoTemplate mongoTemplate, Environment env) {
+        // the actual parameter values are not validated for brevity
+        this(mongoTemplate, Integer.parseInt(env.getProperty("consumer.leaderboards.capacity", "10000")),
+                Long.parseLong(env.getProperty("consumer.leaderboards.window",
+                        String.valueOf(TimeUnit.DAYS.toMillis(1)))), Clock.systemUTC());
+    }
+
+    LeaderboardService(MongoTemplate mongoTemplate, int capacity, long windowMillis, Clock clock) {
+        this.mongoTemplate = mongoTemplate;
+        this.byScore = new Leaderboard(capacity, 0, clock);
+        this.byComments = new Leaderboard(capacity, 0, clock);
+        this.recentByScore = new Leaderboard(capacity, windowMillis, clock);
+        this.recentByComments = new Leaderboard(capacity, windowMillis, clock);
+        leaderboards.put("score", byScore);
+        leaderboards.put("comments", byComments);
+        leaderboards.put("score-recent", recentByScore);
+        leaderboards.put("comments-recent", recentByComments);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        long start = System.currentTimeMillis();
+        Query query = new Query();
+        query.fields().include("externalId").include("score").include("descendants").include("date")
+                .include("title");
+        try {
+            for (String collection : TimePartitions.collectionNames(mongoTemplate, Story.class)) {
+                try (CloseableIterator<Story> stories = mongoTemplate.stream(query, Story.class, collection)) {
+                    while (stories.hasNext()) {
+                        update(stories.next());
+                    }
+                }
+            }
+            logger.info("Built leaderboards of up to {} stories in {} ms", byScore.size(),
+                    System.currentTimeMillis() - start);
+        } catch (RuntimeException e) {
+            // the leaderboards are still updated with the stories persisted from now on
+            logger.warn("Unable to build leaderboards", e);
+        }
+    }
+
+    /**
+     * @return names of the leaderboards
+     */
+    public Set<String> getNames() {
+        return Collections.unmodifiableSet(leaderboards.keySet());
+    }
+
+    /**
+     * @param name name of the leaderboard, see {@link #getNames()}
+     * @return up to {@code n} top stories of the leaderboard, or {@code null} in case when there is no such leaderboard
+     */
+    public List<Leaderboard.Entry> top(String name, int n) {
+        Leaderboard leaderboard = leaderboards.get(name);
+        return leaderboard != null ? leaderboard.top(n) : null;
+    }
+
+    /**
+     * Add the story to the leaderboards, or update its ranking.
+     */
+    public void update(Story story) {
+        if (story.getExternalId() == null) {
+            return;
+        }
+        long externalId = story.getExternalId();
+        if (story.getScore() != null) {
+            byScore.update(externalId, story.getScore(), story.getDate(), story.getTitle());
+            recentByScore.update(externalId, story.getScore(), story.getDate(), story.getTitle());
+        }
+        if (story.getDescendants() != null) {
+            byComments.update(externalId, story.getDescendants(), story.getDate(), story.getTitle());
+            recentByComments.update(externalId, story.getDescendants(), story.getDate(), story.getTitle());
+        }
+    }
+
+    @Override
+    public void onStoriesPersisted(List<Story> stories) {
+        for (Story story : stories) {
+            update(story);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package consumer.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import consumer.model.Data;
+import reactor.core.publisher.Mono;
+
+/**
+ * Non-blocking counterpart of {@link Client}, used by the reactive ingest pipeline.
+ *
+ * @see consumer.ReactiveNetRunner
+ */
+@Service
+public class ReactiveClient {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReactiveClient.class);
+
+    private final WebClient webClient;
+
+    public ReactiveClient(WebClient.Builder webClientBuilder) {
+        this.webClient = webClientBuilder.build();
+    }
+
+    /**
+     * Retrieve entity identified by {@code id} without blocking the calling thread.
+     * @param id identifier of the entity
+     * @return converted response; empty in case when the endpoint returns no entity for the id
+     * @see Client#getData(long)
+     */
+    public Mono<Data> getData(long id) {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Retrieving data with id {}", id);
+        }
+        String url = String.format(Client.URL_TEMPLATE, id);
+        return webClient.get()
+                .uri(url)
+                .retrieve()
+                .bodyToMono(Data.class);
+    }
+}
@@ -0,0 +1,208 @@
+package consumer.service;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Issues "hedged" requests to cut the tail latency: in case when the request is not completed within the latency
+ * {@code percentile} of the recent requests, a duplicate request is sent; the response which comes first is used and
+ * the other request is cancelled.
+ *
+ * The number of duplicate requests is limited by the budget: at most {@code budgetPercent} of requests are
+ * duplicated (with up to {@value #MAX_BUDGET_REQUESTS} duplicates allowed at once), so the additional load on the
+ * endpoint stays bounded. Until enough requests are made to estimate the latency percentile, no request is duplicated.
+ *
+ * The calling thread waits for the first response rather than running the request itself, as the blocking I/O of the
+ * HTTP clients (e.g. a socket read of {@code HttpURLConnection} on a platform thread) is not aborted by an interrupt:
+ * the request is run on a pool of (cached) threads, and the duplicate on a pool of {@value #MAX_BUDGET_REQUESTS}
+ * threads. The requests which can not be duplicated (the latency percentile is not known yet, or the budget is spent)
+ * are run on the calling thread. Cancellation interrupts the thread running the losing request, which may or may not
+ * abort its I/O; in any case the response of the cancelled request is discarded.
+ */
+public class RequestHedger {
+
+    private static final int WINDOW_SIZE = 1000;
+    private static final int MIN_SAMPLES = 100;
+    private static final int MAX_BUDGET_REQUESTS = 10;
+    // the budget is kept in thousandths of a request
+    private static final long BUDGET_UNIT = 1000;
+
+    private final double percentile;
+    private final long budgetPerRequest;
+    private final long minDelayNanos;
+    // runs the requests which may be duplicated, so that the callers wait for the first response
+    private final ExecutorService requests;
+    // runs the duplicate requests once these are due
+    private final ScheduledThreadPoolExecutor executor;
+
+    // sliding window of recent latencies, guarded by itself
+    private final long[] latencies = new long[WINDOW_SIZE];
+    private long samples;
+    private volatile long thresholdNanos = Long.MAX_VALUE;
+
+    private final AtomicLong budget = new AtomicLong();
+    private final AtomicLong hedged = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+
+    /**
+     * @param percentile latency percentile (e.g. 95) after which a duplicate request is sent
+     * @param budgetPercent max percentage of requests which are duplicated
+     * @param minDelayMillis min time to wait before a duplicate request is sent
+     */
+    public RequestHedger(double percentile, double budgetPercent, long minDelayMillis) {
+        this.percentile = percentile;
+        this.budgetPerRequest = Math.round(budgetPercent * BUDGET_UNIT / 100);
+        this.minDelayNanos = TimeUnit.MILLISECONDS.toNanos(minDelayMillis);
+        this.requests = Executors.newCachedThreadPool(daemonThreads("Hedger-request-"));
+        this.executor = new ScheduledThreadPoolExecutor(MAX_BUDGET_REQUESTS, daemonThreads("Hedger-"));
+        // the duplicates of the requests completed in time are not kept in the queue until they are due
+        executor.setRemoveOnCancelPolicy(true);
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger threadCounter = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, prefix + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Perform the request, hedging it if it takes too long.
+     * @return the first response
+     */
+    public <T> T call(Supplier<T> request) {
+        deposit();
+        long threshold = thresholdNanos;
+        if (threshold == Long.MAX_VALUE || budget.get() < BUDGET_UNIT) {
+            return timed(request);
+        }
+
+        Attempt<T> attempt = new Attempt<>();
+        Future<?> primary = requests.submit(() -> run(attempt, request, false));
+        ScheduledFuture<?> hedge = executor.schedule(() -> hedge(attempt, request),
+                Math.max(threshold, minDelayNanos), TimeUnit.NANOSECONDS);
+        try {
+            return attempt.first.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw (RuntimeException) e.getCause();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the response", e);
+        } finally {
+            // cancel the loser (or both, in case when the caller is interrupted)
+            primary.cancel(true);
+            hedge.cancel(true);
+        }
+    }
+
+    private <T> void hedge(Attempt<T> attempt, Supplier<T> request) {
+        synchronized (attempt) {
+            if (attempt.first.isDone() || !tryWithdraw()) {
+                return;
+            }
+            attempt.running++;
+        }
+        hedged.incrementAndGet();
+        run(attempt, request, true);
+    }
+
+    private <T> void run(Attempt<T> attempt, Supplier<T> request, boolean duplicate) {
+        try {
+            if (attempt.first.complete(timed(request)) && duplicate) {
+                hedgeWins.incrementAndGet();
+            }
+        } catch (RuntimeException | Error e) {
+            synchronized (attempt) {
+                // the request fails once both the request and the duplicate (if it is started) fail
+                if (--attempt.running == 0) {
+                    attempt.first.completeExceptionally(attempt.failure != null ? attempt.failure : e);
+                } else if (attempt.failure == null) {
+                    attempt.failure = e;
+                }
+            }
+        }
+    }
+
+    private <T> T timed(Supplier<T> request) {
+        long start = System.nanoTime();
+        T result = request.get();
+        record(System.nanoTime() - start);
+        return result;
+    }
+
+    private void record(long latencyNanos) {
+        long[] window;
+        synchronized (latencies) {
+            long sample = samples++;
+            latencies[(int) (sample % WINDOW_SIZE)] = latencyNanos;
+            // re-calculate the percentile once in a while, rather than on each request
+            if (sample + 1 < MIN_SAMPLES || (sample + 1) % (WINDOW_SIZE / 10) != 0) {
+                return;
+            }
+            window = Arrays.copyOf(latencies, (int) Math.min(sample + 1, WINDOW_SIZE));
+        }
+        Arrays.sort(window);
+        int index = (int) Math.ceil(percentile / 100 * window.length) - 1;
+        thresholdNanos = window[Math.max(0, Math.min(index, window.length - 1))];
+    }
+
+    private void deposit() {
+        budget.getAndUpdate(current -> Math.min(current + budgetPerRequest, MAX_BUDGET_REQUESTS * BUDGET_UNIT));
+    }
+
+    private boolean tryWithdraw() {
+        long current;
+        do {
+            current = budget.get();
+            if (current < BUDGET_UNIT) {
+                return false;
+            }
+        } while (!budget.compareAndSet(current, current - BUDGET_UNIT));
+        return true;
+    }
+
+    public long getThresholdMillis() {
+        long threshold = thresholdNanos;
+        return threshold == Long.MAX_VALUE ? -1 : TimeUnit.NANOSECONDS.toMillis(threshold);
+    }
+
+    public long getHedgedCount() {
+        return hedged.get();
+    }
+
+    public long getHedgeWinCount() {
+        return hedgeWins.get();
+    }
+
+    public void shutdown() {
+        requests.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    // State of a request which may be duplicated
+    private static final class Attempt<T> {
+
+        // the first response
+        private final CompletableFuture<T> first = new CompletableFuture<>();
+        // number of the running requests (the request and its duplicate), guarded by this
+        private int running = 1;
+        // the failure of the request which has failed first, guarded by this
+        private Throwable failure;
+    }
+}
@@ -0,0 +1,338 @@
+package consumer.service;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.env.Environment;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import consumer.model.Comment;
+import consumer.model.Story;
+import consumer.rabbit.PersistListener;
+import consumer.repository.CommentTextCompression;
+import consumer.repository.TimePartitions;
+
+/**
+ * Makes it possible for the clients polling a story to retrieve the comments added (or changed) since the previous
+ * poll only, rather than the whole tree of comments (see {@link #getStoryDeltaJson(Long, long)}).
+ *
+ * As the comments are persisted, they are tagged with the story they belong to and the time they are ingested at
+ * ({@code storyExternalId} and {@code ingestedAt}), which are indexed, so the query cost depends on the number of
+ * changed comments only. The story is found with {@link ThreadResolver}; in case when the parent of a comment is not
+ * persisted yet, the comment is tagged once the parent is (up to {@code maxUnresolved} comments are kept waiting for
+ * their parents, in memory; the ones beyond it are dropped, and are not returned by the delta queries).
+ *
+ * The batches are tagged by multiple listener threads, so a write with an earlier {@code ingestedAt} may be committed
+ * after a write with a later one. Therefore the ingestion times are taken from a monotonic clock, and a query returns
+ * the comments ingested before the oldest write in flight only (the rest are returned by the next query), so that no
+ * comment is skipped by the clients. This holds for the comments tagged by this instance, i.e. the writes are expected
+ * to go through a single instance.
+ *
+ * Only the comments persisted while the tagging is enabled are tagged: the ones persisted before are not backfilled.
+ */
+@Service
+@ConditionalOnProperty(name = "consumer.delta.enabled", havingValue = "true")
+public class StoryDeltaService implements PersistListener, InitializingBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(StoryDeltaService.class);
+
+    private final MongoTemplate mongoTemplate;
+    // optional partitions of the comments
+    private final TimePartitions timePartitions;
+    private final ThreadResolver threadResolver;
+    private final int maxUnresolved;
+    private final ObjectMapper mapper = new ObjectMapper().setSerializationInclusion(JsonInclude.Include.NON_NULL);
+
+    // externalId of the parent -> externalIds of the comments waiting for the parent to be persisted; guarded by itself
+    private final Map<Long, List<Long>> unresolved = new HashMap<>();
+    private int unresolvedCount;
+    private final AtomicLong dropped = new AtomicLong();
+
+    // ingestion time -> number of the tagging writes in flight with the time; guarded by itself
+    private final TreeMap<Long, Integer> tagsInFlight = new TreeMap<>();
+    // the latest ingestion time taken, so the times are monotonic even if the wall clock goes back
+    private long lastIngestedAt;
+
+    @Autowired
+    public StoryDeltaService(MongoTemplate mongoTemplate, Environment env, @Nullable TimePartitions timePartitions) {
+        this(mongoTemplate, Integer.parseInt(env.getProperty("consumer.delta.cacheSize", "1000000")),
+                Integer.parseInt(env.getProperty("consumer.delta.maxUnresolved", "100000")), timePartitions);
+    }
+
+    StoryDeltaService(MongoTemplate mongoTemplate, int cacheSize, int maxUnresolved) {
+        this(mongoTemplate, cacheSize, maxUnresolved, null);
+    }
+
+    StoryDeltaService(MongoTemplate mongoTemplate, int cacheSize, int maxUnresolved, TimePartitions timePartitions) {
+        this.mongoTemplate = mongoTemplate;
+        this.timePartitions = timePartitions;
+        this.threadResolver = new ThreadResolver(mongoTemplate, cacheSize, timePartitions);
+        this.maxUnresolved = maxUnresolved;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        try {
+            Index index = new Index()
+                    .on("storyExternalId", Sort.Direction.ASC)
+                    .on("ingestedAt", Sort.Direction.ASC)
+                    .named("storyExternalId_ingestedAt");
+            if (timePartitions != null) {
+                timePartitions.addIndex(Comment.class, index);
+            } else {
+                mongoTemplate.indexOps(Comment.class).ensureIndex(index);
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Unable to create the index of comments by ingestion time", e);
+        }
+    }
+
+    /**
+     * Get the comments of the story, which are added or changed since the given time, as json:
+     * <pre>{"externalId":1,"since":0,"token":1600000000000,"comments":[{"externalId":2,"parentExternalId":1,...}]}</pre>
+     * The {@code token} is to be passed as {@code since} on the next call. (A comment changed again since the previous
+     * call is returned again, so the clients should merge the comments by {@code externalId}.)
+     * @param storyExternalId externalId of the story
+     * @param since the time (in ms) to return the changes since, {@code 0} for all the comments tagged (the comments
+     *              persisted before the tagging is enabled are not tagged, so they are never returned; the clients get
+     *              them with the whole tree of comments, e.g. {@code list id})
+     */
+    public String getStoryDeltaJson(Long storyExternalId, long since) {
+        // the comments ingested from the cutoff on may be not committed yet, so they are left for the next call
+        long token = Math.max(since, committedBefore());
+        Query query = query(where("storyExternalId").is(storyExternalId)
+                .and("ingestedAt").gte(new Date(since)).lt(new Date(token)))
+                .with(Sort.by("ingestedAt"));
+        query.fields().include("externalId").include("parentExternalId").include("by").include("date")
+                .include("text").include(CommentTextCompression.COMPRESSED_TEXT).include("dead").include("kids")
+                .include("ingestedAt").exclude("_id");
+        List<Comment> comments;
+        if (timePartitions != null) {
+            comments = new ArrayList<>();
+            for (String collection : threadCollections(storyExternalId)) {
+                comments.addAll(mongoTemplate.find(query, Comment.class, collection));
+            }
+            comments.sort(Comparator.comparing(Comment::getIngestedAt));
+        } else {
+            comments = mongoTemplate.find(query, Comment.class);
+        }
+
+        for (Comment comment : comments) {
+            // the time is represented by the token
+            comment.setIngestedAt(null);
+        }
+
+        Map<String, Object> delta = new LinkedHashMap<>();
+        delta.put("externalId", storyExternalId);
+        delta.put("since", since);
+        delta.put("token", token);
+        delta.put("comments", comments);
+        try {
+            return mapper.writeValueAsString(delta);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void onStoriesPersisted(List<Story> stories) {
+        Map<Long, List<Long>> idsByStory = new HashMap<>();
+        Deque<Long> resolved = new ArrayDeque<>();
+        for (Story story : stories) {
+            if (story.getExternalId() != null) {
+                threadResolver.putStory(story.getExternalId());
+                resolved.add(story.getExternalId());
+            }
+        }
+        try {
+            resolveWaiting(resolved, idsByStory);
+            tag(idsByStory);
+        } catch (RuntimeException e) {
+            logger.warn("Unable to tag comments with their story", e);
+        }
+    }
+
+    @Override
+    public void onCommentsPersisted(List<Comment> comments) {
+        Map<Long, Comment> batchById = new HashMap<>();
+        for (Comment comment : comments) {
+            if (comment.getExternalId() != null) {
+                batchById.put(comment.getExternalId(), comment);
+            }
+        }
+
+        Map<Long, List<Long>> idsByStory = new HashMap<>();
+        Deque<Long> resolved = new ArrayDeque<>();
+        try {
+            for (Comment comment : batchById.values()) {
+                ThreadResolver.Node node = threadResolver.resolve(comment.getExternalId(),
+                        comment.getParentExternalId(), batchById);
+                if (node != null) {
+                    idsByStory.computeIfAbsent(node.getStory(), story -> new ArrayList<>()).add(comment.getExternalId());
+                    resolved.add(comment.getExternalId());
+                } else if (comment.getParentExternalId() != null) {
+                    waitForParent(comment);
+                }
+            }
+            resolveWaiting(resolved, idsByStory);
+            tag(idsByStory);
+        } catch (RuntimeException e) {
+            // the comments are persisted anyway, they are just not returned by the delta queries
+            logger.warn("Unable to tag comments with their story", e);
+        }
+    }
+
+    private void waitForParent(Comment comment) {
+        synchronized (unresolved) {
+            if (unresolvedCount < maxUnresolved) {
+                unresolved.computeIfAbsent(comment.getParentExternalId(), parent -> new ArrayList<>())
+                        .add(comment.getExternalId());
+                unresolvedCount++;
+                return;
+            }
+        }
+        if (dropped.incrementAndGet() % 10000 == 1) {
+            logger.warn("{} comments are not tagged with their story, as too many are waiting for their parents",
+                    dropped.get());
+        }
+    }
+
+    // Resolve the comments which are waiting for the resolved entities (and, in turn, for those comments)
+    private void resolveWaiting(Deque<Long> resolved, Map<Long, List<Long>> idsByStory) {
+        while (!resolved.isEmpty()) {
+            Long parent = resolved.poll();
+            List<Long> waiting;
+            synchronized (unresolved) {
+                waiting = unresolved.remove(parent);
+                if (waiting == null) {
+                    continue;
+                }
+                unresolvedCount -= waiting.size();
+            }
+            ThreadResolver.Node parentNode = threadResolver.resolve(parent, null, new HashMap<>());
+            if (parentNode == null) {
+                continue;
+            }
+            for (Long id : waiting) {
+                threadResolver.put(id, parentNode.child());
+                idsByStory.computeIfAbsent(parentNode.getStory(), story -> new ArrayList<>()).add(id);
+                resolved.add(id);
+            }
+        }
+    }
+
+    private void tag(Map<Long, List<Long>> idsByStory) {
+        if (idsByStory.isEmpty()) {
+            return;
+        }
+        long ingestedAt = startTagging();
+        try {
+            tag(idsByStory, new Date(ingestedAt));
+        } finally {
+            finishTagging(ingestedAt);
+        }
+    }
+
+    private void tag(Map<Long, List<Long>> idsByStory, Date now) {
+        if (timePartitions == null) {
+            BulkOperations operations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Comment.class);
+            idsByStory.forEach((story, ids) -> operations.updateMulti(query(where("externalId").in(ids)),
+                    new Update().set("storyExternalId", story).set("ingestedAt", now)));
+            operations.execute();
+            return;
+        }
+        // the comments are tagged in the partitions they can be in, with a bulk write per partition
+        Map<String, BulkOperations> operationsByCollection = new TreeMap<>();
+        idsByStory.forEach((story, ids) -> {
+            Map<String, List<Long>> idsByCollection = new HashMap<>();
+            for (Long id : ids) {
+                for (String collection : timePartitions.collectionsOf(Comment.class, id)) {
+                    idsByCollection.computeIfAbsent(collection, c -> new ArrayList<>()).add(id);
+                }
+            }
+            idsByCollection.forEach((collection, collectionIds) -> operationsByCollection
+                    .computeIfAbsent(collection, c -> mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED,
+                            Comment.class, c))
+                    .updateMulti(query(where("externalId").in(collectionIds)),
+                            new Update().set("storyExternalId", story).set("ingestedAt", now)));
+        });
+        operationsByCollection.values().forEach(BulkOperations::execute);
+    }
+
+    private long startTagging() {
+        synchronized (tagsInFlight) {
+            lastIngestedAt = Math.max(lastIngestedAt, System.currentTimeMillis());
+            tagsInFlight.merge(lastIngestedAt, 1, Integer::sum);
+            return lastIngestedAt;
+        }
+    }
+
+    private void finishTagging(long ingestedAt) {
+        synchronized (tagsInFlight) {
+            tagsInFlight.computeIfPresent(ingestedAt, (time, count) -> count > 1 ? count - 1 : null);
+        }
+    }
+
+    // The time before which all the comments tagged by now are committed: the ingestion time of the oldest write in
+    // flight, or the current time (as the subsequent writes take at least the time)
+    long committedBefore() {
+        synchronized (tagsInFlight) {
+            return tagsInFlight.isEmpty() ? Math.max(lastIngestedAt, System.currentTimeMillis())
+                    : tagsInFlight.firstKey();
+        }
+    }
+
+    // The partitions the comments of the story can be in, by the date of the story (or all of the partitions after
+    // the story, in case when the story is not found)
+    private List<String> threadCollections(Long storyExternalId) {
+        Query storyQuery = query(where("externalId").is(storyExternalId));
+        storyQuery.fields().include("date");
+        Date date = null;
+        for (String collection : timePartitions.collectionsOf(Story.class, storyExternalId)) {
+            Story story = mongoTemplate.findOne(storyQuery, Story.class, collection);
+            if (story != null) {
+                date = story.getDate();
+                break;
+            }
+        }
+        return timePartitions.threadCollections(storyExternalId, date);
+    }
+
+    int getUnresolvedCount() {
+        synchronized (unresolved) {
+            return unresolvedCount;
+        }
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+}
@@ -0,0 +1,244 @@
+package consumer.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Builds the tree of comments of a {@link StoryModel story}, which are present in flattened list after
+ * $graphLookup execution, and converts the story to json.
+ *
+ * For stories with at least {@code parallelThreshold} comments, both the tree and the json are built in parallel
+ * (using fork/join): comments are indexed and linked in parallel and the subtrees of top-level comments are serialized
+ * concurrently; the resulting json is the same as the one built sequentially.
+ */
+class StoryJsonWriter {
+
+    private static final String CHILDREN_SUFFIX = "\"children\":null}";
+
+    // ObjectMapper is thread-safe once configured, so there is no need to create one per conversion
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final int parallelThreshold;
+    private final ForkJoinPool pool;
+
+    StoryJsonWriter(int parallelThreshold) {
+        this(parallelThreshold, ForkJoinPool.commonPool());
+    }
+
+    StoryJsonWriter(int parallelThreshold, ForkJoinPool pool) {
+        this.parallelThreshold = parallelThreshold;
+        this.pool = pool;
+    }
+
+    String write(StoryModel storyModel) {
+        if (storyModel == null) {
+            throw new NullPointerException("storyModel should not be null");
+        }
+
+        boolean parallel = storyModel.getChildren() != null && storyModel.getChildren().size() >= parallelThreshold;
+
+        if (storyModel.getChildren() == null) {
+            // If the story has no comments - no additional actions are required.
+        } else {
+
+            // If there are comments to the story - there is a need to build a tree of comments, because the
+            // children are present in flattened list, and not in a tree, after $graphLookup execution.
+            List<CommentModel> children = storyModel.getChildren();
+
+            // First, let's map all child comments
+            Map<Long, CommentModel> commentsMap = parallel
+                    ? pool.invoke(new IndexTask(children, 0, children.size(), leafSize(children.size())))
+                    : index(children, 0, children.size());
+
+            // add actual children comments to each comment, based on kids array, containing kids' externalIds
+            if (parallel) {
+                // each comment's children list is modified by the comment's task only, so no synchronization is needed
+                pool.invoke(new LinkTask(children, 0, children.size(), leafSize(children.size()), commentsMap));
+            } else {
+                link(children, 0, children.size(), commentsMap);
+            }
+
+            // firstChildren holds first generation of children
+            List<CommentModel> firstChildren = new ArrayList<>(children.size());
+            for (CommentModel commentModel : children) {
+                if (commentModel.getDepth() == 0) {
+                    firstChildren.add(commentModel);
+                }
+            }
+
+            if (!firstChildren.isEmpty()) {
+                storyModel.setChildren(firstChildren);
+            }
+        }
+
+        try {
+            // finally, convert the story, with related comments, to json string
+            if (parallel && storyModel.getChildren().size() > 1) {
+                return writeParallel(storyModel);
+            }
+            return mapper.writeValueAsString(storyModel);
+        } catch (JsonProcessingException e) {
+            // quazi-handling :)
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Serialize the story without children and the (top-level) children concurrently, then put them together.
+    private String writeParallel(StoryModel storyModel) throws JsonProcessingException {
+        List<CommentModel> children = storyModel.getChildren();
+        String storyJson;
+        storyModel.setChildren(null);
+        try {
+            storyJson = mapper.writeValueAsString(storyModel);
+        } finally {
+            storyModel.setChildren(children);
+        }
+        if (!storyJson.endsWith(CHILDREN_SUFFIX)) {
+            throw new IllegalStateException("`children` is expected to be the last property of the story");
+        }
+
+        StringBuilder childrenJson = pool.invoke(new SerializeTask(children, 0, children.size(),
+                Math.max(1, children.size() / (pool.getParallelism() * 4))));
+
+        return new StringBuilder(storyJson.length() + childrenJson.length() + 2)
+                .append(storyJson, 0, storyJson.length() - CHILDREN_SUFFIX.length())
+                .append("\"children\":[")
+                .append(childrenJson)
+                .append("]}")
+                .toString();
+    }
+
+    private int leafSize(int size) {
+        return Math.max(1024, size / (pool.getParallelism() * 4));
+    }
+
+    private static Map<Long, CommentModel> index(List<CommentModel> comments, int from, int to) {
+        Map<Long, CommentModel> commentsMap = new HashMap<>();
+        for (int i = from; i < to; i++) {
+            CommentModel commentModel = comments.get(i);
+            commentsMap.put(commentModel.getExternalId(), commentModel);
+        }
+        return commentsMap;
+    }
+
+    private static void link(List<CommentModel> comments, int from, int to, Map<Long, CommentModel> commentsMap) {
+        for (int i = from; i < to; i++) {
+            CommentModel commentModel = comments.get(i);
+            if (commentModel.getKids() == null) {
+                continue;
+            }
+
+            commentModel.getKids().forEach(kidId -> {
+                CommentModel kid = commentsMap.get(kidId);
+                if (kid != null) {
+                    commentModel.addChild(kid);
+                }
+            });
+        }
+    }
+
+    private static class IndexTask extends RecursiveTask<Map<Long, CommentModel>> {
+        private final List<CommentModel> comments;
+        private final int from;
+        private final int to;
+        private final int leafSize;
+
+        IndexTask(List<CommentModel> comments, int from, int to, int leafSize) {
+            this.comments = comments;
+            this.from = from;
+            this.to = to;
+            this.leafSize = leafSize;
+        }
+
+        @Override
+        protected Map<Long, CommentModel> compute() {
+            if (to - from <= leafSize) {
+                return index(comments, from, to);
+            }
+            int middle = (from + to) >>> 1;
+            IndexTask right = new IndexTask(comments, middle, to, leafSize);
+            right.fork();
+            Map<Long, CommentModel> leftMap = new IndexTask(comments, from, middle, leafSize).compute();
+            Map<Long, CommentModel> rightMap = right.join();
+            // in case of duplicated externalIds the latter comment wins, the same as in the sequential case
+            if (leftMap.size() >= rightMap.size()) {
+                leftMap.putAll(rightMap);
+                return leftMap;
+            }
+            leftMap.forEach(rightMap::putIfAbsent);
+            return rightMap;
+        }
+    }
+
+    private static class LinkTask extends RecursiveAction {
+        private final List<CommentModel> comments;
+        private final int from;
+        private final int to;
+        private final int leafSize;
+        private final Map<Long, CommentModel> commentsMap;
+
+        LinkTask(List<CommentModel> comments, int from, int to, int leafSize, Map<Long, CommentModel> commentsMap) {
+            this.comments = comments;
+            this.from = from;
+            this.to = to;
+            this.leafSize = leafSize;
+            this.commentsMap = commentsMap;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= leafSize) {
+                link(comments, from, to, commentsMap);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new LinkTask(comments, from, middle, leafSize, commentsMap),
+                    new LinkTask(comments, middle, to, leafSize, commentsMap));
+        }
+    }
+
+    // Serializes a range of subtrees into a comma separated buffer
+    private class SerializeTask extends RecursiveTask<StringBuilder> {
+        private final List<CommentModel> comments;
+        private final int from;
+        private final int to;
+        private final int leafSize;
+
+        SerializeTask(List<CommentModel> comments, int from, int to, int leafSize) {
+            this.comments = comments;
+            this.from = from;
+            this.to = to;
+            this.leafSize = leafSize;
+        }
+
+        @Override
+        protected StringBuilder compute() {
+            if (to - from <= leafSize) {
+                StringBuilder buffer = new StringBuilder();
+                for (int i = from; i < to; i++) {
+                    if (i > from) {
+                        buffer.append(',');
+                    }
+                    try {
+                        buffer.append(mapper.writeValueAsString(comments.get(i)));
+                    } catch (JsonProcessingException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                return buffer;
+            }
+            int middle = (from + to) >>> 1;
+            SerializeTask right = new SerializeTask(comments, middle, to, leafSize);
+            right.fork();
+            StringBuilder left = new SerializeTask(comments, from, middle, leafSize).compute();
+            return left.append(',').append(right.join());
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package consumer.service;
+
+import java.util.Date;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+// Simple model object, describing story data returned from MongoDB's graphLookup. (The order of properties is fixed,
+// because StoryJsonWriter relies on `children` being the last one.)
+@JsonPropertyOrder({"externalId", "by", "date", "score", "title", "url", "children"})
+class StoryModel {
+    private Long externalId;
+    private String by;
+    private Date date;
+    private Integer score;
+    private String title;
+    private String url;
+    private List<CommentModel> children;
+    @JsonIgnore
+    private List<Long> kids;
+
+    public Long getExternalId() {
+        return externalId;
+    }
+
+    public void setExternalId(Long externalId) {
+        this.externalId = externalId;
+    }
+
+    public String getBy() {
+        return by;
+    }
+
+    public void setBy(String by) {
+        this.by = by;
+    }
+
+    public Date getDate() {
+        return date;
+    }
+
+    public void setDate(Date date) {
+        this.date = date;
+    }
+
+    public Integer getScore() {
+        return score;
+    }
+
+    public void setScore(Integer score) {
+        this.score = score;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
+    public List<CommentModel> getChildren() {
+        return children;
+    }
+
+    public void setChildren(List<CommentModel> children) {
+        this.children = children;
+    }
+
+    public List<Long> getKids() {
+        return kids;
+    }
+
+    public void setKids(List<Long> kids) {
+        this.kids = kids;
+    }
+}
@@ -1,55 +1,148 @@
 package consumer.service;
 
 import static org.springframework.data.mongodb.core.aggregation.Aggregation.match;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
 
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
+import org.bson.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
 import org.springframework.data.mongodb.core.aggregation.AggregationResults;
 import org.springframework.data.mongodb.core.aggregation.TypedAggregation;
 import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Service;
 
-import com.fasterxml.jackson.annotation.JsonIgnore;
-import com.fasterxml.jackson.annotation.JsonManagedReference;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-
 import consumer.model.Comment;
 import consumer.model.Story;
+import consumer.model.ThreadStats;
 import consumer.repository.CommentRepository;
 import consumer.repository.IdAndTitle;
 import consumer.repository.StoryRepository;
+import consumer.repository.TimePartitions;
+import consumer.search.SearchHit;
+import consumer.search.SearchIndex;
 
 @Service
 public class StoryService {
 
     private static final Logger logger = LoggerFactory.getLogger(StoryService.class);
+    private static final int DEFAULT_PARALLEL_THRESHOLD = 10000;
+    // guards against cycles (which are not expected) in the parent chains across the partitions
+    private static final int MAX_PARTITION_HOPS = 1000;
+    // Only the fields needed to find the story of a comment are read from its ancestors (the text in particular is not)
+    private static final AggregationOperation PROJECT_ANCESTORS = context -> new Document("$project",
+            new Document("externalId", 1).append("parentExternalId", 1)
+                    .append("ancestors.parentExternalId", 1).append("ancestors.depth", 1));
 
     private final StoryRepository storyRepository;
     private final CommentRepository commentRepository;
     private final MongoTemplate mongoTemplate;
+    private final StoryJsonWriter storyJsonWriter;
+    // optional in-memory index of entity types, used to avoid existsByExternalId DB calls
+    private final EntityTypeIndex entityTypeIndex;
+    // optional statistics of the comments of stories
+    private final ThreadStatsService threadStatsService;
+    // optional full-text index of story titles and comment text
+    private final SearchIndex searchIndex;
+    // optional monthly partitions of the stories and the comments; when absent, the base collections are read
+    private final TimePartitions timePartitions;
+
+    @Autowired
+    public StoryService(StoryRepository storyRepository, CommentRepository commentRepository, MongoTemplate mongoTemplate,
+                        Environment env, @Nullable EntityTypeIndex entityTypeIndex,
+                        @Nullable ThreadStatsService threadStatsService, @Nullable SearchIndex searchIndex,
+                        @Nullable TimePartitions timePartitions) {
+        this(storyRepository, commentRepository, mongoTemplate, Integer.parseInt(
+                env.getProperty("consumer.storyservice.parallelThreshold", String.valueOf(DEFAULT_PARALLEL_THRESHOLD))),
+                entityTypeIndex, threadStatsService, searchIndex, timePartitions);
+    }
 
-    public StoryService(StoryRepository storyRepository, CommentRepository commentRepository, MongoTemplate mongoTemplate) {
+    StoryService(StoryRepository storyRepository, CommentRepository commentRepository, MongoTemplate mongoTemplate,
+                 int parallelThreshold, EntityTypeIndex entityTypeIndex, ThreadStatsService threadStatsService,
+                 SearchIndex searchIndex, TimePartitions timePartitions) {
         this.storyRepository = storyRepository;
         this.commentRepository = commentRepository;
         this.mongoTemplate = mongoTemplate;
+        // stories with at least parallelThreshold comments are converted to json in parallel
+        this.storyJsonWriter = new StoryJsonWriter(parallelThreshold);
+        this.entityTypeIndex = entityTypeIndex;
+        this.threadStatsService = threadStatsService;
+        this.searchIndex = searchIndex;
+        this.timePartitions = timePartitions;
     }
 
     public List<IdAndTitle> findAllStoryIdAndTitlePairs() {
-        return storyRepository.findAllBy();
+        if (timePartitions == null) {
+            return storyRepository.findAllBy();
+        }
+        List<IdAndTitle> idAndTitles = new ArrayList<>();
+        for (String collection : timePartitions.collections(Story.class)) {
+            idAndTitles.addAll(mongoTemplate.query(Story.class).inCollection(collection).as(IdAndTitle.class).all());
+        }
+        return idAndTitles;
+    }
+
+    /**
+     * @return statistics of the comments of the story, or {@code null} in case when there are none (or the statistics
+     * are not enabled)
+     */
+    public ThreadStats getThreadStats(Long storyExternalId) {
+        return threadStatsService != null ? threadStatsService.get(storyExternalId) : null;
+    }
+
+    /**
+     * @return statistics of the comments of the stories by their externalIds (empty in case when the statistics are
+     * not enabled)
+     */
+    public Map<Long, ThreadStats> getThreadStats(Collection<Long> storyExternalIds) {
+        return threadStatsService != null ? threadStatsService.getAll(storyExternalIds) : Collections.emptyMap();
+    }
+
+    /**
+     * @return statistics of the comments of up to {@code n} most recently active stories, see
+     * {@link ThreadStatsService#getMostActive(int)}, or {@code null} in case when the statistics are not enabled
+     */
+    public List<ThreadStats> getMostActiveThreads(int n) {
+        return threadStatsService != null ? threadStatsService.getMostActive(n) : null;
+    }
+
+    /**
+     * Search the story titles and the comment text, see {@link SearchIndex#search(String, int)}.
+     * @return up to {@code n} most relevant stories and comments, or {@code null} in case when the search is not
+     * enabled
+     */
+    public List<SearchHit> search(String query, int n) {
+        return searchIndex != null ? searchIndex.search(query, n) : null;
     }
 
     public String getStoryJsonWithRelatedData(Long externalId) {
+        if (timePartitions != null) {
+            // the partitions to read are pruned by the externalId, so there is no need to resolve the type first
+            return getStoriesJsonWithRelatedData(Collections.singletonList(externalId)).get(externalId);
+        }
         String json;
-        if (storyRepository.existsByExternalId(externalId)) {
+        EntityTypeIndex.Type type = getType(externalId);
+        if (type == EntityTypeIndex.Type.STORY) {
             // This is a Story. Fetch it with kids (comments).
 
             // It looks reasonable to use MongoDB's $graphLookup for the task, because we need to find
@@ -66,9 +159,14 @@ public class StoryService {
 
             StoryModel storyModel = result.getUniqueMappedResult(); // is not expected to be null, because of the
                                                                     // condition of the `if` above.
+            if (storyModel == null) {
+                // may only happen if the story is removed from the DB after the type index has been built
+                logger.info("Story with id '{}' not present", externalId);
+                return null;
+            }
 
             return toJson(storyModel);
-        } else if (commentRepository.existsByExternalId(externalId)) {
+        } else if (type == EntityTypeIndex.Type.COMMENT) {
             // In case if externalId corresponds to comment, rather than story, we need to find
             // the story, this comment corresponds to, first and then this story externalId can
             // be used like in the case above (i.e. it makes sense to (recursively) call this
@@ -80,27 +178,16 @@ public class StoryService {
                             .connectFrom("parentExternalId")
                             .connectTo("externalId")
                             .depthField("depth")
-                            .as("ancestors"));
+                            .as("ancestors"),
+                    PROJECT_ANCESTORS);
             AggregationResults<CommentModel> result = mongoTemplate.aggregate(agg, CommentModel.class);
             CommentModel commentModel = result.getUniqueMappedResult(); // should be null due to condition of the `if` above
-
-            CommentModel outermostComment;
-            if (commentModel.getAncestors() == null || commentModel.getAncestors().isEmpty()) {
-                // In this case, the externalParentId corresponds to the story
-                outermostComment = commentModel;
-            } else {
-                // Otherwise, we need to find the outermost comment, which has the largest depth value
-                // (because we start from the given comment and proceed up the chain to its parents).
-                outermostComment = commentModel.getAncestors().get(0);
-                for (int i = 1; i < commentModel.getAncestors().size(); i++) {
-                    CommentModel ancestor = commentModel.ancestors.get(i);
-                    if (ancestor.getDepth() > outermostComment.getDepth()) {
-                        outermostComment = ancestor;
-                    }
-                }
+            if (commentModel == null) {
+                logger.info("Comment with id '{}' not present", externalId);
+                return null;
             }
 
-            return getStoryJsonWithRelatedData(outermostComment.getParentExternalId());
+            return getStoryJsonWithRelatedData(getStoryExternalId(commentModel));
         } else {
             logger.info("Entity with id '{}' not present", externalId);
             json = null;
@@ -108,230 +195,284 @@ public class StoryService {
         return json;
     }
 
-    private String toJson(StoryModel storyModel) {
-        if (storyModel == null) {
-            throw new NullPointerException("storyModel should not be null");
-        }
-
-        ObjectMapper mapper = new ObjectMapper();
-
-        if (storyModel.getChildren() == null) {
-            // If the story has no comments - no additional actions are required.
-        } else {
-
-            // If there are comments to the story - there is a need to build a tree of comments, because the
-            // children are present in flattened list, and not in a tree, after $graphLookup execution.
-
-            // First, let's map all child comments
-            Map<Long, CommentModel> commentsMap = new HashMap<>();
-            for (CommentModel commentModel : storyModel.getChildren()) {
-                commentsMap.put(commentModel.getExternalId(), commentModel);
+    /**
+     * Get the stories of the entities, with all of their comments, as json -- the same as
+     * {@link #getStoryJsonWithRelatedData(Long)} does for one entity, but with a fixed number of DB round trips for all
+     * of the entities, rather than a few per entity: the stories are fetched along with their comments by one
+     * aggregation. Only in case when some of the entities are comments, their stories are found by another aggregation
+     * and, unless fetched already, fetched by one more.
+     * @return json by externalId of the entity, in the order of the externalIds; {@code null} for the entities which
+     * are not present
+     */
+    public Map<Long, String> getStoriesJsonWithRelatedData(Collection<Long> externalIds) {
+        Set<Long> ids = new LinkedHashSet<>();
+        for (Long externalId : externalIds) {
+            // the type index is only used to skip absent entities, as all of the present ones are fetched at once
+            if (externalId != null && (entityTypeIndex == null
+                    || entityTypeIndex.get(externalId) != EntityTypeIndex.Type.ABSENT)) {
+                ids.add(externalId);
             }
-
-            // firstChildren holds first generation of children
-            List<CommentModel> firstChildren = new ArrayList<>(storyModel.getChildren().size());
-            for (CommentModel commentModel : storyModel.getChildren()) {
-                // add actual children comments to each comment, based on kids array, containing kids' externalIds
-                if (commentModel.getDepth() == 0) {
-                    firstChildren.add(commentModel);
-                }
-
-                if (commentModel.getKids() == null) {
-                    continue;
-                }
-
-                commentModel.getKids().forEach(kidId -> {
-                    CommentModel kid = commentsMap.get(kidId);
-                    if (kid != null) {
-                        commentModel.addChild(kid);
-                    }
-                });
-            }
-
-            if (!firstChildren.isEmpty()) {
-                storyModel.setChildren(firstChildren);
-            }
-        }
-
-        try {
-            // finally, convert the story, with related comments, to json string
-            return mapper.writeValueAsString(storyModel);
-        } catch (JsonProcessingException e) {
-            // quazi-handling :)
-            throw new RuntimeException(e);
-        }
-    }
-
-    // Simple model object, describing story data returned from MongoDB's graphLookup
-    private static class StoryModel {
-        private Long externalId;
-        private String by;
-        private Date date;
-        private Integer score;
-        private String title;
-        private String url;
-        private List<CommentModel> children;
-        @JsonIgnore
-        private List<Long> kids;
-
-        public Long getExternalId() {
-            return externalId;
-        }
-
-        public void setExternalId(Long externalId) {
-            this.externalId = externalId;
-        }
-
-        public String getBy() {
-            return by;
-        }
-
-        public void setBy(String by) {
-            this.by = by;
-        }
-
-        public Date getDate() {
-            return date;
-        }
-
-        public void setDate(Date date) {
-            this.date = date;
-        }
-
-        public Integer getScore() {
-            return score;
-        }
-
-        public void setScore(Integer score) {
-            this.score = score;
-        }
-
-        public String getTitle() {
-            return title;
-        }
-
-        public void setTitle(String title) {
-            this.title = title;
         }
 
-        public String getUrl() {
-            return url;
-        }
-
-        public void setUrl(String url) {
-            this.url = url;
-        }
-
-        public List<CommentModel> getChildren() {
-            return children;
+        Map<Long, StoryModel> storyModels = ids.isEmpty() ? new HashMap<>() : findStoryModels(ids);
+        // the rest of the entities are either comments or absent
+        List<Long> commentIds = new ArrayList<>();
+        for (Long id : ids) {
+            if (!storyModels.containsKey(id)) {
+                commentIds.add(id);
+            }
         }
-
-        public void setChildren(List<CommentModel> children) {
-            this.children = children;
+        Map<Long, Long> storyIdsByCommentId = commentIds.isEmpty() ? Collections.emptyMap() : findStoryIds(commentIds);
+        Set<Long> missingStoryIds = new LinkedHashSet<>();
+        for (Long storyId : storyIdsByCommentId.values()) {
+            if (!storyModels.containsKey(storyId)) {
+                missingStoryIds.add(storyId);
+            }
         }
-
-        public List<Long> getKids() {
-            return kids;
+        if (!missingStoryIds.isEmpty()) {
+            storyModels.putAll(findStoryModels(missingStoryIds));
         }
 
-        public void setKids(List<Long> kids) {
-            this.kids = kids;
+        Map<Long, String> jsonById = new LinkedHashMap<>();
+        // each story is converted once, even if several of its comments are requested
+        Map<Long, String> jsonByStoryId = new HashMap<>();
+        for (Long externalId : externalIds) {
+            Long storyId = storyModels.containsKey(externalId) ? externalId : storyIdsByCommentId.get(externalId);
+            StoryModel storyModel = storyId != null ? storyModels.get(storyId) : null;
+            if (storyModel == null) {
+                logger.info("Entity with id '{}' not present", externalId);
+                jsonById.put(externalId, null);
+            } else {
+                jsonById.put(externalId, jsonByStoryId.computeIfAbsent(storyId, id -> toJson(storyModel)));
+            }
         }
+        return jsonById;
     }
 
-    // Simple model object, describing comment data returned from MongoDB's graphLookup
-    private static class CommentModel {
-        private Long externalId;
-        private String by;
-        private Long parentExternalId;
-        private Date date;
-        private String text;
-        @JsonIgnore
-        private List<Long> kids;
-        @JsonIgnore
-        transient private Integer depth;
-        @JsonManagedReference
-        private List<CommentModel> children;
-        @JsonIgnore
-        private List<CommentModel> ancestors;
-
-        public Long getExternalId() {
-            return externalId;
-        }
-
-        public void setExternalId(Long externalId) {
-            this.externalId = externalId;
-        }
-
-        public String getBy() {
-            return by;
-        }
-
-        public void setBy(String by) {
-            this.by = by;
-        }
-
-        public Long getParentExternalId() {
-            return parentExternalId;
-        }
-
-        public void setParentExternalId(Long parentExternalId) {
-            this.parentExternalId = parentExternalId;
-        }
+    // Fetch the stories with their comments, by one aggregation
+    private Map<Long, StoryModel> findStoryModels(Collection<Long> storyExternalIds) {
+        if (timePartitions != null) {
+            return findPartitionedStoryModels(storyExternalIds);
+        }
+        TypedAggregation<Story> agg = Aggregation.newAggregation(Story.class,
+                match(Criteria.where("externalId").in(storyExternalIds)),
+                Aggregation.graphLookup("comment")
+                        .startWith("$kids")
+                        .connectFrom("kids")
+                        .connectTo("externalId")
+                        .depthField("depth")
+                        .as("children"));
+        Map<Long, StoryModel> storyModels = new HashMap<>();
+        for (StoryModel storyModel : mongoTemplate.aggregate(agg, StoryModel.class)) {
+            storyModels.put(storyModel.getExternalId(), storyModel);
+        }
+        return storyModels;
+    }
 
-        public Date getDate() {
-            return date;
-        }
+    // Find the externalIds of the stories the comments belong to, by one aggregation
+    private Map<Long, Long> findStoryIds(Collection<Long> commentExternalIds) {
+        if (timePartitions != null) {
+            return findPartitionedStoryIds(commentExternalIds);
+        }
+        TypedAggregation<Comment> agg = Aggregation.newAggregation(Comment.class,
+                match(Criteria.where("externalId").in(commentExternalIds)),
+                Aggregation.graphLookup("comment")
+                        .startWith("parentExternalId")
+                        .connectFrom("parentExternalId")
+                        .connectTo("externalId")
+                        .depthField("depth")
+                        .as("ancestors"),
+                PROJECT_ANCESTORS);
+        Map<Long, Long> storyIds = new HashMap<>();
+        for (CommentModel commentModel : mongoTemplate.aggregate(agg, CommentModel.class)) {
+            storyIds.put(commentModel.getExternalId(), getStoryExternalId(commentModel));
+        }
+        return storyIds;
+    }
 
-        public void setDate(Date date) {
-            this.date = date;
+    // Fetch the stories from their partitions, and then their comments, by an aggregation per partition of the comments
+    // the threads can be in: as the kids of a comment are in the same or in a later partition, the partitions are read
+    // from the oldest one, each starting with the kids which are not found in the previous ones.
+    private Map<Long, StoryModel> findPartitionedStoryModels(Collection<Long> storyExternalIds) {
+        Map<Long, StoryModel> storyModels = new HashMap<>();
+        groupByPartition(Story.class, storyExternalIds).forEach((collection, ids) -> {
+            for (StoryModel storyModel : mongoTemplate.find(query(where("externalId").in(ids)), StoryModel.class,
+                    collection)) {
+                storyModels.put(storyModel.getExternalId(), storyModel);
+            }
+        });
+
+        Set<String> collections = new TreeSet<>();
+        Set<Long> pending = new HashSet<>();
+        for (StoryModel storyModel : storyModels.values()) {
+            collections.addAll(timePartitions.threadCollections(storyModel.getExternalId(), storyModel.getDate()));
+            if (storyModel.getKids() != null) {
+                pending.addAll(storyModel.getKids());
+            }
+            storyModel.setChildren(new ArrayList<>());
         }
-
-        public String getText() {
-            return text;
+        Map<Long, CommentModel> comments = new HashMap<>();
+        for (String collection : collections) {
+            if (pending.isEmpty()) {
+                break;
+            }
+            Aggregation agg = Aggregation.newAggregation(
+                    match(Criteria.where("externalId").in(pending)),
+                    Aggregation.graphLookup(collection)
+                            .startWith("$kids")
+                            .connectFrom("kids")
+                            .connectTo("externalId")
+                            .as("descendants"));
+            for (CommentModel root : mongoTemplate.aggregate(agg, collection, CommentModel.class)) {
+                List<CommentModel> descendants = root.getDescendants();
+                root.setDescendants(null);
+                comments.put(root.getExternalId(), root);
+                if (descendants != null) {
+                    for (CommentModel descendant : descendants) {
+                        comments.put(descendant.getExternalId(), descendant);
+                    }
+                }
+            }
+            // the kids which are not found are looked for in the next partitions
+            for (CommentModel comment : comments.values()) {
+                if (comment.getKids() != null) {
+                    pending.addAll(comment.getKids());
+                }
+            }
+            pending.removeAll(comments.keySet());
         }
 
-        public void setText(String text) {
-            this.text = text;
+        // assign the comments to their stories; the top-level comments are marked with depth 0, which is the only
+        // depth StoryJsonWriter relies on
+        Map<Long, Long> storyIds = new HashMap<>();
+        for (CommentModel comment : comments.values()) {
+            Long storyId = findStoryId(comment.getExternalId(), comments, storyModels, storyIds);
+            if (storyId != null) {
+                comment.setDepth(storyId.equals(comment.getParentExternalId()) ? 0 : 1);
+                storyModels.get(storyId).getChildren().add(comment);
+            }
         }
-
-        public List<Long> getKids() {
-            return kids;
+        for (StoryModel storyModel : storyModels.values()) {
+            storyModel.getChildren().sort(Comparator.comparing(CommentModel::getExternalId));
         }
+        return storyModels;
+    }
 
-        public void setKids(List<Long> kids) {
-            this.kids = kids;
+    // Find the story of the comment, following the parents of the fetched comments (memoized)
+    private static Long findStoryId(Long externalId, Map<Long, CommentModel> comments,
+                                    Map<Long, StoryModel> storyModels, Map<Long, Long> storyIds) {
+        List<Long> path = new ArrayList<>();
+        Long id = externalId;
+        Long storyId = null;
+        while (id != null && path.size() <= comments.size()) {
+            if (storyModels.containsKey(id)) {
+                storyId = id;
+                break;
+            }
+            if (storyIds.containsKey(id)) {
+                storyId = storyIds.get(id);
+                break;
+            }
+            CommentModel comment = comments.get(id);
+            if (comment == null) {
+                break;
+            }
+            path.add(id);
+            id = comment.getParentExternalId();
         }
-
-        public Integer getDepth() {
-            return depth;
+        for (Long pathId : path) {
+            storyIds.put(pathId, storyId);
         }
+        return storyId;
+    }
 
-        public void setDepth(Integer depth) {
-            this.depth = depth;
+    // Find the externalIds of the stories the comments belong to, by an aggregation per partition: the ancestors of a
+    // comment are looked up in the partition of the comment, and in case when the outermost one is the kid of a comment
+    // of an earlier partition, the lookup continues in that partition.
+    private Map<Long, Long> findPartitionedStoryIds(Collection<Long> commentExternalIds) {
+        Map<Long, Long> storyIds = new HashMap<>();
+        // externalId of the comment -> externalId of the entity to look up
+        Map<Long, Long> current = new HashMap<>();
+        for (Long commentExternalId : commentExternalIds) {
+            current.put(commentExternalId, commentExternalId);
+        }
+        for (int hop = 0; !current.isEmpty() && hop < MAX_PARTITION_HOPS; hop++) {
+            Map<Long, CommentModel> found = new HashMap<>();
+            groupByPartition(Comment.class, new HashSet<>(current.values())).forEach((collection, ids) -> {
+                Aggregation agg = Aggregation.newAggregation(
+                        match(Criteria.where("externalId").in(ids)),
+                        Aggregation.graphLookup(collection)
+                                .startWith("parentExternalId")
+                                .connectFrom("parentExternalId")
+                                .connectTo("externalId")
+                                .depthField("depth")
+                                .as("ancestors"),
+                        PROJECT_ANCESTORS);
+                for (CommentModel commentModel : mongoTemplate.aggregate(agg, collection, CommentModel.class)) {
+                    found.put(commentModel.getExternalId(), commentModel);
+                }
+            });
+            Map<Long, Long> next = new HashMap<>();
+            current.forEach((commentExternalId, id) -> {
+                CommentModel commentModel = found.get(id);
+                if (commentModel != null) {
+                    next.put(commentExternalId, getStoryExternalId(commentModel));
+                } else if (!id.equals(commentExternalId)) {
+                    // the outermost ancestor is the kid of an entity, which is not a comment, i.e. of the story
+                    storyIds.put(commentExternalId, id);
+                }
+            });
+            current = next;
         }
+        return storyIds;
+    }
 
-        private List<CommentModel> getChildren() {
-            if (children == null) {
-                children = new ArrayList<>(kids != null ? kids.size() : 0);
+    // Group the externalIds by the partitions of the type they can be in
+    private Map<String, List<Long>> groupByPartition(Class<?> type, Collection<Long> externalIds) {
+        Map<String, List<Long>> idsByCollection = new TreeMap<>();
+        for (Long externalId : externalIds) {
+            for (String collection : timePartitions.collectionsOf(type, externalId)) {
+                idsByCollection.computeIfAbsent(collection, c -> new ArrayList<>()).add(externalId);
             }
-            return children;
         }
+        return idsByCollection;
+    }
 
-        public void setChildren(List<CommentModel> children) {
-            this.children = children;
+    // The story is the parent of the outermost comment, i.e. the ancestor with the largest depth value (because the
+    // ancestors are looked up starting from the given comment and proceeding up the chain to its parents).
+    private static Long getStoryExternalId(CommentModel commentModel) {
+        CommentModel outermostComment;
+        if (commentModel.getAncestors() == null || commentModel.getAncestors().isEmpty()) {
+            // In this case, the externalParentId corresponds to the story
+            outermostComment = commentModel;
+        } else {
+            outermostComment = commentModel.getAncestors().get(0);
+            for (int i = 1; i < commentModel.getAncestors().size(); i++) {
+                CommentModel ancestor = commentModel.getAncestors().get(i);
+                if (ancestor.getDepth() > outermostComment.getDepth()) {
+                    outermostComment = ancestor;
+                }
+            }
         }
+        return outermostComment.getParentExternalId();
+    }
 
-        public void addChild(CommentModel child) {
-            getChildren().add(child);
+    // Resolve the type of the entity with the type index, falling back to the DB in case when the index is not enabled
+    // or not able to tell.
+    private EntityTypeIndex.Type getType(Long externalId) {
+        EntityTypeIndex.Type type = entityTypeIndex != null && externalId != null ? entityTypeIndex.get(externalId) : null;
+        if (type != null) {
+            return type;
         }
-
-        public List<CommentModel> getAncestors() {
-            return ancestors;
+        if (storyRepository.existsByExternalId(externalId)) {
+            return EntityTypeIndex.Type.STORY;
+        } else if (commentRepository.existsByExternalId(externalId)) {
+            return EntityTypeIndex.Type.COMMENT;
         }
+        return EntityTypeIndex.Type.ABSENT;
+    }
 
-        public void setAncestors(List<CommentModel> ancestors) {
-            this.ancestors = ancestors;
-        }
+    private String toJson(StoryModel storyModel) {
+        return storyJsonWriter.write(storyModel);
     }
 }
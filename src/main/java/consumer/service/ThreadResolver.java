@@ -0,0 +1,163 @@
+package consumer.service;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.Document;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import consumer.model.Comment;
+import consumer.model.Story;
+import consumer.repository.TimePartitions;
+
+/**
+ * Resolves the story (and the depth) a comment belongs to, as only the parent of a comment is known: the ancestors
+ * are looked up in the batch being persisted, in the cache of recently resolved entities and, as the last resort, in
+ * the DB. The cache holds up to {@code cacheSize} entities, least recently used are evicted.
+ */
+class ThreadResolver {
+
+    // guards against cycles (which are not expected) in the parent chain
+    private static final int MAX_DEPTH = 10000;
+
+    private final MongoTemplate mongoTemplate;
+    // optional partitions the entities are looked up in
+    private final TimePartitions timePartitions;
+    // externalId of the entity -> its story and depth
+    private final Map<Long, Node> nodes;
+
+    ThreadResolver(MongoTemplate mongoTemplate, int cacheSize) {
+        this(mongoTemplate, cacheSize, null);
+    }
+
+    ThreadResolver(MongoTemplate mongoTemplate, int cacheSize, TimePartitions timePartitions) {
+        this.mongoTemplate = mongoTemplate;
+        this.timePartitions = timePartitions;
+        this.nodes = Collections.synchronizedMap(new LinkedHashMap<Long, Node>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Node> eldest) {
+                return size() > cacheSize;
+            }
+        });
+    }
+
+    void putStory(long externalId) {
+        nodes.put(externalId, new Node(externalId, 0));
+    }
+
+    void put(long externalId, Node node) {
+        nodes.put(externalId, node);
+    }
+
+    boolean isKnown(long externalId) {
+        return nodes.containsKey(externalId);
+    }
+
+    /**
+     * @param batchById comments being persisted, by their externalIds
+     * @return story and depth of the comment, or {@code null} in case when its parent is not persisted (yet)
+     */
+    Node resolve(Long externalId, Long parentExternalId, Map<Long, Comment> batchById) {
+        Node node = nodes.get(externalId);
+        if (node != null) {
+            return node;
+        }
+
+        // the ancestors are walked up (rather than recursively, as the threads may be deep) until a resolved one, the
+        // comments on the way are resolved then, top down
+        List<Long> unresolved = new ArrayList<>();
+        Long id = externalId;
+        Long parentId = parentExternalId;
+        while (node == null) {
+            if (parentId == null || unresolved.size() > MAX_DEPTH) {
+                return null;
+            }
+            unresolved.add(id);
+            node = nodes.get(parentId);
+            if (node != null) {
+                break;
+            }
+            Comment parentComment = batchById.get(parentId);
+            if (parentComment != null) {
+                id = parentId;
+                parentId = parentComment.getParentExternalId();
+                continue;
+            }
+            Document comment = findComment(parentId);
+            if (comment != null) {
+                Object grandParentId = comment.get("parentExternalId");
+                id = parentId;
+                parentId = grandParentId instanceof Number ? ((Number) grandParentId).longValue() : null;
+            } else if (isStory(parentId)) {
+                node = new Node(parentId, 0);
+                nodes.put(parentId, node);
+            } else {
+                return null;
+            }
+        }
+        for (int i = unresolved.size() - 1; i >= 0; i--) {
+            node = node.child();
+            nodes.put(unresolved.get(i), node);
+        }
+        return node;
+    }
+
+    private Document findComment(Long externalId) {
+        Query commentQuery = query(where("externalId").is(externalId));
+        commentQuery.fields().include("parentExternalId");
+        for (String collection : collectionsOf(Comment.class, externalId)) {
+            Document comment = mongoTemplate.findOne(commentQuery, Document.class, collection);
+            if (comment != null) {
+                return comment;
+            }
+        }
+        return null;
+    }
+
+    private boolean isStory(Long externalId) {
+        Query storyQuery = query(where("externalId").is(externalId));
+        if (timePartitions == null) {
+            return mongoTemplate.exists(storyQuery, Story.class);
+        }
+        for (String collection : timePartitions.collectionsOf(Story.class, externalId)) {
+            if (mongoTemplate.exists(storyQuery, collection)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<String> collectionsOf(Class<?> type, long externalId) {
+        return timePartitions != null ? timePartitions.collectionsOf(type, externalId)
+                : Collections.singletonList(mongoTemplate.getCollectionName(type));
+    }
+
+    static final class Node {
+        private final long story;
+        private final int depth;
+
+        Node(long story, int depth) {
+            this.story = story;
+            this.depth = depth;
+        }
+
+        long getStory() {
+            return story;
+        }
+
+        int getDepth() {
+            return depth;
+        }
+
+        Node child() {
+            return new Node(story, depth + 1);
+        }
+    }
+}
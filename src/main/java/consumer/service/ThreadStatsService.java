@@ -0,0 +1,214 @@
+package consumer.service;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.env.Environment;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Service;
+
+import consumer.model.Comment;
+import consumer.model.Story;
+import consumer.model.ThreadStats;
+import consumer.rabbit.PersistListener;
+import consumer.repository.ThreadStatsRepository;
+import consumer.repository.TimePartitions;
+
+/**
+ * Maintains {@link ThreadStats statistics} of the comments of each story (comment count, max depth, participants and
+ * last activity) incrementally, as {@link consumer.rabbit.Receiver} persists the comments: the comments of a batch are
+ * grouped by their story and the statistics are updated with a single bulk of atomic {@code $inc}/{@code $max}/
+ * {@code $addToSet} upserts, so the statistics are available without building the tree of comments.
+ *
+ * The story (and the depth) of a comment is found with {@link ThreadResolver}. The comments whose parent is not
+ * persisted yet (i.e. received out of order) are re-tried with the next batch, up to {@code maxUnresolved} comments.
+ *
+ * The statistics are best-effort: a comment received twice is counted once only while it is in the cache.
+ */
+@Service
+@ConditionalOnProperty(name = "consumer.threadstats.enabled", havingValue = "true")
+public class ThreadStatsService implements PersistListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(ThreadStatsService.class);
+
+    private final MongoTemplate mongoTemplate;
+    private final ThreadStatsRepository threadStatsRepository;
+    private final int maxUnresolved;
+
+    private final ThreadResolver threadResolver;
+    // guarded by itself
+    private final List<Comment> unresolved = new ArrayList<>();
+    private final AtomicLong dropped = new AtomicLong();
+
+    @Autowired
+    public ThreadStatsService(MongoTemplate mongoTemplate, ThreadStatsRepository threadStatsRepository,
+                              Environment env, @Nullable TimePartitions timePartitions) {
+        this(mongoTemplate, threadStatsRepository,
+                Integer.parseInt(env.getProperty("consumer.threadstats.cacheSize", "1000000")),
+                Integer.parseInt(env.getProperty("consumer.threadstats.maxUnresolved", "10000")), timePartitions);
+    }
+
+    ThreadStatsService(MongoTemplate mongoTemplate, ThreadStatsRepository threadStatsRepository, int cacheSize,
+                       int maxUnresolved, @Nullable TimePartitions timePartitions) {
+        this.mongoTemplate = mongoTemplate;
+        this.threadStatsRepository = threadStatsRepository;
+        this.maxUnresolved = maxUnresolved;
+        // the parents are looked up in the partitions they are written to
+        this.threadResolver = new ThreadResolver(mongoTemplate, cacheSize, timePartitions);
+    }
+
+    /**
+     * @return statistics of the story, or {@code null} in case when there are none (e.g. the story has no comments)
+     */
+    public ThreadStats get(Long storyExternalId) {
+        return threadStatsRepository.findById(storyExternalId).orElse(null);
+    }
+
+    /**
+     * @return statistics of the stories by their externalIds; the stories with no statistics are absent
+     */
+    public Map<Long, ThreadStats> getAll(Collection<Long> storyExternalIds) {
+        Map<Long, ThreadStats> result = new HashMap<>();
+        for (ThreadStats stats : threadStatsRepository.findAllById(storyExternalIds)) {
+            result.put(stats.getStoryExternalId(), stats);
+        }
+        return result;
+    }
+
+    /**
+     * @return statistics of up to {@code n} stories, most recently active first (the ones with more comments first
+     * in case of the same last activity)
+     */
+    public List<ThreadStats> getMostActive(int n) {
+        return threadStatsRepository.findAllByOrderByLastActivityDescCommentCountDesc(PageRequest.of(0, n));
+    }
+
+    @Override
+    public void onStoriesPersisted(List<Story> stories) {
+        for (Story story : stories) {
+            if (story.getExternalId() != null) {
+                threadResolver.putStory(story.getExternalId());
+            }
+        }
+    }
+
+    @Override
+    public void onCommentsPersisted(List<Comment> comments) {
+        List<Comment> batch = new ArrayList<>(comments);
+        synchronized (unresolved) {
+            batch.addAll(unresolved);
+            unresolved.clear();
+        }
+
+        Map<Long, Comment> batchById = new HashMap<>();
+        Set<Long> counted = new HashSet<>();
+        for (Comment comment : batch) {
+            if (comment.getExternalId() == null) {
+                continue;
+            }
+            batchById.put(comment.getExternalId(), comment);
+            if (threadResolver.isKnown(comment.getExternalId())) {
+                // already counted
+                counted.add(comment.getExternalId());
+            }
+        }
+
+        Map<Long, Delta> deltas = new HashMap<>();
+        List<Comment> retry = new ArrayList<>();
+        try {
+            for (Comment comment : batchById.values()) {
+                if (!counted.add(comment.getExternalId())) {
+                    continue;
+                }
+                ThreadResolver.Node node = threadResolver.resolve(comment.getExternalId(),
+                        comment.getParentExternalId(), batchById);
+                if (node == null) {
+                    retry.add(comment);
+                    continue;
+                }
+                deltas.computeIfAbsent(node.getStory(), story -> new Delta()).add(comment, node.getDepth());
+            }
+            write(deltas);
+        } catch (RuntimeException e) {
+            // the statistics are not essential, so the persisting of comments is not failed
+            logger.warn("Unable to update thread statistics", e);
+        }
+
+        synchronized (unresolved) {
+            for (Comment comment : retry) {
+                if (unresolved.size() < maxUnresolved) {
+                    unresolved.add(comment);
+                } else {
+                    dropped.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    private void write(Map<Long, Delta> deltas) {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        BulkOperations operations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ThreadStats.class);
+        deltas.forEach((story, delta) -> {
+            Update update = new Update()
+                    .inc("commentCount", delta.count)
+                    .max("maxDepth", delta.maxDepth);
+            if (delta.lastActivity != null) {
+                update.max("lastActivity", delta.lastActivity);
+            }
+            if (!delta.participants.isEmpty()) {
+                update.addToSet("participants").each(delta.participants.toArray());
+            }
+            operations.upsert(query(where("_id").is(story)), update);
+        });
+        operations.execute();
+    }
+
+    int getUnresolvedCount() {
+        synchronized (unresolved) {
+            return unresolved.size();
+        }
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    // Changes of the statistics of a story within a batch
+    private static final class Delta {
+        private long count;
+        private int maxDepth;
+        private Date lastActivity;
+        private final Set<String> participants = new HashSet<>();
+
+        void add(Comment comment, int depth) {
+            count++;
+            maxDepth = Math.max(maxDepth, depth);
+            if (comment.getDate() != null && (lastActivity == null || comment.getDate().after(lastActivity))) {
+                lastActivity = comment.getDate();
+            }
+            if (comment.getBy() != null) {
+                participants.add(comment.getBy());
+            }
+        }
+    }
+}
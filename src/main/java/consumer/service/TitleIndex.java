@@ -0,0 +1,406 @@
+package consumer.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * Index of stories by the prefixes of their (normalized) titles, so that e.g. the stories with titles starting with
+ * "show hn" are found without scanning the titles.
+ *
+ * The titles are kept in a compressed trie (radix tree), where each edge is labelled with a part of the title, so
+ * there are at most 2 nodes per title. Each node, of which subtree has more than {@code k} stories, caches its top
+ * {@code k} stories by score, so that the top stories with a prefix are read from a single node, at the cost of
+ * updating the caches along the path of a title on updates (a story is inserted into a cache in {@code O(k)}, while a
+ * cache is recomputed, of the caches of the children, only in case when a story it contains is removed or updated);
+ * the smaller subtrees are traversed instead.
+ *
+ * Updates are serialized, while queries run concurrently (with each other).
+ */
+public class TitleIndex {
+
+    private static final Pattern SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final Comparator<Entry> BY_SCORE = Comparator.comparingLong(Entry::getScore).reversed()
+            .thenComparingLong(Entry::getExternalId);
+
+    private final int k;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Node root = new Node("");
+    private final Map<Long, Entry> entries = new HashMap<>();
+
+    /**
+     * @param k number of top stories cached per node, i.e. the max number of top stories read without traversal
+     */
+    public TitleIndex(int k) {
+        this.k = k;
+    }
+
+    /**
+     * Add the story, or update its title or score in case when it is indexed already.
+     */
+    public void update(long externalId, String title, long score) {
+        String key = normalize(title, true);
+        lock.writeLock().lock();
+        try {
+            Entry previous = entries.get(externalId);
+            if (previous != null) {
+                if (previous.key.equals(key) && previous.score == score && previous.title.equals(title)) {
+                    return;
+                }
+                remove(previous);
+            }
+            Entry entry = new Entry(externalId, title, score, key);
+            entries.put(externalId, entry);
+            insert(entry);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(long externalId) {
+        lock.writeLock().lock();
+        try {
+            Entry entry = entries.remove(externalId);
+            if (entry != null) {
+                remove(entry);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param prefix prefix of the titles; it is normalized like the titles (a trailing separator is kept, to only
+     *               match whole words)
+     * @return up to {@code n} stories with the highest scores, of which titles start with the prefix, highest first
+     */
+    public List<Entry> top(String prefix, int n) {
+        String key = normalize(prefix, false);
+        lock.readLock().lock();
+        try {
+            Node node = root;
+            int matched = 0;
+            while (matched < key.length()) {
+                Node child = node.child(key.charAt(matched));
+                if (child == null || !matches(child.label, key, matched)) {
+                    return Collections.emptyList();
+                }
+                matched += child.label.length();
+                node = child;
+            }
+            if (n <= k && node.top != null) {
+                return new ArrayList<>(Arrays.asList(node.top).subList(0, Math.min(n, node.top.length)));
+            }
+            List<Entry> result = new ArrayList<>();
+            collect(node, result);
+            result.sort(BY_SCORE);
+            return result.size() > n ? new ArrayList<>(result.subList(0, n)) : result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Tells whether the label matches the key starting from the offset (the key may end within the label)
+    private static boolean matches(String label, String key, int offset) {
+        int length = Math.min(label.length(), key.length() - offset);
+        return label.regionMatches(0, key, offset, length);
+    }
+
+    private void insert(Entry entry) {
+        String key = entry.key;
+        List<Node> path = new ArrayList<>();
+        Node node = root;
+        path.add(node);
+        int matched = 0;
+        while (matched < key.length()) {
+            Node child = node.child(key.charAt(matched));
+            if (child == null) {
+                child = new Node(key.substring(matched));
+                node.addChild(child);
+                node = child;
+                path.add(node);
+                break;
+            }
+            int common = commonPrefixLength(child.label, key, matched);
+            if (common < child.label.length()) {
+                // split the edge at the end of the common part
+                Node middle = new Node(child.label.substring(0, common));
+                node.replaceChild(middle);
+                child.label = child.label.substring(common);
+                middle.addChild(child);
+                middle.count = child.count;
+                middle.top = child.top;
+                child = middle;
+            }
+            matched += common;
+            node = child;
+            path.add(node);
+        }
+        node.entries = append(node.entries, entry);
+        for (Node pathNode : path) {
+            pathNode.count++;
+            if (pathNode.count <= k) {
+                continue;
+            }
+            if (pathNode.top == null) {
+                // there were not more than k stories in the subtree so far
+                pathNode.top = computeTop(pathNode);
+            } else {
+                pathNode.top = insertTop(pathNode.top, entry);
+            }
+        }
+    }
+
+    private void remove(Entry entry) {
+        List<Node> path = new ArrayList<>();
+        Node node = root;
+        path.add(node);
+        int matched = 0;
+        while (matched < entry.key.length()) {
+            node = node.child(entry.key.charAt(matched));
+            matched += node.label.length();
+            path.add(node);
+        }
+        node.entries = without(node.entries, entry);
+        for (Node pathNode : path) {
+            pathNode.count--;
+        }
+
+        // remove the nodes left with no stories, and merge the nodes left with a single child into it
+        for (int i = path.size() - 1; i > 0; i--) {
+            Node current = path.get(i);
+            Node parent = path.get(i - 1);
+            if (current.count == 0) {
+                parent.removeChild(current);
+                path.remove(i);
+            } else if (current.entries.length == 0 && current.children.length == 1) {
+                Node child = current.children[0];
+                child.label = current.label + child.label;
+                parent.replaceChild(child);
+                path.set(i, child);
+            }
+        }
+
+        // only the caches containing the story are to be recomputed (deepest first, as they are computed of the
+        // caches of the children)
+        for (int i = path.size() - 1; i >= 0; i--) {
+            Node pathNode = path.get(i);
+            if (pathNode.count <= k) {
+                pathNode.top = null;
+            } else if (indexOf(pathNode.top, entry) >= 0) {
+                pathNode.top = computeTop(pathNode);
+            }
+        }
+    }
+
+    // Compute the top stories of the subtree of the node, of its own stories and the top stories of its children
+    private Entry[] computeTop(Node node) {
+        List<Entry[]> sources = new ArrayList<>(node.children.length + 1);
+        Entry[] entries = node.entries.clone();
+        Arrays.sort(entries, BY_SCORE);
+        sources.add(entries);
+        for (Node child : node.children) {
+            if (child.top != null) {
+                sources.add(child.top);
+            } else {
+                List<Entry> childEntries = new ArrayList<>(child.count);
+                collect(child, childEntries);
+                childEntries.sort(BY_SCORE);
+                sources.add(childEntries.toArray(new Entry[0]));
+            }
+        }
+
+        // merge the sorted sources, until there are k stories
+        PriorityQueue<int[]> heads = new PriorityQueue<>((a, b) -> BY_SCORE.compare(sources.get(a[0])[a[1]],
+                sources.get(b[0])[b[1]]));
+        for (int i = 0; i < sources.size(); i++) {
+            if (sources.get(i).length > 0) {
+                heads.add(new int[] {i, 0});
+            }
+        }
+        Entry[] top = new Entry[Math.min(k, node.count)];
+        for (int i = 0; i < top.length; i++) {
+            int[] head = heads.poll();
+            Entry[] source = sources.get(head[0]);
+            top[i] = source[head[1]];
+            if (++head[1] < source.length) {
+                heads.add(head);
+            }
+        }
+        return top;
+    }
+
+    // Insert the story into the top stories, in case when it ranks high enough
+    private static Entry[] insertTop(Entry[] top, Entry entry) {
+        if (BY_SCORE.compare(entry, top[top.length - 1]) >= 0) {
+            return top;
+        }
+        int index = -Arrays.binarySearch(top, entry, BY_SCORE) - 1;
+        // the caches of the nodes may share the array only until it is updated
+        Entry[] updated = new Entry[top.length];
+        System.arraycopy(top, 0, updated, 0, index);
+        updated[index] = entry;
+        System.arraycopy(top, index, updated, index + 1, top.length - index - 1);
+        return updated;
+    }
+
+    private static int indexOf(Entry[] values, Entry value) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void collect(Node node, List<Entry> result) {
+        result.addAll(Arrays.asList(node.entries));
+        for (Node child : node.children) {
+            collect(child, result);
+        }
+    }
+
+    private static int commonPrefixLength(String label, String key, int offset) {
+        int length = Math.min(label.length(), key.length() - offset);
+        int i = 0;
+        while (i < length && label.charAt(i) == key.charAt(offset + i)) {
+            i++;
+        }
+        return i;
+    }
+
+    private static Entry[] append(Entry[] values, Entry value) {
+        Entry[] result = Arrays.copyOf(values, values.length + 1);
+        result[values.length] = value;
+        return result;
+    }
+
+    private static Entry[] without(Entry[] values, Entry value) {
+        List<Entry> result = new ArrayList<>(Arrays.asList(values));
+        result.remove(value);
+        return result.toArray(new Entry[0]);
+    }
+
+    /**
+     * Lower-case the text, and replace each run of characters other than letters and digits with a single space.
+     * @param trim whether to remove the trailing space too
+     */
+    static String normalize(String text, boolean trim) {
+        if (text == null) {
+            return "";
+        }
+        String normalized = SEPARATOR.matcher(text.toLowerCase(Locale.ROOT)).replaceAll(" ");
+        int start = normalized.startsWith(" ") ? 1 : 0;
+        int end = trim && normalized.length() > start && normalized.endsWith(" ")
+                ? normalized.length() - 1 : normalized.length();
+        return normalized.substring(start, Math.max(start, end));
+    }
+
+    private static final class Node {
+        private static final Node[] NO_CHILDREN = new Node[0];
+        private static final Entry[] NO_ENTRIES = new Entry[0];
+
+        private String label;
+        // ordered by the first character of the label
+        private Node[] children = NO_CHILDREN;
+        // stories with the very title of the node
+        private Entry[] entries = NO_ENTRIES;
+        // number of stories in the subtree
+        private int count;
+        // top stories of the subtree, only cached in case when there are more than k of them
+        private Entry[] top;
+
+        private Node(String label) {
+            this.label = label;
+        }
+
+        private Node child(char first) {
+            int index = indexOf(first);
+            return index >= 0 ? children[index] : null;
+        }
+
+        private void addChild(Node child) {
+            int index = -indexOf(child.label.charAt(0)) - 1;
+            Node[] updated = new Node[children.length + 1];
+            System.arraycopy(children, 0, updated, 0, index);
+            updated[index] = child;
+            System.arraycopy(children, index, updated, index + 1, children.length - index);
+            children = updated;
+        }
+
+        // Replace the child with the same first character
+        private void replaceChild(Node child) {
+            children[indexOf(child.label.charAt(0))] = child;
+        }
+
+        private void removeChild(Node child) {
+            int index = indexOf(child.label.charAt(0));
+            Node[] updated = new Node[children.length - 1];
+            System.arraycopy(children, 0, updated, 0, index);
+            System.arraycopy(children, index + 1, updated, index, children.length - index - 1);
+            children = updated;
+        }
+
+        private int indexOf(char first) {
+            int low = 0;
+            int high = children.length - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                char value = children[middle].label.charAt(0);
+                if (value < first) {
+                    low = middle + 1;
+                } else if (value > first) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -(low + 1);
+        }
+    }
+
+    public static final class Entry {
+        private final long externalId;
+        private final String title;
+        private final long score;
+        // normalized title
+        private final String key;
+
+        private Entry(long externalId, String title, long score, String key) {
+            this.externalId = externalId;
+            this.title = title;
+            this.score = score;
+            this.key = key;
+        }
+
+        public long getExternalId() {
+            return externalId;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public long getScore() {
+            return score;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package consumer.service;
+
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.env.Environment;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.stereotype.Service;
+
+import consumer.model.Story;
+import consumer.rabbit.PersistListener;
+import consumer.repository.TimePartitions;
+
+/**
+ * In-memory {@link TitleIndex index} of stories by the prefixes of their titles, so that e.g. the stories with titles
+ * starting with "show hn" are listed, by score, without querying the DB.
+ * The index is kept up to date as {@link consumer.rabbit.Receiver} persists the stories; the DB is only used to build
+ * it on startup, with a streaming scan.
+ */
+@Service
+@ConditionalOnProperty(name = "consumer.titleindex.enabled", havingValue = "true")
+public class TitleIndexService implements PersistListener, InitializingBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(TitleIndexService.class);
+
+    private final MongoTemplate mongoTemplate;
+    private final TitleIndex index;
+
+    @Autowired
+    public TitleIndexService(MongoTemplate mongoTemplate, Environment env) {
+        this(mongoTemplate, Integer.parseInt(env.getProperty("consumer.titleindex.topK", "20")));
+    }
+
+    TitleIndexService(MongoTemplate mongoTemplate, int topK) {
+        this.mongoTemplate = mongoTemplate;
+        this.index = new TitleIndex(topK);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        long start = System.currentTimeMillis();
+        Query query = new Query();
+        query.fields().include("externalId").include("title").include("score");
+        try {
+            for (String collection : TimePartitions.collectionNames(mongoTemplate, Story.class)) {
+                try (CloseableIterator<Story> stories = mongoTemplate.stream(query, Story.class, collection)) {
+                    while (stories.hasNext()) {
+                        update(stories.next());
+                    }
+                }
+            }
+            logger.info("Built title index of {} stories in {} ms", index.size(), System.currentTimeMillis() - start);
+        } catch (RuntimeException e) {
+            // the index is still updated with the stories persisted from now on
+            logger.warn("Unable to build title index", e);
+        }
+    }
+
+    /**
+     * @param prefix prefix of the titles, case-insensitive and with any punctuation treated as a space
+     * @return up to {@code n} stories with the highest scores, of which titles start with the prefix
+     */
+    public List<TitleIndex.Entry> find(String prefix, int n) {
+        return index.top(prefix, n);
+    }
+
+    /**
+     * Add the story to the index, or update its title or score.
+     */
+    public void update(Story story) {
+        if (story.getExternalId() == null) {
+            return;
+        }
+        // a story retrieved again with no title (e.g. deleted) is dropped
+        if (story.getTitle() == null) {
+            index.remove(story.getExternalId());
+        } else {
+            index.update(story.getExternalId(), story.getTitle(), story.getScore() != null ? story.getScore() : 0);
+        }
+    }
+
+    @Override
+    public void onStoriesPersisted(List<Story> stories) {
+        for (Story story : stories) {
+            update(story);
+        }
+    }
+}
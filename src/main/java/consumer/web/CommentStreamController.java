@@ -0,0 +1,96 @@
+package consumer.web;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import consumer.model.Comment;
+import consumer.service.CommentTopics;
+
+/**
+ * Pushes the comments of a story, as they are persisted, as server-sent events:
+ * <pre>
+ * GET /stories/{id}/comments/stream
+ *
+ * event:subscribed
+ * data:1
+ *
+ * event:comments
+ * data:[{"externalId":2,"parentExternalId":1,"by":"pg","date":...,"text":"..."}]
+ * </pre>
+ * A client which does not keep up with the comments receives the {@code evicted} event, after which the stream is
+ * closed (so the client is expected to fetch the story with its comments, and to subscribe again). The stream of a
+ * client which does not receive the comments within {@code consumer.live.sendTimeout} ms is closed with an error,
+ * without writing anything more to it.
+ */
+@RestController
+@ConditionalOnProperty(name = "consumer.live.enabled", havingValue = "true")
+public class CommentStreamController {
+
+    private final CommentTopics commentTopics;
+    // timeout of the streams, in ms
+    private final long timeout;
+    private final ObjectMapper mapper = new ObjectMapper().setSerializationInclusion(JsonInclude.Include.NON_NULL);
+
+    public CommentStreamController(CommentTopics commentTopics, Environment env) {
+        this.commentTopics = commentTopics;
+        this.timeout = Long.parseLong(env.getProperty("consumer.live.timeout", "1800000"));
+    }
+
+    @GetMapping(path = "/stories/{id}/comments/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter stream(@PathVariable("id") long id) {
+        SseEmitter emitter = new SseEmitter(timeout);
+        CommentTopics.Subscription subscription;
+        try {
+            subscription = commentTopics.subscribe(id, new CommentTopics.Sink() {
+                @Override
+                public void send(List<Comment> comments) throws IOException {
+                    emitter.send(SseEmitter.event().name("comments")
+                            .data(mapper.writeValueAsString(LiveComment.of(comments))));
+                }
+
+                @Override
+                public void evicted() {
+                    try {
+                        emitter.send(SseEmitter.event().name("evicted").data(id));
+                        emitter.complete();
+                    } catch (IOException | IllegalStateException e) {
+                        // the client is gone (or the stream is closed) already
+                    }
+                }
+
+                @Override
+                public void timedOut() {
+                    // a write would block the sender thread again
+                    emitter.completeWithError(new IOException("Send of comments of story " + id + " timed out"));
+                }
+            });
+        } catch (IllegalStateException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage());
+        }
+        emitter.onCompletion(subscription::cancel);
+        emitter.onTimeout(subscription::cancel);
+        emitter.onError(e -> subscription.cancel());
+        try {
+            // the response is only committed with the first event, so the client learns it is subscribed right away
+            emitter.send(SseEmitter.event().name("subscribed").data(id));
+        } catch (IOException e) {
+            subscription.cancel();
+            throw new UncheckedIOException(e);
+        }
+        return emitter;
+    }
+}
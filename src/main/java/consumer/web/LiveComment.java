@@ -0,0 +1,68 @@
+package consumer.web;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import consumer.model.Comment;
+
+/**
+ * Comment pushed to the subscribers of its story (see {@link CommentStreamController}): the public fields of the
+ * comment only, rather than the internal ones of the document (e.g. the time it is sent to the queue at).
+ */
+public class LiveComment {
+
+    private final Long externalId;
+    private final Long parentExternalId;
+    private final String by;
+    private final Date date;
+    private final String text;
+    private final Boolean dead;
+    private final List<Long> kids;
+
+    private LiveComment(Comment comment) {
+        this.externalId = comment.getExternalId();
+        this.parentExternalId = comment.getParentExternalId();
+        this.by = comment.getBy();
+        this.date = comment.getDate();
+        this.text = comment.getText();
+        this.dead = comment.getDead();
+        this.kids = comment.getKids();
+    }
+
+    public static List<LiveComment> of(List<Comment> comments) {
+        List<LiveComment> result = new ArrayList<>(comments.size());
+        for (Comment comment : comments) {
+            result.add(new LiveComment(comment));
+        }
+        return result;
+    }
+
+    public Long getExternalId() {
+        return externalId;
+    }
+
+    public Long getParentExternalId() {
+        return parentExternalId;
+    }
+
+    public String getBy() {
+        return by;
+    }
+
+    public Date getDate() {
+        return date;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public Boolean getDead() {
+        return dead;
+    }
+
+    public List<Long> getKids() {
+        return kids;
+    }
+}
@@ -0,0 +1,127 @@
+package consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import consumer.repository.CommentRepository;
+import consumer.service.Client;
+import consumer.service.StoryService;
+
+public class AppRunnerTest {
+
+    private StoryService storyService;
+    private NetRunner netRunner;
+    private AppRunner appRunner;
+
+    @BeforeEach
+    public void setUp() {
+        storyService = mock(StoryService.class);
+        netRunner = mock(NetRunner.class);
+        MockEnvironment env = new MockEnvironment().withProperty("consumer.batch.parallelism", "4");
+        appRunner = new AppRunner(netRunner, mock(ReactiveNetRunner.class), mock(ConsumeJobs.class),
+                mock(BulkImporter.class), mock(BulkExporter.class), storyService, mock(CommentRepository.class),
+                mock(Client.class), env, null, null, null);
+    }
+
+    @Test
+    public void testBatchOutputIsInOrderOfCommands() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        ConcurrentHashMap<String, Boolean> concurrent = new ConcurrentHashMap<>();
+        when(storyService.getStoryJsonWithRelatedData(anyLong())).thenAnswer(invocation -> {
+            long id = invocation.getArgument(0);
+            if (running.incrementAndGet() > 1) {
+                concurrent.put("yes", true);
+            }
+            // the earlier commands take longer
+            Thread.sleep(50 - id * 2);
+            running.decrementAndGet();
+            return id == 7 ? null : "{\"id\":" + id + "}";
+        });
+        StringBuilder commands = new StringBuilder("# lookups\n\n");
+        StringBuilder expected = new StringBuilder();
+        for (int id = 0; id < 20; id++) {
+            commands.append("list ").append(id).append('\n');
+            expected.append(id == 7 ? "Unable to find entity with id: 7" : "{\"id\":" + id + "}").append('\n');
+        }
+
+        assertEquals(expected.toString(), runBatch(commands.toString()));
+        assertEquals(true, concurrent.get("yes"));
+    }
+
+    @Test
+    public void testBatchContinuesAfterFailureAndStopsAtExit() throws Exception {
+        when(storyService.getStoryJsonWithRelatedData(1L)).thenThrow(new IllegalStateException("DB is down"));
+        when(storyService.getStoryJsonWithRelatedData(2L)).thenReturn("{\"id\":2}");
+
+        String output = runBatch("list 1\nbatch other.txt\nlist 2\nexit\nlist 3\n");
+
+        assertEquals("Command `list 1` failed: java.lang.IllegalStateException: DB is down\n"
+                + "Batches can not be nested.\n"
+                + "{\"id\":2}\n", output);
+        verify(storyService, never()).getStoryJsonWithRelatedData(3L);
+        // the queues are only cleared on `exit` of the application
+        verify(netRunner, never()).clearQueues();
+    }
+
+    @Test
+    public void testBatchOfStdinIsReadAfterPromptedCommands() throws Exception {
+        when(storyService.getStoryJsonWithRelatedData(anyLong()))
+                .thenAnswer(invocation -> "{\"id\":" + invocation.getArgument(0) + "}");
+        InputStream in = System.in;
+        PrintStream systemOut = System.out;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try {
+            // the commands are piped at once, so the prompt reads ahead of the `batch -` line
+            System.setIn(new ByteArrayInputStream("list 1\nbatch -\nlist 2\nlist 3\nexit\nlist 4\nexit\n"
+                    .getBytes(StandardCharsets.UTF_8)));
+            System.setOut(new PrintStream(output, true, StandardCharsets.UTF_8.name()));
+            appRunner.run();
+        } finally {
+            System.setIn(in);
+            System.setOut(systemOut);
+        }
+
+        // the output is interleaved with the log
+        Matcher outputs = Pattern.compile("Type your command > |\\{\"id\":\\d+}").matcher(
+                new String(output.toByteArray(), StandardCharsets.UTF_8));
+        List<String> written = new ArrayList<>();
+        while (outputs.find()) {
+            written.add(outputs.group());
+        }
+        String prompt = "Type your command > ";
+        assertEquals(Arrays.asList(prompt, "{\"id\":1}", prompt, "{\"id\":2}", "{\"id\":3}", prompt, "{\"id\":4}",
+                prompt), written);
+        verify(netRunner).clearQueues();
+    }
+
+    private String runBatch(String commands) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (PrintStream out = new PrintStream(output, true, StandardCharsets.UTF_8.name())) {
+            appRunner.runBatch(new BufferedReader(new StringReader(commands)).lines().iterator(), out);
+        }
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
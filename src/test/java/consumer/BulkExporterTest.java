@@ -0,0 +1,91 @@
+package consumer;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+
+import consumer.export.SnapshotFormat;
+import consumer.model.Comment;
+import consumer.model.Story;
+
+public class BulkExporterTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testCollectionsAreExportedByRanges() throws IOException {
+        MongoTemplate mongoTemplate = Mockito.mock(MongoTemplate.class);
+        when(mongoTemplate.getCollectionName(Story.class)).thenReturn("story");
+        when(mongoTemplate.getCollectionName(Comment.class)).thenReturn("comment");
+        when(mongoTemplate.getCollectionNames()).thenReturn(Collections.singleton("story"));
+        // the stories 1..10, and no comments
+        when(mongoTemplate.findOne(any(Query.class), eq(Document.class), eq("story"))).thenAnswer(invocation -> {
+            Query query = invocation.getArgument(0);
+            boolean ascending = query.getSortObject().getInteger("externalId") == 1;
+            return new Document("externalId", ascending ? 1L : 10L);
+        });
+        List<Query> queries = Collections.synchronizedList(new ArrayList<>());
+        when(mongoTemplate.stream(any(Query.class), eq(Story.class), eq("story"))).thenAnswer(invocation -> {
+            Query query = invocation.getArgument(0);
+            queries.add(query);
+            Document range = (Document) query.getQueryObject().get("externalId");
+            List<Story> stories = new ArrayList<>();
+            for (long id = range.getLong("$gte"); id < range.getLong("$lt"); id++) {
+                Story story = new Story();
+                story.setExternalId(id);
+                stories.add(story);
+            }
+            return iterator(stories);
+        });
+
+        BulkExporter.Result result = new BulkExporter(mongoTemplate, 3, 100).export(dir, SnapshotFormat.NDJSON);
+
+        Assertions.assertNull(result.getFailure());
+        Assertions.assertEquals(10, result.getStories());
+        Assertions.assertEquals(0, result.getComments());
+        Assertions.assertEquals(3, queries.size());
+        try (Stream<Path> files = Files.list(dir)) {
+            Assertions.assertEquals("[story-00000.ndjson.gz, story-00001.ndjson.gz, story-00002.ndjson.gz]",
+                    files.map(file -> file.getFileName().toString()).sorted().collect(Collectors.toList()).toString());
+        }
+    }
+
+    private static <T> CloseableIterator<T> iterator(List<T> values) {
+        Iterator<T> iterator = values.iterator();
+        return new CloseableIterator<T>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public T next() {
+                return iterator.next();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
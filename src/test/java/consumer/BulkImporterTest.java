@@ -0,0 +1,132 @@
+package consumer;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndReplaceOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import consumer.model.Comment;
+import consumer.model.Story;
+import consumer.rabbit.PersistListener;
+
+public class BulkImporterTest {
+
+    private static final List<String> DUMP = Arrays.asList(
+            "{\"id\":1,\"type\":\"story\",\"by\":\"pg\",\"title\":\"Y Combinator\",\"score\":57,\"kids\":[2]}",
+            "{\"id\":2,\"type\":\"comment\",\"by\":\"sama\",\"parent\":1,\"text\":\"Nice\",\"kids\":[3]}",
+            "{\"id\":3,\"type\":\"comment\",\"by\":\"pg\",\"parent\":2,\"text\":\"Thanks\",\"deleted\":false}",
+            "{\"id\":4,\"type\":\"job\",\"title\":\"Hiring\"}",
+            "not json",
+            "",
+            "{\"id\":7,\"type\":\"story\",\"title\":\"Ask HN\"}");
+
+    @TempDir
+    Path dir;
+
+    private final List<Object> replaced = Collections.synchronizedList(new ArrayList<>());
+
+    @Test
+    public void testCompressedDumpIsImported() throws IOException {
+        Path file = dir.resolve("items.json.gz");
+        try (OutputStream output = new GZIPOutputStream(Files.newOutputStream(file))) {
+            output.write(String.join("\n", DUMP).getBytes(StandardCharsets.UTF_8));
+        }
+        List<Story> notifiedStories = Collections.synchronizedList(new ArrayList<>());
+        PersistListener listener = new PersistListener() {
+            @Override
+            public void onStoriesPersisted(List<Story> stories) {
+                notifiedStories.addAll(stories);
+            }
+        };
+
+        BulkImporter.Result result = new BulkImporter(mongoTemplate(), Collections.singletonList(listener), null,
+                2, 2, 1000).importFile(file);
+
+        Assertions.assertNull(result.getFailure());
+        Assertions.assertEquals(7, result.getLines());
+        Assertions.assertEquals(2, result.getStories());
+        Assertions.assertEquals(2, result.getComments());
+        Assertions.assertEquals(2, result.getSkipped());
+        // the items are upserted, so the ones in the DB already are replaced rather than duplicated
+        Assertions.assertEquals(4, replaced.size());
+        Assertions.assertEquals(2, notifiedStories.size());
+        Assertions.assertEquals("7", new String(Files.readAllBytes(dir.resolve("items.json.gz.progress")),
+                StandardCharsets.US_ASCII).trim());
+    }
+
+    @Test
+    public void testImportIsResumed() throws IOException {
+        Path file = dir.resolve("items.json");
+        Files.write(file, DUMP, StandardCharsets.UTF_8);
+        // the first 2 lines are written (the progress is saved by a previous version, along with the lines handed over)
+        Files.write(dir.resolve("items.json.progress"), "2 4\n".getBytes(StandardCharsets.US_ASCII));
+
+        BulkImporter.Result result = new BulkImporter(mongoTemplate(), Collections.emptyList(), null, 2, 1, 1000)
+                .importFile(file);
+
+        Assertions.assertEquals(7, result.getLines());
+        Assertions.assertEquals(1, result.getStories());
+        Assertions.assertEquals(1, result.getComments());
+        Assertions.assertEquals(Arrays.asList(3L, 7L), externalIds(replaced));
+    }
+
+    @Test
+    public void testFailedImportIsResumable() throws IOException {
+        Path file = dir.resolve("items.json");
+        Files.write(file, DUMP, StandardCharsets.UTF_8);
+        MongoTemplate mongoTemplate = mongoTemplate();
+        BulkOperations failing = Mockito.mock(BulkOperations.class);
+        when(failing.replaceOne(any(Query.class), any(), any(FindAndReplaceOptions.class)))
+                .thenThrow(new IllegalStateException("Connection refused"));
+        when(mongoTemplate.bulkOps(any(), eq(Comment.class), anyString())).thenReturn(failing);
+
+        BulkImporter.Result result = new BulkImporter(mongoTemplate, Collections.emptyList(), null, 2, 1, 1000)
+                .importFile(file);
+
+        Assertions.assertNotNull(result.getFailure());
+        // the story of the first chunk is written, along with the comment, which fails
+        Assertions.assertEquals(0, result.getLines());
+        Assertions.assertFalse(Files.exists(dir.resolve("items.json.progress")));
+    }
+
+    private MongoTemplate mongoTemplate() {
+        MongoTemplate mongoTemplate = Mockito.mock(MongoTemplate.class);
+        when(mongoTemplate.getCollectionName(Story.class)).thenReturn("story");
+        when(mongoTemplate.getCollectionName(Comment.class)).thenReturn("comment");
+        BulkOperations operations = Mockito.mock(BulkOperations.class);
+        when(operations.replaceOne(any(Query.class), any(), any(FindAndReplaceOptions.class))).thenAnswer(invocation -> {
+            replaced.add(invocation.getArgument(1));
+            return operations;
+        });
+        when(mongoTemplate.bulkOps(any(), any(Class.class), anyString())).thenReturn(operations);
+        return mongoTemplate;
+    }
+
+    private static List<Long> externalIds(List<Object> entities) {
+        List<Long> ids = new ArrayList<>();
+        for (Object entity : entities) {
+            ids.add(entity instanceof Story ? ((Story) entity).getExternalId() : ((Comment) entity).getExternalId());
+        }
+        return ids;
+    }
+}
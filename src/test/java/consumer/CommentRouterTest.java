@@ -0,0 +1,65 @@
+package consumer;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import consumer.config.CommentSharding;
+import consumer.model.Data;
+
+public class CommentRouterTest {
+
+    @Test
+    public void testCommentsAreRoutedByRootStory() {
+        CommentSharding sharding = new CommentSharding(8);
+        CommentRouter router = new CommentRouter(sharding, 100);
+        String storyKey = sharding.routingKey(sharding.shardOf(1L));
+
+        router.storyRetrieved(createData(1L, null, Arrays.asList(2L, 3L)));
+        Assertions.assertEquals(storyKey, router.commentRetrieved(createData(2L, 1L, Collections.singletonList(4L))));
+        Assertions.assertEquals(storyKey, router.commentRetrieved(createData(3L, 1L, null)));
+        // a reply to a reply is routed by the story as well
+        Assertions.assertEquals(storyKey, router.commentRetrieved(createData(4L, 2L, null)));
+        Assertions.assertEquals(0, router.getPendingCount());
+
+        // the root is not known, so the comment is routed by its parent
+        Assertions.assertEquals(sharding.routingKey(sharding.shardOf(7L)),
+                router.commentRetrieved(createData(8L, 7L, null)));
+        Assertions.assertEquals(1, router.getRoutedByParentCount());
+    }
+
+    @Test
+    public void testSubtreeFollowsCommentRoutedByParent() {
+        CommentSharding sharding = new CommentSharding(8);
+        CommentRouter router = new CommentRouter(sharding, 100);
+        String parentKey = sharding.routingKey(sharding.shardOf(7L));
+
+        // the root of the comment is not known, so its kids go with it
+        Assertions.assertEquals(parentKey, router.commentRetrieved(createData(8L, 7L, Arrays.asList(9L, 10L))));
+        Assertions.assertEquals(parentKey, router.commentRetrieved(createData(9L, 8L, Collections.singletonList(11L))));
+        Assertions.assertEquals(parentKey, router.commentRetrieved(createData(10L, 8L, null)));
+        Assertions.assertEquals(parentKey, router.commentRetrieved(createData(11L, 9L, null)));
+        Assertions.assertEquals(0, router.getPendingCount());
+        Assertions.assertEquals(1, router.getRoutedByParentCount());
+    }
+
+    @Test
+    public void testPendingRootsAreBounded() {
+        CommentRouter router = new CommentRouter(new CommentSharding(8), 2);
+
+        router.storyRetrieved(createData(1L, null, Arrays.asList(2L, 3L, 4L)));
+
+        Assertions.assertEquals(2, router.getPendingCount());
+    }
+
+    private static Data createData(Long id, Long parent, List<Long> kids) {
+        Data data = new Data();
+        data.setId(id);
+        data.setParent(parent);
+        data.setKids(kids);
+        return data;
+    }
+}
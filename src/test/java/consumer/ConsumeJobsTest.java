@@ -0,0 +1,177 @@
+package consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.rabbit.core.RabbitAdmin;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import consumer.config.CommentSharding;
+import consumer.config.RabbitMQConfiguration;
+import consumer.model.Comment;
+import consumer.model.Data;
+import consumer.service.Client;
+
+public class ConsumeJobsTest {
+
+    private NetRunner netRunner;
+    private ThreadPoolTaskExecutor taskExecutor;
+    private ConsumeJobs consumeJobs;
+
+    @BeforeEach
+    public void setUp() {
+        netRunner = mock(NetRunner.class);
+        taskExecutor = new ThreadPoolTaskExecutor();
+        taskExecutor.setCorePoolSize(4);
+        taskExecutor.initialize();
+        consumeJobs = new ConsumeJobs(netRunner, taskExecutor, 2);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        consumeJobs.destroy();
+        taskExecutor.shutdown();
+    }
+
+    @Test
+    public void testJobsRunConcurrentlyOnSharedExecutor() throws InterruptedException {
+        when(netRunner.isIngested(3L)).thenReturn(true);
+        when(netRunner.fetchAndSend(anyLong())).thenAnswer(invocation -> {
+            long id = invocation.getArgument(0);
+            if (id == 5) {
+                throw new IllegalStateException("broken");
+            }
+            return id % 2 == 0 ? new Data() : null;
+        });
+
+        ConsumeJobs.Job first = consumeJobs.start(0, 10);
+        ConsumeJobs.Job second = consumeJobs.start(100, 10);
+        awaitState(first, ConsumeJobs.Job.State.DONE);
+        awaitState(second, ConsumeJobs.Job.State.DONE);
+
+        assertEquals(10, first.getProcessed());
+        assertEquals(1, first.getSkipped());
+        // 0, 2, 4, 6, 8
+        assertEquals(5, first.getRetrieved());
+        // 1, 7, 9
+        assertEquals(3, first.getMissing());
+        assertEquals(1, first.getErrors());
+        assertTrue(first.getLastError().startsWith("5: "));
+        assertEquals(5, second.getRetrieved());
+        assertEquals(5, second.getMissing());
+        assertEquals(2, consumeJobs.getJobs().size());
+        assertEquals(second, consumeJobs.getJob(second.getId()));
+        verify(netRunner, never()).fetchAndSend(3L);
+    }
+
+    @Test
+    public void testJobSendsRetrievedEntitiesToQueues() throws InterruptedException {
+        Client client = mock(Client.class);
+        RabbitAdmin rabbitAdmin = mock(RabbitAdmin.class);
+        RabbitTemplate rabbitTemplate = mock(RabbitTemplate.class);
+        Data commentData = new Data();
+        commentData.setType(Data.Type.COMMENT);
+        when(client.getData(anyLong())).thenReturn(commentData);
+        when(rabbitAdmin.getRabbitTemplate()).thenReturn(rabbitTemplate);
+        NetRunner netRunner = new NetRunner(client, taskExecutor, rabbitAdmin, new MockEnvironment(), null, null,
+                new CommentSharding(1));
+        ConsumeJobs jobs = new ConsumeJobs(netRunner, taskExecutor, 8);
+
+        ConsumeJobs.Job job = jobs.start(1, 500);
+        awaitState(job, ConsumeJobs.Job.State.DONE);
+        jobs.destroy();
+
+        assertEquals(500, job.getRetrieved());
+        verify(client, times(500)).getData(anyLong());
+        verify(rabbitTemplate, times(500)).convertAndSend(
+                eq(RabbitMQConfiguration.TOPIC_EXCHANGE_NAME), eq(RabbitMQConfiguration.ROUTING_KEY_COMMENT), any(Comment.class));
+        verify(rabbitTemplate, never()).convertAndSend(
+                eq(RabbitMQConfiguration.TOPIC_EXCHANGE_NAME), eq(RabbitMQConfiguration.ROUTING_KEY_STORY), any(Comment.class));
+    }
+
+    @Test
+    public void testPauseAndResume() throws InterruptedException {
+        CountDownLatch fetching = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(netRunner.fetchAndSend(anyLong())).thenAnswer(invocation -> {
+            if ((long) invocation.getArgument(0) == 0) {
+                fetching.countDown();
+                release.await();
+            }
+            return new Data();
+        });
+
+        ConsumeJobs.Job job = consumeJobs.start(0, 100);
+        assertTrue(fetching.await(5, TimeUnit.SECONDS));
+        assertTrue(job.pause());
+        assertFalse(job.pause());
+        release.countDown();
+        // the fetches in flight are completed, but no more are started
+        long processed = waitForQuiescence(job);
+        assertEquals(ConsumeJobs.Job.State.PAUSED, job.getState());
+        assertTrue(processed < 100);
+        // the time paused is not counted
+        long elapsed = job.getElapsedMillis();
+        Thread.sleep(50);
+        assertEquals(elapsed, job.getElapsedMillis());
+
+        assertTrue(job.resume());
+        awaitState(job, ConsumeJobs.Job.State.DONE);
+        assertEquals(100, job.getRetrieved());
+    }
+
+    @Test
+    public void testCancel() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        when(netRunner.fetchAndSend(anyLong())).thenAnswer(invocation -> {
+            release.await();
+            return new Data();
+        });
+
+        ConsumeJobs.Job job = consumeJobs.start(0, 1000);
+        assertTrue(job.cancel());
+        assertFalse(job.cancel());
+        release.countDown();
+        awaitState(job, ConsumeJobs.Job.State.CANCELLED);
+
+        // at most the fetches in flight are completed
+        assertTrue(job.getProcessed() <= 2);
+        assertFalse(job.resume());
+        assertNotNull(consumeJobs.getJob(job.getId()));
+    }
+
+    private static void awaitState(ConsumeJobs.Job job, ConsumeJobs.Job.State state) throws InterruptedException {
+        for (int i = 0; i < 500 && job.getState() != state; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(state, job.getState());
+    }
+
+    // Wait until the number of processed entities stops changing
+    private static long waitForQuiescence(ConsumeJobs.Job job) throws InterruptedException {
+        long processed;
+        do {
+            processed = job.getProcessed();
+            Thread.sleep(50);
+        } while (processed != job.getProcessed());
+        return processed;
+    }
+}
@@ -0,0 +1,63 @@
+package consumer;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class CrawlFrontierTest {
+
+    @Test
+    public void testEntriesAreTakenByPriority() throws Exception {
+        CrawlFrontier frontier = new CrawlFrontier(100);
+        frontier.addAll(Arrays.asList(10L, 11L), 1);
+        frontier.addAll(Collections.singletonList(20L), 0);
+
+        CrawlFrontier.Entry first = frontier.take();
+        Assertions.assertEquals(20L, first.getId());
+        // kids inherit priority of the parent, so these go before the remaining stories
+        frontier.complete(first, Arrays.asList(21L, 22L));
+
+        Assertions.assertEquals(21L, frontier.take().getId());
+        Assertions.assertEquals(22L, frontier.take().getId());
+        Assertions.assertEquals(10L, frontier.take().getId());
+        Assertions.assertEquals(11L, frontier.take().getId());
+    }
+
+    @Test
+    public void testIdsAreAddedOnce() throws Exception {
+        CrawlFrontier frontier = new CrawlFrontier(100);
+        Assertions.assertEquals(2, frontier.addAll(Arrays.asList(1L, 2L, 1L), 0));
+
+        CrawlFrontier.Entry entry = frontier.take();
+        frontier.complete(entry, Arrays.asList(1L, 2L, 3L));
+
+        Assertions.assertEquals(2, frontier.size());
+    }
+
+    @Test
+    public void testLowestPriorityEntryIsDroppedWhenFull() {
+        CrawlFrontier frontier = new CrawlFrontier(2);
+        frontier.addAll(Arrays.asList(1L, 2L), 5);
+        Assertions.assertEquals(1, frontier.addAll(Collections.singletonList(3L), 0));
+        Assertions.assertEquals(0, frontier.addAll(Collections.singletonList(4L), 9));
+
+        Assertions.assertEquals(2, frontier.size());
+        Assertions.assertEquals(2, frontier.getDropped());
+    }
+
+    @Test
+    public void testTakeReturnsNullWhenCrawlIsComplete() throws Exception {
+        CrawlFrontier frontier = new CrawlFrontier(10);
+        frontier.addAll(Collections.singletonList(1L), 0);
+
+        CrawlFrontier.Entry entry = frontier.take();
+        Thread completer = new Thread(() -> frontier.complete(entry, null));
+        completer.start();
+
+        // blocks until the entry is completed, as it might have had kids
+        Assertions.assertNull(frontier.take());
+        completer.join();
+    }
+}
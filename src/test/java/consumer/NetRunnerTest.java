@@ -4,12 +4,15 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
-import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mockito;
@@ -24,9 +27,11 @@ import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
+import consumer.config.CommentSharding;
 import consumer.config.RabbitMQConfiguration;
 import consumer.model.Comment;
 import consumer.model.Data;
+import consumer.model.Story;
 import consumer.service.Client;
 
 @ExtendWith(SpringExtension.class)
@@ -40,28 +45,37 @@ public class NetRunnerTest {
     private Client client;
     @Autowired
     private RabbitAdmin rabbitAdmin;
-    @Autowired
-    private Environment env;
 
     @Test
-    public void testRun() {
-        Data commentData = new Data();
-        commentData.setType(Data.Type.COMMENT);
+    public void testCrawl() {
+        Data story = createData(1L, Data.Type.STORY, Arrays.asList(2L, 3L));
+        Data comment2 = createData(2L, Data.Type.COMMENT, Collections.singletonList(4L));
+        Data comment3 = createData(3L, Data.Type.COMMENT, null);
+        Data comment4 = createData(4L, Data.Type.COMMENT, Collections.singletonList(2L)); // cycles are ignored
         RabbitTemplate rabbitTemplate = Mockito.mock(RabbitTemplate.class);
-        when(client.getData(anyLong())).thenReturn(commentData);
+        Mockito.reset(client);
+        when(client.getData(1L)).thenReturn(story);
+        when(client.getData(2L)).thenReturn(comment2);
+        when(client.getData(3L)).thenReturn(comment3);
+        when(client.getData(4L)).thenReturn(comment4);
         when(rabbitAdmin.getRabbitTemplate()).thenReturn(rabbitTemplate);
-        doNothing().when(rabbitTemplate).convertAndSend(
-                eq(RabbitMQConfiguration.TOPIC_EXCHANGE_NAME), anyString(), any(Comment.class));
 
-        netRunner.run();
+        netRunner.crawl(Collections.singletonList(1L));
 
-        String countValue = env.getProperty("consumer.netrunner.retrieveCount", "1000");
-        int expectedCountOfInvocations = Integer.parseInt(countValue);
-        verify(client, times(expectedCountOfInvocations)).getData(anyLong());
-        verify(rabbitTemplate, times(expectedCountOfInvocations)).convertAndSend(
+        verify(client, times(4)).getData(anyLong());
+        verify(rabbitTemplate, times(1)).convertAndSend(
+                eq(RabbitMQConfiguration.TOPIC_EXCHANGE_NAME), eq(RabbitMQConfiguration.ROUTING_KEY_STORY), any(Story.class));
+        verify(rabbitTemplate, times(3)).convertAndSend(
                 eq(RabbitMQConfiguration.TOPIC_EXCHANGE_NAME), eq(RabbitMQConfiguration.ROUTING_KEY_COMMENT), any(Comment.class));
-        verify(rabbitTemplate, never()).convertAndSend(
-                eq(RabbitMQConfiguration.TOPIC_EXCHANGE_NAME), eq(RabbitMQConfiguration.ROUTING_KEY_STORY), any(Comment.class));
+        Mockito.reset(client);
+    }
+
+    private Data createData(Long id, Data.Type type, List<Long> kids) {
+        Data data = new Data();
+        data.setId(id);
+        data.setType(type);
+        data.setKids(kids);
+        return data;
     }
 
     @TestConfiguration
@@ -92,7 +106,7 @@ public class NetRunnerTest {
         @Bean
         public NetRunner netRunner(Client client, ThreadPoolTaskExecutor taskExecutor,
                                    RabbitAdmin rabbitAdmin, Environment env) {
-            return new NetRunner(client, taskExecutor, rabbitAdmin, env);
+            return new NetRunner(client, taskExecutor, rabbitAdmin, env, null, null, new CommentSharding(1));
         }
     }
 }
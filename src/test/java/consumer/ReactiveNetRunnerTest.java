@@ -0,0 +1,176 @@
+package consumer;
+
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.PropertySource;
+import org.springframework.core.env.Environment;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import consumer.model.Comment;
+import consumer.model.Data;
+import consumer.rabbit.PersistListener;
+import consumer.service.ReactiveClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+@ExtendWith(SpringExtension.class)
+@ContextConfiguration(classes = ReactiveNetRunnerTest.TestConfig.class)
+@PropertySource("classpath:application-test.properties")
+public class ReactiveNetRunnerTest {
+
+    @Autowired
+    private ReactiveNetRunner reactiveNetRunner;
+    @Autowired
+    private ReactiveClient client;
+    @Autowired
+    private ReactiveMongoTemplate mongoTemplate;
+    @Autowired
+    private Environment env;
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testRun() {
+        Data commentData = new Data();
+        commentData.setType(Data.Type.COMMENT);
+        when(client.getData(anyLong())).thenAnswer(invocation -> Mono.just(commentData));
+        when(mongoTemplate.insertAll(anyCollection()))
+                .thenAnswer(invocation -> Flux.fromIterable(invocation.getArgument(0, Collection.class)));
+
+        reactiveNetRunner.run();
+
+        String countValue = env.getProperty("consumer.netrunner.retrieveCount", "1000");
+        int expectedCountOfInvocations = Integer.parseInt(countValue);
+        verify(client, times(expectedCountOfInvocations)).getData(anyLong());
+
+        ArgumentCaptor<Collection<Object>> batches = ArgumentCaptor.forClass(Collection.class);
+        verify(mongoTemplate, Mockito.atLeastOnce()).insertAll(batches.capture());
+        int persisted = 0;
+        for (Collection<Object> batch : batches.getAllValues()) {
+            Assertions.assertTrue(batch.size() <= Integer.parseInt(env.getProperty("consumer.reactive.batchSize", "500")));
+            for (Object entity : batch) {
+                Assertions.assertTrue(entity instanceof Comment);
+            }
+            persisted += batch.size();
+        }
+        Assertions.assertEquals(expectedCountOfInvocations, persisted);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSlowWritesAreBackpressured() {
+        ReactiveClient slowClient = Mockito.mock(ReactiveClient.class);
+        ReactiveMongoTemplate slowTemplate = Mockito.mock(ReactiveMongoTemplate.class);
+        Data commentData = new Data();
+        commentData.setType(Data.Type.COMMENT);
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        when(slowClient.getData(anyLong())).thenAnswer(invocation -> Mono.fromCallable(() -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            return commentData;
+        }).doFinally(signal -> inFlight.decrementAndGet()));
+        // the DB is much slower than the endpoint
+        when(slowTemplate.insertAll(anyCollection())).thenAnswer(invocation -> Mono.delay(Duration.ofMillis(20))
+                .thenMany(Flux.fromIterable(invocation.getArgument(0, Collection.class))));
+        List<String> listenerThreads = new CopyOnWriteArrayList<>();
+        AtomicInteger notified = new AtomicInteger();
+        PersistListener listener = new PersistListener() {
+            @Override
+            public void onCommentsPersisted(List<Comment> comments) {
+                listenerThreads.add(Thread.currentThread().getName());
+                notified.addAndGet(comments.size());
+            }
+        };
+        MockEnvironment slowEnv = new MockEnvironment()
+                .withProperty("consumer.netrunner.startID", "0")
+                .withProperty("consumer.netrunner.retrieveCount", "200")
+                .withProperty("consumer.reactive.fetchConcurrency", "8")
+                .withProperty("consumer.reactive.batchSize", "5")
+                .withProperty("consumer.reactive.writeConcurrency", "1");
+
+        new ReactiveNetRunner(slowClient, slowTemplate, slowEnv, null, Collections.singletonList(listener), null).run();
+
+        Assertions.assertEquals(200, notified.get());
+        Assertions.assertTrue(maxInFlight.get() <= 8);
+        for (String thread : listenerThreads) {
+            Assertions.assertTrue(thread.startsWith("boundedElastic"), thread);
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testFailedBatchIsPersistedEntityByEntity() {
+        ReactiveClient client = Mockito.mock(ReactiveClient.class);
+        ReactiveMongoTemplate template = Mockito.mock(ReactiveMongoTemplate.class);
+        when(client.getData(anyLong())).thenAnswer(invocation -> {
+            Data data = new Data();
+            data.setId(invocation.getArgument(0));
+            data.setType(Data.Type.COMMENT);
+            return Mono.just(data);
+        });
+        // comment 3 is persisted already, so the batches with it fail
+        when(template.insertAll(anyCollection())).thenAnswer(invocation -> {
+            Collection<Comment> batch = invocation.getArgument(0, Collection.class);
+            return batch.stream().anyMatch(comment -> comment.getExternalId() == 3L)
+                    ? Flux.error(new DuplicateKeyException("comment 3"))
+                    : Flux.fromIterable(batch);
+        });
+        AtomicInteger notified = new AtomicInteger();
+        PersistListener listener = new PersistListener() {
+            @Override
+            public void onCommentsPersisted(List<Comment> comments) {
+                notified.addAndGet(comments.size());
+            }
+        };
+        MockEnvironment env = new MockEnvironment()
+                .withProperty("consumer.netrunner.startID", "0")
+                .withProperty("consumer.netrunner.retrieveCount", "20")
+                .withProperty("consumer.reactive.batchSize", "5");
+
+        new ReactiveNetRunner(client, template, env, null, Collections.singletonList(listener), null).run();
+
+        // the run is not aborted, and only the duplicate is not persisted
+        Assertions.assertEquals(19, notified.get());
+    }
+
+    @TestConfiguration
+    public static class TestConfig {
+        @Bean
+        public ReactiveClient reactiveClient() {
+            return Mockito.mock(ReactiveClient.class);
+        }
+
+        @Bean
+        public ReactiveMongoTemplate reactiveMongoTemplate() {
+            return Mockito.mock(ReactiveMongoTemplate.class);
+        }
+
+        @Bean
+        public ReactiveNetRunner reactiveNetRunner(ReactiveClient client, ReactiveMongoTemplate mongoTemplate,
+                                                   Environment env) {
+            return new ReactiveNetRunner(client, mongoTemplate, env, null, Collections.emptyList(), null);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package consumer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Measures the time a one-off command (e.g. {@code jobs}, which needs neither the DB nor the broker to be up) takes,
+ * from the start of the JVM to its exit, with the default configuration, with the {@code fast} profile, and with the
+ * {@code fast} profile and the class data sharing archive, and prints the median and the best time of each.
+ *
+ * It is a part of the build rather than of the application (so it is kept with the tests, out of the jar), and is run
+ * by the {@code fast-startup} build profile (see pom.xml), once the archive is created, with:
+ * <pre>java -cp target/test-classes:target/classes consumer.StartupBenchmark \
+ *     RUNS EXEC_JAR CLASSPATH ARCHIVE [COMMAND...]</pre>
+ * where EXEC_JAR is the executable jar, and CLASSPATH is the application jar along with its dependencies, which the
+ * archive is created for.
+ */
+public class StartupBenchmark {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 4) {
+            System.err.println("Usage: StartupBenchmark RUNS EXEC_JAR CLASSPATH ARCHIVE [COMMAND...]");
+            System.exit(1);
+        }
+        int runs = Integer.parseInt(args[0]);
+        List<String> command = args.length > 4
+                ? Arrays.asList(Arrays.copyOfRange(args, 4, args.length)) : Collections.singletonList("jobs");
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        String main = ConsumerApplication.class.getName();
+
+        // the web server of the default configuration listens to a random port, so the benchmark does not clash with
+        // a running instance
+        measure("default", runs, command, java, "-jar", args[1], "--server.port=0");
+        measure("fast", runs, command, java, "-cp", args[2], main, "--spring.profiles.active=fast");
+        measure("fast+cds", runs, command, java, "-XX:SharedArchiveFile=" + args[3], "-cp", args[2],
+                main, "--spring.profiles.active=fast");
+    }
+
+    private static void measure(String name, int runs, List<String> command, String... java)
+            throws IOException, InterruptedException {
+        List<String> arguments = new ArrayList<>(Arrays.asList(java));
+        arguments.addAll(command);
+        long[] millis = new long[runs];
+        Path log = Files.createTempFile("startup-benchmark", ".log");
+        try {
+            for (int i = 0; i < runs; i++) {
+                long start = System.nanoTime();
+                Process process = new ProcessBuilder(arguments)
+                        .redirectErrorStream(true)
+                        .redirectOutput(log.toFile())
+                        .start();
+                int exitCode = process.waitFor();
+                millis[i] = (System.nanoTime() - start) / 1_000_000;
+                if (exitCode != 0) {
+                    System.err.printf("%s: exited with %d:\n", name, exitCode);
+                    System.err.println(new String(Files.readAllBytes(log), StandardCharsets.UTF_8));
+                    System.exit(exitCode);
+                }
+            }
+        } finally {
+            Files.delete(log);
+        }
+        Arrays.sort(millis);
+        System.out.printf("%-10s median %6d ms, best %6d ms (%d runs of `%s`)\n", name, millis[runs / 2], millis[0],
+                runs, String.join(" ", command));
+    }
+}
@@ -0,0 +1,45 @@
+package consumer.config;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class CommentShardingTest {
+
+    @Test
+    public void testSingleShardUsesPlainQueue() {
+        CommentSharding sharding = new CommentSharding(1);
+
+        Assertions.assertEquals(0, sharding.shardOf(42L));
+        Assertions.assertEquals(RabbitMQConfiguration.QUEUE_COMMENT, sharding.queueName(0));
+        Assertions.assertEquals(RabbitMQConfiguration.ROUTING_KEY_COMMENT, sharding.routingKey(0));
+    }
+
+    @Test
+    public void testStoriesAreSpreadAcrossShards() {
+        CommentSharding sharding = new CommentSharding(4);
+        int[] counts = new int[4];
+        for (long id = 0; id < 10_000; id++) {
+            counts[sharding.shardOf(id)]++;
+        }
+        for (int count : counts) {
+            Assertions.assertTrue(count > 2000, "shards are expected to be balanced: " + count);
+        }
+        Assertions.assertEquals("queue.comment.3", sharding.queueName(3));
+        Assertions.assertEquals("comment.3", sharding.routingKey(3));
+    }
+
+    @Test
+    public void testAddingShardMovesOnlyPartOfStories() {
+        int moved = 0;
+        for (long id = 0; id < 10_000; id++) {
+            int before = CommentSharding.jumpHash(id, 4);
+            int after = CommentSharding.jumpHash(id, 5);
+            if (before != after) {
+                // a story is moved to the new shard only
+                Assertions.assertEquals(4, after);
+                moved++;
+            }
+        }
+        Assertions.assertTrue(moved < 3000, "about 1/5 of stories are expected to be moved: " + moved);
+    }
+}
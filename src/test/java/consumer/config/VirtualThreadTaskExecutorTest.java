@@ -0,0 +1,52 @@
+package consumer.config;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+
+public class VirtualThreadTaskExecutorTest {
+
+    @Test
+    public void testConcurrencyIsBoundedByPermits() throws Exception {
+        Assumptions.assumeTrue(VirtualThreadTaskExecutor.isSupported(), "virtual threads are not supported");
+
+        int maxConcurrency = 4;
+        int tasks = 100;
+        VirtualThreadTaskExecutor executor = new VirtualThreadTaskExecutor(maxConcurrency);
+        executor.setThreadNamePrefix("VirtualTest-");
+        executor.initialize();
+
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(tasks);
+        for (int i = 0; i < tasks; i++) {
+            executor.execute(() -> {
+                int current = running.incrementAndGet();
+                maxRunning.accumulateAndGet(current, Math::max);
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+                latch.countDown();
+            });
+        }
+
+        Assertions.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        Assertions.assertTrue(maxRunning.get() <= maxConcurrency);
+        executor.shutdown();
+    }
+
+    @Test
+    public void testInitializationFailsWithoutVirtualThreads() {
+        Assumptions.assumeFalse(VirtualThreadTaskExecutor.isSupported(), "virtual threads are supported");
+
+        VirtualThreadTaskExecutor executor = new VirtualThreadTaskExecutor(1);
+        Assertions.assertThrows(IllegalStateException.class, executor::initialize);
+    }
+}
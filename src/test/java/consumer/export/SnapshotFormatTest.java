@@ -0,0 +1,102 @@
+package consumer.export;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import consumer.model.Comment;
+import consumer.model.Data;
+import consumer.model.Story;
+
+public class SnapshotFormatTest {
+
+    @Test
+    public void testNdjsonIsReadAsData() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (SnapshotWriter writer = SnapshotFormat.NDJSON.open(output, Comment.class, 0)) {
+            writer.write(comment(2L, "Nice \"quote\"\n<p>Привет", Arrays.asList(5L, 3L)));
+            writer.write(comment(3L, null, null));
+        }
+
+        List<String> lines;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new ByteArrayInputStream(output.toByteArray())), StandardCharsets.UTF_8))) {
+            lines = reader.lines().collect(Collectors.toList());
+        }
+        Assertions.assertEquals(2, lines.size());
+        ObjectMapper mapper = new ObjectMapper();
+        Comment first = mapper.readValue(lines.get(0), Data.class).convertToComment();
+        Assertions.assertEquals(Long.valueOf(2L), first.getExternalId());
+        Assertions.assertEquals("Nice \"quote\"\n<p>Привет", first.getText());
+        Assertions.assertEquals(Arrays.asList(5L, 3L), first.getKids());
+        Assertions.assertEquals(new Date(1600000002000L), first.getDate());
+        Assertions.assertEquals(Data.Type.COMMENT, mapper.readValue(lines.get(1), Data.class).getType());
+        Assertions.assertNull(mapper.readValue(lines.get(1), Data.class).getText());
+    }
+
+    @Test
+    public void testColumnarIsReadBack() throws IOException {
+        List<Story> stories = new ArrayList<>();
+        for (long id = 1; id <= 1000; id++) {
+            Story story = new Story();
+            story.setExternalId(id * 7);
+            story.setTitle(id % 3 == 0 ? null : "Story " + id);
+            story.setScore((int) (id % 100) - 50);
+            story.setDate(new Date(1600000000000L + id));
+            story.setKids(id % 5 == 0 ? Collections.emptyList() : Arrays.asList(id * 7 + 2, id * 7 + 1));
+            stories.add(story);
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        // several groups of rows, the last one partial
+        try (SnapshotWriter writer = SnapshotFormat.COLUMNAR.open(output, Story.class, 300)) {
+            for (Story story : stories) {
+                writer.write(story);
+            }
+        }
+
+        try (ColumnarSnapshotReader reader = new ColumnarSnapshotReader(new ByteArrayInputStream(output.toByteArray()))) {
+            Assertions.assertArrayEquals(ColumnarSnapshotWriter.STORY_COLUMNS, reader.getColumnNames());
+            for (Story story : stories) {
+                Object[] row = reader.next();
+                Assertions.assertEquals(story.getExternalId(), row[0]);
+                Assertions.assertNull(row[1]);
+                Assertions.assertEquals(story.getDate().getTime(), row[2]);
+                Assertions.assertEquals(story.getTitle(), row[3]);
+                Assertions.assertEquals(story.getScore().longValue(), row[5]);
+                Assertions.assertEquals(story.getKids(), row[7]);
+            }
+            Assertions.assertNull(reader.next());
+        }
+    }
+
+    @Test
+    public void testColumnsAreCheckedAgainstEntity() throws IOException {
+        SnapshotWriter writer = SnapshotFormat.COLUMNAR.open(new ByteArrayOutputStream(), Comment.class, 10);
+        Assertions.assertThrows(IllegalStateException.class, () -> writer.write(new Story()));
+    }
+
+    private static Comment comment(long externalId, String text, List<Long> kids) {
+        Comment comment = new Comment();
+        comment.setExternalId(externalId);
+        comment.setParentExternalId(1L);
+        comment.setText(text);
+        comment.setKids(kids);
+        comment.setDate(new Date(1600000000000L + externalId * 1000));
+        return comment;
+    }
+}
@@ -0,0 +1,67 @@
+package consumer.jfr;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import jdk.jfr.Recording;
+
+public class PipelineTraceAnalyzerTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testStagesAndSlowestItemsAreReported() throws Exception {
+        Path file = dir.resolve("consume.jfr");
+        try (Recording recording = new Recording()) {
+            for (String name : PipelineTraceAnalyzer.STAGES) {
+                recording.enable(name).withoutThreshold();
+            }
+            recording.start();
+
+            fetch(1L, 0);
+            fetch(2L, 50);
+            BrokerWaitEvent.received(2L, "COMMENT", System.currentTimeMillis() - 100);
+            PersistEvent persistEvent = new PersistEvent();
+            persistEvent.begin();
+            Thread.sleep(20);
+            persistEvent.commit("COMMENT", Arrays.asList(1L, 2L), Function.identity());
+
+            recording.stop();
+            recording.dump(file);
+        }
+        Assertions.assertTrue(Files.size(file) > 0);
+
+        PipelineTraceAnalyzer analyzer = new PipelineTraceAnalyzer();
+        analyzer.read(file);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        analyzer.print(new PrintStream(output, true, "UTF-8"), 1);
+        String[] lines = output.toString("UTF-8").split("\\R");
+
+        Assertions.assertTrue(lines[2].matches("Fetch\\s+2\\s.*"), lines[2]);
+        Assertions.assertTrue(lines[4].matches("BrokerWait\\s+1\\s.*"), lines[4]);
+        Assertions.assertTrue(lines[5].matches("Persist\\s+1\\s.*"), lines[5]);
+        Assertions.assertEquals("Slowest 1 item(s):", lines[7]);
+        // the item which took longer both to fetch and in the queue
+        Assertions.assertTrue(lines[9].trim().startsWith("2 COMMENT"), lines[9]);
+        // the time of the batch is attributed to its items
+        String[] columns = lines[9].trim().split("\\s+");
+        Assertions.assertEquals(PipelineTraceAnalyzer.STAGES.size() + 3, columns.length, lines[9]);
+        Assertions.assertTrue(Double.parseDouble(columns[columns.length - 1]) >= 20, lines[9]);
+    }
+
+    private static void fetch(long id, long millis) throws InterruptedException {
+        FetchEvent event = new FetchEvent();
+        event.begin();
+        Thread.sleep(millis);
+        event.commit(id, "COMMENT");
+    }
+}
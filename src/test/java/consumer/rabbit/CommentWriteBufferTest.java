@@ -0,0 +1,87 @@
+package consumer.rabbit;
+
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import consumer.model.Comment;
+import consumer.repository.CommentRepository;
+
+public class CommentWriteBufferTest {
+
+    private CommentRepository commentRepository;
+
+    @BeforeEach
+    public void init() {
+        commentRepository = Mockito.mock(CommentRepository.class);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testCommentsAreCoalescedByExternalId() throws Exception {
+        CommentWriteBuffer buffer = new CommentWriteBuffer(commentRepository, null, 100, Long.MAX_VALUE, 60_000);
+
+        buffer.add(Arrays.asList(createComment(1L, "first"), createComment(2L, "first")));
+        buffer.add(Arrays.asList(createComment(1L, "second"), createComment(3L, "first")));
+        verify(commentRepository, never()).saveAll(anyList());
+        Assertions.assertEquals(3, buffer.getPendingCount());
+
+        buffer.destroy();
+
+        ArgumentCaptor<List<Comment>> captor = ArgumentCaptor.forClass(List.class);
+        verify(commentRepository).saveAll(captor.capture());
+        List<Comment> saved = captor.getValue();
+        Assertions.assertEquals(3, saved.size());
+        Assertions.assertEquals(1L, saved.get(0).getExternalId());
+        Assertions.assertEquals("second", saved.get(0).getText());
+        Assertions.assertEquals(0, buffer.getPendingCount());
+    }
+
+    @Test
+    public void testBufferIsFlushedOnSizeThreshold() throws Exception {
+        CommentWriteBuffer buffer = new CommentWriteBuffer(commentRepository, null, 2, Long.MAX_VALUE, 60_000);
+
+        buffer.add(Arrays.asList(createComment(1L, "text"), createComment(2L, "text")));
+        verify(commentRepository, times(1)).saveAll(anyList());
+        Assertions.assertEquals(0, buffer.getPendingCount());
+
+        buffer.destroy();
+    }
+
+    @Test
+    public void testBufferIsFlushedOnAgeThreshold() throws Exception {
+        CommentWriteBuffer buffer = new CommentWriteBuffer(commentRepository, null, 100, Long.MAX_VALUE, 10);
+
+        buffer.add(Arrays.asList(createComment(1L, "text")));
+        verify(commentRepository, Mockito.timeout(5000)).saveAll(anyList());
+
+        buffer.destroy();
+    }
+
+    @Test
+    public void testCommentsAreKeptWhenFlushFails() throws Exception {
+        CommentWriteBuffer buffer = new CommentWriteBuffer(commentRepository, null, 100, Long.MAX_VALUE, 60_000);
+        Mockito.when(commentRepository.saveAll(anyList())).thenThrow(new IllegalStateException("DB is down"));
+
+        buffer.add(Arrays.asList(createComment(1L, "text"), createComment(2L, "text")));
+        Assertions.assertThrows(IllegalStateException.class, buffer::flush);
+        Assertions.assertEquals(2, buffer.getPendingCount());
+    }
+
+    private Comment createComment(Long externalId, String text) {
+        Comment comment = new Comment();
+        comment.setExternalId(externalId);
+        comment.setText(text);
+        return comment;
+    }
+}
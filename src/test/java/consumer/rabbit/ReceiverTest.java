@@ -1,21 +1,28 @@
 package consumer.rabbit;
 
 import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
+import org.springframework.amqp.rabbit.listener.MethodRabbitListenerEndpoint;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistrar;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.TestConfiguration;
 import org.springframework.context.annotation.Bean;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
+import consumer.config.CommentSharding;
 import consumer.model.Comment;
 import consumer.model.Story;
 import consumer.repository.CommentRepository;
@@ -60,6 +67,40 @@ public class ReceiverTest {
         verify(storyRepository).saveAll(stories);
     }
 
+    @Test
+    public void testPersistListenersAreNotified() {
+        PersistListener listener = Mockito.mock(PersistListener.class);
+        Receiver receiverWithListener = new Receiver(commentRepository, storyRepository, null,
+                Collections.singletonList(listener), new CommentSharding(1), null);
+        List<Comment> comments = Arrays.asList(createComment(1L), createComment(2L));
+        List<Story> stories = Arrays.asList(createStory(3L));
+
+        receiverWithListener.processComments(comments);
+        receiverWithListener.processStories(stories);
+
+        verify(listener).onCommentsPersisted(comments);
+        verify(listener).onStoriesPersisted(stories);
+    }
+
+    @Test
+    public void testListenerIsRegisteredPerCommentShard() {
+        Receiver shardedReceiver = new Receiver(commentRepository, storyRepository, null, Collections.emptyList(),
+                new CommentSharding(3), null);
+        RabbitListenerEndpointRegistrar registrar = Mockito.mock(RabbitListenerEndpointRegistrar.class);
+
+        shardedReceiver.configureRabbitListeners(registrar);
+
+        ArgumentCaptor<MethodRabbitListenerEndpoint> captor = ArgumentCaptor.forClass(MethodRabbitListenerEndpoint.class);
+        verify(registrar, times(3)).registerEndpoint(captor.capture());
+        List<MethodRabbitListenerEndpoint> endpoints = captor.getAllValues();
+        for (int shard = 0; shard < 3; shard++) {
+            MethodRabbitListenerEndpoint endpoint = endpoints.get(shard);
+            Assertions.assertEquals(Collections.singletonList("queue.comment." + shard), endpoint.getQueueNames());
+            Assertions.assertTrue(endpoint.isBatchListener());
+            Assertions.assertEquals("1", endpoint.getConcurrency());
+        }
+    }
+
     private Comment createComment(Long externalId) {
         Comment comment = new Comment();
         comment.setExternalId(externalId);
@@ -87,7 +128,8 @@ public class ReceiverTest {
 
         @Bean
         public Receiver receiver(CommentRepository commentRepository, StoryRepository storyRepository) {
-            return new Receiver(commentRepository, storyRepository);
+            return new Receiver(commentRepository, storyRepository, null, Collections.emptyList(),
+                    new CommentSharding(1), null);
         }
     }
 }
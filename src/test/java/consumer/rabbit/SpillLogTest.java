@@ -0,0 +1,109 @@
+package consumer.rabbit;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class SpillLogTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testMessagesAreReadInOrderUntilCommitted() throws Exception {
+        try (SpillLog spillLog = new SpillLog(dir, 1024)) {
+            Assertions.assertTrue(spillLog.isEmpty());
+            spillLog.append("story", bytes("1"));
+            spillLog.append("comment", bytes("2"));
+            spillLog.append("comment", bytes("3"));
+            Assertions.assertFalse(spillLog.isEmpty());
+
+            SpillLog.Batch batch = spillLog.poll(2);
+            Assertions.assertEquals(2, batch.getMessages().size());
+            Assertions.assertEquals("story", batch.getMessages().get(0).getRoutingKey());
+            Assertions.assertEquals("1", string(batch.getMessages().get(0).getBody()));
+            Assertions.assertEquals("2", string(batch.getMessages().get(1).getBody()));
+
+            // not committed, so the same messages are read again
+            Assertions.assertEquals("1", string(spillLog.poll(2).getMessages().get(0).getBody()));
+
+            spillLog.commit(batch.getNext());
+            SpillLog.Batch rest = spillLog.poll(10);
+            Assertions.assertEquals(1, rest.getMessages().size());
+            Assertions.assertEquals("3", string(rest.getMessages().get(0).getBody()));
+            spillLog.commit(rest.getNext());
+            Assertions.assertTrue(spillLog.isEmpty());
+        }
+    }
+
+    @Test
+    public void testSegmentsAreRotatedAndDeletedOnceRead() throws Exception {
+        try (SpillLog spillLog = new SpillLog(dir, 64)) {
+            for (int i = 0; i < 10; i++) {
+                spillLog.append("comment", bytes("message-" + i));
+            }
+            Assertions.assertTrue(spillLog.getSegmentCount() > 1);
+
+            SpillLog.Batch batch = spillLog.poll(100);
+            Assertions.assertEquals(10, batch.getMessages().size());
+            Assertions.assertEquals("message-9", string(batch.getMessages().get(9).getBody()));
+
+            spillLog.commit(batch.getNext());
+            Assertions.assertEquals(1, spillLog.getSegmentCount());
+            Assertions.assertEquals(1, segmentFiles().size());
+        }
+    }
+
+    @Test
+    public void testUncommittedMessagesAreRecoveredAndTornRecordIsDiscarded() throws Exception {
+        try (SpillLog spillLog = new SpillLog(dir, 1024)) {
+            spillLog.append("story", bytes("1"));
+            spillLog.append("story", bytes("2"));
+            spillLog.commit(spillLog.poll(1).getNext());
+        }
+
+        // simulate a crash in the middle of writing a record: the length is written, but the payload does not match
+        // the CRC
+        Path segment = segmentFiles().get(0);
+        int end = 2 * (8 + 2 + "story".length() + 1);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write((ByteBuffer) ByteBuffer.allocate(12).putInt(4).putInt(42).putInt(7).flip(), end);
+        }
+
+        try (SpillLog spillLog = new SpillLog(dir, 1024)) {
+            SpillLog.Batch batch = spillLog.poll(10);
+            Assertions.assertEquals(1, batch.getMessages().size());
+            Assertions.assertEquals("2", string(batch.getMessages().get(0).getBody()));
+
+            // the torn record is overwritten by the next one
+            spillLog.append("comment", bytes("3"));
+            List<SpillLog.Message> messages = spillLog.poll(10).getMessages();
+            Assertions.assertEquals(2, messages.size());
+            Assertions.assertEquals("3", string(messages.get(1).getBody()));
+        }
+    }
+
+    private List<Path> segmentFiles() throws Exception {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".log")).collect(Collectors.toList());
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(byte[] value) {
+        return new String(value, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,68 @@
+package consumer.rabbit;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+import org.springframework.amqp.AmqpConnectException;
+import org.springframework.amqp.rabbit.core.RabbitOperations;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+
+public class SpillingSenderTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testEntitiesAreSpilledWhileBrokerIsUnavailableAndReplayedLater() throws Exception {
+        RabbitTemplate rabbitTemplate = Mockito.mock(RabbitTemplate.class);
+        doAnswer(invocation -> invocation.<RabbitOperations.OperationsCallback<?>>getArgument(0)
+                .doInRabbit(rabbitTemplate))
+                .when(rabbitTemplate).invoke(any());
+        doThrow(new AmqpConnectException(new RuntimeException("Connection refused")))
+                .when(rabbitTemplate).convertAndSend(anyString(), anyString(), any(Object.class));
+
+        // the drainer is effectively disabled, so the log is drained explicitly
+        SpillingSender sender = new SpillingSender(rabbitTemplate, "exchange", new SpillLog(dir, 1024), 10,
+                3_600_000);
+        try {
+            sender.send("story", 1L);
+            sender.send("comment", 2L);
+            Assertions.assertEquals(2, sender.getSpilledCount());
+            // once a send fails, the entities are spilled without trying the broker
+            verify(rabbitTemplate, times(1)).convertAndSend(anyString(), anyString(), any(Object.class));
+
+            // the broker is still unavailable
+            Assertions.assertEquals(0, sender.drain());
+
+            Mockito.reset(rabbitTemplate);
+            doAnswer(invocation -> invocation.<RabbitOperations.OperationsCallback<?>>getArgument(0)
+                    .doInRabbit(rabbitTemplate))
+                    .when(rabbitTemplate).invoke(any());
+            doNothing().when(rabbitTemplate).convertAndSend(anyString(), anyString(), any(Object.class));
+
+            Assertions.assertEquals(2, sender.drain());
+            verify(rabbitTemplate).convertAndSend(eq("exchange"), eq("story"), eq((Object) 1L));
+            verify(rabbitTemplate).convertAndSend(eq("exchange"), eq("comment"), eq((Object) 2L));
+            Assertions.assertEquals(2, sender.getReplayedCount());
+
+            // the log is drained, so the entities are sent directly again
+            sender.send("story", 3L);
+            verify(rabbitTemplate).convertAndSend(eq("exchange"), eq("story"), eq((Object) 3L));
+            Assertions.assertEquals(2, sender.getSpilledCount());
+        } finally {
+            sender.destroy();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package consumer.repository;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import consumer.model.Comment;
+
+public class CommentTextCompressionTest {
+
+    private static final String TEXT = "I don&#x27;t think that&#x27;s true. The problem is that most people don&#x27;t"
+            + " actually read the terms, they just click accept.<p>See <a href=\"https:&#x2F;&#x2F;github.com&#x2F;"
+            + "example&#x2F;repo\" rel=\"nofollow\">https:&#x2F;&#x2F;github.com&#x2F;example&#x2F;repo</a>";
+
+    @Test
+    public void testTextIsRestored() {
+        Assertions.assertEquals(TEXT, CommentTextCodec.decompress(CommentTextCodec.compress(TEXT)));
+        Assertions.assertEquals("", CommentTextCodec.decompress(CommentTextCodec.compress("")));
+        String unicode = "Привет, 世界! 👋 <p>¿Qué tal?";
+        Assertions.assertEquals(unicode, CommentTextCodec.decompress(CommentTextCodec.compress(unicode)));
+
+        // long texts, of which length takes several bytes
+        StringBuilder builder = new StringBuilder();
+        Random random = new Random(42);
+        while (builder.length() < 100000) {
+            builder.append(random.nextInt(1000)).append(random.nextBoolean() ? " " : "<p>");
+        }
+        String large = builder.toString();
+        Assertions.assertEquals(large, CommentTextCodec.decompress(CommentTextCodec.compress(large)));
+
+        // the markup and the words of the dictionary are compressed well even in short texts
+        int length = TEXT.getBytes(StandardCharsets.UTF_8).length;
+        Assertions.assertTrue(CommentTextCodec.compress(TEXT).length * 2 < length);
+    }
+
+    @Test
+    public void testUnknownVersionIsRejected() {
+        byte[] compressed = CommentTextCodec.compress(TEXT);
+        compressed[0] = 2;
+        Assertions.assertThrows(IllegalArgumentException.class, () -> CommentTextCodec.decompress(compressed));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> CommentTextCodec.decompress(new byte[0]));
+    }
+
+    @Test
+    public void testLongTextsAreStoredCompressed() {
+        CommentTextCompression compression = new CommentTextCompression(true, 100);
+        Comment comment = new Comment();
+        comment.setText(TEXT);
+        Document document = new Document("externalId", 1L).append("text", TEXT);
+
+        Assertions.assertSame(comment, compression.onBeforeSave(comment, document, "comment"));
+        Assertions.assertFalse(document.containsKey("text"));
+        Assertions.assertTrue(document.get(CommentTextCompression.COMPRESSED_TEXT) instanceof Binary);
+        // the entity itself is not changed
+        Assertions.assertEquals(TEXT, comment.getText());
+
+        Comment read = new Comment();
+        compression.onAfterConvert(read, document, "comment");
+        Assertions.assertEquals(TEXT, read.getText());
+
+        Document shortText = new Document("text", "Agreed.");
+        compression.onBeforeSave(comment, shortText, "comment");
+        Assertions.assertEquals("Agreed.", shortText.get("text"));
+        Assertions.assertFalse(shortText.containsKey(CommentTextCompression.COMPRESSED_TEXT));
+    }
+
+    @Test
+    public void testCompressedTextsAreReadWhenDisabled() {
+        Document document = new Document("text", TEXT);
+        new CommentTextCompression(true, 0).onBeforeSave(new Comment(), document, "comment");
+
+        CommentTextCompression disabled = new CommentTextCompression(false, 0);
+        Comment read = new Comment();
+        disabled.onAfterConvert(read, document, "comment");
+        Assertions.assertEquals(TEXT, read.getText());
+
+        Document raw = new Document("text", TEXT);
+        disabled.onBeforeSave(new Comment(), raw, "comment");
+        Assertions.assertEquals(TEXT, raw.get("text"));
+    }
+}
@@ -0,0 +1,127 @@
+package consumer.repository;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.query.Query;
+
+import consumer.model.Comment;
+import consumer.model.Story;
+
+public class TimePartitionsTest {
+
+    private static final Date MAY = Date.from(Instant.parse("2024-05-31T23:59:00Z"));
+    private static final Date JUNE = Date.from(Instant.parse("2024-06-01T00:01:00Z"));
+
+    @Test
+    public void testEntitiesAreWrittenToPartitionOfTheirMonth() {
+        MongoTemplate mongoTemplate = mongoTemplate();
+        TimePartitions partitions = new TimePartitions(mongoTemplate, TimeUnit.DAYS.toMillis(30));
+        partitions.afterPropertiesSet();
+
+        Assertions.assertEquals("comment_202405", partitions.collectionOf(Comment.class, MAY));
+        Assertions.assertEquals("comment_202406", partitions.collectionOf(Comment.class, JUNE));
+        Assertions.assertEquals("story", partitions.collectionOf(Story.class, null));
+
+        partitions.insert(Arrays.asList(story(100L, MAY), comment(101L, MAY), comment(102L, JUNE)));
+
+        verify(mongoTemplate).insert(argThat(stories -> stories.size() == 1), eq("story_202405"));
+        verify(mongoTemplate).insert(argThat(comments -> comments.size() == 1), eq("comment_202405"));
+        verify(mongoTemplate).insert(argThat(comments -> comments.size() == 1), eq("comment_202406"));
+        // the indexes are created on the new partitions
+        verify(mongoTemplate).indexOps("comment_202406");
+        Assertions.assertEquals(Arrays.asList("comment", "comment_202405", "comment_202406"),
+                partitions.collections(Comment.class));
+    }
+
+    @Test
+    public void testReadsArePrunedByRangesOfIds() {
+        MongoTemplate mongoTemplate = mongoTemplate();
+        when(mongoTemplate.getCollectionNames()).thenReturn(new HashSet<>(Arrays.asList("comment", "comment_202405",
+                "comment_202406", "comment_backup", "story", "story_202405")));
+        // the ranges are loaded with the lowest and the highest externalIds of each partition
+        when(mongoTemplate.findOne(any(Query.class), eq(Document.class), eq("comment")))
+                .thenReturn(new Document("externalId", 1L), new Document("externalId", 50L));
+        when(mongoTemplate.findOne(any(Query.class), eq(Document.class), eq("comment_202405")))
+                .thenReturn(new Document("externalId", 101L), new Document("externalId", 200L));
+        when(mongoTemplate.findOne(any(Query.class), eq(Document.class), eq("story_202405")))
+                .thenReturn(new Document("externalId", 100L), new Document("externalId", 199L));
+        TimePartitions partitions = new TimePartitions(mongoTemplate, TimeUnit.DAYS.toMillis(30));
+        partitions.afterPropertiesSet();
+
+        Assertions.assertEquals(Arrays.asList("comment", "comment_202405", "comment_202406"),
+                TimePartitions.collectionNames(mongoTemplate, Comment.class));
+        Assertions.assertEquals(Collections.singletonList("comment"), partitions.collectionsOf(Comment.class, 10L));
+        Assertions.assertEquals(Collections.singletonList("comment_202405"),
+                partitions.collectionsOf(Comment.class, 150L));
+        Assertions.assertEquals(Collections.emptyList(), partitions.collectionsOf(Comment.class, 300L));
+        Assertions.assertEquals(Collections.singletonList("story_202405"), partitions.collectionsOf(Story.class, 150L));
+
+        // the range is extended before the comment is written
+        partitions.insert(Collections.singletonList(comment(300L, JUNE)));
+        Assertions.assertEquals(Collections.singletonList("comment_202406"),
+                partitions.collectionsOf(Comment.class, 300L));
+    }
+
+    @Test
+    public void testThreadIsLookedUpInMonthsAfterStory() {
+        MongoTemplate mongoTemplate = mongoTemplate();
+        TimePartitions partitions = new TimePartitions(mongoTemplate, TimeUnit.DAYS.toMillis(30));
+        partitions.afterPropertiesSet();
+        partitions.insert(Arrays.asList(comment(10L, Date.from(Instant.parse("2024-03-01T00:00:00Z"))),
+                comment(101L, MAY), comment(102L, JUNE),
+                comment(103L, Date.from(Instant.parse("2024-07-15T00:00:00Z")))));
+
+        // the comments of a story of May 31 are in May or June
+        Assertions.assertEquals(Arrays.asList("comment_202405", "comment_202406"),
+                partitions.threadCollections(100L, MAY));
+        // the partitions with the comments older than the story only are skipped
+        Assertions.assertEquals(Arrays.asList("comment_202406"), partitions.threadCollections(101L, MAY));
+        // the story is not found
+        Assertions.assertEquals(Arrays.asList("comment_202405", "comment_202406", "comment_202407"),
+                partitions.threadCollections(100L, null));
+    }
+
+    private static MongoTemplate mongoTemplate() {
+        MongoTemplate mongoTemplate = Mockito.mock(MongoTemplate.class);
+        when(mongoTemplate.getCollectionName(Story.class)).thenReturn("story");
+        when(mongoTemplate.getCollectionName(Comment.class)).thenReturn("comment");
+        when(mongoTemplate.getCollectionNames()).thenReturn(new HashSet<>(Arrays.asList("comment", "story")));
+        IndexOperations indexOperations = Mockito.mock(IndexOperations.class);
+        when(mongoTemplate.indexOps(anyString())).thenReturn(indexOperations);
+        when(mongoTemplate.insert(anyList(), anyString())).thenAnswer(invocation -> invocation.getArgument(0));
+        return mongoTemplate;
+    }
+
+    private static Story story(long externalId, Date date) {
+        Story story = new Story();
+        story.setExternalId(externalId);
+        story.setDate(date);
+        return story;
+    }
+
+    private static Comment comment(long externalId, Date date) {
+        Comment comment = new Comment();
+        comment.setExternalId(externalId);
+        comment.setDate(date);
+        return comment;
+    }
+}
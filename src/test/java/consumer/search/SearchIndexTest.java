@@ -0,0 +1,204 @@
+package consumer.search;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+
+import consumer.model.Comment;
+import consumer.model.Data;
+import consumer.model.Story;
+
+public class SearchIndexTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testHitsAreRankedByRelevance() throws Exception {
+        SearchIndex index = new SearchIndex(null, dir, 1000, 10, 4);
+        index.onStoriesPersisted(Arrays.asList(
+                createStory(1L, "Show HN: a search engine in Java"),
+                createStory(2L, "Java 17 is released"),
+                createStory(3L, "Rust for Java developers, a long introduction to the language")));
+        index.onCommentsPersisted(Collections.singletonList(
+                createComment(4L, "<p>I don&#x27;t think <i>Java</i> needs another search engine")));
+
+        List<SearchHit> hits = index.search("java", 10);
+        Assertions.assertEquals(4, hits.size());
+        // the shortest doc containing the term is the most relevant
+        Assertions.assertEquals(2L, hits.get(0).getExternalId());
+        Assertions.assertEquals(Data.Type.STORY, hits.get(0).getType());
+
+        // the docs containing more of the terms are more relevant
+        Assertions.assertEquals(Arrays.asList(1L, 4L), ids(index.search("Search ENGINE", 2)));
+        Assertions.assertEquals(Data.Type.COMMENT, index.search("think", 1).get(0).getType());
+        Assertions.assertTrue(index.search("python", 10).isEmpty());
+        Assertions.assertTrue(index.search("", 10).isEmpty());
+    }
+
+    @Test
+    public void testSegmentsAreSearchedAndRecovered() throws Exception {
+        SearchIndex index = new SearchIndex(null, dir, 1000, 10, 4);
+        index.onStoriesPersisted(Arrays.asList(createStory(1L, "Java streams"), createStory(2L, "Kotlin coroutines")));
+        index.flush();
+        index.onCommentsPersisted(Arrays.asList(createComment(3L, "Java records"), createComment(4L, "Go channels")));
+        Assertions.assertEquals(1, index.getSegmentCount());
+        Assertions.assertEquals(Arrays.asList(1L, 3L), ids(index.search("java", 10)));
+
+        // the story is edited, so its previous version is no longer found
+        index.onStoriesPersisted(Collections.singletonList(createStory(1L, "Scala implicits")));
+        Assertions.assertEquals(Collections.singletonList(3L), ids(index.search("java", 10)));
+        Assertions.assertEquals(Collections.singletonList(1L), ids(index.search("scala", 10)));
+
+        index.destroy();
+        Assertions.assertEquals(2, index.getSegmentCount());
+
+        SearchIndex recovered = new SearchIndex(null, dir, 1000, 10, 4);
+        Assertions.assertEquals(2, recovered.getSegmentCount());
+        Assertions.assertEquals(Collections.singletonList(3L), ids(recovered.search("java", 10)));
+        Assertions.assertEquals(Collections.singletonList(1L), ids(recovered.search("scala", 10)));
+        Assertions.assertEquals(Collections.singletonList(4L), ids(recovered.search("channels", 10)));
+        recovered.destroy();
+    }
+
+    @Test
+    public void testSegmentsAreMerged() throws Exception {
+        SearchIndex index = new SearchIndex(null, dir, 1000, 2, 2);
+        for (long id = 1; id <= 4; id++) {
+            index.onStoriesPersisted(Arrays.asList(createStory(id, "java story " + id),
+                    createStory(id * 100, "kotlin story " + id)));
+            index.flush();
+        }
+        // replaces the story of the first segment
+        index.onStoriesPersisted(Collections.singletonList(createStory(100L, "scala story")));
+        index.flush();
+        Assertions.assertEquals(5, index.getSegmentCount());
+        List<Long> javaIds = ids(index.search("java", 10));
+        List<Long> storyIds = ids(index.search("story", 10));
+
+        index.merge();
+
+        Assertions.assertEquals(2, index.getSegmentCount());
+        Assertions.assertEquals(javaIds, ids(index.search("java", 10)));
+        Assertions.assertEquals(storyIds, ids(index.search("story", 10)));
+        Assertions.assertEquals(Arrays.asList(200L, 300L, 400L), ids(index.search("kotlin", 10)));
+        Assertions.assertEquals(Collections.singletonList(100L), ids(index.search("scala", 10)));
+        // the replaced version is dropped
+        Assertions.assertEquals(8, index.getDocCount());
+        index.destroy();
+
+        SearchIndex recovered = new SearchIndex(null, dir, 1000, 2, 2);
+        Assertions.assertEquals(2, recovered.getSegmentCount());
+        Assertions.assertEquals(javaIds, ids(recovered.search("java", 10)));
+        recovered.destroy();
+    }
+
+    @Test
+    public void testUnfinishedBuildIsResumedAndLiveUpdatesWin() throws Exception {
+        // the index is not built, e.g. the application is stopped while building it
+        SearchIndex partial = new SearchIndex(null, dir, 1000, 10, 4);
+        partial.onStoriesPersisted(Collections.singletonList(createStory(3L, "Java modules")));
+        partial.destroy();
+
+        MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+        SearchIndex index = new SearchIndex(mongoTemplate, dir, 1000, 10, 4);
+        Assertions.assertFalse(index.isBuilt());
+        when(mongoTemplate.getCollectionName(Story.class)).thenReturn("story");
+        when(mongoTemplate.getCollectionName(Comment.class)).thenReturn("comment");
+        when(mongoTemplate.getCollectionNames()).thenReturn(Collections.emptySet());
+        Iterator<Story> stories = Arrays.asList(createStory(1L, "Java generics"), createStory(2L, "Go generics"))
+                .iterator();
+        when(mongoTemplate.stream(any(Query.class), eq(Story.class), eq("story"))).thenReturn(
+                new CloseableIterator<Story>() {
+                    @Override
+                    public boolean hasNext() {
+                        return stories.hasNext();
+                    }
+
+                    @Override
+                    public Story next() {
+                        Story story = stories.next();
+                        if (story.getExternalId() == 1L) {
+                            // the story is edited while the build has the previous version
+                            index.onStoriesPersisted(Collections.singletonList(createStory(1L, "Scala implicits")));
+                        }
+                        return story;
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+                });
+        when(mongoTemplate.stream(any(Query.class), eq(Comment.class), eq("comment")))
+                .thenReturn(emptyIterator());
+
+        index.afterPropertiesSet();
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!index.isBuilt() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        Assertions.assertTrue(index.isBuilt());
+        Assertions.assertEquals(Collections.singletonList(1L), ids(index.search("scala", 10)));
+        Assertions.assertEquals(Collections.singletonList(2L), ids(index.search("generics", 10)));
+        Assertions.assertEquals(Collections.singletonList(3L), ids(index.search("java", 10)));
+        index.destroy();
+
+        // the index is not built again
+        SearchIndex recovered = new SearchIndex(null, dir, 1000, 10, 4);
+        Assertions.assertTrue(recovered.isBuilt());
+        recovered.destroy();
+    }
+
+    private static <T> CloseableIterator<T> emptyIterator() {
+        return new CloseableIterator<T>() {
+            @Override
+            public boolean hasNext() {
+                return false;
+            }
+
+            @Override
+            public T next() {
+                throw new NoSuchElementException();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    private static List<Long> ids(List<SearchHit> hits) {
+        return hits.stream().map(SearchHit::getExternalId).collect(Collectors.toList());
+    }
+
+    private static Story createStory(Long externalId, String title) {
+        Story story = new Story();
+        story.setExternalId(externalId);
+        story.setTitle(title);
+        return story;
+    }
+
+    private static Comment createComment(Long externalId, String text) {
+        Comment comment = new Comment();
+        comment.setExternalId(externalId);
+        comment.setText(text);
+        return comment;
+    }
+}
@@ -74,7 +74,7 @@ public class ClientTest {
 
         @Bean
         public Client client(RestTemplate restTemplate) {
-            return new Client(restTemplate);
+            return new Client(restTemplate, (RequestHedger) null);
         }
     }
 }
@@ -0,0 +1,220 @@
+package consumer.service;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import consumer.model.Comment;
+import consumer.model.Story;
+
+public class CommentTopicsTest {
+
+    private final MongoTemplate mongoTemplate = Mockito.mock(MongoTemplate.class);
+    private final ExecutorService senders = Executors.newSingleThreadExecutor();
+
+    @AfterEach
+    public void tearDown() {
+        senders.shutdownNow();
+    }
+
+    @Test
+    public void testCommentsArePushedToSubscribersOfTheirStory() throws Exception {
+        CommentTopics topics = new CommentTopics(new ThreadResolver(mongoTemplate, 100), senders, 100, 10, 5000);
+        // resolution is skipped while there are no subscribers
+        topics.onCommentsPersisted(Collections.singletonList(comment(2L, 1L)));
+        verify(mongoTemplate, never()).findOne(any(Query.class), eq(Document.class), anyString());
+
+        List<Long> received = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch latch = new CountDownLatch(2);
+        topics.subscribe(1L, new CommentTopics.Sink() {
+            @Override
+            public void send(List<Comment> comments) {
+                for (Comment comment : comments) {
+                    received.add(comment.getExternalId());
+                    latch.countDown();
+                }
+            }
+
+            @Override
+            public void evicted() {
+            }
+
+            @Override
+            public void timedOut() {
+            }
+        });
+        Story story = new Story();
+        story.setExternalId(1L);
+        topics.onStoriesPersisted(Collections.singletonList(story));
+        Story other = new Story();
+        other.setExternalId(10L);
+        topics.onStoriesPersisted(Collections.singletonList(other));
+        topics.onCommentsPersisted(Arrays.asList(comment(3L, 2L), comment(2L, 1L), comment(11L, 10L)));
+
+        Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        received.sort(null);
+        Assertions.assertEquals(Arrays.asList(2L, 3L), received);
+    }
+
+    @Test
+    public void testSlowSubscriberIsEvicted() throws Exception {
+        // a sender thread is available to report the eviction, though it is not to while the send is in progress
+        ExecutorService senders = Executors.newFixedThreadPool(2);
+        CommentTopics topics = new CommentTopics(new ThreadResolver(mongoTemplate, 100), senders, 2, 10, 5000);
+        try {
+            assertSlowSubscriberIsEvicted(topics);
+        } finally {
+            topics.destroy();
+        }
+    }
+
+    private void assertSlowSubscriberIsEvicted(CommentTopics topics) throws Exception {
+        CountDownLatch sending = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch evicted = new CountDownLatch(1);
+        topics.subscribe(1L, new CommentTopics.Sink() {
+            @Override
+            public void send(List<Comment> comments) throws IOException {
+                sending.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+
+            @Override
+            public void evicted() {
+                evicted.countDown();
+            }
+
+            @Override
+            public void timedOut() {
+            }
+        });
+        Story story = new Story();
+        story.setExternalId(1L);
+        topics.onStoriesPersisted(Collections.singletonList(story));
+
+        topics.onCommentsPersisted(Collections.singletonList(comment(2L, 1L)));
+        Assertions.assertTrue(sending.await(5, TimeUnit.SECONDS));
+        // the subscriber is blocked, so its buffer fills up
+        topics.onCommentsPersisted(Arrays.asList(comment(3L, 1L), comment(4L, 1L), comment(5L, 1L)));
+        Assertions.assertEquals(0, topics.getSubscriptionCount());
+        // the eviction is reported once the send is done
+        Assertions.assertFalse(evicted.await(200, TimeUnit.MILLISECONDS));
+        release.countDown();
+        Assertions.assertTrue(evicted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testStalledSubscriberIsEvictedAndDoesNotBlockOthers() throws Exception {
+        CommentTopics topics = new CommentTopics(new ThreadResolver(mongoTemplate, 100), senders, 100, 10, 100);
+        CountDownLatch evicted = new CountDownLatch(1);
+        AtomicBoolean sentEvicted = new AtomicBoolean();
+        topics.subscribe(1L, new CommentTopics.Sink() {
+            @Override
+            public void send(List<Comment> comments) throws IOException {
+                try {
+                    // the client does not read the stream
+                    Thread.sleep(60_000);
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+
+            @Override
+            public void evicted() {
+                sentEvicted.set(true);
+            }
+
+            @Override
+            public void timedOut() {
+                evicted.countDown();
+            }
+        });
+        CountDownLatch received = new CountDownLatch(1);
+        topics.subscribe(10L, new CommentTopics.Sink() {
+            @Override
+            public void send(List<Comment> comments) {
+                received.countDown();
+            }
+
+            @Override
+            public void evicted() {
+            }
+
+            @Override
+            public void timedOut() {
+            }
+        });
+        Story story = new Story();
+        story.setExternalId(1L);
+        Story other = new Story();
+        other.setExternalId(10L);
+        topics.onStoriesPersisted(Arrays.asList(story, other));
+
+        topics.onCommentsPersisted(Collections.singletonList(comment(2L, 1L)));
+        Assertions.assertTrue(evicted.await(5, TimeUnit.SECONDS));
+        // the single sender thread is released
+        topics.onCommentsPersisted(Collections.singletonList(comment(11L, 10L)));
+        Assertions.assertTrue(received.await(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(1, topics.getSubscriptionCount());
+        // nothing is sent to the stalled subscriber
+        Assertions.assertFalse(sentEvicted.get());
+    }
+
+    @Test
+    public void testCommentsPersistedAfterShutdownAreNotPushed() {
+        CommentTopics topics = new CommentTopics(new ThreadResolver(mongoTemplate, 100), senders, 2, 10, 5000);
+        topics.subscribe(1L, Mockito.mock(CommentTopics.Sink.class));
+        Story story = new Story();
+        story.setExternalId(1L);
+        topics.onStoriesPersisted(Collections.singletonList(story));
+        topics.destroy();
+
+        Assertions.assertDoesNotThrow(() -> topics.onCommentsPersisted(Collections.singletonList(comment(2L, 1L))));
+        Assertions.assertEquals(0, topics.getSubscriptionCount());
+    }
+
+    @Test
+    public void testSubscriptionsAreLimited() {
+        CommentTopics topics = new CommentTopics(new ThreadResolver(mongoTemplate, 100), senders, 2, 1, 5000);
+        CommentTopics.Subscription subscription = topics.subscribe(1L, Mockito.mock(CommentTopics.Sink.class));
+        Assertions.assertThrows(IllegalStateException.class,
+                () -> topics.subscribe(2L, Mockito.mock(CommentTopics.Sink.class)));
+        subscription.cancel();
+        subscription.cancel();
+        Assertions.assertEquals(0, topics.getSubscriptionCount());
+        topics.subscribe(2L, Mockito.mock(CommentTopics.Sink.class));
+    }
+
+    private static Comment comment(long externalId, long parentExternalId) {
+        Comment comment = new Comment();
+        comment.setExternalId(externalId);
+        comment.setParentExternalId(parentExternalId);
+        return comment;
+    }
+}
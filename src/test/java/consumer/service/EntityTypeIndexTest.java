@@ -0,0 +1,98 @@
+package consumer.service;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+
+import consumer.model.Comment;
+import consumer.model.Story;
+
+public class EntityTypeIndexTest {
+
+    @Test
+    public void testIndexIsBuiltFromDb() {
+        MongoTemplate mongoTemplate = Mockito.mock(MongoTemplate.class);
+        when(mongoTemplate.getCollectionName(Story.class)).thenReturn("story");
+        when(mongoTemplate.getCollectionName(Comment.class)).thenReturn("comment");
+        when(mongoTemplate.stream(any(Query.class), eq(Document.class), eq("story")))
+                .thenReturn(iterator(Arrays.asList(new Document("externalId", 1L), new Document("externalId", 5_000_000L))));
+        when(mongoTemplate.stream(any(Query.class), eq(Document.class), eq("comment")))
+                .thenReturn(iterator(Collections.singletonList(new Document("externalId", 2L))));
+
+        EntityTypeIndex index = new EntityTypeIndex(mongoTemplate);
+        index.afterPropertiesSet();
+
+        Assertions.assertEquals(EntityTypeIndex.Type.STORY, index.get(1L));
+        Assertions.assertEquals(EntityTypeIndex.Type.COMMENT, index.get(2L));
+        Assertions.assertEquals(EntityTypeIndex.Type.ABSENT, index.get(3L));
+        Assertions.assertEquals(EntityTypeIndex.Type.STORY, index.get(5_000_000L));
+        Assertions.assertEquals(EntityTypeIndex.Type.ABSENT, index.get(900_000_000L));
+        Assertions.assertNull(index.get(Integer.MAX_VALUE + 1L));
+    }
+
+    @Test
+    public void testIndexIsUpdatedOnPersist() {
+        EntityTypeIndex index = createEmptyIndex();
+
+        Comment comment = new Comment();
+        comment.setExternalId(31L);
+        Story story = new Story();
+        story.setExternalId(32L);
+        index.onCommentsPersisted(Collections.singletonList(comment));
+        index.onStoriesPersisted(Collections.singletonList(story));
+
+        Assertions.assertEquals(EntityTypeIndex.Type.ABSENT, index.get(30L));
+        Assertions.assertEquals(EntityTypeIndex.Type.COMMENT, index.get(31L));
+        Assertions.assertEquals(EntityTypeIndex.Type.STORY, index.get(32L));
+        Assertions.assertEquals(EntityTypeIndex.Type.ABSENT, index.get(33L));
+    }
+
+    @Test
+    public void testIndexIsNotUsedWhenNotBuilt() {
+        EntityTypeIndex index = new EntityTypeIndex(Mockito.mock(MongoTemplate.class));
+        index.afterPropertiesSet(); // fails, as the mock returns no iterator
+
+        Assertions.assertNull(index.get(1L));
+    }
+
+    private EntityTypeIndex createEmptyIndex() {
+        MongoTemplate mongoTemplate = Mockito.mock(MongoTemplate.class);
+        when(mongoTemplate.stream(any(Query.class), eq(Document.class), any()))
+                .thenAnswer(invocation -> iterator(Collections.emptyList()));
+        EntityTypeIndex index = new EntityTypeIndex(mongoTemplate);
+        index.afterPropertiesSet();
+        return index;
+    }
+
+    private static CloseableIterator<Document> iterator(List<Document> documents) {
+        Iterator<Document> iterator = documents.iterator();
+        return new CloseableIterator<Document>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public Document next() {
+                return iterator.next();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
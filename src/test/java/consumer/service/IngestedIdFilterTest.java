@@ -0,0 +1,60 @@
+package consumer.service;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.mock.env.MockEnvironment;
+
+import consumer.model.Comment;
+import consumer.model.Story;
+
+public class IngestedIdFilterTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testPersistedIdsAreTracked() {
+        IngestedIdFilter filter = new IngestedIdFilter(Mockito.mock(MongoTemplate.class), new MockEnvironment());
+
+        Story story = new Story();
+        story.setExternalId(1L);
+        Comment comment = new Comment();
+        comment.setExternalId(3L);
+        filter.onStoriesPersisted(Arrays.asList(story));
+        filter.onCommentsPersisted(Arrays.asList(comment));
+
+        Assertions.assertTrue(filter.contains(1L));
+        Assertions.assertFalse(filter.contains(2L));
+        Assertions.assertTrue(filter.contains(3L));
+        Assertions.assertFalse(filter.contains(Integer.MAX_VALUE + 1L));
+        Assertions.assertEquals(2, filter.size());
+    }
+
+    @Test
+    public void testIdsAreSavedAndLoaded() throws Exception {
+        Path file = tempDir.resolve("ids.bin");
+        MockEnvironment env = new MockEnvironment().withProperty("consumer.dedup.file", file.toString());
+
+        IngestedIdFilter filter = new IngestedIdFilter(Mockito.mock(MongoTemplate.class), env);
+        for (long id = 100; id < 100_000; id += 3) {
+            filter.add(id);
+        }
+        filter.destroy();
+        Assertions.assertTrue(Files.exists(file));
+
+        MongoTemplate mongoTemplate = Mockito.mock(MongoTemplate.class);
+        IngestedIdFilter loaded = new IngestedIdFilter(mongoTemplate, env);
+        loaded.afterPropertiesSet();
+        Mockito.verifyNoInteractions(mongoTemplate); // is loaded from the file rather than from the DB
+        Assertions.assertEquals(filter.size(), loaded.size());
+        Assertions.assertTrue(loaded.contains(100L));
+        Assertions.assertFalse(loaded.contains(101L));
+    }
+}
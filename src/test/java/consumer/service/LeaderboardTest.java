@@ -0,0 +1,117 @@
+package consumer.service;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class LeaderboardTest {
+
+    @Test
+    public void testStoriesAreRankedByValue() {
+        Leaderboard leaderboard = new Leaderboard();
+        leaderboard.update(1L, 10, null, "first");
+        leaderboard.update(2L, 30, null, "second");
+        leaderboard.update(3L, 20, null, "third");
+        leaderboard.update(4L, 20, null, "fourth");
+
+        Assertions.assertEquals(listOf(2L, 3L, 4L), ids(leaderboard.top(3)));
+        Assertions.assertEquals("second", leaderboard.top(1).get(0).getTitle());
+        Assertions.assertEquals(4, leaderboard.top(100).size());
+
+        // refreshed values replace the previous ones
+        leaderboard.update(1L, 50, null, "first");
+        leaderboard.update(2L, 5, null, "second");
+        Assertions.assertEquals(listOf(1L, 3L, 4L, 2L), ids(leaderboard.top(10)));
+        Assertions.assertEquals(4, leaderboard.size());
+    }
+
+    @Test
+    public void testTitleChangesAreRanked() {
+        Leaderboard leaderboard = new Leaderboard();
+        leaderboard.update(1L, 10, null, "draft");
+        leaderboard.update(1L, 10, null, "final");
+
+        Assertions.assertEquals("final", leaderboard.top(1).get(0).getTitle());
+    }
+
+    @Test
+    public void testStoriesBelowCutoffAreEvicted() {
+        Leaderboard leaderboard = new Leaderboard(3, 0, Clock.systemUTC());
+        leaderboard.update(1L, 10, null, "first");
+        leaderboard.update(2L, 30, null, "second");
+        leaderboard.update(3L, 20, null, "third");
+        leaderboard.update(4L, 5, null, "below cutoff");
+        Assertions.assertEquals(listOf(2L, 3L, 1L), ids(leaderboard.top(10)));
+
+        // the lowest ranked story is evicted
+        leaderboard.update(5L, 25, null, "fifth");
+        Assertions.assertEquals(listOf(2L, 5L, 3L), ids(leaderboard.top(10)));
+        Assertions.assertEquals(3, leaderboard.size());
+
+        // an evicted story is ranked again once it is updated above the cutoff, while a ranked one stays ranked
+        leaderboard.update(1L, 40, null, "first");
+        leaderboard.update(2L, 1, null, "second");
+        Assertions.assertEquals(listOf(1L, 5L, 2L), ids(leaderboard.top(10)));
+        Assertions.assertEquals(3, leaderboard.size());
+    }
+
+    @Test
+    public void testOnlyStoriesWithinWindowAreRanked() {
+        MutableClock clock = new MutableClock(1_000_000L);
+        Leaderboard leaderboard = new Leaderboard(0, 1000, clock);
+
+        leaderboard.update(1L, 10, new Date(999_500L), "recent");
+        leaderboard.update(2L, 30, new Date(998_000L), "expired");
+        leaderboard.update(3L, 20, new Date(999_900L), "most recent");
+        leaderboard.update(4L, 40, null, "unknown date");
+        Assertions.assertEquals(listOf(3L, 1L), ids(leaderboard.top(10)));
+
+        clock.millis = 1_000_600L;
+        Assertions.assertEquals(listOf(3L), ids(leaderboard.top(10)));
+        Assertions.assertEquals(1, leaderboard.size());
+    }
+
+    private static List<Long> ids(List<Leaderboard.Entry> entries) {
+        return entries.stream().map(Leaderboard.Entry::getExternalId).collect(Collectors.toList());
+    }
+
+    private static List<Long> listOf(Long... ids) {
+        return Arrays.asList(ids);
+    }
+
+    private static class MutableClock extends Clock {
+        private long millis;
+
+        MutableClock(long millis) {
+            this.millis = millis;
+        }
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+
+        @Override
+        public ZoneOffset getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package consumer.service;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class RequestHedgerTest {
+
+    private RequestHedger hedger;
+
+    @AfterEach
+    public void shutdown() {
+        hedger.shutdown();
+    }
+
+    @Test
+    public void testSlowRequestIsHedged() {
+        hedger = new RequestHedger(90, 100, 1);
+        warmUp(hedger);
+
+        long hedgedBefore = hedger.getHedgedCount();
+        long winsBefore = hedger.getHedgeWinCount();
+        AtomicInteger attempts = new AtomicInteger();
+        long start = System.currentTimeMillis();
+        String result = hedger.call(() -> {
+            if (attempts.incrementAndGet() == 1) {
+                sleep(10_000); // straggler, is cancelled
+                return "slow";
+            }
+            return "fast";
+        });
+
+        Assertions.assertEquals("fast", result);
+        Assertions.assertTrue(System.currentTimeMillis() - start < 5_000);
+        Assertions.assertEquals(hedgedBefore + 1, hedger.getHedgedCount());
+        Assertions.assertEquals(winsBefore + 1, hedger.getHedgeWinCount());
+    }
+
+    @Test
+    public void testCallerIsNotHeldByRequestIgnoringInterrupt() {
+        hedger = new RequestHedger(90, 100, 1);
+        warmUp(hedger);
+
+        // e.g. a socket read of HttpURLConnection on a platform thread
+        CountDownLatch responded = new CountDownLatch(1);
+        AtomicInteger attempts = new AtomicInteger();
+        long start = System.currentTimeMillis();
+        try {
+            String result = hedger.call(() -> {
+                if (attempts.incrementAndGet() == 1) {
+                    awaitUninterruptibly(responded, 10_000);
+                    return "slow";
+                }
+                return "fast";
+            });
+
+            Assertions.assertEquals("fast", result);
+            Assertions.assertTrue(System.currentTimeMillis() - start < 5_000);
+        } finally {
+            responded.countDown();
+        }
+    }
+
+    @Test
+    public void testRequestsAreRunByHedger() {
+        hedger = new RequestHedger(90, 100, 1);
+        warmUp(hedger);
+
+        Thread caller = Thread.currentThread();
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        AtomicInteger attempts = new AtomicInteger();
+        String result = hedger.call(() -> {
+            threads.add(Thread.currentThread() == caller ? "caller" : Thread.currentThread().getName());
+            if (attempts.incrementAndGet() == 1) {
+                sleep(10_000);
+                return "slow";
+            }
+            return "fast";
+        });
+
+        Assertions.assertEquals("fast", result);
+        Assertions.assertEquals(2, threads.size());
+        Assertions.assertTrue(threads.stream().anyMatch(name -> name.startsWith("Hedger-request-")));
+        Assertions.assertTrue(threads.stream().anyMatch(name -> name.matches("Hedger-\\d+")));
+        // the interruption of the loser does not leak to the caller
+        Assertions.assertFalse(Thread.currentThread().isInterrupted());
+    }
+
+    @Test
+    public void testHedgingIsLimitedByBudget() {
+        hedger = new RequestHedger(90, 0, 1);
+        warmUp(hedger);
+
+        String result = hedger.call(() -> {
+            sleep(50);
+            return "slow";
+        });
+
+        Assertions.assertEquals("slow", result);
+        Assertions.assertEquals(0, hedger.getHedgedCount());
+    }
+
+    @Test
+    public void testFailureIsPropagated() {
+        hedger = new RequestHedger(90, 100, 1);
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> hedger.call(() -> {
+            throw new IllegalArgumentException("failed");
+        }));
+    }
+
+    // make enough fast requests for the latency percentile to be known
+    private static void warmUp(RequestHedger hedger) {
+        for (int i = 0; i < 200; i++) {
+            hedger.call(() -> "warm-up");
+        }
+        Assertions.assertTrue(hedger.getThresholdMillis() >= 0);
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch, long millis) {
+        long deadline = System.currentTimeMillis() + millis;
+        while (latch.getCount() > 0 && System.currentTimeMillis() < deadline) {
+            try {
+                latch.await(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                // ignored, as by the blocking I/O
+            }
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package consumer.service;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import consumer.model.Comment;
+import consumer.model.Story;
+
+public class StoryDeltaServiceTest {
+
+    private MongoTemplate mongoTemplate;
+    private BulkOperations bulkOperations;
+    private StoryDeltaService storyDeltaService;
+
+    @BeforeEach
+    public void init() {
+        mongoTemplate = Mockito.mock(MongoTemplate.class);
+        bulkOperations = Mockito.mock(BulkOperations.class);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Comment.class)).thenReturn(bulkOperations);
+        when(mongoTemplate.getCollectionName(Comment.class)).thenReturn("comment");
+        storyDeltaService = new StoryDeltaService(mongoTemplate, 100, 10);
+    }
+
+    @Test
+    public void testCommentsAreTaggedWithTheirStory() {
+        Story story = new Story();
+        story.setExternalId(1L);
+        storyDeltaService.onStoriesPersisted(Collections.singletonList(story));
+        verify(bulkOperations, never()).execute();
+
+        // the reply comes before its parent within the batch
+        storyDeltaService.onCommentsPersisted(Arrays.asList(createComment(3L, 2L), createComment(2L, 1L)));
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(bulkOperations).updateMulti(query.capture(), update.capture());
+        verify(bulkOperations).execute();
+        Collection<?> ids = (Collection<?>) ((Document) query.getValue().getQueryObject().get("externalId")).get("$in");
+        Assertions.assertEquals(2, ids.size());
+        Document set = (Document) update.getValue().getUpdateObject().get("$set");
+        Assertions.assertEquals(1L, set.get("storyExternalId"));
+        Assertions.assertNotNull(set.get("ingestedAt"));
+    }
+
+    @Test
+    public void testCommentsAreTaggedOnceTheirParentIsPersisted() {
+        when(mongoTemplate.findOne(any(Query.class), eq(Document.class), eq("comment"))).thenReturn(null);
+        when(mongoTemplate.exists(any(Query.class), eq(Story.class))).thenReturn(false);
+
+        // neither the parent nor the story is persisted yet
+        storyDeltaService.onCommentsPersisted(Collections.singletonList(createComment(3L, 2L)));
+        storyDeltaService.onCommentsPersisted(Collections.singletonList(createComment(2L, 1L)));
+        verify(bulkOperations, never()).execute();
+        Assertions.assertEquals(2, storyDeltaService.getUnresolvedCount());
+
+        Story story = new Story();
+        story.setExternalId(1L);
+        storyDeltaService.onStoriesPersisted(Collections.singletonList(story));
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(bulkOperations).updateMulti(query.capture(), any(Update.class));
+        verify(bulkOperations).execute();
+        Collection<?> ids = (Collection<?>) ((Document) query.getValue().getQueryObject().get("externalId")).get("$in");
+        Assertions.assertEquals(2, ids.size());
+        Assertions.assertEquals(0, storyDeltaService.getUnresolvedCount());
+    }
+
+    @Test
+    public void testTokenIsTheCommittedIngestionTime() {
+        Comment first = createComment(2L, 1L);
+        first.setIngestedAt(new Date(200L));
+        Comment second = createComment(3L, 2L);
+        second.setIngestedAt(new Date(300L));
+        when(mongoTemplate.find(any(Query.class), eq(Comment.class))).thenReturn(Arrays.asList(first, second));
+
+        long before = System.currentTimeMillis();
+        String json = storyDeltaService.getStoryDeltaJson(1L, 100L);
+        long token = Long.parseLong(json.replaceAll(".*\"token\":(\\d+).*", "$1"));
+        Assertions.assertTrue(token >= before, json);
+        Assertions.assertTrue(json.startsWith("{\"externalId\":1,\"since\":100,\"token\":" + token + ",\"comments\":["),
+                json);
+        Assertions.assertFalse(json.contains("ingestedAt"), json);
+
+        // the comments from the token on are left for the next call
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).find(query.capture(), eq(Comment.class));
+        Document ingestedAt = (Document) query.getValue().getQueryObject().get("ingestedAt");
+        Assertions.assertEquals(new Date(100L), ingestedAt.get("$gte"));
+        Assertions.assertEquals(new Date(token), ingestedAt.get("$lt"));
+
+        // the token is never before the one passed
+        when(mongoTemplate.find(any(Query.class), eq(Comment.class))).thenReturn(Collections.emptyList());
+        long future = token + 60_000;
+        Assertions.assertEquals("{\"externalId\":1,\"since\":" + future + ",\"token\":" + future + ",\"comments\":[]}",
+                storyDeltaService.getStoryDeltaJson(1L, future));
+    }
+
+    @Test
+    public void testCommentsOfWritesInFlightAreNotReturned() {
+        Story story = new Story();
+        story.setExternalId(1L);
+        storyDeltaService.onStoriesPersisted(Collections.singletonList(story));
+        AtomicLong cutoffDuringWrite = new AtomicLong();
+        when(bulkOperations.execute()).thenAnswer(invocation -> {
+            cutoffDuringWrite.set(storyDeltaService.committedBefore());
+            return null;
+        });
+
+        storyDeltaService.onCommentsPersisted(Collections.singletonList(createComment(2L, 1L)));
+
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(bulkOperations).updateMulti(any(Query.class), update.capture());
+        Date ingestedAt = (Date) ((Document) update.getValue().getUpdateObject().get("$set")).get("ingestedAt");
+        // while the write is in flight, its comments are not returned (by the $lt of the query)
+        Assertions.assertEquals(ingestedAt.getTime(), cutoffDuringWrite.get());
+        // and once it is committed, they are
+        Assertions.assertTrue(storyDeltaService.committedBefore() >= ingestedAt.getTime());
+    }
+
+    @Test
+    public void testWaitingCommentsBeyondTheLimitAreCounted() {
+        when(mongoTemplate.findOne(any(Query.class), eq(Document.class), eq("comment"))).thenReturn(null);
+        when(mongoTemplate.exists(any(Query.class), eq(Story.class))).thenReturn(false);
+
+        for (long id = 2; id < 14; id++) {
+            storyDeltaService.onCommentsPersisted(Collections.singletonList(createComment(id, 1L)));
+        }
+
+        Assertions.assertEquals(10, storyDeltaService.getUnresolvedCount());
+        Assertions.assertEquals(2, storyDeltaService.getDroppedCount());
+    }
+
+    private static Comment createComment(Long externalId, Long parentExternalId) {
+        Comment comment = new Comment();
+        comment.setExternalId(externalId);
+        comment.setParentExternalId(parentExternalId);
+        return comment;
+    }
+}
@@ -0,0 +1,123 @@
+package consumer.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import consumer.repository.CommentTextCodec;
+
+public class StoryJsonWriterTest {
+
+    @Test
+    public void testWrite() {
+        StoryModel story = createStory(1L, Arrays.asList(2L, 3L));
+        story.setDate(null);
+        story.setChildren(new ArrayList<>(Arrays.asList(
+                createComment(3L, 1L, "Comment 2", null, 0),
+                createComment(2L, 1L, "Comment 1", Collections.singletonList(7L), 0),
+                createComment(7L, 2L, "Comment 3", null, 1))));
+
+        String expected = "{\"externalId\":1,\"by\":null,\"date\":null,\"score\":null,\"title\":\"Title 1\"," +
+                "\"url\":null,\"children\":[{\"externalId\":3,\"by\":null,\"parentExternalId\":1,\"date\":null," +
+                "\"text\":\"Comment 2\",\"children\":null},{\"externalId\":2,\"by\":null,\"parentExternalId\":1," +
+                "\"date\":null,\"text\":\"Comment 1\",\"children\":[{\"externalId\":7,\"by\":null,\"parentExternalId\"" +
+                ":2,\"date\":null,\"text\":\"Comment 3\",\"children\":null}]}]}";
+
+        Assertions.assertEquals(expected, new StoryJsonWriter(0).write(story));
+    }
+
+    @Test
+    public void testCompressedTextIsWrittenDecompressed() {
+        StoryModel story = createStory(1L, Collections.singletonList(2L));
+        CommentModel comment = createComment(2L, 1L, null, null, 0);
+        comment.setCompressedText(CommentTextCodec.compress("I don&#x27;t think so"));
+        story.setChildren(new ArrayList<>(Collections.singletonList(comment)));
+
+        String json = new StoryJsonWriter(0).write(story);
+        Assertions.assertTrue(json.contains("\"text\":\"I don&#x27;t think so\""), json);
+        Assertions.assertFalse(json.contains("compressedText"), json);
+    }
+
+    @Test
+    public void testParallelWriteIsSameAsSequential() {
+        String sequential = new StoryJsonWriter(Integer.MAX_VALUE).write(createLargeStory());
+        String parallel = new StoryJsonWriter(0).write(createLargeStory());
+
+        Assertions.assertEquals(sequential, parallel);
+    }
+
+    @Test
+    public void testStoryWithoutChildren() {
+        StoryModel story = createStory(1L, null);
+
+        Assertions.assertEquals(new StoryJsonWriter(Integer.MAX_VALUE).write(story),
+                new StoryJsonWriter(0).write(story));
+    }
+
+    // Story with a random tree of comments (with some of the comments missing), in "random" $graphLookup order
+    private StoryModel createLargeStory() {
+        Random random = new Random(42);
+        int count = 20000;
+        long storyId = 1;
+        List<List<Long>> kids = new ArrayList<>();
+        List<Long> parents = new ArrayList<>();
+        List<Integer> depths = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            kids.add(new ArrayList<>());
+        }
+        List<Long> storyKids = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            long id = i + 2;
+            if (i < 50 || random.nextInt(10) == 0) {
+                storyKids.add(id);
+                parents.add(storyId);
+                depths.add(0);
+            } else {
+                int parent = random.nextInt(i);
+                kids.get(parent).add(id);
+                parents.add((long) parent + 2);
+                depths.add(depths.get(parent) + 1);
+            }
+        }
+
+        List<CommentModel> children = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            if (random.nextInt(100) == 0) {
+                continue; // missing comment
+            }
+            children.add(createComment(i + 2L, parents.get(i), "Comment \"" + i + "\" é\n",
+                    kids.get(i).isEmpty() ? null : kids.get(i), depths.get(i)));
+        }
+        Collections.shuffle(children, random);
+
+        StoryModel story = createStory(storyId, storyKids);
+        story.setChildren(children);
+        return story;
+    }
+
+    private StoryModel createStory(Long externalId, List<Long> kids) {
+        StoryModel story = new StoryModel();
+        story.setExternalId(externalId);
+        story.setTitle("Title " + externalId);
+        story.setDate(new Date(1000L));
+        story.setKids(kids);
+        return story;
+    }
+
+    private CommentModel createComment(Long externalId, Long parentExternalId, String text, List<Long> kids,
+                                       int depth) {
+        CommentModel comment = new CommentModel();
+        comment.setExternalId(externalId);
+        comment.setParentExternalId(parentExternalId);
+        comment.setText(text);
+        comment.setKids(kids);
+        comment.setDepth(depth);
+        return comment;
+    }
+}
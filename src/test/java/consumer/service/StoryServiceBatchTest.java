@@ -0,0 +1,98 @@
+package consumer.service;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.AggregationResults;
+import org.springframework.data.mongodb.core.aggregation.TypedAggregation;
+
+import consumer.repository.CommentRepository;
+import consumer.repository.StoryRepository;
+
+/**
+ * Checks the number of DB round trips of {@link StoryService#getStoriesJsonWithRelatedData}, see
+ * {@link StoryServiceTest} for the json.
+ */
+public class StoryServiceBatchTest {
+
+    private StoryRepository storyRepository;
+    private CommentRepository commentRepository;
+    private MongoTemplate mongoTemplate;
+    private StoryService storyService;
+
+    @BeforeEach
+    public void init() {
+        storyRepository = Mockito.mock(StoryRepository.class);
+        commentRepository = Mockito.mock(CommentRepository.class);
+        mongoTemplate = Mockito.mock(MongoTemplate.class);
+        storyService = new StoryService(storyRepository, commentRepository, mongoTemplate, 10000, null, null, null,
+                null);
+    }
+
+    @Test
+    public void testStoriesAreFetchedByOneAggregation() {
+        when(mongoTemplate.aggregate(any(TypedAggregation.class), eq(StoryModel.class)))
+                .thenReturn(new AggregationResults<>(Arrays.asList(createStory(1L), createStory(4L)), new Document()));
+
+        Map<Long, String> jsonById = storyService.getStoriesJsonWithRelatedData(Arrays.asList(1L, 4L));
+
+        Assertions.assertTrue(jsonById.get(1L).contains("\"Title 1\""));
+        Assertions.assertTrue(jsonById.get(4L).contains("\"Title 4\""));
+        verify(mongoTemplate, times(1)).aggregate(any(TypedAggregation.class), eq(StoryModel.class));
+        verify(mongoTemplate, never()).aggregate(any(TypedAggregation.class), eq(CommentModel.class));
+        verify(storyRepository, never()).existsByExternalId(any());
+        verify(commentRepository, never()).existsByExternalId(any());
+    }
+
+    @Test
+    public void testStoriesOfCommentsAreFetchedAtOnce() {
+        // 1 is a story, 7 and 9 are comments of stories 1 and 4, 999 is absent
+        when(mongoTemplate.aggregate(any(TypedAggregation.class), eq(StoryModel.class)))
+                .thenReturn(new AggregationResults<>(Collections.singletonList(createStory(1L)), new Document()))
+                .thenReturn(new AggregationResults<>(Collections.singletonList(createStory(4L)), new Document()));
+        when(mongoTemplate.aggregate(any(TypedAggregation.class), eq(CommentModel.class)))
+                .thenReturn(new AggregationResults<>(Arrays.asList(createComment(7L, 2L, createComment(2L, 1L, null)),
+                        createComment(9L, 4L, null)), new Document()));
+
+        Map<Long, String> jsonById = storyService.getStoriesJsonWithRelatedData(Arrays.asList(7L, 1L, 999L, 9L));
+
+        Assertions.assertArrayEquals(new Long[] {7L, 1L, 999L, 9L}, jsonById.keySet().toArray());
+        Assertions.assertEquals(jsonById.get(1L), jsonById.get(7L));
+        Assertions.assertNull(jsonById.get(999L));
+        Assertions.assertTrue(jsonById.get(9L).contains("\"Title 4\""));
+        verify(mongoTemplate, times(2)).aggregate(any(TypedAggregation.class), eq(StoryModel.class));
+        verify(mongoTemplate, times(1)).aggregate(any(TypedAggregation.class), eq(CommentModel.class));
+    }
+
+    private static StoryModel createStory(Long externalId) {
+        StoryModel story = new StoryModel();
+        story.setExternalId(externalId);
+        story.setTitle("Title " + externalId);
+        return story;
+    }
+
+    private static CommentModel createComment(Long externalId, Long parentExternalId, CommentModel ancestor) {
+        CommentModel comment = new CommentModel();
+        comment.setExternalId(externalId);
+        comment.setParentExternalId(parentExternalId);
+        if (ancestor != null) {
+            ancestor.setDepth(0);
+            comment.setAncestors(Collections.singletonList(ancestor));
+        }
+        return comment;
+    }
+}
@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeAll;
@@ -109,6 +110,18 @@ public class StoryServiceTest {
         Assertions.assertEquals(expected, actual);
     }
 
+    @Test
+    public void testGetStoriesJsonWithRelatedData() {
+        Map<Long, String> actual = storyService.getStoriesJsonWithRelatedData(Arrays.asList(1L, 7L, 999L, 45L, 120L));
+
+        Assertions.assertEquals(Arrays.asList(1L, 7L, 999L, 45L, 120L), new ArrayList<>(actual.keySet()));
+        Assertions.assertEquals(storyService.getStoryJsonWithRelatedData(1L), actual.get(1L));
+        Assertions.assertEquals(actual.get(1L), actual.get(7L));
+        Assertions.assertNull(actual.get(999L));
+        Assertions.assertEquals(storyService.getStoryJsonWithRelatedData(21L), actual.get(45L));
+        Assertions.assertNull(actual.get(120L));
+    }
+
     private Story createStory(Long externalId, String title, List<Long> kids) {
         Story story = new Story();
         story.setExternalId(externalId);
@@ -131,7 +144,8 @@ public class StoryServiceTest {
         @Bean
         public StoryService storyService(StoryRepository storyRepository,
                                          CommentRepository commentRepository, MongoTemplate mongoTemplate) {
-            return new StoryService(storyRepository, commentRepository, mongoTemplate);
+            return new StoryService(storyRepository, commentRepository, mongoTemplate, 10000, null, null,
+                    null, null);
         }
     }
 }
@@ -0,0 +1,62 @@
+package consumer.service;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import consumer.model.Comment;
+import consumer.model.Story;
+
+public class ThreadResolverTest {
+
+    @Test
+    public void testDeepThreadIsResolved() {
+        MongoTemplate mongoTemplate = Mockito.mock(MongoTemplate.class);
+        when(mongoTemplate.getCollectionName(Comment.class)).thenReturn("comment");
+        // comment 2 is persisted already, in reply to story 1
+        when(mongoTemplate.findOne(any(Query.class), eq(Document.class), eq("comment"))).thenAnswer(invocation -> {
+            Document queried = ((Query) invocation.getArgument(0)).getQueryObject();
+            return queried.get("externalId").equals(2L) ? new Document("parentExternalId", 1L) : null;
+        });
+        when(mongoTemplate.exists(any(Query.class), eq(Story.class))).thenReturn(true);
+        ThreadResolver resolver = new ThreadResolver(mongoTemplate, 100000);
+
+        // the replies to comment 2 are in the batch, each in reply to the previous one
+        int depth = 9000;
+        Map<Long, Comment> batchById = new HashMap<>();
+        for (long id = 3; id < depth + 2; id++) {
+            Comment comment = new Comment();
+            comment.setExternalId(id);
+            comment.setParentExternalId(id - 1);
+            batchById.put(id, comment);
+        }
+
+        ThreadResolver.Node node = resolver.resolve((long) depth + 1, (long) depth, batchById);
+        Assertions.assertEquals(1L, node.getStory());
+        Assertions.assertEquals(depth, node.getDepth());
+        // the ancestors are resolved on the way
+        Assertions.assertTrue(resolver.isKnown(1L));
+        Assertions.assertTrue(resolver.isKnown(2L));
+        Assertions.assertEquals(depth / 2, resolver.resolve((long) depth / 2 + 1, null, batchById).getDepth());
+    }
+
+    @Test
+    public void testCommentOfMissingParentIsNotResolved() {
+        MongoTemplate mongoTemplate = Mockito.mock(MongoTemplate.class);
+        when(mongoTemplate.getCollectionName(Comment.class)).thenReturn("comment");
+        ThreadResolver resolver = new ThreadResolver(mongoTemplate, 100);
+
+        Assertions.assertNull(resolver.resolve(3L, 2L, new HashMap<>()));
+        Assertions.assertFalse(resolver.isKnown(3L));
+    }
+}
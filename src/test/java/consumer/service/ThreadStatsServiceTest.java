@@ -0,0 +1,148 @@
+package consumer.service;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import consumer.model.Comment;
+import consumer.model.Story;
+import consumer.model.ThreadStats;
+import consumer.repository.ThreadStatsRepository;
+import consumer.repository.TimePartitions;
+
+public class ThreadStatsServiceTest {
+
+    private MongoTemplate mongoTemplate;
+    private BulkOperations bulkOperations;
+    private ThreadStatsRepository threadStatsRepository;
+    private ThreadStatsService threadStatsService;
+
+    @BeforeEach
+    public void init() {
+        mongoTemplate = Mockito.mock(MongoTemplate.class);
+        bulkOperations = Mockito.mock(BulkOperations.class);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ThreadStats.class)).thenReturn(bulkOperations);
+        when(mongoTemplate.getCollectionName(Comment.class)).thenReturn("comment");
+        threadStatsRepository = Mockito.mock(ThreadStatsRepository.class);
+        threadStatsService = new ThreadStatsService(mongoTemplate, threadStatsRepository, 100, 10, null);
+    }
+
+    @Test
+    public void testStatsAreUpdatedPerStory() {
+        Story story = new Story();
+        story.setExternalId(1L);
+        threadStatsService.onStoriesPersisted(Collections.singletonList(story));
+
+        // the reply comes before its parent within the batch
+        threadStatsService.onCommentsPersisted(Arrays.asList(
+                createComment(3L, 2L, "bob", 300L),
+                createComment(2L, 1L, "alice", 200L),
+                createComment(4L, 1L, "alice", 100L)));
+
+        Document update = captureUpdate(1L).getUpdateObject();
+        Assertions.assertEquals(3L, ((Document) update.get("$inc")).get("commentCount"));
+        Assertions.assertEquals(2, ((Document) update.get("$max")).get("maxDepth"));
+        Assertions.assertEquals(new Date(300L), ((Document) update.get("$max")).get("lastActivity"));
+        Object[] participants = (Object[]) ((Update.Modifier) ((Document) update.get("$addToSet"))
+                .get("participants")).getValue();
+        Assertions.assertEquals(2, participants.length);
+        // the story is known, so there is no need to look it up
+        verify(mongoTemplate, never()).findOne(any(Query.class), eq(Document.class), eq("comment"));
+    }
+
+    @Test
+    public void testMostActiveAreListedByLastActivity() {
+        ThreadStats stats = new ThreadStats();
+        stats.setStoryExternalId(1L);
+        when(threadStatsRepository.findAllByOrderByLastActivityDescCommentCountDesc(PageRequest.of(0, 5)))
+                .thenReturn(Collections.singletonList(stats));
+
+        Assertions.assertEquals(Collections.singletonList(stats), threadStatsService.getMostActive(5));
+    }
+
+    @Test
+    public void testParentsAreLookedUpAndUnresolvedCommentsAreRetried() {
+        when(mongoTemplate.findOne(any(Query.class), eq(Document.class), eq("comment"))).thenReturn(null);
+        when(mongoTemplate.exists(any(Query.class), eq(Story.class))).thenReturn(false);
+
+        // the parent is not persisted yet
+        threadStatsService.onCommentsPersisted(Collections.singletonList(createComment(3L, 2L, "bob", 300L)));
+        verify(bulkOperations, never()).execute();
+        Assertions.assertEquals(1, threadStatsService.getUnresolvedCount());
+
+        // the parent is persisted along with its story
+        when(mongoTemplate.exists(any(Query.class), eq(Story.class))).thenReturn(true);
+        threadStatsService.onCommentsPersisted(Collections.singletonList(createComment(2L, 1L, "alice", 200L)));
+
+        Document update = captureUpdate(1L).getUpdateObject();
+        Assertions.assertEquals(2L, ((Document) update.get("$inc")).get("commentCount"));
+        Assertions.assertEquals(2, ((Document) update.get("$max")).get("maxDepth"));
+        Assertions.assertEquals(0, threadStatsService.getUnresolvedCount());
+
+        // a comment received again is not counted twice
+        Mockito.clearInvocations(bulkOperations);
+        threadStatsService.onCommentsPersisted(Collections.singletonList(createComment(2L, 1L, "alice", 200L)));
+        verify(bulkOperations, never()).execute();
+    }
+
+    @Test
+    public void testParentsAreLookedUpInPartitions() {
+        TimePartitions timePartitions = Mockito.mock(TimePartitions.class);
+        when(timePartitions.collectionsOf(Comment.class, 2L)).thenReturn(Arrays.asList("comment_202405", "comment"));
+        when(timePartitions.collectionsOf(Story.class, 1L)).thenReturn(Collections.singletonList("story_202405"));
+        when(mongoTemplate.findOne(any(Query.class), eq(Document.class), eq("comment_202405")))
+                .thenAnswer(invocation -> ((Query) invocation.getArgument(0)).getQueryObject().get("externalId")
+                        .equals(2L) ? new Document("parentExternalId", 1L) : null);
+        when(mongoTemplate.exists(any(Query.class), eq("story_202405"))).thenReturn(true);
+        threadStatsService = new ThreadStatsService(mongoTemplate, Mockito.mock(ThreadStatsRepository.class), 100, 10,
+                timePartitions);
+
+        // the parent is persisted (to its partition) in an earlier batch
+        threadStatsService.onCommentsPersisted(Collections.singletonList(createComment(3L, 2L, "bob", 300L)));
+
+        Document update = captureUpdate(1L).getUpdateObject();
+        Assertions.assertEquals(1L, ((Document) update.get("$inc")).get("commentCount"));
+        Assertions.assertEquals(2, ((Document) update.get("$max")).get("maxDepth"));
+        Assertions.assertEquals(0, threadStatsService.getUnresolvedCount());
+        // the base collections are not looked in
+        verify(mongoTemplate, never()).findOne(any(Query.class), eq(Document.class), eq("comment"));
+        verify(mongoTemplate, never()).exists(any(Query.class), eq(Story.class));
+    }
+
+    private Update captureUpdate(long storyExternalId) {
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+        verify(bulkOperations, times(1)).upsert(query.capture(), update.capture());
+        verify(bulkOperations).execute();
+        Assertions.assertEquals(storyExternalId, query.getValue().getQueryObject().get("_id"));
+        return update.getValue();
+    }
+
+    private static Comment createComment(Long externalId, Long parentExternalId, String by, long time) {
+        Comment comment = new Comment();
+        comment.setExternalId(externalId);
+        comment.setParentExternalId(parentExternalId);
+        comment.setBy(by);
+        comment.setDate(new Date(time));
+        return comment;
+    }
+}
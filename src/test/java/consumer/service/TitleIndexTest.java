@@ -0,0 +1,94 @@
+package consumer.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class TitleIndexTest {
+
+    @Test
+    public void testStoriesAreFoundByTitlePrefix() {
+        TitleIndex index = new TitleIndex(2);
+        index.update(1L, "Show HN: A compiler in Rust", 10);
+        index.update(2L, "Show HN: my weekend project", 30);
+        index.update(3L, "Showdown at the FCC", 20);
+        index.update(4L, "Ask HN: What are you working on?", 40);
+        index.update(5L, "show hn - Another one", 5);
+
+        Assertions.assertEquals(Arrays.asList(2L, 3L, 1L, 5L), ids(index.top("show", 10)));
+        Assertions.assertEquals(Arrays.asList(2L, 3L), ids(index.top("SHOW", 2)));
+        // the separators are normalized, and a trailing one only matches whole words
+        Assertions.assertEquals(Arrays.asList(2L, 1L, 5L), ids(index.top("show hn:", 10)));
+        Assertions.assertEquals(Arrays.asList(2L, 1L), ids(index.top("Show  HN", 2)));
+        Assertions.assertEquals(Collections.singletonList(1L), ids(index.top("show hn a c", 10)));
+        Assertions.assertEquals("Show HN: A compiler in Rust", index.top("show hn a", 1).get(0).getTitle());
+        Assertions.assertTrue(index.top("tell hn", 10).isEmpty());
+        Assertions.assertEquals(5, index.top("", 10).size());
+
+        // the score and the title of the story are updated
+        index.update(1L, "Show HN: A compiler in Rust", 100);
+        index.update(2L, "Launch HN: my weekend project", 30);
+        Assertions.assertEquals(Arrays.asList(1L, 3L, 5L), ids(index.top("show", 10)));
+        Assertions.assertEquals(Collections.singletonList(2L), ids(index.top("launch", 10)));
+
+        index.remove(3L);
+        Assertions.assertEquals(Arrays.asList(1L, 5L), ids(index.top("show", 10)));
+        Assertions.assertEquals(4, index.size());
+    }
+
+    @Test
+    public void testTopStoriesMatchScan() {
+        Random random = new Random(42);
+        String[] words = {"a", "ab", "abc", "b", "ba", "show", "shows", "hn"};
+        TitleIndex index = new TitleIndex(3);
+        Map<Long, String> titles = new HashMap<>();
+        Map<Long, Long> scores = new HashMap<>();
+        for (int i = 0; i < 5000; i++) {
+            long id = random.nextInt(300);
+            if (random.nextInt(5) == 0) {
+                index.remove(id);
+                titles.remove(id);
+                scores.remove(id);
+                continue;
+            }
+            StringBuilder title = new StringBuilder();
+            for (int w = random.nextInt(3); w >= 0; w--) {
+                title.append(words[random.nextInt(words.length)]).append(random.nextBoolean() ? " " : ": ");
+            }
+            long score = random.nextInt(50);
+            index.update(id, title.toString(), score);
+            titles.put(id, title.toString());
+            scores.put(id, score);
+
+            String prefix = TitleIndex.normalize(titles.get((long) random.nextInt(300)), false);
+            prefix = prefix.substring(0, random.nextInt(prefix.length() + 1));
+            int n = 1 + random.nextInt(5);
+            Assertions.assertEquals(scan(titles, scores, prefix, n), ids(index.top(prefix, n)), prefix);
+        }
+        Assertions.assertEquals(titles.size(), index.size());
+    }
+
+    private static List<Long> scan(Map<Long, String> titles, Map<Long, Long> scores, String prefix, int n) {
+        List<Long> ids = new ArrayList<>();
+        for (Map.Entry<Long, String> entry : titles.entrySet()) {
+            if (TitleIndex.normalize(entry.getValue(), true).startsWith(prefix)) {
+                ids.add(entry.getKey());
+            }
+        }
+        ids.sort(Comparator.<Long>comparingLong(scores::get).reversed().thenComparing(Comparator.naturalOrder()));
+        return ids.size() > n ? ids.subList(0, n) : ids;
+    }
+
+    private static List<Long> ids(List<TitleIndex.Entry> entries) {
+        return entries.stream().map(TitleIndex.Entry::getExternalId).collect(Collectors.toList());
+    }
+}